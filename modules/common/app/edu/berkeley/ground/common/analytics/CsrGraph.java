@@ -0,0 +1,220 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.analytics;
+
+import edu.berkeley.ground.common.model.core.EdgeDirection;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable directed graph in compressed sparse row form. Vertices are numbered from 0 in the
+ * order of their ids; the neighbors of vertex v are targets[offsets[v]] to targets[offsets[v + 1]
+ * - 1], and the incoming edges are stored the same way. Everything is kept in primitive arrays,
+ * so a graph takes a few dozen bytes per edge.
+ */
+public final class CsrGraph {
+
+  // the id of each vertex, in ascending order
+  private final long[] vertexIds;
+
+  private final int[] outOffsets;
+  private final int[] outTargets;
+  private final long[] outEdgeIds;
+
+  private final int[] inOffsets;
+  private final int[] inTargets;
+  private final long[] inEdgeIds;
+
+  private CsrGraph(long[] vertexIds, int[] outOffsets, int[] outTargets, long[] outEdgeIds, int[] inOffsets, int[] inTargets, long[] inEdgeIds) {
+    this.vertexIds = vertexIds;
+    this.outOffsets = outOffsets;
+    this.outTargets = outTargets;
+    this.outEdgeIds = outEdgeIds;
+    this.inOffsets = inOffsets;
+    this.inTargets = inTargets;
+    this.inEdgeIds = inEdgeIds;
+  }
+
+  /**
+   * Build a graph from its edges. The vertices are the endpoints of the edges.
+   *
+   * @param edgeIds the id of each edge
+   * @param fromIds the id of the vertex each edge starts from
+   * @param toIds the id of the vertex each edge goes to
+   * @return the graph
+   */
+  public static CsrGraph of(long[] edgeIds, long[] fromIds, long[] toIds) {
+    if (edgeIds.length != fromIds.length || edgeIds.length != toIds.length) {
+      throw new IllegalArgumentException("Every edge needs one id and two endpoints.");
+    }
+
+    long[] endpoints = new long[edgeIds.length * 2];
+    System.arraycopy(fromIds, 0, endpoints, 0, fromIds.length);
+    System.arraycopy(toIds, 0, endpoints, fromIds.length, toIds.length);
+    Arrays.parallelSort(endpoints);
+
+    int count = 0;
+    for (int i = 0; i < endpoints.length; i++) {
+      if (i == 0 || endpoints[i] != endpoints[i - 1]) {
+        endpoints[count++] = endpoints[i];
+      }
+    }
+
+    long[] vertexIds = Arrays.copyOf(endpoints, count);
+    int[] from = new int[edgeIds.length];
+    int[] to = new int[edgeIds.length];
+
+    for (int i = 0; i < edgeIds.length; i++) {
+      from[i] = Arrays.binarySearch(vertexIds, fromIds[i]);
+      to[i] = Arrays.binarySearch(vertexIds, toIds[i]);
+    }
+
+    int[] outOffsets = new int[count + 1];
+    int[] outTargets = new int[edgeIds.length];
+    long[] outEdgeIds = new long[edgeIds.length];
+    fill(from, to, edgeIds, outOffsets, outTargets, outEdgeIds);
+
+    int[] inOffsets = new int[count + 1];
+    int[] inTargets = new int[edgeIds.length];
+    long[] inEdgeIds = new long[edgeIds.length];
+    fill(to, from, edgeIds, inOffsets, inTargets, inEdgeIds);
+
+    return new CsrGraph(vertexIds, outOffsets, outTargets, outEdgeIds, inOffsets, inTargets, inEdgeIds);
+  }
+
+  // a counting sort of the edges by source
+  private static void fill(int[] sources, int[] targets, long[] edgeIds, int[] offsets, int[] sortedTargets, long[] sortedEdgeIds) {
+    for (int source : sources) {
+      offsets[source + 1]++;
+    }
+
+    for (int v = 1; v < offsets.length; v++) {
+      offsets[v] += offsets[v - 1];
+    }
+
+    int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+    for (int i = 0; i < sources.length; i++) {
+      int position = next[sources[i]]++;
+      sortedTargets[position] = targets[i];
+      sortedEdgeIds[position] = edgeIds[i];
+    }
+  }
+
+  public int getVertexCount() {
+    return this.vertexIds.length;
+  }
+
+  public int getEdgeCount() {
+    return this.outTargets.length;
+  }
+
+  public long getVertexId(int vertex) {
+    return this.vertexIds[vertex];
+  }
+
+  /**
+   * Find the number of a vertex.
+   *
+   * @param vertexId the id of the vertex
+   * @return the number of the vertex, or -1 if it is not in the graph
+   */
+  public int indexOf(long vertexId) {
+    int index = Arrays.binarySearch(this.vertexIds, vertexId);
+    return index < 0 ? -1 : index;
+  }
+
+  public int getOutDegree(int vertex) {
+    return this.outOffsets[vertex + 1] - this.outOffsets[vertex];
+  }
+
+  public int getInDegree(int vertex) {
+    return this.inOffsets[vertex + 1] - this.inOffsets[vertex];
+  }
+
+  /**
+   * Return the number of edges of a vertex in a direction. Self loops count once in each
+   * direction.
+   *
+   * @param vertex the number of the vertex
+   * @param direction the edges to count
+   * @return the degree
+   */
+  public int getDegree(int vertex, EdgeDirection direction) {
+    switch (direction) {
+      case OUT:
+        return this.getOutDegree(vertex);
+      case IN:
+        return this.getInDegree(vertex);
+      default:
+        return this.getOutDegree(vertex) + this.getInDegree(vertex);
+    }
+  }
+
+  /**
+   * Call a function on every neighbor of a vertex in a direction. A neighbor linked by several
+   * edges is visited once per edge.
+   *
+   * @param vertex the number of the vertex
+   * @param direction the edges to follow
+   * @param consumer receives the number of each neighbor
+   */
+  public void forEachNeighbor(int vertex, EdgeDirection direction, IntConsumer consumer) {
+    if (direction != EdgeDirection.IN) {
+      for (int i = this.outOffsets[vertex]; i < this.outOffsets[vertex + 1]; i++) {
+        consumer.accept(this.outTargets[i]);
+      }
+    }
+
+    if (direction != EdgeDirection.OUT) {
+      for (int i = this.inOffsets[vertex]; i < this.inOffsets[vertex + 1]; i++) {
+        consumer.accept(this.inTargets[i]);
+      }
+    }
+  }
+
+  /**
+   * Find an edge from one vertex to another.
+   *
+   * @param from the number of the vertex the edge starts from
+   * @param to the number of the vertex the edge goes to
+   * @return the id of the edge with the smallest id, or -1 if there is none
+   */
+  public long getEdgeId(int from, int to) {
+    long edgeId = -1;
+
+    for (int i = this.outOffsets[from]; i < this.outOffsets[from + 1]; i++) {
+      if (this.outTargets[i] == to && (edgeId == -1 || this.outEdgeIds[i] < edgeId)) {
+        edgeId = this.outEdgeIds[i];
+      }
+    }
+
+    return edgeId;
+  }
+
+  /**
+   * Find an edge between two vertices in either direction.
+   *
+   * @param first the number of one vertex
+   * @param second the number of the other vertex
+   * @param direction OUT for edges from first to second, IN for edges from second to first, or
+   *     BOTH for either one
+   * @return the id of an edge, or -1 if there is none
+   */
+  public long getEdgeId(int first, int second, EdgeDirection direction) {
+    long edgeId = direction == EdgeDirection.IN ? -1 : this.getEdgeId(first, second);
+    if (edgeId == -1 && direction != EdgeDirection.OUT) {
+      edgeId = this.getEdgeId(second, first);
+    }
+
+    return edgeId;
+  }
+}
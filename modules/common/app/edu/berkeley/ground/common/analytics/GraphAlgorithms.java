@@ -0,0 +1,473 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.analytics;
+
+import edu.berkeley.ground.common.model.core.EdgeDirection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Graph algorithms over a CsrGraph, run in parallel on a fork-join pool. Vertices are referred to
+ * by their numbers in the graph.
+ */
+public final class GraphAlgorithms {
+
+  private final ForkJoinPool pool;
+
+  public GraphAlgorithms(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Compute the number of hops from a vertex to every vertex within a maximum number of hops. Each
+   * level of the breadth-first search is expanded in parallel.
+   *
+   * @param graph the graph
+   * @param source the vertex to start from
+   * @param direction the edges to follow
+   * @param maxHops the maximum number of hops
+   * @return the number of hops to each vertex, or -1 for the vertices out of reach
+   */
+  public int[] distances(CsrGraph graph, int source, EdgeDirection direction, int maxHops) {
+    return this.search(graph, new int[] {source}, direction, maxHops, -1, null);
+  }
+
+  /**
+   * Find every vertex that can be reached from any of a set of vertices.
+   *
+   * @param graph the graph
+   * @param sources the vertices to start from
+   * @param direction the edges to follow
+   * @return the vertices reached, including the sources, in ascending order
+   */
+  public int[] reachable(CsrGraph graph, int[] sources, EdgeDirection direction) {
+    int[] distances = this.search(graph, sources, direction, Integer.MAX_VALUE, -1, null);
+    return IntStream.range(0, distances.length).filter(vertex -> distances[vertex] >= 0).toArray();
+  }
+
+  /**
+   * Find a path with the fewest hops between two vertices.
+   *
+   * @param graph the graph
+   * @param from the vertex to start from
+   * @param to the vertex to reach
+   * @param direction the edges to follow
+   * @return the vertices of the path, from first to last, or an empty array if there is none
+   */
+  public int[] shortestPath(CsrGraph graph, int from, int to, EdgeDirection direction) {
+    int[] parents = new int[graph.getVertexCount()];
+    int[] distances = this.search(graph, new int[] {from}, direction, Integer.MAX_VALUE, to, parents);
+
+    if (distances[to] < 0) {
+      return new int[0];
+    }
+
+    int[] path = new int[distances[to] + 1];
+    for (int i = path.length - 1, vertex = to; i >= 0; i--, vertex = parents[vertex]) {
+      path[i] = vertex;
+    }
+
+    return path;
+  }
+
+  private int[] search(CsrGraph graph, int[] sources, EdgeDirection direction, int maxHops, int target, int[] parents) {
+    AtomicIntegerArray distances = new AtomicIntegerArray(graph.getVertexCount());
+    for (int vertex = 0; vertex < graph.getVertexCount(); vertex++) {
+      distances.set(vertex, -1);
+    }
+
+    for (int source : sources) {
+      distances.set(source, 0);
+    }
+
+    int[] frontier = IntStream.of(sources).distinct().toArray();
+
+    for (int hops = 1; hops <= maxHops && frontier.length > 0 && (target < 0 || distances.get(target) < 0); hops++) {
+      int level = hops;
+      int[] current = frontier;
+
+      // each vertex of the next level is claimed by exactly one of the vertices reaching it
+      frontier = this.pool.submit(() -> Arrays.stream(current).parallel().flatMap(vertex -> {
+        IntStream.Builder next = IntStream.builder();
+        graph.forEachNeighbor(vertex, direction, neighbor -> {
+          if (distances.compareAndSet(neighbor, -1, level)) {
+            if (parents != null) {
+              parents[neighbor] = vertex;
+            }
+
+            next.add(neighbor);
+          }
+        });
+
+        return next.build();
+      }).toArray()).join();
+    }
+
+    int[] result = new int[graph.getVertexCount()];
+    for (int vertex = 0; vertex < result.length; vertex++) {
+      result[vertex] = distances.get(vertex);
+    }
+
+    return result;
+  }
+
+  /**
+   * Find the weakly connected components of a graph, with a lock-free union-find over the edges.
+   *
+   * @param graph the graph
+   * @return for each vertex, the smallest vertex of its component
+   */
+  public int[] components(CsrGraph graph) {
+    AtomicIntegerArray parents = new AtomicIntegerArray(graph.getVertexCount());
+    for (int vertex = 0; vertex < graph.getVertexCount(); vertex++) {
+      parents.set(vertex, vertex);
+    }
+
+    this.pool.submit(() -> IntStream.range(0, graph.getVertexCount()).parallel().forEach(
+      vertex -> graph.forEachNeighbor(vertex, EdgeDirection.OUT, neighbor -> union(parents, vertex, neighbor)))).join();
+
+    return this.pool.submit(() -> IntStream.range(0, graph.getVertexCount()).parallel().map(vertex -> find(parents, vertex)).toArray()).join();
+  }
+
+  // roots are only ever linked under smaller roots, so the root of a component is its smallest vertex
+  private static void union(AtomicIntegerArray parents, int first, int second) {
+    while (true) {
+      int firstRoot = find(parents, first);
+      int secondRoot = find(parents, second);
+
+      if (firstRoot == secondRoot) {
+        return;
+      }
+
+      int larger = Math.max(firstRoot, secondRoot);
+      if (parents.compareAndSet(larger, larger, Math.min(firstRoot, secondRoot))) {
+        return;
+      }
+    }
+  }
+
+  private static int find(AtomicIntegerArray parents, int vertex) {
+    while (true) {
+      int parent = parents.get(vertex);
+      if (parent == vertex) {
+        return vertex;
+      }
+
+      // path halving: skip a level, which only ever moves a vertex closer to its root
+      int grandparent = parents.get(parent);
+      if (parent != grandparent) {
+        parents.compareAndSet(vertex, parent, grandparent);
+      }
+
+      vertex = grandparent;
+    }
+  }
+
+  /**
+   * Count the vertices that can be reached from each of a set of vertices, not counting the vertex
+   * itself. The searches from different vertices run in parallel, each thread reusing its own
+   * scratch arrays.
+   *
+   * @param graph the graph
+   * @param vertices the vertices to count from
+   * @param direction the edges to follow
+   * @return the number of vertices reachable from each of the given vertices, in the same order
+   */
+  public int[] reachCounts(CsrGraph graph, int[] vertices, EdgeDirection direction) {
+    ThreadLocal<SearchScratch> scratch = ThreadLocal.withInitial(() -> new SearchScratch(graph.getVertexCount()));
+
+    return this.pool.submit(() -> Arrays.stream(vertices).parallel().map(vertex -> scratch.get().count(graph, vertex, direction))
+                                    .toArray()).join();
+  }
+
+  private static class SearchScratch {
+
+    // a vertex has been visited by the current search if its mark is the current search's number
+    private final int[] marks;
+    private final int[] queue;
+    private int search;
+
+    SearchScratch(int vertexCount) {
+      this.marks = new int[vertexCount];
+      this.queue = new int[vertexCount];
+    }
+
+    int count(CsrGraph graph, int source, EdgeDirection direction) {
+      int mark = ++this.search;
+      this.marks[source] = mark;
+      this.queue[0] = source;
+
+      int[] tail = {1};
+      for (int head = 0; head < tail[0]; head++) {
+        graph.forEachNeighbor(this.queue[head], direction, neighbor -> {
+          if (this.marks[neighbor] != mark) {
+            this.marks[neighbor] = mark;
+            this.queue[tail[0]++] = neighbor;
+          }
+        });
+      }
+
+      return tail[0] - 1;
+    }
+  }
+
+  /**
+   * Compute the PageRank of every vertex by power iteration. Each iteration gathers the rank
+   * flowing into every vertex in parallel; the rank of vertices without outgoing edges is spread
+   * over all vertices.
+   *
+   * @param graph the graph
+   * @param damping the probability of following an edge rather than jumping to a random vertex
+   * @param tolerance stop once the ranks change by less than this in total
+   * @param maxIterations stop after this many iterations
+   * @param initial the ranks to start from, such as the result of an earlier computation, or null
+   *     to start from the uniform distribution; they are normalized to add up to 1
+   * @return the rank of each vertex; the ranks add up to 1
+   */
+  public double[] pageRank(CsrGraph graph, double damping, double tolerance, int maxIterations, double[] initial) {
+    int vertexCount = graph.getVertexCount();
+    if (vertexCount == 0) {
+      return new double[0];
+    }
+
+    double[] ranks = new double[vertexCount];
+    double total = initial == null ? 0 : Arrays.stream(initial).sum();
+
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      ranks[vertex] = total > 0 ? initial[vertex] / total : 1.0 / vertexCount;
+    }
+
+    for (int iteration = 0; iteration < maxIterations; iteration++) {
+      double[] current = ranks;
+      double dangling = this.pool.submit(() -> IntStream.range(0, vertexCount).parallel().filter(vertex -> graph.getOutDegree(vertex) == 0)
+                                                 .mapToDouble(vertex -> current[vertex]).sum()).join();
+      double base = (1 - damping) / vertexCount + damping * dangling / vertexCount;
+
+      ranks = this.pool.submit(() -> IntStream.range(0, vertexCount).parallel().mapToDouble(vertex -> {
+        double[] incoming = {0};
+        graph.forEachNeighbor(vertex, EdgeDirection.IN, source -> incoming[0] += current[source] / graph.getOutDegree(source));
+        return base + damping * incoming[0];
+      }).toArray()).join();
+
+      double[] next = ranks;
+      double change = this.pool.submit(() -> IntStream.range(0, vertexCount).parallel().mapToDouble(vertex -> Math.abs(next[vertex] - current[vertex]))
+                                               .sum()).join();
+      if (change < tolerance) {
+        break;
+      }
+    }
+
+    return ranks;
+  }
+
+  /**
+   * Assign every vertex of a directed acyclic graph a level, so that every edge goes from a lower
+   * level to a higher one; listing the vertices level by level gives a topological order.
+   *
+   * <p>Given the levels of an earlier version of the graph, only the vertices downstream of an edge
+   * that goes against them are relayered, each to one more than the largest level of the vertices
+   * pointing to it; the other vertices keep their levels. Without earlier levels, every vertex is
+   * placed one level after its longest path from a vertex without incoming edges.
+   *
+   * @param graph the graph
+   * @param initial the earlier level of each vertex, 0 for vertices that are new, or null
+   * @return the level of each vertex, numbered densely from 0, or null if the graph has a cycle
+   */
+  public int[] levels(CsrGraph graph, int[] initial) {
+    int vertexCount = graph.getVertexCount();
+    int[] levels = initial == null ? new int[vertexCount] : initial.clone();
+
+    // any cycle contains an edge that goes against the earlier levels, so it is relayered below
+    int[] affected;
+    if (initial == null) {
+      affected = IntStream.range(0, vertexCount).toArray();
+    } else {
+      int[] seeds = this.pool.submit(() -> IntStream.range(0, vertexCount).parallel().flatMap(vertex -> {
+        IntStream.Builder violated = IntStream.builder();
+        graph.forEachNeighbor(vertex, EdgeDirection.OUT, neighbor -> {
+          if (levels[vertex] >= levels[neighbor]) {
+            violated.add(neighbor);
+          }
+        });
+
+        return violated.build();
+      }).distinct().toArray()).join();
+
+      affected = seeds.length == 0 ? seeds : this.reachable(graph, seeds, EdgeDirection.OUT);
+    }
+
+    boolean[] isAffected = new boolean[vertexCount];
+    for (int vertex : affected) {
+      isAffected[vertex] = true;
+    }
+
+    // Kahn's algorithm over the affected vertices, starting each one past its unaffected inputs
+    int[] inDegrees = new int[vertexCount];
+    for (int vertex : affected) {
+      int[] inputs = {0};
+      int[] start = {0};
+      graph.forEachNeighbor(vertex, EdgeDirection.IN, source -> {
+        if (isAffected[source]) {
+          inputs[0]++;
+        } else {
+          start[0] = Math.max(start[0], levels[source] + 1);
+        }
+      });
+
+      inDegrees[vertex] = inputs[0];
+      levels[vertex] = start[0];
+    }
+
+    int[] queue = new int[affected.length];
+    int tail = 0;
+    for (int vertex : affected) {
+      if (inDegrees[vertex] == 0) {
+        queue[tail++] = vertex;
+      }
+    }
+
+    for (int head = 0; head < tail; head++) {
+      int vertex = queue[head];
+      int[] next = {tail};
+
+      graph.forEachNeighbor(vertex, EdgeDirection.OUT, neighbor -> {
+        levels[neighbor] = Math.max(levels[neighbor], levels[vertex] + 1);
+        if (--inDegrees[neighbor] == 0) {
+          queue[next[0]++] = neighbor;
+        }
+      });
+
+      tail = next[0];
+    }
+
+    // the affected vertices on or after a cycle never run out of inputs
+    if (tail < affected.length) {
+      return null;
+    }
+
+    // renumber the levels densely, since removed vertices can leave gaps
+    int[] used = IntStream.of(levels).distinct().sorted().toArray();
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      levels[vertex] = Arrays.binarySearch(used, levels[vertex]);
+    }
+
+    return levels;
+  }
+
+  /**
+   * Compute the degree of every vertex.
+   *
+   * @param graph the graph
+   * @param direction the edges to count
+   * @return the degree of each vertex
+   */
+  public int[] degrees(CsrGraph graph, EdgeDirection direction) {
+    return this.pool.submit(() -> IntStream.range(0, graph.getVertexCount()).parallel().map(vertex -> graph.getDegree(vertex, direction))
+                                    .toArray()).join();
+  }
+
+  /**
+   * Compute the betweenness centrality of every vertex with Brandes' algorithm, running the
+   * searches from different sources in parallel. With BOTH, the graph is treated as undirected.
+   *
+   * @param graph the graph
+   * @param direction the edges to follow
+   * @param samples the number of sources to search from, spread evenly over the vertices, with the
+   *     result scaled up accordingly; 0 or at least the number of vertices for the exact result
+   * @return the betweenness of each vertex
+   */
+  public double[] betweenness(CsrGraph graph, EdgeDirection direction, int samples) {
+    int vertexCount = graph.getVertexCount();
+    int sourceCount = samples <= 0 || samples >= vertexCount ? vertexCount : samples;
+    int[] sources = IntStream.range(0, sourceCount).map(i -> (int) ((long) i * vertexCount / sourceCount)).toArray();
+
+    double[] centrality = this.pool.submit(() -> Arrays.stream(sources).parallel().collect(
+      () -> new double[vertexCount],
+      (sums, source) -> accumulateDependencies(graph, direction, source, sums),
+      (sums, other) -> {
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+          sums[vertex] += other[vertex];
+        }
+      })).join();
+
+    // every path is found from both of its ends in an undirected graph
+    double scale = (double) vertexCount / Math.max(1, sourceCount) * (direction == EdgeDirection.BOTH ? 0.5 : 1.0);
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      centrality[vertex] *= scale;
+    }
+
+    return centrality;
+  }
+
+  private static void accumulateDependencies(CsrGraph graph, EdgeDirection direction, int source, double[] sums) {
+    int vertexCount = graph.getVertexCount();
+    int[] order = new int[vertexCount];
+    int[] distances = new int[vertexCount];
+    double[] paths = new double[vertexCount];
+    double[] dependencies = new double[vertexCount];
+
+    Arrays.fill(distances, -1);
+    distances[source] = 0;
+    paths[source] = 1;
+    order[0] = source;
+
+    int visited = 1;
+    for (int head = 0; head < visited; head++) {
+      int vertex = order[head];
+      int[] tail = {visited};
+
+      graph.forEachNeighbor(vertex, direction, neighbor -> {
+        if (distances[neighbor] < 0) {
+          distances[neighbor] = distances[vertex] + 1;
+          order[tail[0]++] = neighbor;
+        }
+
+        if (distances[neighbor] == distances[vertex] + 1) {
+          paths[neighbor] += paths[vertex];
+        }
+      });
+
+      visited = tail[0];
+    }
+
+    EdgeDirection reverse = direction == EdgeDirection.OUT ? EdgeDirection.IN : direction == EdgeDirection.IN ? EdgeDirection.OUT : direction;
+    for (int i = visited - 1; i > 0; i--) {
+      int vertex = order[i];
+
+      graph.forEachNeighbor(vertex, reverse, predecessor -> {
+        if (distances[predecessor] == distances[vertex] - 1) {
+          dependencies[predecessor] += paths[predecessor] / paths[vertex] * (1 + dependencies[vertex]);
+        }
+      });
+
+      sums[vertex] += dependencies[vertex];
+    }
+  }
+
+  /**
+   * Return the vertices with the largest scores.
+   *
+   * @param scores the score of each vertex
+   * @param count the number of vertices to return
+   * @return the vertices, from the largest score down, ties broken by vertex number
+   */
+  public static int[] top(double[] scores, int count) {
+    return IntStream.range(0, scores.length).boxed()
+             .sorted(Comparator.<Integer>comparingDouble(vertex -> -scores[vertex]).thenComparingInt(vertex -> vertex))
+             .limit(count)
+             .mapToInt(Integer::intValue)
+             .toArray();
+  }
+}
@@ -15,6 +15,7 @@ import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.version.Item;
 import edu.berkeley.ground.common.util.DbStatements;
+import java.time.Instant;
 import java.util.List;
 
 
@@ -28,10 +29,31 @@ public interface ItemDao<T extends Item> {
 
   T retrieveFromDatabase(String sourceKey) throws GroundException;
 
+  /**
+   * Retrieve an item if it had been created at a point in time.
+   *
+   * @param sourceKey the source key of the item
+   * @param asOf the point in time
+   * @return the item
+   * @throws GroundException the item doesn't exist or was created after asOf
+   */
+  T retrieveFromDatabase(String sourceKey, Instant asOf) throws GroundException;
+
   Class<T> getType();
 
   List<Long> getLeaves(long itemId) throws GroundException;
 
+  /**
+   * Return the leaves of the item's version history as it was at a point in time: the versions
+   * created by then that had no children created by then.
+   *
+   * @param itemId the id of the item
+   * @param asOf the point in time
+   * @return the ids of the leaves, in ascending order
+   * @throws GroundException an error while reading the version history
+   */
+  List<Long> getLeaves(long itemId, Instant asOf) throws GroundException;
+
   /**
    * Add a new Version to this Item. The provided parentIds will be the parents of this particular
    * version. What's provided in the default case varies based on which database we are writing
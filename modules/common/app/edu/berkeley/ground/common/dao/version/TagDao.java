@@ -13,6 +13,7 @@ package edu.berkeley.ground.common.dao.version;
 
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.TagPredicate;
 import edu.berkeley.ground.common.util.DbStatements;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,72 @@ public interface TagDao {
 
   List<Long> getItemIdsByTag(String tag) throws GroundException;
 
+  /**
+   * Retrieve the ids of all rich versions that have a tag matching the given predicate.
+   *
+   * @param predicate the key and optional value comparison to match
+   * @return the ids of the matching versions
+   */
+  List<Long> getVersionIdsByTag(TagPredicate predicate) throws GroundException;
+
+  /**
+   * Retrieve the ids of all items that have a tag matching the given predicate.
+   *
+   * @param predicate the key and optional value comparison to match
+   * @return the ids of the matching items
+   */
+  List<Long> getItemIdsByTag(TagPredicate predicate) throws GroundException;
+
+  /**
+   * Retrieve one page of the ids of the rich versions that match all of the given predicates, in
+   * increasing id order.
+   *
+   * @param predicates the predicates that every returned version has to match
+   * @param afterId only ids strictly greater than this one are returned
+   * @param limit the maximum number of ids to return
+   * @return the ids of the matching versions
+   */
+  List<Long> getVersionIdsByTags(List<TagPredicate> predicates, long afterId, int limit) throws GroundException;
+
+  /**
+   * Retrieve one page of the ids of the items that match all of the given predicates, in
+   * increasing id order.
+   *
+   * @param predicates the predicates that every returned item has to match
+   * @param afterId only ids strictly greater than this one are returned
+   * @param limit the maximum number of ids to return
+   * @return the ids of the matching items
+   */
+  List<Long> getItemIdsByTags(List<TagPredicate> predicates, long afterId, int limit) throws GroundException;
+
+  /**
+   * Retrieve one page of the ids of the rich versions that match a boolean combination of
+   * predicates, in increasing id order. At least one of all and any must be non-empty.
+   *
+   * @param all the predicates that every returned version has to match
+   * @param any if not empty, every returned version has to match at least one of these
+   * @param none the predicates that no returned version may match
+   * @param afterId only ids strictly greater than this one are returned
+   * @param limit the maximum number of ids to return
+   * @return the ids of the matching versions
+   */
+  List<Long> getVersionIdsByTags(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none, long afterId, int limit)
+    throws GroundException;
+
+  /**
+   * Retrieve one page of the ids of the items that match a boolean combination of predicates, in
+   * increasing id order. At least one of all and any must be non-empty.
+   *
+   * @param all the predicates that every returned item has to match
+   * @param any if not empty, every returned item has to match at least one of these
+   * @param none the predicates that no returned item may match
+   * @param afterId only ids strictly greater than this one are returned
+   * @param limit the maximum number of ids to return
+   * @return the ids of the matching items
+   */
+  List<Long> getItemIdsByTags(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none, long afterId, int limit)
+    throws GroundException;
+
   Map<String, Tag> retrieveFromDatabaseByVersionId(long id) throws GroundException;
 
   Map<String, Tag> retrieveFromDatabaseByItemId(long id) throws GroundException;
@@ -30,4 +97,22 @@ public interface TagDao {
   DbStatements insertItemTag(final Tag tag);
 
   DbStatements insertRichVersionTag(final Tag tag);
+
+  /**
+   * Create the statements to store every tag of a new item.
+   *
+   * @param id the id of the item
+   * @param tags the tags of the item
+   * @return the statements to run
+   */
+  DbStatements insertItemTags(long id, Map<String, Tag> tags) throws GroundException;
+
+  /**
+   * Create the statements to store every tag of a new rich version.
+   *
+   * @param id the id of the rich version
+   * @param tags the tags of the rich version
+   * @return the statements to run
+   */
+  DbStatements insertRichVersionTags(long id, Map<String, Tag> tags) throws GroundException;
 }
@@ -15,6 +15,7 @@ import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.version.Item;
 import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.DbStatements;
+import java.util.List;
 
 public interface VersionHistoryDagDao {
 
@@ -22,6 +23,21 @@ public interface VersionHistoryDagDao {
 
   VersionHistoryDag retrieveFromDatabase(long itemId) throws GroundException;
 
+  /**
+   * Retrieve one page of the versions of an item in the order they were created. Parents are
+   * always created before their children, so this is a topological order of the DAG.
+   *
+   * @param itemId the id of the item whose versions we are retrieving
+   * @param fromLeaves start from the newest versions, so that children come before their parents
+   * @param depth only retrieve versions at most this many successors away from a leaf; negative for
+   *     every version
+   * @param afterId the id of the last version of the previous page, or Long.MIN_VALUE for the first page
+   * @param limit the maximum number of versions to retrieve
+   * @return the ids of the versions
+   * @throws GroundException an error retrieving the versions
+   */
+  List<Long> retrieveHistory(long itemId, boolean fromLeaves, int depth, long afterId, int limit) throws GroundException;
+
   /**
    * Add a new edge between parentId and childId in DAG.
    *
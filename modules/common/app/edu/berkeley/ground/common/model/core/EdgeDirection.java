@@ -0,0 +1,45 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.core;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+
+/**
+ * Which edges of a node to follow: the edges coming into it, the edges going out of it, or both.
+ */
+public enum EdgeDirection {
+  IN,
+  OUT,
+  BOTH;
+
+  /**
+   * Parse a direction given as in, out or both, ignoring case.
+   *
+   * @param value the direction, or null for both
+   * @return the direction
+   * @throws GroundException the value is not a direction
+   */
+  public static EdgeDirection parse(String value) throws GroundException {
+    if (value == null) {
+      return BOTH;
+    }
+
+    for (EdgeDirection direction : values()) {
+      if (direction.name().equalsIgnoreCase(value)) {
+        return direction;
+      }
+    }
+
+    throw new GroundException(ExceptionType.OTHER, String.format("Invalid direction: %s.", value));
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.core;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/**
+ * The difference between the edge sets of two graph versions, or of two lineage graph versions.
+ * An edge whose item is in both versions with a different edge version is reported as changed,
+ * and not as added and removed.
+ */
+public class GraphVersionDiff {
+
+  // the version the diff starts from
+  @JsonProperty("from")
+  private final long fromId;
+
+  // the version the diff goes to
+  @JsonProperty("to")
+  private final long toId;
+
+  // the edge versions of to whose edge is not in from
+  @JsonProperty("added")
+  private final List<Long> added;
+
+  // the edge versions of from whose edge is not in to
+  @JsonProperty("removed")
+  private final List<Long> removed;
+
+  // the edges that are in both versions with different edge versions
+  @JsonProperty("changed")
+  private final List<ChangedEdge> changed;
+
+  /**
+   * Create a new diff.
+   *
+   * @param fromId the version the diff starts from
+   * @param toId the version the diff goes to
+   * @param added the edge versions added, in ascending order
+   * @param removed the edge versions removed, in ascending order
+   * @param changed the edges whose version changed
+   */
+  @JsonCreator
+  public GraphVersionDiff(@JsonProperty("from") long fromId,
+                          @JsonProperty("to") long toId,
+                          @JsonProperty("added") List<Long> added,
+                          @JsonProperty("removed") List<Long> removed,
+                          @JsonProperty("changed") List<ChangedEdge> changed) {
+    this.fromId = fromId;
+    this.toId = toId;
+    this.added = added;
+    this.removed = removed;
+    this.changed = changed;
+  }
+
+  public long getFromId() {
+    return this.fromId;
+  }
+
+  public long getToId() {
+    return this.toId;
+  }
+
+  public List<Long> getAdded() {
+    return this.added;
+  }
+
+  public List<Long> getRemoved() {
+    return this.removed;
+  }
+
+  public List<ChangedEdge> getChanged() {
+    return this.changed;
+  }
+
+  public static class ChangedEdge {
+
+    // the id of the edge item
+    @JsonProperty("edgeId")
+    private final long edgeId;
+
+    // the edge version in from
+    @JsonProperty("fromEdgeVersionId")
+    private final long fromEdgeVersionId;
+
+    // the edge version in to
+    @JsonProperty("toEdgeVersionId")
+    private final long toEdgeVersionId;
+
+    /**
+     * Create a new changed edge.
+     *
+     * @param edgeId the id of the edge item
+     * @param fromEdgeVersionId the edge version in from
+     * @param toEdgeVersionId the edge version in to
+     */
+    @JsonCreator
+    public ChangedEdge(@JsonProperty("edgeId") long edgeId,
+                       @JsonProperty("fromEdgeVersionId") long fromEdgeVersionId,
+                       @JsonProperty("toEdgeVersionId") long toEdgeVersionId) {
+      this.edgeId = edgeId;
+      this.fromEdgeVersionId = fromEdgeVersionId;
+      this.toEdgeVersionId = toEdgeVersionId;
+    }
+
+    public long getEdgeId() {
+      return this.edgeId;
+    }
+
+    public long getFromEdgeVersionId() {
+      return this.fromEdgeVersionId;
+    }
+
+    public long getToEdgeVersionId() {
+      return this.toEdgeVersionId;
+    }
+  }
+}
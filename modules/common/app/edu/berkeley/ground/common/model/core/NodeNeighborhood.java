@@ -0,0 +1,63 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.core;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The nodes within a number of hops of a node, and the edges followed to reach them.
+ */
+public class NodeNeighborhood {
+
+  // the id of the node the neighborhood is around
+  @JsonProperty("nodeId")
+  private final long nodeId;
+
+  // the number of hops to each node of the neighborhood, including the node itself at 0
+  @JsonProperty("nodes")
+  private final Map<Long, Integer> hops;
+
+  // the edges that leave a node of the neighborhood before the last hop
+  @JsonProperty("edges")
+  private final List<Long> edgeIds;
+
+  /**
+   * Create a new neighborhood.
+   *
+   * @param nodeId the id of the node the neighborhood is around
+   * @param hops the number of hops to each node
+   * @param edgeIds the ids of the edges followed, in ascending order
+   */
+  @JsonCreator
+  public NodeNeighborhood(@JsonProperty("nodeId") long nodeId,
+                          @JsonProperty("nodes") Map<Long, Integer> hops,
+                          @JsonProperty("edges") List<Long> edgeIds) {
+    this.nodeId = nodeId;
+    this.hops = hops;
+    this.edgeIds = edgeIds;
+  }
+
+  public long getNodeId() {
+    return this.nodeId;
+  }
+
+  public Map<Long, Integer> getHops() {
+    return this.hops;
+  }
+
+  public List<Long> getEdgeIds() {
+    return this.edgeIds;
+  }
+}
@@ -15,6 +15,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import edu.berkeley.ground.common.model.core.RichVersion;
 import edu.berkeley.ground.common.model.version.Tag;
 import java.util.Map;
+import java.util.Objects;
 
 public class LineageEdgeVersion extends RichVersion {
 
@@ -30,6 +31,10 @@ public class LineageEdgeVersion extends RichVersion {
   @JsonProperty("toRichVersionId")
   private final long toId;
 
+  // the id of the NodeVersion of the principal responsible for this LineageEdgeVersion, if any
+  @JsonProperty("principalId")
+  private final Long principalId;
+
   /**
    * Create a lineage edge version.
    *
@@ -42,7 +47,24 @@ public class LineageEdgeVersion extends RichVersion {
    * @param toId the destination rich version id
    * @param lineageEdgeId the id of the lineage edge containing this version
    */
+  public LineageEdgeVersion(long id, Map<String, Tag> tags, Long structureVersionId, String reference,
+                             Map<String, String> referenceParameters, long fromId, long toId, long lineageEdgeId) {
+    this(id, tags, structureVersionId, reference, referenceParameters, fromId, toId, lineageEdgeId, null);
+  }
 
+  /**
+   * Create a lineage edge version on behalf of a principal.
+   *
+   * @param id the id of this version
+   * @param tags the tags associated with this version
+   * @param structureVersionId the id of the StructureVersion associated with this version
+   * @param reference an optional external reference
+   * @param referenceParameters the access parameters for the reference
+   * @param fromId the source rich version id
+   * @param toId the destination rich version id
+   * @param lineageEdgeId the id of the lineage edge containing this version
+   * @param principalId the id of the principal's node version, or null
+   */
   @JsonCreator
   public LineageEdgeVersion(@JsonProperty("id") long id,
                              @JsonProperty("tags") Map<String, Tag> tags,
@@ -51,12 +73,14 @@ public class LineageEdgeVersion extends RichVersion {
                              @JsonProperty("referenceParameters") Map<String, String> referenceParameters,
                              @JsonProperty("fromRichVersionId") long fromId,
                              @JsonProperty("toRichVersionId") long toId,
-                             @JsonProperty("lineageEdgeId") long lineageEdgeId) {
+                             @JsonProperty("lineageEdgeId") long lineageEdgeId,
+                             @JsonProperty("principalId") Long principalId) {
     super(id, tags, structureVersionId, reference, referenceParameters);
 
     this.lineageEdgeId = lineageEdgeId;
     this.fromId = fromId;
     this.toId = toId;
+    this.principalId = principalId;
   }
 
   public LineageEdgeVersion(long id, LineageEdgeVersion other) {
@@ -69,6 +93,7 @@ public class LineageEdgeVersion extends RichVersion {
     this.lineageEdgeId = other.lineageEdgeId;
     this.fromId = other.fromId;
     this.toId = other.toId;
+    this.principalId = other.principalId;
   }
 
   public long getLineageEdgeId() {
@@ -83,6 +108,10 @@ public class LineageEdgeVersion extends RichVersion {
     return this.toId;
   }
 
+  public Long getPrincipalId() {
+    return this.principalId;
+  }
+
   @Override
   public boolean equals(Object other) {
     if (!(other instanceof LineageEdgeVersion)) {
@@ -94,6 +123,7 @@ public class LineageEdgeVersion extends RichVersion {
     return this.lineageEdgeId == otherLineageEdgeVersion.lineageEdgeId
              && this.fromId == otherLineageEdgeVersion.fromId
              && this.toId == otherLineageEdgeVersion.toId
+             && Objects.equals(this.principalId, otherLineageEdgeVersion.principalId)
              && this.getId() == otherLineageEdgeVersion.getId()
              && super.equals(other);
   }
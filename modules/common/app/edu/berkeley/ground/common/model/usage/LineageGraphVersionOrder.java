@@ -0,0 +1,59 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.usage;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A topological order of the rich versions connected by a lineage graph version, grouped into
+ * levels: every lineage edge goes from a rich version on a lower level to one on a higher level.
+ */
+public class LineageGraphVersionOrder {
+
+  // the id of the lineage graph version
+  @JsonProperty("lineageGraphVersionId")
+  private final long lineageGraphVersionId;
+
+  // the ids of the rich versions on each level, from the first level on, in ascending order
+  @JsonProperty("levels")
+  private final List<List<Long>> levels;
+
+  /**
+   * Create a new lineage graph version order.
+   *
+   * @param lineageGraphVersionId the id of the lineage graph version
+   * @param levels the ids of the rich versions on each level
+   */
+  @JsonCreator
+  public LineageGraphVersionOrder(@JsonProperty("lineageGraphVersionId") long lineageGraphVersionId,
+                                  @JsonProperty("levels") List<List<Long>> levels) {
+    this.lineageGraphVersionId = lineageGraphVersionId;
+    this.levels = levels;
+  }
+
+  public long getLineageGraphVersionId() {
+    return this.lineageGraphVersionId;
+  }
+
+  public List<List<Long>> getLevels() {
+    return this.levels;
+  }
+
+  @JsonIgnore
+  public List<Long> getOrder() {
+    return this.levels.stream().flatMap(List::stream).collect(Collectors.toList());
+  }
+}
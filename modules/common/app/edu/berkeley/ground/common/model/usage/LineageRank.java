@@ -0,0 +1,62 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.usage;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * How critical a rich version is in the lineage graph: how many rich versions are downstream of
+ * it, and its PageRank over the lineage edges.
+ */
+public class LineageRank {
+
+  // the id of the rich version
+  @JsonProperty("richVersionId")
+  private final long richVersionId;
+
+  // the number of rich versions reachable by following lineage edges forward
+  @JsonProperty("downstreamCount")
+  private final long downstreamCount;
+
+  // the PageRank of the rich version; the ranks of all rich versions add up to 1
+  @JsonProperty("pageRank")
+  private final double pageRank;
+
+  /**
+   * Create a new lineage rank.
+   *
+   * @param richVersionId the id of the rich version
+   * @param downstreamCount the number of rich versions downstream of it
+   * @param pageRank its PageRank
+   */
+  @JsonCreator
+  public LineageRank(@JsonProperty("richVersionId") long richVersionId,
+                     @JsonProperty("downstreamCount") long downstreamCount,
+                     @JsonProperty("pageRank") double pageRank) {
+    this.richVersionId = richVersionId;
+    this.downstreamCount = downstreamCount;
+    this.pageRank = pageRank;
+  }
+
+  public long getRichVersionId() {
+    return this.richVersionId;
+  }
+
+  public long getDownstreamCount() {
+    return this.downstreamCount;
+  }
+
+  public double getPageRank() {
+    return this.pageRank;
+  }
+}
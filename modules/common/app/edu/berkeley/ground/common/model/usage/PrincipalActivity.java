@@ -0,0 +1,73 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.usage;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The number of lineage edge versions a principal created for a lineage edge during a time
+ * bucket.
+ */
+public class PrincipalActivity {
+
+  // the id of the principal's node version
+  @JsonProperty("principalId")
+  private final long principalId;
+
+  // the id of the lineage edge the lineage edge versions belong to
+  @JsonProperty("lineageEdgeId")
+  private final long lineageEdgeId;
+
+  // the start of the bucket, as an ISO-8601 instant
+  @JsonProperty("bucket")
+  private final String bucket;
+
+  // the number of lineage edge versions created during the bucket
+  @JsonProperty("lineageEdgeVersionCount")
+  private final long lineageEdgeVersionCount;
+
+  /**
+   * Create a new principal activity count.
+   *
+   * @param principalId the id of the principal's node version
+   * @param lineageEdgeId the id of the lineage edge
+   * @param bucket the start of the bucket
+   * @param lineageEdgeVersionCount the number of lineage edge versions created
+   */
+  @JsonCreator
+  public PrincipalActivity(@JsonProperty("principalId") long principalId,
+                           @JsonProperty("lineageEdgeId") long lineageEdgeId,
+                           @JsonProperty("bucket") String bucket,
+                           @JsonProperty("lineageEdgeVersionCount") long lineageEdgeVersionCount) {
+    this.principalId = principalId;
+    this.lineageEdgeId = lineageEdgeId;
+    this.bucket = bucket;
+    this.lineageEdgeVersionCount = lineageEdgeVersionCount;
+  }
+
+  public long getPrincipalId() {
+    return this.principalId;
+  }
+
+  public long getLineageEdgeId() {
+    return this.lineageEdgeId;
+  }
+
+  public String getBucket() {
+    return this.bucket;
+  }
+
+  public long getLineageEdgeVersionCount() {
+    return this.lineageEdgeVersionCount;
+  }
+}
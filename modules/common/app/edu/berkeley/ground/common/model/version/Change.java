@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.version;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/**
+ * An entry in the change log: an item or a version that was created.
+ */
+public class Change {
+
+  // the position of the change in the log; changes are numbered in the order they were committed
+  @JsonProperty("offset")
+  private final long offset;
+
+  // the type of what was created, e.g. node or node_version
+  @JsonProperty("entityType")
+  private final String entityType;
+
+  @JsonProperty("entityId")
+  private final long entityId;
+
+  // the item a version belongs to; null for items
+  @JsonProperty("itemId")
+  private final Long itemId;
+
+  // the parents of a version; empty for items and first versions
+  @JsonProperty("parentIds")
+  private final List<Long> parentIds;
+
+  // when the change was committed, in ISO-8601
+  @JsonProperty("createdAt")
+  private final String createdAt;
+
+  /**
+   * Create a new change.
+   *
+   * @param offset the position of the change in the log
+   * @param entityType the type of what was created
+   * @param entityId the id of what was created
+   * @param itemId the item a version belongs to, or null
+   * @param parentIds the parents of a version
+   * @param createdAt when the change was committed
+   */
+  @JsonCreator
+  public Change(@JsonProperty("offset") long offset,
+                @JsonProperty("entityType") String entityType,
+                @JsonProperty("entityId") long entityId,
+                @JsonProperty("itemId") Long itemId,
+                @JsonProperty("parentIds") List<Long> parentIds,
+                @JsonProperty("createdAt") String createdAt) {
+    this.offset = offset;
+    this.entityType = entityType;
+    this.entityId = entityId;
+    this.itemId = itemId;
+    this.parentIds = parentIds;
+    this.createdAt = createdAt;
+  }
+
+  public long getOffset() {
+    return this.offset;
+  }
+
+  public String getEntityType() {
+    return this.entityType;
+  }
+
+  public long getEntityId() {
+    return this.entityId;
+  }
+
+  public Long getItemId() {
+    return this.itemId;
+  }
+
+  public List<Long> getParentIds() {
+    return this.parentIds;
+  }
+
+  public String getCreatedAt() {
+    return this.createdAt;
+  }
+}
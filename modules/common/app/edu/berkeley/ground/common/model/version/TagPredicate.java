@@ -0,0 +1,227 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.version;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+public class TagPredicate {
+
+  public enum Operator {
+    EQ("="),
+    NE("<>"),
+    LT("<"),
+    LTE("<="),
+    GT(">"),
+    GTE(">=");
+
+    private final String symbol;
+
+    Operator(String symbol) {
+      this.symbol = symbol;
+    }
+
+    public String getSymbol() {
+      return this.symbol;
+    }
+
+    public boolean isRange() {
+      return this != EQ && this != NE;
+    }
+
+    /**
+     * Return an operator based on its name (e.g., "gte").
+     *
+     * @param str the name of the operator
+     * @return the corresponding Operator, EQ if str is null
+     * @throws GroundException no such operator
+     */
+    public static Operator fromString(String str) throws GroundException {
+      if (str == null) {
+        return EQ;
+      }
+
+      try {
+        return Operator.valueOf(str.toUpperCase());
+      } catch (IllegalArgumentException iae) {
+        throw new GroundException(ExceptionType.OTHER, String.format("Invalid operator: %s.", str));
+      }
+    }
+  }
+
+  // the key of the tags to match
+  private final String key;
+
+  // the comparison to apply to the tag value; null if only the key has to match
+  private final Operator operator;
+
+  // the value to compare against; null if only the key has to match
+  private final Object value;
+
+  // the type of the value; null if the value should be compared as text
+  private final GroundType valueType;
+
+  /**
+   * Create a predicate that matches every tag with the given key.
+   *
+   * @param key the key of the tag
+   */
+  public TagPredicate(String key) {
+    this.key = key;
+    this.operator = null;
+    this.value = null;
+    this.valueType = null;
+  }
+
+  /**
+   * Create a predicate that compares the value of the tags with the given key.
+   *
+   * @param key the key of the tag
+   * @param operator the comparison to apply
+   * @param value the value to compare against
+   * @param valueType the type of the value, or null to compare the value as text
+   * @throws GroundException the value does not match the type or the operator
+   */
+  public TagPredicate(String key, Operator operator, Object value, GroundType valueType) throws GroundException {
+    if (operator == null || value == null) {
+      throw new GroundException(ExceptionType.OTHER, String.format("No value was specified for tag predicate on %s.", key));
+    }
+
+    if (valueType == null) {
+      if (!(value instanceof String) || operator.isRange()) {
+        throw new GroundException(ExceptionType.OTHER, String.format("No type was specified for tag predicate on %s.", key));
+      }
+    } else if (!value.getClass().equals(valueType.getTypeClass())) {
+      throw new GroundException(ExceptionType.OTHER, "Mismatch between value (" + value + ") and given type (" + valueType.toString() + ").");
+    } else if (valueType == GroundType.BOOLEAN && operator.isRange()) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Operator %s is not supported on boolean tag %s.", operator, key));
+    }
+
+    this.key = key;
+    this.operator = operator;
+    this.value = value;
+    this.valueType = valueType;
+  }
+
+  /**
+   * Create a predicate from its string representation, as passed in a query string. If no type is
+   * given, equality comparisons are done on the text of the value and range comparisons are done
+   * on the value as a long.
+   *
+   * <p>Integer and long tags are stored as longs, so a numeric value may be any decimal number
+   * (e.g., 1e9 or 1.5), and the predicate is rewritten into the equivalent comparison with a long:
+   * "gt 1.5" becomes "gt 1", and a value that no long equals matches nothing with "eq" and every
+   * numeric tag with "ne".
+   *
+   * @param key the key of the tag
+   * @param operator the name of the comparison, defaults to equality
+   * @param value the value to compare against, or null to match on the key only
+   * @param valueType the name of the type of the value, may be null
+   * @return the parsed predicate
+   * @throws GroundException the operator, type or value could not be parsed
+   */
+  public static TagPredicate fromStrings(String key, String operator, String value, String valueType) throws GroundException {
+    if (value == null) {
+      return new TagPredicate(key);
+    }
+
+    Operator op = Operator.fromString(operator);
+    GroundType type = GroundType.fromString(valueType);
+
+    if (type == null && op.isRange()) {
+      type = GroundType.LONG;
+    }
+
+    try {
+      if (type == GroundType.INTEGER || type == GroundType.LONG) {
+        return fromNumber(key, op, new BigDecimal(value.trim()), type);
+      }
+
+      return new TagPredicate(key, op, type == null ? value : type.parse(value), type);
+    } catch (NumberFormatException e) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Invalid value for tag predicate on %s: %s.", key, value));
+    }
+  }
+
+  // the comparison of a long tag value with the number that matches the same values
+  private static TagPredicate fromNumber(String key, Operator operator, BigDecimal number, GroundType type) throws GroundException {
+    BigDecimal floor = number.setScale(0, RoundingMode.FLOOR);
+    boolean exact = floor.compareTo(number) == 0;
+
+    Operator op = operator;
+    long bound;
+
+    if (floor.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) > 0) {
+      // above every long
+      boolean below = op == Operator.LT || op == Operator.LTE || op == Operator.NE;
+      op = below ? Operator.GTE : Operator.GT;
+      bound = below ? Long.MIN_VALUE : Long.MAX_VALUE;
+    } else if (floor.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) < 0) {
+      // below every long
+      boolean above = op == Operator.GT || op == Operator.GTE || op == Operator.NE;
+      op = above ? Operator.GTE : Operator.GT;
+      bound = above ? Long.MIN_VALUE : Long.MAX_VALUE;
+    } else if (exact) {
+      bound = floor.longValueExact();
+    } else {
+      bound = floor.longValueExact();
+
+      switch (op) {
+        case GT:
+        case GTE:
+          op = Operator.GT;
+          break;
+        case LT:
+        case LTE:
+          op = Operator.LTE;
+          break;
+        case EQ:
+          // no long equals a fraction
+          op = Operator.GT;
+          bound = Long.MAX_VALUE;
+          break;
+        default:
+          op = Operator.GTE;
+          bound = Long.MIN_VALUE;
+      }
+    }
+
+    // both types compare on the same column, so a bound beyond an integer is compared as a long
+    if (type == GroundType.INTEGER && bound >= Integer.MIN_VALUE && bound <= Integer.MAX_VALUE) {
+      return new TagPredicate(key, op, (int) bound, GroundType.INTEGER);
+    }
+
+    return new TagPredicate(key, op, bound, GroundType.LONG);
+  }
+
+  public String getKey() {
+    return this.key;
+  }
+
+  public Operator getOperator() {
+    return this.operator;
+  }
+
+  public Object getValue() {
+    return this.value;
+  }
+
+  public GroundType getValueType() {
+    return this.valueType;
+  }
+
+  public boolean hasValue() {
+    return this.value != null;
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.util;
+
+import edu.berkeley.ground.common.model.core.RichVersion;
+import edu.berkeley.ground.common.model.version.Tag;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes a hash of the payload of a rich version: its tags, structure version, reference and
+ * reference parameters. Two versions have the same hash exactly when their payloads are equal,
+ * regardless of their ids or of the order in which their tags and parameters were given.
+ */
+public final class ContentHash {
+
+  private ContentHash() {
+  }
+
+  /**
+   * Compute the content hash of a rich version.
+   *
+   * @param version the version to hash
+   * @return the SHA-256 hash of the payload, in hexadecimal
+   */
+  public static String of(RichVersion version) {
+    MessageDigest digest;
+
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+
+    update(digest, String.valueOf(version.getStructureVersionId()));
+    update(digest, version.getReference());
+
+    Map<String, String> parameters = version.getParameters() == null ? new TreeMap<>() : new TreeMap<>(version.getParameters());
+    updateLength(digest, parameters.size());
+    for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+      update(digest, parameter.getKey());
+      update(digest, parameter.getValue());
+    }
+
+    Map<String, Tag> tags = version.getTags() == null ? new TreeMap<>() : new TreeMap<>(version.getTags());
+    updateLength(digest, tags.size());
+    for (Tag tag : tags.values()) {
+      update(digest, tag.getKey());
+      update(digest, tag.getValueType() == null ? null : tag.getValueType().toString());
+      update(digest, tag.getValue() == null ? null : tag.getValue().toString());
+    }
+
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+
+    return hex.toString();
+  }
+
+  // every field is length-prefixed so that adjacent fields can't be confused; null is length -1
+  private static void update(MessageDigest digest, String str) {
+    if (str == null) {
+      updateLength(digest, -1);
+      return;
+    }
+
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    updateLength(digest, bytes.length);
+    digest.update(bytes);
+  }
+
+  private static void updateLength(MessageDigest digest, int length) {
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(length).array());
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * An immutable map defined by the changes made to another immutable map. Maps built on top of
+ * each other share the entries they have in common instead of copying them, so a chain of
+ * versions that each change a few entries uses memory in proportion to the changes.
+ *
+ * <p>Lookups walk the chain of bases, so chains are flattened into a plain map once they grow
+ * past MAX_DEPTH.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class DeltaMap<K, V> extends AbstractMap<K, V> {
+
+  static final int MAX_DEPTH = 32;
+
+  private final Map<K, V> base;
+  private final Map<K, V> changes;
+  private final Set<K> removals;
+  private final int size;
+  private final int depth;
+
+  private DeltaMap(Map<K, V> base, Map<K, V> changes, Set<K> removals, int depth) {
+    this.base = base;
+    this.changes = changes;
+    this.removals = removals;
+    this.depth = depth;
+
+    int size = base.size() - removals.size();
+    for (K key : changes.keySet()) {
+      if (!base.containsKey(key)) {
+        size++;
+      }
+    }
+    this.size = size;
+  }
+
+  /**
+   * Create the map obtained by applying changes to a base map. The base must not be modified
+   * afterwards.
+   *
+   * @param base the map to start from
+   * @param changes the entries that are added or replaced
+   * @param removals the keys that are removed
+   * @return the resulting immutable map
+   */
+  public static <K, V> Map<K, V> of(Map<K, V> base, Map<K, V> changes, Set<K> removals) {
+    Map<K, V> ownChanges = new HashMap<>(changes);
+    Set<K> ownRemovals = new HashSet<>();
+
+    for (K key : removals) {
+      if (base.containsKey(key) && !ownChanges.containsKey(key)) {
+        ownRemovals.add(key);
+      }
+    }
+
+    int depth = base instanceof DeltaMap ? ((DeltaMap<K, V>) base).depth + 1 : 1;
+    if (depth > MAX_DEPTH) {
+      Map<K, V> flat = new HashMap<>(base);
+      flat.keySet().removeAll(ownRemovals);
+      flat.putAll(ownChanges);
+
+      return Collections.unmodifiableMap(flat);
+    }
+
+    return new DeltaMap<>(base, ownChanges, ownRemovals, depth);
+  }
+
+  /**
+   * Compute the changes that turn one map into another.
+   *
+   * @param from the original map
+   * @param to the new map
+   * @param changes receives the entries of to that are new or different
+   * @param removals receives the keys of from that are not in to
+   */
+  public static <K, V> void diff(Map<K, V> from, Map<K, V> to, Map<K, V> changes, Set<K> removals) {
+    for (Map.Entry<K, V> entry : to.entrySet()) {
+      if (!from.containsKey(entry.getKey()) || !Objects.equals(from.get(entry.getKey()), entry.getValue())) {
+        changes.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    for (K key : from.keySet()) {
+      if (!to.containsKey(key)) {
+        removals.add(key);
+      }
+    }
+  }
+
+  @Override
+  public V get(Object key) {
+    if (this.changes.containsKey(key)) {
+      return this.changes.get(key);
+    }
+
+    return this.removals.contains(key) ? null : this.base.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return this.changes.containsKey(key) || (!this.removals.contains(key) && this.base.containsKey(key));
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator() {
+        Stream<Map.Entry<K, V>> inherited = base.entrySet().stream()
+                                              .filter(entry -> !changes.containsKey(entry.getKey()) && !removals.contains(entry.getKey()))
+                                              .map(SimpleImmutableEntry::new);
+
+        return Stream.concat(Collections.unmodifiableMap(changes).entrySet().stream(), inherited).iterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
@@ -13,12 +13,15 @@
  */
 package edu.berkeley.ground.common.util;
 
+import java.util.function.LongConsumer;
 import javax.inject.Singleton;
 
 @Singleton
 public class IdGenerator {
 
+  private final long machineId;
   private final long prefix;
+  private final long counterMask;
   private long versionCounter;
   private long successorCounter;
   private long itemCounter;
@@ -26,12 +29,21 @@ public class IdGenerator {
   // If true, only one counter will be used. If false, all three counters will be used.
   private final boolean globallyUnique;
 
+  // the lease on the machine id, or null if the machine id was configured
+  private final MachineLease lease;
+
+  // told about every id generated, or null
+  private LongConsumer listener;
+
   public IdGenerator() {
+    this.machineId = 0;
     this.prefix = 0;
+    this.counterMask = Long.MAX_VALUE;
     this.versionCounter = 1;
     this.successorCounter = 1;
     this.itemCounter = 1;
     this.globallyUnique = true;
+    this.lease = null;
   }
 
   /**
@@ -42,6 +54,19 @@ public class IdGenerator {
    * @param globallyUnique if true, only one counter will be used for all version
    */
   public IdGenerator(long machineId, long numMachines, boolean globallyUnique) {
+    this(machineId, numMachines, globallyUnique, null);
+  }
+
+  /**
+   * Create a unique id generator for a leased machine id. Once the lease is lost, no more ids are
+   * generated.
+   *
+   * @param machineId the id of this machine
+   * @param numMachines the total number of machines
+   * @param globallyUnique if true, only one counter will be used for all version
+   * @param lease the lease on the machine id, or null if it was configured
+   */
+  public IdGenerator(long machineId, long numMachines, boolean globallyUnique, MachineLease lease) {
     long machineBits = 1;
     long fence = 2;
 
@@ -50,7 +75,9 @@ public class IdGenerator {
       machineBits++;
     }
 
+    this.machineId = machineId;
     this.prefix = machineId << (64 - machineBits);
+    this.counterMask = -1L >>> machineBits;
 
     // NOTE: Do not change this. The version counter is set to start a 1 because 0 is the default
     // empty version.
@@ -59,10 +86,58 @@ public class IdGenerator {
     this.itemCounter = 1;
 
     this.globallyUnique = globallyUnique;
+    this.lease = lease;
+  }
+
+  /**
+   * The smallest id this generator can generate.
+   *
+   * @return the machine prefix
+   */
+  public long getFirstId() {
+    return this.prefix;
+  }
+
+  /**
+   * The largest id this generator can generate.
+   *
+   * @return the machine prefix with every counter bit set
+   */
+  public long getLastId() {
+    return this.prefix | this.counterMask;
+  }
+
+  /**
+   * Continue after the ids an earlier holder of the same machine id generated, so that a machine
+   * id taken over from a stopped instance does not generate them again.
+   *
+   * @param lastVersionId the largest version id generated, or 0
+   * @param lastSuccessorId the largest version successor id generated, or 0
+   * @param lastItemId the largest item id generated, or 0
+   */
+  public synchronized void resumeAfter(long lastVersionId, long lastSuccessorId, long lastItemId) {
+    this.versionCounter = Math.max(this.versionCounter, (lastVersionId & this.counterMask) + 1);
+    this.successorCounter = Math.max(this.successorCounter, (lastSuccessorId & this.counterMask) + 1);
+    this.itemCounter = Math.max(this.itemCounter, (lastItemId & this.counterMask) + 1);
+
+    if (this.globallyUnique) {
+      this.versionCounter = Math.max(this.versionCounter, Math.max(this.successorCounter, this.itemCounter));
+    }
+  }
+
+  /**
+   * Tell a listener about every id generated, before it is returned, e.g. to record how far the
+   * ids got where the database cannot see them yet.
+   *
+   * @param listener the listener, or null
+   */
+  public synchronized void setListener(LongConsumer listener) {
+    this.listener = listener;
   }
 
   public synchronized long generateVersionId() {
-    return prefix | this.versionCounter++;
+    this.checkLease();
+    return this.issue(prefix | this.versionCounter++);
   }
 
   /**
@@ -71,10 +146,12 @@ public class IdGenerator {
    * @return a new id
    */
   public synchronized long generateSuccessorId() {
+    this.checkLease();
+
     if (this.globallyUnique) {
-      return prefix | this.versionCounter++;
+      return this.issue(prefix | this.versionCounter++);
     } else {
-      return prefix | this.successorCounter++;
+      return this.issue(prefix | this.successorCounter++);
     }
   }
 
@@ -84,10 +161,26 @@ public class IdGenerator {
    * @return a new id
    */
   public synchronized long generateItemId() {
+    this.checkLease();
+
     if (this.globallyUnique) {
-      return prefix | this.versionCounter++;
+      return this.issue(prefix | this.versionCounter++);
     } else {
-      return prefix | this.itemCounter++;
+      return this.issue(prefix | this.itemCounter++);
+    }
+  }
+
+  private long issue(long id) {
+    if (this.listener != null) {
+      this.listener.accept(id);
+    }
+
+    return id;
+  }
+
+  private void checkLease() {
+    if (this.lease != null && !this.lease.isHeld()) {
+      throw new IllegalStateException(String.format("The lease on machine id %d was lost; no more ids will be generated.", this.machineId));
     }
   }
 }
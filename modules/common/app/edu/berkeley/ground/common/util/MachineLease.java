@@ -0,0 +1,28 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.util;
+
+/**
+ * A machine id held by this instance for a limited time, and renewed for as long as the instance
+ * runs. Two instances never hold the same machine id at once, so their ids never collide.
+ */
+@FunctionalInterface
+public interface MachineLease {
+
+  /**
+   * Whether the lease is still held. Once false, the machine id may already belong to another
+   * instance.
+   *
+   * @return true if the lease is held
+   */
+  boolean isHeld();
+}
@@ -0,0 +1,138 @@
+package edu.berkeley.ground.common.analytics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import edu.berkeley.ground.common.model.core.EdgeDirection;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class GraphAlgorithmsTest {
+
+  private final GraphAlgorithms algorithms = new GraphAlgorithms(new ForkJoinPool(4));
+
+  // 10 -> 20 -> 30 -> 10 is a cycle with 30 -> 40 leaving it, and 50 -> 60 is on its own
+  private final CsrGraph graph = CsrGraph.of(new long[] {1, 2, 3, 4, 5}, new long[] {10, 20, 30, 30, 50}, new long[] {20, 30, 10, 40, 60});
+
+  @Test
+  public void testStructure() {
+    assertEquals(6, this.graph.getVertexCount());
+    assertEquals(5, this.graph.getEdgeCount());
+    assertEquals(2, this.graph.indexOf(30));
+    assertEquals(-1, this.graph.indexOf(35));
+
+    assertEquals(2, this.graph.getOutDegree(2));
+    assertEquals(1, this.graph.getInDegree(2));
+    assertEquals(3, this.graph.getDegree(2, EdgeDirection.BOTH));
+    assertEquals(4, this.graph.getEdgeId(2, 3));
+    assertEquals(-1, this.graph.getEdgeId(3, 2));
+    assertEquals(4, this.graph.getEdgeId(3, 2, EdgeDirection.BOTH));
+  }
+
+  @Test
+  public void testDistances() {
+    assertArrayEquals(new int[] {0, 1, 2, 3, -1, -1}, this.algorithms.distances(this.graph, 0, EdgeDirection.OUT, 10));
+    assertArrayEquals(new int[] {0, 1, 2, -1, -1, -1}, this.algorithms.distances(this.graph, 0, EdgeDirection.OUT, 2));
+    assertArrayEquals(new int[] {0, 2, 1, -1, -1, -1}, this.algorithms.distances(this.graph, 0, EdgeDirection.IN, 10));
+    assertArrayEquals(new int[] {0, 1, 1, 2, -1, -1}, this.algorithms.distances(this.graph, 0, EdgeDirection.BOTH, 10));
+  }
+
+  @Test
+  public void testReachable() {
+    assertArrayEquals(new int[] {0, 1, 2, 3}, this.algorithms.reachable(this.graph, new int[] {3}, EdgeDirection.IN));
+    assertArrayEquals(new int[] {3, 4, 5}, this.algorithms.reachable(this.graph, new int[] {3, 4}, EdgeDirection.OUT));
+    assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5}, this.algorithms.reachable(this.graph, new int[] {1, 5}, EdgeDirection.BOTH));
+  }
+
+  @Test
+  public void testReachCounts() {
+    assertArrayEquals(new int[] {3, 0, 1, 0}, this.algorithms.reachCounts(this.graph, new int[] {0, 3, 4, 5}, EdgeDirection.OUT));
+    assertArrayEquals(new int[] {3, 1}, this.algorithms.reachCounts(this.graph, new int[] {3, 5}, EdgeDirection.IN));
+  }
+
+  @Test
+  public void testPageRank() {
+    // two vertices pointing at each other share the rank evenly
+    CsrGraph pair = CsrGraph.of(new long[] {1, 2}, new long[] {1, 2}, new long[] {2, 1});
+    assertArrayEquals(new double[] {0.5, 0.5}, this.algorithms.pageRank(pair, 0.85, 1e-12, 100, null), 1e-9);
+
+    double[] ranks = this.algorithms.pageRank(this.graph, 0.85, 1e-12, 1000, null);
+    assertEquals(1.0, Arrays.stream(ranks).sum(), 1e-9);
+    assertTrue(ranks[5] > ranks[4]);
+    assertTrue(ranks[3] > ranks[4]);
+
+    // starting from the ranks themselves converges immediately to the same ranks
+    assertArrayEquals(ranks, this.algorithms.pageRank(this.graph, 0.85, 1e-12, 1, ranks), 1e-9);
+  }
+
+  @Test
+  public void testShortestPath() {
+    assertArrayEquals(new int[] {0, 1, 2, 3}, this.algorithms.shortestPath(this.graph, 0, 3, EdgeDirection.OUT));
+    assertArrayEquals(new int[] {0, 2, 3}, this.algorithms.shortestPath(this.graph, 0, 3, EdgeDirection.BOTH));
+    assertArrayEquals(new int[] {1}, this.algorithms.shortestPath(this.graph, 1, 1, EdgeDirection.OUT));
+    assertArrayEquals(new int[0], this.algorithms.shortestPath(this.graph, 3, 0, EdgeDirection.OUT));
+    assertArrayEquals(new int[0], this.algorithms.shortestPath(this.graph, 0, 4, EdgeDirection.BOTH));
+  }
+
+  @Test
+  public void testComponents() {
+    assertArrayEquals(new int[] {0, 0, 0, 0, 4, 4}, this.algorithms.components(this.graph));
+
+    // a long chain whose edges are listed from the far end, so that many unions race
+    int length = 10000;
+    long[] ids = new long[length - 1];
+    long[] from = new long[length - 1];
+    long[] to = new long[length - 1];
+
+    for (int i = 0; i < length - 1; i++) {
+      ids[i] = i;
+      from[i] = length - i;
+      to[i] = length - i - 1;
+    }
+
+    int[] components = this.algorithms.components(CsrGraph.of(ids, from, to));
+    for (int component : components) {
+      assertEquals(0, component);
+    }
+  }
+
+  @Test
+  public void testLevels() {
+    // the cycle has no order
+    assertNull(this.algorithms.levels(this.graph, null));
+
+    // 1 -> 2 -> 4, 1 -> 3 -> 4 and 5 -> 4: each vertex goes after its longest path
+    CsrGraph diamond = CsrGraph.of(new long[] {1, 2, 3, 4, 5}, new long[] {1, 1, 2, 3, 5}, new long[] {2, 3, 4, 4, 4});
+    assertArrayEquals(new int[] {0, 1, 1, 2, 0}, this.algorithms.levels(diamond, null));
+
+    // earlier levels that every edge still agrees with are only renumbered
+    assertArrayEquals(new int[] {0, 1, 2, 3, 0}, this.algorithms.levels(diamond, new int[] {0, 2, 4, 6, 0}));
+
+    // an edge against the earlier levels relayers what is downstream of it
+    assertArrayEquals(new int[] {0, 1, 1, 2, 0}, this.algorithms.levels(diamond, new int[] {0, 1, 1, 0, 0}));
+    assertNull(this.algorithms.levels(this.graph, new int[] {0, 1, 2, 3, 0, 1}));
+  }
+
+  @Test
+  public void testDegrees() {
+    assertArrayEquals(new int[] {1, 1, 2, 0, 1, 0}, this.algorithms.degrees(this.graph, EdgeDirection.OUT));
+    assertArrayEquals(new int[] {2, 2, 3, 1, 1, 1}, this.algorithms.degrees(this.graph, EdgeDirection.BOTH));
+  }
+
+  @Test
+  public void testBetweenness() {
+    // 1 -> 2 -> 3: only the middle vertex lies on a path between two others
+    CsrGraph line = CsrGraph.of(new long[] {1, 2}, new long[] {1, 2}, new long[] {2, 3});
+
+    assertArrayEquals(new double[] {0, 1, 0}, this.algorithms.betweenness(line, EdgeDirection.OUT, 0), 1e-9);
+    assertArrayEquals(new double[] {0, 1, 0}, this.algorithms.betweenness(line, EdgeDirection.BOTH, 0), 1e-9);
+
+    // in the cycle, 20 is on the path from 10 to 30 and 30 on the paths from 20 to 10 and 40
+    double[] centrality = this.algorithms.betweenness(this.graph, EdgeDirection.OUT, 0);
+    assertArrayEquals(new double[] {1, 2, 3, 0, 0, 0}, centrality, 1e-9);
+    assertArrayEquals(new int[] {2, 1}, GraphAlgorithms.top(centrality, 2));
+  }
+}
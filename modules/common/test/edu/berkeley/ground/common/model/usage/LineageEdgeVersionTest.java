@@ -102,5 +102,9 @@ public class LineageEdgeVersionTest {
     LineageEdgeVersion differentToVersion = new LineageEdgeVersion(1, new HashMap<>(), 2L,
       "http://www.google.com", new HashMap<>(), 3, 4, 10);
     assertFalse(truth.equals(differentToVersion));
+
+    LineageEdgeVersion differentPrincipal = new LineageEdgeVersion(1, new HashMap<>(), 2L,
+      "http://www.google.com", new HashMap<>(), 3, 4, 5, 6L);
+    assertFalse(truth.equals(differentPrincipal));
   }
 }
@@ -0,0 +1,73 @@
+package edu.berkeley.ground.common.model.versions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.version.GroundType;
+import edu.berkeley.ground.common.model.version.TagPredicate;
+import edu.berkeley.ground.common.model.version.TagPredicate.Operator;
+import org.junit.Test;
+
+public class TagPredicateTest {
+
+  @Test
+  public void testFromStrings() throws GroundException {
+    TagPredicate keyOnly = TagPredicate.fromStrings("key", null, null, null);
+    assertFalse(keyOnly.hasValue());
+
+    TagPredicate text = TagPredicate.fromStrings("key", null, "value", null);
+    assertEquals(Operator.EQ, text.getOperator());
+    assertEquals("value", text.getValue());
+    assertNull(text.getValueType());
+
+    TagPredicate range = TagPredicate.fromStrings("rows", "gt", "1000000000", null);
+    assertEquals(Operator.GT, range.getOperator());
+    assertEquals(1000000000L, range.getValue());
+    assertEquals(GroundType.LONG, range.getValueType());
+
+    TagPredicate typed = TagPredicate.fromStrings("count", "lte", "5", "integer");
+    assertEquals(5, typed.getValue());
+    assertEquals(GroundType.INTEGER, typed.getValueType());
+  }
+
+  @Test
+  public void testDecimalValues() throws GroundException {
+    TagPredicate exponent = TagPredicate.fromStrings("rows", "gte", "1e9", null);
+    assertEquals(Operator.GTE, exponent.getOperator());
+    assertEquals(1000000000L, exponent.getValue());
+
+    TagPredicate above = TagPredicate.fromStrings("count", "gte", "1.5", "integer");
+    assertEquals(Operator.GT, above.getOperator());
+    assertEquals(1, above.getValue());
+
+    TagPredicate below = TagPredicate.fromStrings("count", "lt", "-1.5", "long");
+    assertEquals(Operator.LTE, below.getOperator());
+    assertEquals(-2L, below.getValue());
+
+    TagPredicate none = TagPredicate.fromStrings("count", "eq", "1.5", "long");
+    assertEquals(Operator.GT, none.getOperator());
+    assertEquals(Long.MAX_VALUE, none.getValue());
+
+    TagPredicate all = TagPredicate.fromStrings("count", "lt", "1e30", "integer");
+    assertEquals(Operator.GTE, all.getOperator());
+    assertEquals(Long.MIN_VALUE, all.getValue());
+    assertEquals(GroundType.LONG, all.getValueType());
+  }
+
+  @Test(expected = GroundException.class)
+  public void testBadOperator() throws GroundException {
+    TagPredicate.fromStrings("key", "like", "value", null);
+  }
+
+  @Test(expected = GroundException.class)
+  public void testBadRangeValue() throws GroundException {
+    TagPredicate.fromStrings("key", "gt", "notANumber", null);
+  }
+
+  @Test(expected = GroundException.class)
+  public void testBooleanRange() throws GroundException {
+    new TagPredicate("key", Operator.LT, true, GroundType.BOOLEAN);
+  }
+}
@@ -0,0 +1,51 @@
+package edu.berkeley.ground.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.core.RichVersion;
+import edu.berkeley.ground.common.model.version.GroundType;
+import edu.berkeley.ground.common.model.version.Tag;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ContentHashTest {
+
+  @Test
+  public void testIdenticalPayloads() throws GroundException {
+    Map<String, Tag> tags = new LinkedHashMap<>();
+    tags.put("a", new Tag(1, "a", 1, GroundType.INTEGER));
+    tags.put("b", new Tag(1, "b", "x", GroundType.STRING));
+
+    Map<String, Tag> reordered = new LinkedHashMap<>();
+    reordered.put("b", new Tag(2, "b", "x", GroundType.STRING));
+    reordered.put("a", new Tag(2, "a", 1, GroundType.INTEGER));
+
+    RichVersion first = new RichVersion(1, tags, 3L, "http://ground", new HashMap<>());
+    RichVersion second = new RichVersion(2, reordered, 3L, "http://ground", new HashMap<>());
+
+    assertEquals(ContentHash.of(first), ContentHash.of(second));
+  }
+
+  @Test
+  public void testDifferentPayloads() throws GroundException {
+    Map<String, Tag> intTags = new HashMap<>();
+    intTags.put("a", new Tag(1, "a", 1, GroundType.INTEGER));
+
+    Map<String, Tag> longTags = new HashMap<>();
+    longTags.put("a", new Tag(1, "a", 1L, GroundType.LONG));
+
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("http", "GET");
+
+    RichVersion base = new RichVersion(1, intTags, 3L, "http://ground", new HashMap<>());
+
+    assertNotEquals(ContentHash.of(base), ContentHash.of(new RichVersion(1, longTags, 3L, "http://ground", new HashMap<>())));
+    assertNotEquals(ContentHash.of(base), ContentHash.of(new RichVersion(1, intTags, -1L, "http://ground", new HashMap<>())));
+    assertNotEquals(ContentHash.of(base), ContentHash.of(new RichVersion(1, intTags, 3L, null, new HashMap<>())));
+    assertNotEquals(ContentHash.of(base), ContentHash.of(new RichVersion(1, intTags, 3L, "http://ground", parameters)));
+  }
+}
@@ -0,0 +1,89 @@
+package edu.berkeley.ground.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class DeltaMapTest {
+
+  @Test
+  public void testApplyChanges() {
+    Map<String, Integer> base = new HashMap<>();
+    base.put("a", 1);
+    base.put("b", 2);
+    base.put("c", 3);
+
+    Map<String, Integer> changes = new HashMap<>();
+    changes.put("b", 20);
+    changes.put("d", 4);
+
+    Map<String, Integer> result = DeltaMap.of(base, changes, Collections.singleton("c"));
+
+    Map<String, Integer> expected = new HashMap<>();
+    expected.put("a", 1);
+    expected.put("b", 20);
+    expected.put("d", 4);
+
+    assertEquals(expected, result);
+    assertEquals(3, result.size());
+    assertFalse(result.containsKey("c"));
+    assertNull(result.get("c"));
+    assertEquals(expected, new HashMap<>(result));
+  }
+
+  @Test
+  public void testRemovalOfMissingKey() {
+    Map<String, Integer> base = Collections.singletonMap("a", 1);
+    Map<String, Integer> result = DeltaMap.of(base, Collections.emptyMap(), Collections.singleton("z"));
+
+    assertEquals(1, result.size());
+    assertEquals(base, result);
+  }
+
+  @Test
+  public void testDiffRoundTrip() {
+    Map<String, Integer> from = new HashMap<>();
+    from.put("a", 1);
+    from.put("b", 2);
+
+    Map<String, Integer> to = new HashMap<>();
+    to.put("a", 1);
+    to.put("b", 3);
+    to.put("c", 4);
+
+    Map<String, Integer> changes = new HashMap<>();
+    Set<String> removals = new HashSet<>();
+    DeltaMap.diff(from, to, changes, removals);
+
+    assertEquals(2, changes.size());
+    assertTrue(removals.isEmpty());
+    assertEquals(to, DeltaMap.of(from, changes, removals));
+
+    changes.clear();
+    DeltaMap.diff(to, from, changes, removals);
+    assertEquals(Collections.singleton("c"), removals);
+    assertEquals(from, DeltaMap.of(to, changes, removals));
+  }
+
+  @Test
+  public void testLongChainIsFlattened() {
+    Map<String, Integer> map = new HashMap<>();
+
+    for (int i = 0; i < DeltaMap.MAX_DEPTH * 3; i++) {
+      map = DeltaMap.of(map, Collections.singletonMap("key" + i, i), Collections.singleton("key" + (i - 2)));
+    }
+
+    int last = DeltaMap.MAX_DEPTH * 3 - 1;
+    assertEquals(2, map.size());
+    assertEquals(Integer.valueOf(last), map.get("key" + last));
+    assertEquals(Integer.valueOf(last - 1), map.get("key" + (last - 1)));
+  }
+}
@@ -1,7 +1,10 @@
 package edu.berkeley.ground.common.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Test;
 
 public class IdGeneratorTest {
@@ -15,4 +18,47 @@ public class IdGeneratorTest {
 
     assertEquals(expected, id);
   }
+
+  @Test
+  public void testResumeAfter() {
+    IdGenerator generator = new IdGenerator(1, 4, true);
+    assertEquals(1L << 62, generator.getFirstId());
+    assertEquals((2L << 62) - 1, generator.getLastId());
+
+    generator.resumeAfter((1L << 62) | 10L, 0, (1L << 62) | 20L);
+    assertEquals((1L << 62) | 21L, generator.generateVersionId());
+
+    IdGenerator separate = new IdGenerator(1, 4, false);
+    separate.resumeAfter((1L << 62) | 10L, 0, (1L << 62) | 20L);
+    assertEquals((1L << 62) | 11L, separate.generateVersionId());
+    assertEquals((1L << 62) | 1L, separate.generateSuccessorId());
+    assertEquals((1L << 62) | 21L, separate.generateItemId());
+  }
+
+  @Test
+  public void testListener() {
+    IdGenerator generator = new IdGenerator(1, 4, true);
+    AtomicLong last = new AtomicLong();
+    generator.setListener(last::set);
+
+    long id = generator.generateItemId();
+    assertEquals(id, last.get());
+    id = generator.generateSuccessorId();
+    assertEquals(id, last.get());
+  }
+
+  @Test
+  public void testLostLease() {
+    AtomicBoolean held = new AtomicBoolean(true);
+    IdGenerator generator = new IdGenerator(2, 4, true, held::get);
+    assertEquals((2L << 62) | 1L, generator.generateItemId());
+
+    held.set(false);
+    try {
+      generator.generateVersionId();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("The lease on machine id 2 was lost; no more ids will be generated.", e.getMessage());
+    }
+  }
 }
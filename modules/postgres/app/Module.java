@@ -1,5 +1,7 @@
 import com.google.inject.AbstractModule;
+import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.start.ApplicationStart;
+import edu.berkeley.ground.postgres.start.IdGeneratorProvider;
 import java.time.Clock;
 
 public class Module extends AbstractModule {
@@ -8,5 +10,6 @@ public class Module extends AbstractModule {
   public void configure() {
     bind(Clock.class).toInstance(Clock.systemDefaultZone());
     bind(ApplicationStart.class).asEagerSingleton();
+    bind(IdGenerator.class).toProvider(IdGeneratorProvider.class).asEagerSingleton();
   }
 }
@@ -0,0 +1,124 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.controllers;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.pattern.PatternsCS;
+import akka.stream.javadsl.Source;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.version.Change;
+import edu.berkeley.ground.postgres.dao.version.PostgresChangeLogDao;
+import edu.berkeley.ground.postgres.util.GroundUtils;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import play.db.Database;
+import play.libs.EventSource;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Result;
+import scala.concurrent.ExecutionContextExecutor;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Serves the change log as a feed of server-sent events, one per item or version created. Each
+ * event's id is its offset in the log.
+ */
+public class ChangeController extends Controller {
+
+  private static final int DEFAULT_LIMIT = 1000;
+  private static final int MAX_LIMIT = 10000;
+
+  private ActorSystem actorSystem;
+  private ExecutionContextExecutor dbContext;
+
+  private PostgresChangeLogDao postgresChangeLogDao;
+
+  @Inject
+  final void injectUtils(final Database dbSource, final ActorSystem actorSystem) {
+    this.actorSystem = actorSystem;
+    this.dbContext = actorSystem.dispatchers().lookup("ground.db.context");
+
+    this.postgresChangeLogDao = new PostgresChangeLogDao(dbSource);
+  }
+
+  /**
+   * Stream the changes after an offset: the "after" parameter, or the Last-Event-ID header that
+   * an EventSource sends when it reconnects, or from the beginning of the log. The stream follows
+   * new changes as they are committed, unless follow=false, which ends it once it has caught up.
+   * The log is read limit changes at a time.
+   */
+  public final Result getChanges() {
+    Map<String, String[]> queryString = request().queryString();
+
+    try {
+      long afterOffset = GroundUtils.getLongFromQuery(queryString, "after", this.getLastEventId());
+      int limit = (int) Math.max(1, Math.min(MAX_LIMIT, GroundUtils.getLongFromQuery(queryString, "limit", DEFAULT_LIMIT)));
+      boolean follow = !"false".equals(request().getQueryString("follow"));
+
+      Source<EventSource.Event, NotUsed> events = Source.unfoldAsync(afterOffset, offset -> this.poll(offset, limit, follow))
+                                                    .mapConcat(changes -> changes)
+                                                    .map(change -> EventSource.Event.event(Json.toJson(change))
+                                                                     .withId(String.valueOf(change.getOffset())));
+
+      return ok().chunked(events.via(EventSource.flow())).as(Http.MimeTypes.EVENT_STREAM);
+    } catch (GroundException e) {
+      return GroundUtils.handleException(e, request());
+    }
+  }
+
+  private long getLastEventId() throws GroundException {
+    String lastEventId = request().getHeader("Last-Event-ID");
+
+    try {
+      return lastEventId == null ? 0 : Long.parseLong(lastEventId);
+    } catch (NumberFormatException e) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Invalid value for Last-Event-ID: %s.", lastEventId));
+    }
+  }
+
+  // the next changes after offset; once caught up, an empty batch after the poll interval
+  private CompletionStage<Optional<Pair<Long, List<Change>>>> poll(long offset, int limit, boolean follow) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return this.postgresChangeLogDao.retrieve(offset, limit);
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      this.dbContext)
+             .thenCompose(changes -> {
+               if (!changes.isEmpty()) {
+                 return CompletableFuture.completedFuture(Optional.of(Pair.create(changes.get(changes.size() - 1).getOffset(), changes)));
+               }
+
+               if (!follow) {
+                 return CompletableFuture.completedFuture(Optional.empty());
+               }
+
+               FiniteDuration interval = new FiniteDuration(Long.getLong("ground.changes.poll.millis", 1000), TimeUnit.MILLISECONDS);
+               return PatternsCS.after(interval, this.actorSystem.scheduler(), this.dbContext,
+                 () -> CompletableFuture.completedFuture(Optional.of(Pair.create(offset, Collections.<Change>emptyList()))));
+             });
+  }
+}
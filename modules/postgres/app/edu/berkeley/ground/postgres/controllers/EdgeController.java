@@ -3,18 +3,26 @@ package edu.berkeley.ground.postgres.controllers;
 import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.Edge;
+import edu.berkeley.ground.common.model.core.EdgeDirection;
 import edu.berkeley.ground.common.model.core.EdgeVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.core.PostgresEdgeDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresEdgeVersionDao;
+import edu.berkeley.ground.postgres.dao.core.PostgresNodeDao;
 import edu.berkeley.ground.postgres.util.GroundUtils;
+import edu.berkeley.ground.postgres.util.KeysetStream;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import javax.inject.Inject;
 import play.cache.CacheApi;
 import play.db.Database;
@@ -26,29 +34,95 @@ import play.mvc.Results;
 
 public class EdgeController extends Controller {
 
+  private static final int DEFAULT_LIMIT = 1000;
+  private static final int MAX_LIMIT = 10000;
+  private static final int MAX_HOPS = 10;
+
   private CacheApi cache;
   private ActorSystem actorSystem;
 
   private PostgresEdgeDao postgresEdgeDao;
   private PostgresEdgeVersionDao postgresEdgeVersionDao;
+  private PostgresNodeDao postgresNodeDao;
 
   @Inject
   final void injectUtils(final CacheApi cache, final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) {
     this.actorSystem = actorSystem;
     this.cache = cache;
 
-    this.postgresEdgeDao = new PostgresEdgeDao(dbSource, idGenerator);
-    this.postgresEdgeVersionDao = new PostgresEdgeVersionDao(dbSource, idGenerator);
+    Database shardedSource = new ShardedDatabase(dbSource);
+    this.postgresEdgeDao = new PostgresEdgeDao(shardedSource, idGenerator);
+    this.postgresEdgeVersionDao = new PostgresEdgeVersionDao(shardedSource, idGenerator);
+    this.postgresNodeDao = new PostgresNodeDao(shardedSource, idGenerator);
   }
 
   public final CompletionStage<Result> getEdge(final String sourceKey) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "edges",
-            () -> Json.toJson(this.postgresEdgeDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          // the item as it was at some point in time is never cached
+          Instant asOf = GroundUtils.getInstantFromQuery(request().queryString(), "asOf");
+
+          return ShardRouter.onItem("edge", sourceKey, () -> {
+            if (asOf != null) {
+              return Json.toJson(this.postgresEdgeDao.retrieveFromDatabase(sourceKey, asOf));
+            }
+
+            return this.cache.getOrElse(
+              "edges." + sourceKey,
+              () -> Json.toJson(this.postgresEdgeDao.retrieveFromDatabase(sourceKey)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          });
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  /**
+   * Stream the edges of a node, one page at a time. The direction parameter selects the edges
+   * going in, out, or both. Pass the returned "next" id as "after" to retrieve the following page.
+   */
+  public final CompletionStage<Result> getEdgesByNode(final String sourceKey) {
+    return this.page(direction -> {
+      long nodeId = ShardRouter.onItem("node", sourceKey, () -> this.postgresNodeDao.retrieveFromDatabase(sourceKey).getId());
+
+      // the edges of a node may have been placed on any shard
+      return ShardRouter.onAllShards((after, limit) -> this.postgresEdgeDao.retrieveIdsByNode(nodeId, direction, after, limit));
+    }, ShardRouter.onAnyShard(id -> Json.toJson(this.postgresEdgeDao.retrieveFromDatabase(id))));
+  }
+
+  /**
+   * Stream the edge versions that are valid for a node version, one page at a time. The direction
+   * parameter selects the edge versions going in, out, or both. Pass the returned "next" id as
+   * "after" to retrieve the following page.
+   */
+  public final CompletionStage<Result> getEdgeVersionsByNodeVersion(Long id) {
+    return this.page(
+      direction -> ShardRouter.onAllShards((after, limit) -> this.postgresEdgeVersionDao.retrieveIdsValidForNodeVersion(id, direction, after, limit)),
+      ShardRouter.onAnyShard(edgeVersionId -> Json.toJson(this.postgresEdgeVersionDao.retrieveFromDatabase(edgeVersionId))));
+  }
+
+  /**
+   * Retrieve the nodes within the given number of hops of a node, following edges in the given
+   * direction, along with the edges followed.
+   */
+  public final CompletionStage<Result> getNodeNeighborhood(final String sourceKey) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          Map<String, String[]> queryString = request().queryString();
+          EdgeDirection direction = EdgeDirection.parse(request().getQueryString("direction"));
+          int hops = (int) Math.max(0, Math.min(MAX_HOPS, GroundUtils.getLongFromQuery(queryString, "hops", 1)));
+
+          // only the edges placed on the node's own shard are followed
+          return ShardRouter.onItem("node", sourceKey, () -> {
+            long nodeId = this.postgresNodeDao.retrieveFromDatabase(sourceKey).getId();
+            return Json.toJson(this.postgresEdgeDao.retrieveNeighborhood(nodeId, direction, hops));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -58,6 +132,29 @@ public class EdgeController extends Controller {
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
+  private CompletionStage<Result> page(PageQuery query, KeysetStream.Hydrator hydrator) {
+    Map<String, String[]> queryString = request().queryString();
+    String directionName = request().getQueryString("direction");
+    Executor executor = PostgresUtils.getDbSourceHttpContext(this.actorSystem);
+
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          KeysetStream.PageFetcher fetcher = query.getFetcher(EdgeDirection.parse(directionName));
+          long afterId = GroundUtils.getLongFromQuery(queryString, "after", Long.MIN_VALUE);
+          int limit = (int) Math.max(1, Math.min(MAX_LIMIT, GroundUtils.getLongFromQuery(queryString, "limit", DEFAULT_LIMIT)));
+          boolean hydrate = GroundUtils.getBooleanFromQuery(queryString, "hydrate");
+
+          return KeysetStream.stream(fetcher, hydrate ? hydrator : null, afterId, limit, executor);
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      executor)
+             .thenApply(source -> ok().chunked(source).as("application/json"))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
   @BodyParser.Of(BodyParser.Json.class)
   public final CompletionStage<Result> addEdge() {
     return CompletableFuture.supplyAsync(
@@ -66,8 +163,10 @@ public class EdgeController extends Controller {
         Edge edge = Json.fromJson(json, Edge.class);
 
         try {
-          edge = this.postgresEdgeDao.create(edge);
-        } catch (GroundException e) {
+          final Edge newEdge = edge;
+          edge = ShardRouter.onNewItem("edge", edge.getSourceKey(), Arrays.asList(edge.getFromNodeId(), edge.getToNodeId()),
+            () -> this.postgresEdgeDao.create(newEdge));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
 
@@ -82,16 +181,20 @@ public class EdgeController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "edge_versions",
-            () -> Json.toJson(this.postgresEdgeVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          return ShardRouter.onAnyShard(() -> {
+            String contentHash = GroundUtils.getContentHash(this.cache, "edge_versions." + id,
+              () -> this.postgresEdgeVersionDao.retrieveContentHash(id));
+
+            return GroundUtils.versionWithETag(request(), contentHash, () -> this.cache.getOrElse(
+              "edge_versions." + id,
+              () -> Json.toJson(this.postgresEdgeVersionDao.retrieveFromDatabase(id)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs"))));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
       },
       PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -106,8 +209,9 @@ public class EdgeController extends Controller {
         EdgeVersion edgeVersion = Json.fromJson(json, EdgeVersion.class);
 
         try {
-          edgeVersion = this.postgresEdgeVersionDao.create(edgeVersion, parentIds);
-        } catch (GroundException e) {
+          final EdgeVersion newEdgeVersion = edgeVersion;
+          edgeVersion = ShardRouter.onItem(edgeVersion.getEdgeId(), () -> this.postgresEdgeVersionDao.create(newEdgeVersion, parentIds));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
 
@@ -117,4 +221,10 @@ public class EdgeController extends Controller {
              .thenApply(Results::created)
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
+
+  @FunctionalInterface
+  private interface PageQuery {
+
+    KeysetStream.PageFetcher getFetcher(EdgeDirection direction) throws Exception;
+  }
 }
@@ -0,0 +1,238 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.controllers;
+
+import akka.actor.ActorSystem;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.berkeley.ground.common.analytics.CsrGraph;
+import edu.berkeley.ground.common.analytics.GraphAlgorithms;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.core.EdgeDirection;
+import edu.berkeley.ground.postgres.dao.core.PostgresCsrGraphLoader;
+import edu.berkeley.ground.postgres.util.GroundUtils;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+import javax.inject.Inject;
+import play.db.Database;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * Runs graph algorithms over the edge set of a graph version. The vertices are the node versions
+ * that the edge versions connect, and results refer to them by id.
+ */
+public class GraphAnalyticsController extends Controller {
+
+  private static final int DEFAULT_TOP = 10;
+  private static final int MAX_TOP = 1000;
+
+  // each sample is a search over the whole graph
+  private static final int DEFAULT_SAMPLES = 64;
+  private static final int MAX_SAMPLES = 1024;
+
+  private ActorSystem actorSystem;
+
+  private PostgresCsrGraphLoader graphLoader;
+  private GraphAlgorithms algorithms;
+
+  @Inject
+  final void injectUtils(final Database dbSource, final ActorSystem actorSystem) {
+    this.actorSystem = actorSystem;
+
+    this.graphLoader = PostgresCsrGraphLoader.forGraphs(dbSource);
+    this.algorithms = new GraphAlgorithms(new ForkJoinPool(Integer.getInteger("ground.graphs.analytics.parallelism",
+      Runtime.getRuntime().availableProcessors())));
+  }
+
+  /**
+   * The degree of the graph's node versions: the largest and the mean degree, and the node versions
+   * with the largest degrees.
+   */
+  public final CompletionStage<Result> getDegrees(Long id) {
+    return this.analyze(id, graph -> {
+      EdgeDirection direction = EdgeDirection.parse(request().getQueryString("direction"));
+      int[] degrees = this.algorithms.degrees(graph, direction);
+
+      double[] scores = new double[degrees.length];
+      long total = 0;
+      for (int vertex = 0; vertex < degrees.length; vertex++) {
+        scores[vertex] = degrees[vertex];
+        total += degrees[vertex];
+      }
+
+      ObjectNode result = this.summary(id, graph);
+      result.put("mean", degrees.length == 0 ? 0.0 : (double) total / degrees.length);
+      result.put("max", degrees.length == 0 ? 0 : degrees[GraphAlgorithms.top(scores, 1)[0]]);
+      result.set("top", this.top(graph, scores, "degree"));
+      return result;
+    });
+  }
+
+  /**
+   * The weakly connected components of the graph. Each component is named after its node version
+   * with the smallest id.
+   */
+  public final CompletionStage<Result> getComponents(Long id) {
+    return this.analyze(id, graph -> {
+      int[] components = this.algorithms.components(graph);
+
+      Map<Long, Integer> sizes = new HashMap<>();
+      ObjectNode membership = Json.newObject();
+      for (int vertex = 0; vertex < components.length; vertex++) {
+        long componentId = graph.getVertexId(components[vertex]);
+        sizes.merge(componentId, 1, Integer::sum);
+        membership.put(String.valueOf(graph.getVertexId(vertex)), componentId);
+      }
+
+      ObjectNode result = this.summary(id, graph);
+      result.put("count", sizes.size());
+      result.set("sizes", Json.toJson(sizes));
+      result.set("membership", membership);
+      return result;
+    });
+  }
+
+  /**
+   * The node versions within the given number of hops of a source node version.
+   */
+  public final CompletionStage<Result> getNeighborhood(Long id) {
+    return this.analyze(id, graph -> {
+      Map<String, String[]> queryString = request().queryString();
+      int source = this.getVertex(graph, id, queryString, "source");
+      EdgeDirection direction = EdgeDirection.parse(request().getQueryString("direction"));
+      int hops = (int) Math.max(0, GroundUtils.getLongFromQuery(queryString, "hops", 1));
+
+      int[] distances = this.algorithms.distances(graph, source, direction, hops);
+      ObjectNode nodes = Json.newObject();
+      for (int vertex = 0; vertex < distances.length; vertex++) {
+        if (distances[vertex] >= 0) {
+          nodes.put(String.valueOf(graph.getVertexId(vertex)), distances[vertex]);
+        }
+      }
+
+      ObjectNode result = this.summary(id, graph);
+      result.put("source", graph.getVertexId(source));
+      result.set("nodes", nodes);
+      return result;
+    });
+  }
+
+  /**
+   * A path with the fewest hops between two node versions, as node versions and the edge versions
+   * between them; both are empty if there is no path.
+   */
+  public final CompletionStage<Result> getShortestPath(Long id) {
+    return this.analyze(id, graph -> {
+      Map<String, String[]> queryString = request().queryString();
+      int from = this.getVertex(graph, id, queryString, "from");
+      int to = this.getVertex(graph, id, queryString, "to");
+      EdgeDirection direction = EdgeDirection.parse(request().getQueryString("direction"));
+
+      int[] path = this.algorithms.shortestPath(graph, from, to, direction);
+      ArrayNode nodeVersionIds = Json.newArray();
+      ArrayNode edgeVersionIds = Json.newArray();
+
+      for (int i = 0; i < path.length; i++) {
+        nodeVersionIds.add(graph.getVertexId(path[i]));
+
+        if (i > 0) {
+          edgeVersionIds.add(graph.getEdgeId(path[i - 1], path[i], direction));
+        }
+      }
+
+      ObjectNode result = this.summary(id, graph);
+      result.set("nodeVersionIds", nodeVersionIds);
+      result.set("edgeVersionIds", edgeVersionIds);
+      return result;
+    });
+  }
+
+  /**
+   * The node versions with the largest betweenness centrality, estimated from samples source node
+   * versions (64 by default, at most 1024). It is exact when there are no more node versions than
+   * samples.
+   */
+  public final CompletionStage<Result> getBetweenness(Long id) {
+    return this.analyze(id, graph -> {
+      EdgeDirection direction = EdgeDirection.parse(request().getQueryString("direction"));
+      int samples = (int) Math.max(1, Math.min(MAX_SAMPLES, GroundUtils.getLongFromQuery(request().queryString(), "samples", DEFAULT_SAMPLES)));
+
+      ObjectNode result = this.summary(id, graph);
+      result.set("top", this.top(graph, this.algorithms.betweenness(graph, direction, samples), "score"));
+      return result;
+    });
+  }
+
+  private CompletionStage<Result> analyze(long id, Analysis analysis) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return analysis.run(this.graphLoader.load(id));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  private ObjectNode summary(long id, CsrGraph graph) {
+    ObjectNode result = Json.newObject();
+    result.put("graphVersionId", id);
+    result.put("vertices", graph.getVertexCount());
+    result.put("edges", graph.getEdgeCount());
+    return result;
+  }
+
+  private ArrayNode top(CsrGraph graph, double[] scores, String scoreName) throws GroundException {
+    int count = (int) Math.max(1, Math.min(MAX_TOP, GroundUtils.getLongFromQuery(request().queryString(), "top", DEFAULT_TOP)));
+    ArrayNode top = Json.newArray();
+
+    for (int vertex : GraphAlgorithms.top(scores, count)) {
+      top.addObject().put("nodeVersionId", graph.getVertexId(vertex)).put(scoreName, scores[vertex]);
+    }
+
+    return top;
+  }
+
+  private int getVertex(CsrGraph graph, long id, Map<String, String[]> queryString, String name) throws GroundException {
+    if (!queryString.containsKey(name)) {
+      throw new GroundException(ExceptionType.OTHER, String.format("A %s node version has to be specified.", name));
+    }
+
+    long nodeVersionId = GroundUtils.getLongFromQuery(queryString, name, -1);
+    int vertex = graph.indexOf(nodeVersionId);
+
+    if (vertex < 0) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Node version %d is not in graph version %d.", nodeVersionId, id));
+    }
+
+    return vertex;
+  }
+
+  @FunctionalInterface
+  private interface Analysis {
+
+    JsonNode run(CsrGraph graph) throws GroundException;
+  }
+}
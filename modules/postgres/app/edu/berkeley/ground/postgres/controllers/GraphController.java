@@ -14,14 +14,17 @@ package edu.berkeley.ground.postgres.controllers;
 import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.Graph;
 import edu.berkeley.ground.common.model.core.GraphVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
+import edu.berkeley.ground.postgres.dao.core.PostgresEdgeVersionDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresGraphDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresGraphVersionDao;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -42,25 +45,37 @@ public class GraphController extends Controller {
 
   private PostgresGraphDao postgresGraphDao;
   private PostgresGraphVersionDao postgresGraphVersionDao;
+  private PostgresEdgeVersionDao postgresEdgeVersionDao;
 
   @Inject
   final void injectUtils(final CacheApi cache, final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) {
     this.actorSystem = actorSystem;
     this.cache = cache;
 
-    this.postgresGraphDao = new PostgresGraphDao(dbSource, idGenerator);
+    Database shardedSource = new ShardedDatabase(dbSource);
+    this.postgresGraphDao = new PostgresGraphDao(shardedSource, idGenerator);
 
-    this.postgresGraphVersionDao = new PostgresGraphVersionDao(dbSource, idGenerator);
+    this.postgresGraphVersionDao = new PostgresGraphVersionDao(shardedSource, idGenerator);
+    this.postgresEdgeVersionDao = new PostgresEdgeVersionDao(shardedSource, idGenerator);
   }
 
   public final CompletionStage<Result> getGraph(String sourceKey) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "graphs",
-            () -> Json.toJson(this.postgresGraphDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          // the item as it was at some point in time is never cached
+          Instant asOf = GroundUtils.getInstantFromQuery(request().queryString(), "asOf");
+
+          return ShardRouter.onItem("graph", sourceKey, () -> {
+            if (asOf != null) {
+              return Json.toJson(this.postgresGraphDao.retrieveFromDatabase(sourceKey, asOf));
+            }
+
+            return this.cache.getOrElse(
+              "graphs." + sourceKey,
+              () -> Json.toJson(this.postgresGraphDao.retrieveFromDatabase(sourceKey)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -74,9 +89,62 @@ public class GraphController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse("graph_versions",
-            () -> Json.toJson(this.postgresGraphVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          return ShardRouter.onAnyShard(() -> {
+            String contentHash = GroundUtils.getContentHash(this.cache, "graph_versions." + id,
+              () -> this.postgresGraphVersionDao.retrieveContentHash(id));
+
+            return GroundUtils.versionWithETag(request(), contentHash, () -> this.cache.getOrElse(
+              "graph_versions." + id,
+              () -> Json.toJson(this.postgresGraphVersionDao.retrieveFromDatabase(id)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs"))));
+          });
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> diffGraphVersions(Long from, Long to) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          JsonNode diff = Json.toJson(ShardRouter.onAnyShard(() -> this.postgresGraphVersionDao.diff(from, to)));
+
+          if (GroundUtils.getBooleanFromQuery(request().queryString(), "hydrate")) {
+            GroundUtils.hydrateChangedEdges(diff, ShardRouter.onAnyShard(id -> Json.toJson(this.postgresEdgeVersionDao.retrieveFromDatabase(id))));
+          }
+
+          return diff;
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> getGraphVersionsByEdgeVersion(Long id) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return Json.toJson(ShardRouter.onAllShards(() -> this.postgresGraphVersionDao.retrieveIdsByEdgeVersion(id)));
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> getGraphVersionsByNodeVersion(Long id) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return Json.toJson(ShardRouter.onAllShards(() -> this.postgresGraphVersionDao.retrieveIdsByNodeVersion(id)));
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -94,8 +162,9 @@ public class GraphController extends Controller {
         Graph graph = Json.fromJson(json, Graph.class);
 
         try {
-          graph = this.postgresGraphDao.create(graph);
-        } catch (GroundException e) {
+          final Graph newGraph = graph;
+          graph = ShardRouter.onNewItem("graph", graph.getSourceKey(), () -> this.postgresGraphDao.create(newGraph));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
 
@@ -113,11 +182,26 @@ public class GraphController extends Controller {
         JsonNode json = request().body().asJson();
         List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
         ((ObjectNode) json).remove("parentIds");
+
+        // a version can be given as the edges added to and removed from its first parent
+        boolean isDelta = json.has("addedEdgeVersionIds") || json.has("removedEdgeVersionIds");
+        List<Long> addedEdgeVersionIds = GroundUtils.getListFromJson(json, "addedEdgeVersionIds");
+        List<Long> removedEdgeVersionIds = GroundUtils.getListFromJson(json, "removedEdgeVersionIds");
+        ((ObjectNode) json).remove("addedEdgeVersionIds");
+        ((ObjectNode) json).remove("removedEdgeVersionIds");
+
         GraphVersion graphVersion = Json.fromJson(json, GraphVersion.class);
 
         try {
-          graphVersion = this.postgresGraphVersionDao.create(graphVersion, parentIds);
-        } catch (GroundException e) {
+          final GraphVersion newGraphVersion = graphVersion;
+          graphVersion = ShardRouter.onItem(graphVersion.getGraphId(), () -> {
+            if (isDelta) {
+              return this.postgresGraphVersionDao.create(newGraphVersion, parentIds, addedEdgeVersionIds, removedEdgeVersionIds);
+            }
+
+            return this.postgresGraphVersionDao.create(newGraphVersion, parentIds);
+          });
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
         return Json.toJson(graphVersion);
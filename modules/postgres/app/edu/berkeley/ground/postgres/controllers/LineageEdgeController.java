@@ -3,7 +3,6 @@ package edu.berkeley.ground.postgres.controllers;
 import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.usage.LineageEdge;
 import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
@@ -11,6 +10,9 @@ import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeVersionDao;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -37,18 +39,28 @@ public class LineageEdgeController extends Controller {
     this.actorSystem = actorSystem;
     this.cache = cache;
 
-    this.postgresLineageEdgeDao = new PostgresLineageEdgeDao(dbSource, idGenerator);
-    this.postgresLineageEdgeVersionDao = new PostgresLineageEdgeVersionDao(dbSource, idGenerator);
+    Database shardedSource = new ShardedDatabase(dbSource);
+    this.postgresLineageEdgeDao = new PostgresLineageEdgeDao(shardedSource, idGenerator);
+    this.postgresLineageEdgeVersionDao = new PostgresLineageEdgeVersionDao(shardedSource, idGenerator);
   }
 
   public final CompletionStage<Result> getLineageEdge(String sourceKey) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_edges",
-            () -> Json.toJson(this.postgresLineageEdgeDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          // the item as it was at some point in time is never cached
+          Instant asOf = GroundUtils.getInstantFromQuery(request().queryString(), "asOf");
+
+          return ShardRouter.onItem("lineage_edge", sourceKey, () -> {
+            if (asOf != null) {
+              return Json.toJson(this.postgresLineageEdgeDao.retrieveFromDatabase(sourceKey, asOf));
+            }
+
+            return this.cache.getOrElse(
+              "lineage_edges." + sourceKey,
+              () -> Json.toJson(this.postgresLineageEdgeDao.retrieveFromDatabase(sourceKey)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -62,16 +74,20 @@ public class LineageEdgeController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_edge_versions",
-            () -> Json.toJson(this.postgresLineageEdgeVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          return ShardRouter.onAnyShard(() -> {
+            String contentHash = GroundUtils.getContentHash(this.cache, "lineage_edge_versions." + id,
+              () -> this.postgresLineageEdgeVersionDao.retrieveContentHash(id));
+
+            return GroundUtils.versionWithETag(request(), contentHash, () -> this.cache.getOrElse(
+              "lineage_edge_versions." + id,
+              () -> Json.toJson(this.postgresLineageEdgeVersionDao.retrieveFromDatabase(id)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs"))));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
       },
       PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -82,8 +98,9 @@ public class LineageEdgeController extends Controller {
         JsonNode json = request().body().asJson();
         LineageEdge lineageEdge = Json.fromJson(json, LineageEdge.class);
         try {
-          lineageEdge = this.postgresLineageEdgeDao.create(lineageEdge);
-        } catch (GroundException e) {
+          final LineageEdge newLineageEdge = lineageEdge;
+          lineageEdge = ShardRouter.onNewItem("lineage_edge", lineageEdge.getSourceKey(), () -> this.postgresLineageEdgeDao.create(newLineageEdge));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
         return Json.toJson(lineageEdge);
@@ -104,8 +121,10 @@ public class LineageEdgeController extends Controller {
         LineageEdgeVersion lineageEdgeVersion = Json.fromJson(json, LineageEdgeVersion.class);
 
         try {
-          lineageEdgeVersion = this.postgresLineageEdgeVersionDao.create(lineageEdgeVersion, parentIds);
-        } catch (GroundException e) {
+          final LineageEdgeVersion newLineageEdgeVersion = lineageEdgeVersion;
+          lineageEdgeVersion = ShardRouter.onItem(lineageEdgeVersion.getLineageEdgeId(),
+            () -> this.postgresLineageEdgeVersionDao.create(newLineageEdgeVersion, parentIds));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
         return Json.toJson(lineageEdgeVersion);
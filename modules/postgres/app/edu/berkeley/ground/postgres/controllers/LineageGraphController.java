@@ -3,14 +3,17 @@ package edu.berkeley.ground.postgres.controllers;
 import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.usage.LineageGraph;
 import edu.berkeley.ground.common.model.usage.LineageGraphVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
+import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeVersionDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageGraphDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageGraphVersionDao;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -31,6 +34,7 @@ public class LineageGraphController extends Controller {
 
   private PostgresLineageGraphDao postgresLineageGraphDao;
   private PostgresLineageGraphVersionDao postgresLineageGraphVersionDao;
+  private PostgresLineageEdgeVersionDao postgresLineageEdgeVersionDao;
 
   @Inject
   final void injectUtils(final CacheApi cache, final Database dbSource,
@@ -38,17 +42,29 @@ public class LineageGraphController extends Controller {
     this.actorSystem = actorSystem;
     this.cache = cache;
 
-    this.postgresLineageGraphDao = new PostgresLineageGraphDao(dbSource, idGenerator);
+    Database shardedSource = new ShardedDatabase(dbSource);
+    this.postgresLineageGraphDao = new PostgresLineageGraphDao(shardedSource, idGenerator);
+    this.postgresLineageGraphVersionDao = new PostgresLineageGraphVersionDao(shardedSource, idGenerator);
+    this.postgresLineageEdgeVersionDao = new PostgresLineageEdgeVersionDao(shardedSource, idGenerator);
   }
 
   public final CompletionStage<Result> getLineageGraph(String sourceKey) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_graphs",
-            () -> Json.toJson(this.postgresLineageGraphDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          // the item as it was at some point in time is never cached
+          Instant asOf = GroundUtils.getInstantFromQuery(request().queryString(), "asOf");
+
+          return ShardRouter.onItem("lineage_graph", sourceKey, () -> {
+            if (asOf != null) {
+              return Json.toJson(this.postgresLineageGraphDao.retrieveFromDatabase(sourceKey, asOf));
+            }
+
+            return this.cache.getOrElse(
+              "lineage_graphs." + sourceKey,
+              () -> Json.toJson(this.postgresLineageGraphDao.retrieveFromDatabase(sourceKey)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -62,10 +78,35 @@ public class LineageGraphController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_graph_versions",
-            () -> Json.toJson(this.postgresLineageGraphVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          return ShardRouter.onAnyShard(() -> {
+            String contentHash = GroundUtils.getContentHash(this.cache, "lineage_graph_versions." + id,
+              () -> this.postgresLineageGraphVersionDao.retrieveContentHash(id));
+
+            return GroundUtils.versionWithETag(request(), contentHash, () -> this.cache.getOrElse(
+              "lineage_graph_versions." + id,
+              () -> Json.toJson(this.postgresLineageGraphVersionDao.retrieveFromDatabase(id)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs"))));
+          });
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(actorSystem))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> diffLineageGraphVersions(Long from, Long to) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          JsonNode diff = Json.toJson(ShardRouter.onAnyShard(() -> this.postgresLineageGraphVersionDao.diff(from, to)));
+
+          if (GroundUtils.getBooleanFromQuery(request().queryString(), "hydrate")) {
+            GroundUtils.hydrateChangedEdges(diff,
+              ShardRouter.onAnyShard(id -> Json.toJson(this.postgresLineageEdgeVersionDao.retrieveFromDatabase(id))));
+          }
+
+          return diff;
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -75,6 +116,41 @@ public class LineageGraphController extends Controller {
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
+  public final CompletionStage<Result> getLineageGraphVersionsByLineageEdgeVersion(Long id) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return Json.toJson(ShardRouter.onAllShards(() -> this.postgresLineageGraphVersionDao.retrieveIdsByLineageEdgeVersion(id)));
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  /**
+   * A topological order of the rich versions of a lineage graph version, grouped into levels.
+   * Lineage graph versions never change, so the order is cached without expiry and may be cached
+   * by clients indefinitely.
+   */
+  public final CompletionStage<Result> getLineageGraphVersionOrder(Long id) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return ShardRouter.onAnyShard(() -> this.cache.getOrElse(
+            "lineage_graph_version_orders." + id,
+            () -> Json.toJson(this.postgresLineageGraphVersionDao.retrieveOrder(id))));
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(order -> Results.ok(order).withHeader(CACHE_CONTROL, "public, max-age=31536000, immutable"))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
   @BodyParser.Of(BodyParser.Json.class)
   public final CompletionStage<Result> createLineageGraph() {
     return CompletableFuture.supplyAsync(
@@ -82,8 +158,10 @@ public class LineageGraphController extends Controller {
         JsonNode json = request().body().asJson();
         LineageGraph lineageGraph = Json.fromJson(json, LineageGraph.class);
         try {
-          lineageGraph = this.postgresLineageGraphDao.create(lineageGraph);
-        } catch (GroundException e) {
+          final LineageGraph newLineageGraph = lineageGraph;
+          lineageGraph = ShardRouter.onNewItem("lineage_graph", lineageGraph.getSourceKey(),
+            () -> this.postgresLineageGraphDao.create(newLineageGraph));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
         return Json.toJson(lineageGraph);
@@ -101,11 +179,25 @@ public class LineageGraphController extends Controller {
         List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
         ((ObjectNode) json).remove("parentIds");
 
+        // a version can be given as the lineage edges added to and removed from its first parent
+        boolean isDelta = json.has("addedLineageEdgeVersionIds") || json.has("removedLineageEdgeVersionIds");
+        List<Long> addedEdgeVersionIds = GroundUtils.getListFromJson(json, "addedLineageEdgeVersionIds");
+        List<Long> removedEdgeVersionIds = GroundUtils.getListFromJson(json, "removedLineageEdgeVersionIds");
+        ((ObjectNode) json).remove("addedLineageEdgeVersionIds");
+        ((ObjectNode) json).remove("removedLineageEdgeVersionIds");
+
         LineageGraphVersion lineageGraphVersion = Json.fromJson(json, LineageGraphVersion.class);
 
         try {
-          lineageGraphVersion = this.postgresLineageGraphVersionDao.create(lineageGraphVersion, parentIds);
-        } catch (GroundException e) {
+          final LineageGraphVersion newLineageGraphVersion = lineageGraphVersion;
+          lineageGraphVersion = ShardRouter.onItem(lineageGraphVersion.getLineageGraphId(), () -> {
+            if (isDelta) {
+              return this.postgresLineageGraphVersionDao.create(newLineageGraphVersion, parentIds, addedEdgeVersionIds, removedEdgeVersionIds);
+            }
+
+            return this.postgresLineageGraphVersionDao.create(newLineageGraphVersion, parentIds);
+          });
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
         return Json.toJson(lineageGraphVersion);
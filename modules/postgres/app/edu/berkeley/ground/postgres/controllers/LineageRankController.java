@@ -0,0 +1,110 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.controllers;
+
+import akka.actor.ActorSystem;
+import edu.berkeley.ground.common.analytics.GraphAlgorithms;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.postgres.dao.usage.PostgresLineageRankDao;
+import edu.berkeley.ground.postgres.jobs.LineageRankJob;
+import edu.berkeley.ground.postgres.util.GroundUtils;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+import javax.inject.Inject;
+import play.db.Database;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * Serves the lineage ranks: how many rich versions are downstream of each rich version in the
+ * lineage graph, and its PageRank.
+ */
+public class LineageRankController extends Controller {
+
+  private static final int DEFAULT_LIMIT = 10;
+  private static final int MAX_LIMIT = 1000;
+
+  private ActorSystem actorSystem;
+
+  private PostgresLineageRankDao postgresLineageRankDao;
+  private LineageRankJob lineageRankJob;
+
+  @Inject
+  final void injectUtils(final Database dbSource, final ActorSystem actorSystem) {
+    this.actorSystem = actorSystem;
+
+    this.postgresLineageRankDao = new PostgresLineageRankDao(dbSource);
+    this.lineageRankJob = new LineageRankJob(dbSource, new GraphAlgorithms(new ForkJoinPool(Integer.getInteger(
+      "ground.graphs.analytics.parallelism", Runtime.getRuntime().availableProcessors()))));
+  }
+
+  /**
+   * The most critical rich versions, ordered by=downstream (the default) or by=pagerank.
+   */
+  public final CompletionStage<Result> getTopLineageRanks() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          String by = request().getQueryString("by");
+          if (by != null && !by.equals("downstream") && !by.equals("pagerank")) {
+            throw new GroundException(ExceptionType.OTHER, String.format("Unknown lineage rank order %s.", by));
+          }
+
+          int limit = (int) Math.max(1, Math.min(MAX_LIMIT, GroundUtils.getLongFromQuery(request().queryString(), "limit", DEFAULT_LIMIT)));
+          return Json.toJson(this.postgresLineageRankDao.retrieveTop("pagerank".equals(by), limit));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> getLineageRank(Long id) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return Json.toJson(this.postgresLineageRankDao.retrieveFromDatabase(id));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  /**
+   * Bring the ranks up to date with the lineage edges; full=true recomputes every rank.
+   */
+  public final CompletionStage<Result> refreshLineageRanks() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          boolean full = Boolean.parseBoolean(request().getQueryString("full"));
+          return Json.newObject().put("updated", this.lineageRankJob.refresh(full));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+}
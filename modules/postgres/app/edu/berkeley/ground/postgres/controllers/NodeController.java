@@ -3,7 +3,6 @@ package edu.berkeley.ground.postgres.controllers;
 import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.Node;
 import edu.berkeley.ground.common.model.core.NodeVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
@@ -11,6 +10,9 @@ import edu.berkeley.ground.postgres.dao.core.PostgresNodeDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresNodeVersionDao;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -37,18 +39,28 @@ public class NodeController extends Controller {
     this.actorSystem = actorSystem;
     this.cache = cache;
 
-    this.postgresNodeDao = new PostgresNodeDao(dbSource, idGenerator);
-    this.postgresNodeVersionDao = new PostgresNodeVersionDao(dbSource, idGenerator);
+    Database shardedSource = new ShardedDatabase(dbSource);
+    this.postgresNodeDao = new PostgresNodeDao(shardedSource, idGenerator);
+    this.postgresNodeVersionDao = new PostgresNodeVersionDao(shardedSource, idGenerator);
   }
 
   public final CompletionStage<Result> getNode(String sourceKey) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "nodes",
-            () -> Json.toJson(this.postgresNodeDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          // the item as it was at some point in time is never cached
+          Instant asOf = GroundUtils.getInstantFromQuery(request().queryString(), "asOf");
+
+          return ShardRouter.onItem("node", sourceKey, () -> {
+            if (asOf != null) {
+              return Json.toJson(this.postgresNodeDao.retrieveFromDatabase(sourceKey, asOf));
+            }
+
+            return this.cache.getOrElse(
+              "nodes." + sourceKey,
+              () -> Json.toJson(this.postgresNodeDao.retrieveFromDatabase(sourceKey)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -65,8 +77,9 @@ public class NodeController extends Controller {
         JsonNode json = request().body().asJson();
         Node node = Json.fromJson(json, Node.class);
         try {
-          node = this.postgresNodeDao.create(node);
-        } catch (GroundException e) {
+          final Node newNode = node;
+          node = ShardRouter.onNewItem("node", node.getSourceKey(), () -> this.postgresNodeDao.create(newNode));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
         return Json.toJson(node);
@@ -80,16 +93,20 @@ public class NodeController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "node_versions",
-            () -> Json.toJson(this.postgresNodeVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          return ShardRouter.onAnyShard(() -> {
+            String contentHash = GroundUtils.getContentHash(this.cache, "node_versions." + id,
+              () -> this.postgresNodeVersionDao.retrieveContentHash(id));
+
+            return GroundUtils.versionWithETag(request(), contentHash, () -> this.cache.getOrElse(
+              "node_versions." + id,
+              () -> Json.toJson(this.postgresNodeVersionDao.retrieveFromDatabase(id)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs"))));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
       },
       PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::ok)
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -104,8 +121,9 @@ public class NodeController extends Controller {
         NodeVersion nodeVersion = Json.fromJson(json, NodeVersion.class);
 
         try {
-          nodeVersion = this.postgresNodeVersionDao.create(nodeVersion, parentIds);
-        } catch (GroundException e) {
+          final NodeVersion newNodeVersion = nodeVersion;
+          nodeVersion = ShardRouter.onItem(nodeVersion.getNodeId(), () -> this.postgresNodeVersionDao.create(newNodeVersion, parentIds));
+        } catch (Exception e) {
           e.printStackTrace();
           throw new CompletionException(e);
         }
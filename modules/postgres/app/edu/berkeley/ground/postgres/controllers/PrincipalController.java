@@ -0,0 +1,118 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.controllers;
+
+import akka.actor.ActorSystem;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.util.IdGenerator;
+import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeVersionDao;
+import edu.berkeley.ground.postgres.dao.usage.PostgresPrincipalActivityDao;
+import edu.berkeley.ground.postgres.util.GroundUtils;
+import edu.berkeley.ground.postgres.util.KeysetStream;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import javax.inject.Inject;
+import play.db.Database;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * Answers what principals did: the lineage edge versions created on their behalf, and how many
+ * were created per time bucket. Principals are referred to by the id of their node version, and
+ * times are ISO-8601 instants passed as since and until.
+ */
+public class PrincipalController extends Controller {
+
+  private static final int DEFAULT_LIMIT = 1000;
+  private static final int MAX_LIMIT = 10000;
+
+  private ActorSystem actorSystem;
+
+  private PostgresLineageEdgeVersionDao postgresLineageEdgeVersionDao;
+  private PostgresPrincipalActivityDao postgresPrincipalActivityDao;
+
+  @Inject
+  final void injectUtils(final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) {
+    this.actorSystem = actorSystem;
+
+    this.postgresLineageEdgeVersionDao = new PostgresLineageEdgeVersionDao(dbSource, idGenerator);
+    this.postgresPrincipalActivityDao = new PostgresPrincipalActivityDao(dbSource);
+  }
+
+  /**
+   * Stream the lineage edge versions created on behalf of a principal, one page at a time. Pass
+   * the returned "next" id as "after" to retrieve the following page.
+   */
+  public final CompletionStage<Result> getLineageEdgeVersionsByPrincipal(Long id) {
+    Map<String, String[]> queryString = request().queryString();
+    Executor executor = PostgresUtils.getDbSourceHttpContext(this.actorSystem);
+
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          Instant since = GroundUtils.getInstantFromQuery(queryString, "since");
+          Instant until = GroundUtils.getInstantFromQuery(queryString, "until");
+          long afterId = GroundUtils.getLongFromQuery(queryString, "after", Long.MIN_VALUE);
+          int limit = (int) Math.max(1, Math.min(MAX_LIMIT, GroundUtils.getLongFromQuery(queryString, "limit", DEFAULT_LIMIT)));
+          boolean hydrate = GroundUtils.getBooleanFromQuery(queryString, "hydrate");
+
+          return KeysetStream.stream((after, count) -> this.postgresLineageEdgeVersionDao.retrieveIdsByPrincipal(id, since, until, after, count),
+            hydrate ? versionId -> Json.toJson(this.postgresLineageEdgeVersionDao.retrieveFromDatabase(versionId)) : null, afterId, limit,
+            executor);
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      executor)
+             .thenApply(source -> ok().chunked(source).as("application/json"))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  /**
+   * The number of lineage edge versions a principal created per lineage edge and bucket.
+   */
+  public final CompletionStage<Result> getPrincipalActivity(Long id) {
+    return this.activity(id);
+  }
+
+  /**
+   * The number of lineage edge versions every principal created per lineage edge and bucket.
+   */
+  public final CompletionStage<Result> getActivity() {
+    return this.activity(null);
+  }
+
+  private CompletionStage<Result> activity(Long principalId) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          Map<String, String[]> queryString = request().queryString();
+          String bucket = request().getQueryString("bucket");
+
+          return Json.toJson(this.postgresPrincipalActivityDao.retrieve(principalId, bucket == null ? "day" : bucket,
+            GroundUtils.getInstantFromQuery(queryString, "since"), GroundUtils.getInstantFromQuery(queryString, "until")));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+}
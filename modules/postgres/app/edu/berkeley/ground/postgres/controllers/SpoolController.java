@@ -0,0 +1,65 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.controllers;
+
+import akka.actor.ActorSystem;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import edu.berkeley.ground.postgres.util.GroundUtils;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.WriteSpool;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+import play.db.Database;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * Serves how far the database is behind the write spool of each database, if writes are spooled,
+ * and whether the spool's applier is alive and what last kept it from applying writes.
+ */
+public class SpoolController extends Controller {
+
+  private ActorSystem actorSystem;
+
+  @Inject
+  final void injectUtils(final ActorSystem actorSystem) {
+    this.actorSystem = actorSystem;
+  }
+
+  public final CompletionStage<Result> getSpools() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        ArrayNode spools = Json.newArray();
+
+        for (Entry<Database, WriteSpool> entry : WriteSpool.getInstances().entrySet()) {
+          WriteSpool spool = entry.getValue();
+
+          spools.addObject()
+            .put("database", entry.getKey().getName())
+            .put("lagEntries", spool.getLagEntries())
+            .put("lagBytes", spool.getLagBytes())
+            .put("lagMillis", spool.getLagMillis())
+            .put("applierRunning", spool.isApplierRunning())
+            .put("applierError", spool.getApplierError());
+        }
+
+        return spools;
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+}
@@ -14,7 +14,6 @@ package edu.berkeley.ground.postgres.controllers;
 import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.Structure;
 import edu.berkeley.ground.common.model.core.StructureVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
@@ -22,6 +21,9 @@ import edu.berkeley.ground.postgres.dao.core.PostgresStructureDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresStructureVersionDao;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -48,18 +50,28 @@ public class StructureController extends Controller {
     this.actorSystem = actorSystem;
     this.cache = cache;
 
-    this.postgresStructureDao = new PostgresStructureDao(dbSource, idGenerator);
-    this.postgresStructureVersionDao = new PostgresStructureVersionDao(dbSource, idGenerator);
+    Database shardedSource = new ShardedDatabase(dbSource);
+    this.postgresStructureDao = new PostgresStructureDao(shardedSource, idGenerator);
+    this.postgresStructureVersionDao = new PostgresStructureVersionDao(shardedSource, idGenerator);
   }
 
   public final CompletionStage<Result> getStructure(String sourceKey) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "structures",
-            () -> Json.toJson(this.postgresStructureDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          // the item as it was at some point in time is never cached
+          Instant asOf = GroundUtils.getInstantFromQuery(request().queryString(), "asOf");
+
+          return ShardRouter.onItem("structure", sourceKey, () -> {
+            if (asOf != null) {
+              return Json.toJson(this.postgresStructureDao.retrieveFromDatabase(sourceKey, asOf));
+            }
+
+            return this.cache.getOrElse(
+              "structures." + sourceKey,
+              () -> Json.toJson(this.postgresStructureDao.retrieveFromDatabase(sourceKey)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -72,10 +84,12 @@ public class StructureController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "structure_versions",
-            () -> Json.toJson(this.postgresStructureVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          return ShardRouter.onAnyShard(() -> {
+            return this.cache.getOrElse(
+              "structure_versions." + id,
+              () -> Json.toJson(this.postgresStructureVersionDao.retrieveFromDatabase(id)),
+              Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+          });
         } catch (Exception e) {
           throw new CompletionException(e);
         }
@@ -92,8 +106,9 @@ public class StructureController extends Controller {
         Structure structure = Json.fromJson(json, Structure.class);
 
         try {
-          structure = this.postgresStructureDao.create(structure);
-        } catch (GroundException e) {
+          final Structure newStructure = structure;
+          structure = ShardRouter.onNewItem("structure", structure.getSourceKey(), () -> this.postgresStructureDao.create(newStructure));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
         return Json.toJson(structure);
@@ -116,8 +131,10 @@ public class StructureController extends Controller {
         StructureVersion structureVersion = Json.fromJson(json, StructureVersion.class);
 
         try {
-          structureVersion = this.postgresStructureVersionDao.create(structureVersion, parentIds);
-        } catch (GroundException e) {
+          final StructureVersion newStructureVersion = structureVersion;
+          structureVersion = ShardRouter.onItem(structureVersion.getStructureId(),
+            () -> this.postgresStructureVersionDao.create(newStructureVersion, parentIds));
+        } catch (Exception e) {
           throw new CompletionException(e);
         }
         return Json.toJson(structureVersion);
@@ -0,0 +1,149 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.controllers;
+
+import akka.actor.ActorSystem;
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.berkeley.ground.common.dao.version.ItemDao;
+import edu.berkeley.ground.common.dao.version.VersionDao;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.core.Edge;
+import edu.berkeley.ground.common.model.core.Graph;
+import edu.berkeley.ground.common.model.core.Node;
+import edu.berkeley.ground.common.model.core.Structure;
+import edu.berkeley.ground.common.model.usage.LineageEdge;
+import edu.berkeley.ground.common.model.usage.LineageGraph;
+import edu.berkeley.ground.common.model.version.TagPredicate;
+import edu.berkeley.ground.common.util.IdGenerator;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.dao.version.PostgresTagDao;
+import edu.berkeley.ground.postgres.util.GroundUtils;
+import edu.berkeley.ground.postgres.util.KeysetStream;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import javax.inject.Inject;
+import play.db.Database;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+public class TagController extends Controller {
+
+  private static final int DEFAULT_LIMIT = 1000;
+  private static final int MAX_LIMIT = 10000;
+
+  private ActorSystem actorSystem;
+  private Database dbSource;
+
+  private PostgresTagDao postgresTagDao;
+  private Map<String, VersionDao<?>> versionDaos;
+  private Map<String, ItemDao<?>> itemDaos;
+
+  @Inject
+  final void injectUtils(final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) throws GroundException {
+    this.actorSystem = actorSystem;
+
+    Database shardedSource = new ShardedDatabase(dbSource);
+    this.dbSource = shardedSource;
+    this.postgresTagDao = new PostgresTagDao(shardedSource);
+
+    Map<String, Class<?>> itemTypes = new HashMap<>();
+    itemTypes.put("node", Node.class);
+    itemTypes.put("edge", Edge.class);
+    itemTypes.put("graph", Graph.class);
+    itemTypes.put("structure", Structure.class);
+    itemTypes.put("lineage_edge", LineageEdge.class);
+    itemTypes.put("lineage_graph", LineageGraph.class);
+
+    this.versionDaos = new HashMap<>();
+    this.itemDaos = new HashMap<>();
+    for (Map.Entry<String, Class<?>> itemType : itemTypes.entrySet()) {
+      this.versionDaos.put(itemType.getKey(), GroundUtils.getVersionDaoFromItemType(itemType.getValue(), shardedSource, idGenerator));
+      this.itemDaos.put(itemType.getKey(), GroundUtils.getItemDaoFromItemType(itemType.getValue(), shardedSource, idGenerator));
+    }
+  }
+
+  /**
+   * Stream the versions whose tags match all of the predicates in the query string, one page at a
+   * time. Pass the returned "next" id as "after" to retrieve the following page.
+   */
+  public final CompletionStage<Result> getVersionsByTag() {
+    return this.getByTag(this.postgresTagDao::getVersionIdsByTags, id -> Json.toJson(this.versionDaos.get(this.getVersionType(id))
+                                                                                        .retrieveFromDatabase(id)));
+  }
+
+  /**
+   * Stream the items whose tags match all of the predicates in the query string, one page at a
+   * time. Pass the returned "next" id as "after" to retrieve the following page.
+   */
+  public final CompletionStage<Result> getItemsByTag() {
+    return this.getByTag(this.postgresTagDao::getItemIdsByTags, id -> Json.toJson(this.itemDaos.get(this.getItemType(id))
+                                                                                     .retrieveFromDatabase(id)));
+  }
+
+  private CompletionStage<Result> getByTag(TagQuery query, KeysetStream.Hydrator hydrator) {
+    Map<String, String[]> queryString = request().queryString();
+    Executor executor = PostgresUtils.getDbSourceHttpContext(this.actorSystem);
+
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          List<TagPredicate> predicates = GroundUtils.getTagPredicatesFromQuery(queryString);
+          long afterId = GroundUtils.getLongFromQuery(queryString, "after", Long.MIN_VALUE);
+          int limit = (int) Math.max(1, Math.min(MAX_LIMIT, GroundUtils.getLongFromQuery(queryString, "limit", DEFAULT_LIMIT)));
+          boolean hydrate = GroundUtils.getBooleanFromQuery(queryString, "hydrate");
+
+          // items are tagged on their own shard, so every shard is searched
+          return KeysetStream.stream(ShardRouter.onAllShards((after, batchSize) -> query.getIds(predicates, after, batchSize)),
+            hydrate ? ShardRouter.onAnyShard(hydrator) : null, afterId, limit, executor);
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      executor)
+             .thenApply(source -> ok().chunked(source).as("application/json"))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  private String getVersionType(long id) throws GroundException {
+    return this.getType(String.format(SqlConstants.SELECT_RICH_VERSION_TYPE, id), ExceptionType.VERSION_NOT_FOUND, "RichVersion", id);
+  }
+
+  private String getItemType(long id) throws GroundException {
+    return this.getType(String.format(SqlConstants.SELECT_ITEM_TYPE, id), ExceptionType.ITEM_NOT_FOUND, "Item", id);
+  }
+
+  private String getType(String sql, ExceptionType notFound, String kind, long id) throws GroundException {
+    JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(this.dbSource, sql));
+
+    if (json.size() == 0) {
+      throw new GroundException(notFound, kind, String.format("%d", id));
+    }
+
+    return json.get(0).get("type").asText();
+  }
+
+  @FunctionalInterface
+  private interface TagQuery {
+
+    List<Long> getIds(List<TagPredicate> predicates, long afterId, int limit) throws GroundException;
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.controllers;
+
+import akka.actor.ActorSystem;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import edu.berkeley.ground.common.dao.version.ItemDao;
+import edu.berkeley.ground.common.dao.version.VersionDao;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.core.Edge;
+import edu.berkeley.ground.common.model.core.Graph;
+import edu.berkeley.ground.common.model.core.Node;
+import edu.berkeley.ground.common.model.core.Structure;
+import edu.berkeley.ground.common.model.usage.LineageEdge;
+import edu.berkeley.ground.common.model.usage.LineageGraph;
+import edu.berkeley.ground.common.model.version.Item;
+import edu.berkeley.ground.common.util.IdGenerator;
+import edu.berkeley.ground.postgres.dao.version.PostgresVersionHistoryDagDao;
+import edu.berkeley.ground.postgres.util.GroundUtils;
+import edu.berkeley.ground.postgres.util.KeysetStream;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ReplicaRouter;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import javax.inject.Inject;
+import play.cache.CacheApi;
+import play.db.Database;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * Serves the version histories of every type of item.
+ */
+public class VersionHistoryController extends Controller {
+
+  private static final int DEFAULT_LIMIT = 1000;
+  private static final int MAX_LIMIT = 10000;
+
+  private CacheApi cache;
+  private ActorSystem actorSystem;
+
+  private PostgresVersionHistoryDagDao postgresVersionHistoryDagDao;
+  private Map<String, VersionDao<?>> versionDaos;
+  private Map<String, ItemDao<?>> itemDaos;
+
+  @Inject
+  final void injectUtils(final CacheApi cache, final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator)
+    throws GroundException {
+    this.cache = cache;
+    this.actorSystem = actorSystem;
+
+    Database shardedSource = new ShardedDatabase(dbSource);
+    this.postgresVersionHistoryDagDao = new PostgresVersionHistoryDagDao(shardedSource, idGenerator);
+
+    Map<String, Class<?>> itemTypes = new HashMap<>();
+    itemTypes.put("node", Node.class);
+    itemTypes.put("edge", Edge.class);
+    itemTypes.put("graph", Graph.class);
+    itemTypes.put("structure", Structure.class);
+    itemTypes.put("lineage_edge", LineageEdge.class);
+    itemTypes.put("lineage_graph", LineageGraph.class);
+
+    this.versionDaos = new HashMap<>();
+    this.itemDaos = new HashMap<>();
+    for (Map.Entry<String, Class<?>> itemType : itemTypes.entrySet()) {
+      this.versionDaos.put(itemType.getKey(), GroundUtils.getVersionDaoFromItemType(itemType.getValue(), shardedSource, idGenerator));
+      this.itemDaos.put(itemType.getKey(), GroundUtils.getItemDaoFromItemType(itemType.getValue(), shardedSource, idGenerator));
+    }
+  }
+
+  /**
+   * The ids of the latest versions of an item: the leaves of its version history. With asOf, the
+   * leaves as they were at that point in time; with hydrate=true, the versions themselves. The
+   * current leaves are cached until a new version of the item is committed on any instance, so
+   * they are always read from the primary, never from a replica that may lag behind that commit.
+   */
+  public final CompletionStage<Result> getLatestVersions(String itemType, String sourceKey) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          ItemDao<?> itemDao = this.getItemDao(itemType);
+          Instant asOf = GroundUtils.getInstantFromQuery(request().queryString(), "asOf");
+          boolean hydrate = GroundUtils.getBooleanFromQuery(request().queryString(), "hydrate");
+
+          return ShardRouter.onItem(itemType, sourceKey, () -> {
+            Item item = asOf == null ? itemDao.retrieveFromDatabase(sourceKey) : itemDao.retrieveFromDatabase(sourceKey, asOf);
+            List<Long> leaves = asOf == null
+                                  ? this.cache.getOrElse(itemType + "_leaves." + item.getId(),
+                                      () -> ReplicaRouter.onPrimary(() -> itemDao.getLeaves(item.getId())),
+                                      Integer.parseInt(System.getProperty("ground.cache.expire.secs")))
+                                  : itemDao.getLeaves(item.getId(), asOf);
+
+            if (!hydrate) {
+              return Json.toJson(leaves);
+            }
+
+            ArrayNode versions = Json.newArray();
+            for (long id : leaves) {
+              versions.add(Json.toJson(this.versionDaos.get(itemType).retrieveFromDatabase(id)));
+            }
+            return versions;
+          });
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
+             .thenApply(Results::ok)
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  /**
+   * Stream the versions of an item, one page at a time, in order=created (the default), oldest
+   * first, or order=topological, from the leaves back to the roots. With depth, only the versions
+   * at most that many successors away from a leaf. Pass the returned "next" id as "after" to
+   * retrieve the following page.
+   */
+  public final CompletionStage<Result> getVersionHistory(String itemType, String sourceKey) {
+    Map<String, String[]> queryString = request().queryString();
+    String order = request().getQueryString("order");
+    Executor executor = PostgresUtils.getDbSourceHttpContext(this.actorSystem);
+
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          ItemDao<?> itemDao = this.getItemDao(itemType);
+          long itemId = ShardRouter.onItem(itemType, sourceKey, () -> itemDao.retrieveFromDatabase(sourceKey).getId());
+
+          if (order != null && !order.equals("created") && !order.equals("topological")) {
+            throw new GroundException(ExceptionType.OTHER, String.format("Unknown version history order %s.", order));
+          }
+
+          int depth = (int) GroundUtils.getLongFromQuery(queryString, "depth", -1);
+          long afterId = GroundUtils.getLongFromQuery(queryString, "after", Long.MIN_VALUE);
+          int limit = (int) Math.max(1, Math.min(MAX_LIMIT, GroundUtils.getLongFromQuery(queryString, "limit", DEFAULT_LIMIT)));
+          boolean hydrate = GroundUtils.getBooleanFromQuery(queryString, "hydrate");
+
+          // the pages are read later, on other threads, so each read is routed to the item's shard itself
+          return KeysetStream.stream(
+            ShardRouter.onItem(itemId, (after, count) ->
+              this.postgresVersionHistoryDagDao.retrieveHistory(itemId, "topological".equals(order), depth, after, count)),
+            hydrate ? ShardRouter.onItem(itemId, id -> Json.toJson(this.versionDaos.get(itemType).retrieveFromDatabase(id))) : null,
+            afterId, limit, executor);
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      executor)
+             .thenApply(source -> ok().chunked(source).as("application/json"))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  private ItemDao<?> getItemDao(String itemType) throws GroundException {
+    ItemDao<?> itemDao = this.itemDaos.get(itemType);
+
+    if (itemDao == null) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Unknown item type %s.", itemType));
+    }
+
+    return itemDao;
+  }
+}
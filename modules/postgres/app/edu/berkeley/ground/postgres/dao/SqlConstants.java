@@ -11,6 +11,16 @@ public class SqlConstants {
   public static final String SELECT_STAR_BY_ID = "SELECT * FROM %s WHERE id = %d;";
   public static final String DELETE_BY_ID = "DELETE FROM %s WHERE id = %d";
 
+  /* Type resolution statements */
+  public static final String SELECT_RICH_VERSION_TYPE = "SELECT 'node' AS type FROM node_version WHERE id = %1$d UNION ALL SELECT 'edge' FROM edge_version "
+                                                          + "WHERE id = %1$d UNION ALL SELECT 'graph' FROM graph_version WHERE id = %1$d UNION ALL SELECT "
+                                                          + "'lineage_edge' FROM lineage_edge_version WHERE id = %1$d UNION ALL SELECT 'lineage_graph' FROM "
+                                                          + "lineage_graph_version WHERE id = %1$d;";
+  public static final String SELECT_ITEM_TYPE = "SELECT 'node' AS type FROM node WHERE item_id = %1$d UNION ALL SELECT 'edge' FROM edge WHERE item_id = "
+                                                  + "%1$d UNION ALL SELECT 'graph' FROM graph WHERE item_id = %1$d UNION ALL SELECT 'structure' FROM structure "
+                                                  + "WHERE item_id = %1$d UNION ALL SELECT 'lineage_edge' FROM lineage_edge WHERE item_id = %1$d UNION ALL SELECT "
+                                                  + "'lineage_graph' FROM lineage_graph WHERE item_id = %1$d;";
+
   /* Version-specific statements */
   public static final String INSERT_VERSION = "INSERT INTO version (id) VALUES (%d);";
 
@@ -21,46 +31,182 @@ public class SqlConstants {
   public static final String DELETE_VERSION_SUCCESSOR = "DELETE FROM version_successor WHERE id = %d;";
 
   /* Version History DAG-specific statements */
-  public static final String INSERT_VERSION_HISTORY_DAG_EDGE = "INSERT INTO version_history_dag (item_id, version_successor_id) VALUES (%d, %d);";
-  public static final String SELECT_VERSION_HISTORY_DAG = "SELECT * FROM version_history_dag WHERE item_id = %d;";
+  public static final String INSERT_VERSION_HISTORY_DAG_EDGE = "INSERT INTO version_history_dag (item_id, version_successor_id, version_id, "
+                                                                   + "created_at) SELECT %1$d, %2$d, %3$d, COALESCE((SELECT created_at FROM "
+                                                                   + "version WHERE id = %3$d), now());";
+  // %2$s is < or >, %3$d the version to continue after, %4$s the bound used before the first page, %5$s ASC or DESC; a version
+  // with several parents has a row per parent, all with its creation time
+  public static final String SELECT_VERSION_HISTORY_PAGE = "SELECT DISTINCT ON (created_at, version_id) version_id FROM version_history_dag "
+                                                             + "WHERE item_id = %1$d AND created_at %2$s= COALESCE((SELECT created_at FROM "
+                                                             + "version WHERE id = %3$d), \'%4$s\'::timestamptz) AND (created_at, version_id) "
+                                                             + "%2$s (COALESCE((SELECT created_at FROM version WHERE id = %3$d), "
+                                                             + "\'%4$s\'::timestamptz), %3$d) ORDER BY created_at %5$s, version_id %5$s "
+                                                             + "LIMIT %6$d;";
+  // the same page, restricted to the versions at most %7$d successors away from a leaf
+  public static final String SELECT_VERSION_HISTORY_PAGE_TO_DEPTH = "WITH RECURSIVE history (version_id, depth) AS (SELECT s.to_version_id, 0 "
+                                                                      + "FROM version_history_dag d JOIN version_successor s ON s.id = "
+                                                                      + "d.version_successor_id WHERE d.item_id = %1$d AND NOT EXISTS (SELECT 1 "
+                                                                      + "FROM version_successor c JOIN version_history_dag cd ON "
+                                                                      + "cd.version_successor_id = c.id WHERE c.from_version_id = s.to_version_id "
+                                                                      + "AND cd.item_id = %1$d) UNION SELECT s.from_version_id, h.depth + 1 FROM "
+                                                                      + "history h JOIN version_successor s ON s.to_version_id = h.version_id JOIN "
+                                                                      + "version_history_dag d ON d.version_successor_id = s.id AND d.item_id = "
+                                                                      + "%1$d WHERE h.depth < %7$d AND s.from_version_id <> 0) SELECT v.id FROM "
+                                                                      + "version v WHERE v.id IN (SELECT version_id FROM history) AND "
+                                                                      + "(v.created_at, v.id) %2$s (COALESCE((SELECT created_at FROM version WHERE "
+                                                                      + "id = %3$d), \'%4$s\'::timestamptz), %3$d) ORDER BY v.created_at %5$s, "
+                                                                      + "v.id %5$s LIMIT %6$d;";
+  public static final String SELECT_VERSION_HISTORY_DAG_LEAVES_AS_OF = "SELECT DISTINCT s.to_version_id FROM version_history_dag d JOIN "
+                                                                         + "version_successor s ON s.id = d.version_successor_id WHERE "
+                                                                         + "d.item_id = %1$d AND d.created_at <= \'%2$s\'::timestamptz AND "
+                                                                         + "NOT EXISTS (SELECT 1 FROM version_successor c JOIN "
+                                                                         + "version_history_dag cd ON cd.version_successor_id = c.id WHERE "
+                                                                         + "c.from_version_id = s.to_version_id AND cd.item_id = %1$d AND "
+                                                                         + "cd.created_at <= \'%2$s\'::timestamptz) ORDER BY s.to_version_id;";
+  public static final String SELECT_VERSION_HISTORY_DAG = "SELECT s.id, s.from_version_id, s.to_version_id FROM version_history_dag d JOIN "
+                                                             + "version_successor s ON s.id = d.version_successor_id WHERE d.item_id = %d;";
   public static final String DELETE_SUCCESSOR_FROM_DAG = "DELETE FROM version_history_dag WHERE version_successor_id = %d;";
 
   /* Item-specific statements */
   public static final String INSERT_ITEM = "INSERT INTO ITEM (id) VALUES (%d);";
-  public static final String INSERT_ITEM_TAG_WITH_VALUE =
-    "INSERT INTO item_tag (item_id, key, value, type) VALUES (%d, " + "\'%s\', \'%s\', \'%s\');";
+  public static final String INSERT_ITEM_TAG_WITH_VALUE = "INSERT INTO item_tag (item_id, key, value, type, long_value, boolean_value) VALUES (%d, "
+                                                             + "\'%s\', \'%s\', \'%s\', %s, %s);";
   public static final String INSERT_ITEM_TAG_NO_VALUE = "INSERT INTO item_tag (item_id, key, value, type) VALUES (%d, \'%s\', null, null);";
+  public static final String SELECT_ITEM_CREATED_AS_OF = "SELECT id FROM item WHERE id = %d AND created_at <= \'%s\'::timestamptz;";
   public static final String SELECT_ITEM_TAGS = "SELECT * FROM item_tag WHERE item_id = %d;";
+  public static final String SELECT_ALL_ITEM_TAGS = "SELECT * FROM item_tag;";
   public static final String SELECT_ITEM_TAGS_BY_KEY = "SELECT * FROM item_tag WHERE key = \'%s\';";
+  public static final String SELECT_ITEM_TAGS_BY_KEY_AND_VALUE = "SELECT item_id FROM item_tag WHERE key = \'%s\' AND %s;";
+  public static final String SELECT_ITEM_IDS_BY_TAGS = "SELECT DISTINCT item_id FROM item_tag WHERE %s AND item_id > %d%s ORDER BY item_id LIMIT %d;";
+  public static final String ITEM_TAG_EXISTS = "EXISTS (SELECT 1 FROM item_tag t WHERE t.item_id = item_tag.item_id AND %s)";
+  public static final String UPDATE_ITEM_TAG_DOCUMENT = "UPDATE item SET tags = \'%s\' WHERE id = %d;";
+  public static final String APPEND_ITEM_TAG_DOCUMENT = "UPDATE item SET tags = coalesce(tags, \'{}\') || \'%s\' WHERE id = %d;";
+  public static final String SELECT_ITEM_TAG_DOCUMENT = "SELECT tags FROM item WHERE id = %d;";
+  public static final String SELECT_ALL_ITEM_TAG_DOCUMENTS = "SELECT id, tags FROM item WHERE tags IS NOT NULL;";
+  public static final String SELECT_ITEM_IDS_BY_TAG_DOCUMENT = "SELECT id FROM item WHERE %s;";
+  public static final String SELECT_ITEM_IDS_BY_TAG_DOCUMENTS = "SELECT id FROM item WHERE %s AND id > %d ORDER BY id LIMIT %d;";
 
   /* Edge-specific statements */
   public static final String INSERT_EDGE =
     "INSERT INTO edge (item_id, source_key, from_node_id, to_node_id, name) VALUES (%d, \'%s\', %d, %d, \'%s\');";
+  public static final String SELECT_EDGE_IDS_BY_NODE = "SELECT item_id FROM edge WHERE %s_node_id = %d AND item_id > %d ORDER BY item_id LIMIT "
+                                                         + "%d;";
+  public static final String SELECT_EDGE_IDS_BY_EITHER_NODE = "(SELECT item_id FROM edge WHERE from_node_id = %1$d AND item_id > %2$d ORDER BY "
+                                                                + "item_id LIMIT %3$d) UNION (SELECT item_id FROM edge WHERE to_node_id = %1$d AND "
+                                                                + "item_id > %2$d ORDER BY item_id LIMIT %3$d) ORDER BY item_id LIMIT %3$d;";
+  public static final String EDGE_STEPS = "SELECT %s_node_id AS node_id, %s_node_id AS next_id, item_id FROM edge";
+  private static final String NODE_NEIGHBORHOOD = "WITH RECURSIVE hood(node_id, hops) AS (SELECT %2$d::bigint, 0 UNION SELECT s.next_id, "
+                                                    + "h.hops + 1 FROM hood h JOIN (%1$s) s ON s.node_id = h.node_id WHERE h.hops < %3$d) ";
+  public static final String SELECT_NODE_NEIGHBORHOOD = NODE_NEIGHBORHOOD + "SELECT node_id, MIN(hops) FROM hood GROUP BY node_id ORDER BY node_id;";
+  public static final String SELECT_NODE_NEIGHBORHOOD_EDGES = NODE_NEIGHBORHOOD + "SELECT DISTINCT s.item_id FROM hood h JOIN (%1$s) s ON "
+                                                                + "s.node_id = h.node_id WHERE h.hops < %3$d ORDER BY s.item_id;";
   public static final String INSERT_EDGE_VERSION = "INSERT INTO edge_version (id, edge_id, from_node_version_start_id, from_node_version_end_id, "
                                                      + "to_node_version_start_id, to_node_version_end_id) VALUES (%d, %d, %d, %d, %d, %d);";
-  public static final String UPDATE_EDGE_VERSION = "UPDATE edge_version SET from_node_version_end_id = %d, to_node_version_end_id = %d WHERE id = "
-                                                     + "%d;";
+  public static final String UPDATE_EDGE_VERSION_END = "UPDATE edge_version SET %1$s_node_version_end_id = (SELECT from_version_id FROM "
+                                                         + "version_successor WHERE to_version_id = %2$d AND from_version_id <> 0 ORDER BY "
+                                                         + "from_version_id LIMIT 1) WHERE id = %3$d AND %1$s_node_version_end_id IS NULL;";
+  public static final String INSERT_EDGE_VERSION_VALIDITY = "INSERT INTO edge_version_validity (edge_version_id, node_id, outgoing, start_ordinal) "
+                                                              + "SELECT %d, node_id, %s, ordinal FROM node_version WHERE id = %d;";
+  public static final String SELECT_EDGE_VERSIONS_VALID_FOR_NODE_VERSION = "WITH RECURSIVE target AS (SELECT id, node_id, ordinal FROM node_version "
+                                                                             + "WHERE id = %1$d), ancestors(id) AS (SELECT id FROM target UNION "
+                                                                             + "SELECT s.from_version_id FROM ancestors a JOIN version_successor s ON "
+                                                                             + "s.to_version_id = a.id JOIN node_version p ON p.id = s.from_version_id "
+                                                                             + "WHERE p.ordinal >= (SELECT MIN(v.start_ordinal) FROM "
+                                                                             + "edge_version_validity v JOIN target t ON v.node_id = t.node_id)) "
+                                                                             + "SELECT DISTINCT v.edge_version_id FROM edge_version_validity v JOIN "
+                                                                             + "target t ON v.node_id = t.node_id JOIN edge_version e ON e.id = "
+                                                                             + "v.edge_version_id WHERE v.outgoing = ANY(\'{%2$s}\'::boolean[]) AND "
+                                                                             + "v.start_ordinal <= t.ordinal AND (CASE WHEN v.outgoing THEN "
+                                                                             + "e.from_node_version_start_id ELSE e.to_node_version_start_id END) IN "
+                                                                             + "(SELECT id FROM ancestors) AND NOT EXISTS (SELECT 1 FROM ancestors a "
+                                                                             + "WHERE a.id <> t.id AND a.id = (CASE WHEN v.outgoing THEN "
+                                                                             + "e.from_node_version_end_id ELSE e.to_node_version_end_id END)) AND "
+                                                                             + "v.edge_version_id > %3$d ORDER BY v.edge_version_id LIMIT %4$d;";
+  public static final String DELETE_EDGE_VERSION_VALIDITY = "DELETE FROM edge_version_validity WHERE edge_version_id = %d;";
 
   /* Graph-specific statements */
-  public static final String INSERT_GRAPH_VERSION = "INSERT INTO graph_version (id, graph_id) VALUES (%d, %d);";
-  public static final String INSERT_GRAPH_VERSION_EDGE = "INSERT INTO graph_version_edge (graph_version_id, edge_version_id) VALUES (%d, %d);";
-  public static final String SELECT_GRAPH_VERSION_EDGES = "SELECT * FROM graph_version_edge WHERE graph_version_id = %d;";
-  public static final String DELETE_ALL_GRAPH_VERSION_EDGES = "DELETE FROM %s WHERE %s_version_id = %d";
+  public static final String INSERT_GRAPH_VERSION = "INSERT INTO graph_version (id, graph_id, edge_base_id, edge_chain_length) VALUES (%d, %d, %d, "
+                                                     + "%d);";
+
+  /* Graph edge set statements; the first arguments are the table and column names */
+  public static final String INSERT_EDGE_SET_MEMBERS = "INSERT INTO %s (%s, %s) VALUES %s;";
+  public static final String INSERT_EDGE_SET_DELTAS = "INSERT INTO %s (%s, %s, removed) VALUES %s;";
+  public static final String SELECT_EDGE_SET_CHAIN_LENGTH = "SELECT edge_chain_length FROM %s WHERE id = %d;";
+  public static final String SELECT_EDGE_SET_CHAIN = "WITH RECURSIVE chain(id, base_id, has_bitmap, depth) AS (SELECT id, edge_base_id, "
+                                                      + "edge_bitmap IS NOT NULL, 0 FROM %1$s WHERE id = %2$d UNION ALL SELECT v.id, v.edge_base_id, "
+                                                      + "v.edge_bitmap IS NOT NULL, c.depth + 1 FROM %1$s v JOIN chain c ON v.id = c.base_id WHERE NOT "
+                                                      + "c.has_bitmap) SELECT id, base_id, has_bitmap FROM chain ORDER BY depth;";
+  public static final String SELECT_EDGE_SET_VERSIONS_CONTAINING = "WITH RECURSIVE members(id, edge_id) AS (SELECT %1$s, %2$s FROM %3$s WHERE "
+                                                                    + "%2$s = ANY(\'{%6$s}\'::bigint[]) UNION SELECT %1$s, %2$s FROM %4$s WHERE %2$s = "
+                                                                    + "ANY(\'{%6$s}\'::bigint[]) AND NOT removed UNION SELECT v.id, m.edge_id FROM %5$s v "
+                                                                    + "JOIN members m ON v.edge_base_id = m.id WHERE NOT EXISTS (SELECT 1 FROM %4$s d WHERE "
+                                                                    + "d.%1$s = v.id AND d.%2$s = m.edge_id AND d.removed)) SELECT DISTINCT id FROM members "
+                                                                    + "ORDER BY id;";
+  public static final String SELECT_EDGE_VERSIONS_BY_NODE_VERSION = "SELECT id FROM edge_version WHERE from_node_version_start_id = %1$d OR "
+                                                                     + "to_node_version_start_id = %1$d;";
+  public static final String SELECT_EDGE_SET_BITMAP = "SELECT edge_bitmap FROM %s WHERE id = %d;";
+  public static final String UPDATE_EDGE_SET_BITMAP = "UPDATE %s SET edge_bitmap = %s WHERE id = %d;";
+  public static final String SELECT_EDGE_SET_MEMBERS = "SELECT %s FROM %s WHERE %s = %d;";
+  public static final String DELETE_EDGE_SET = "DELETE FROM %s WHERE %s = %d";
+  public static final String SELECT_EDGE_IDS_BY_VERSION = "SELECT id, %s FROM %s WHERE id = ANY(\'{%s}\'::bigint[]);";
+  public static final String SELECT_EDGE_ENDPOINTS = "SELECT id, %s, %s FROM %s WHERE id = ANY(\'{%s}\'::bigint[]);";
+  public static final String SELECT_EDGE_SET_DELTAS = "SELECT %1$s, %2$s, removed FROM %3$s WHERE %1$s IN (%4$s);";
 
   /* Node-specific statements */
-  public static final String INSERT_NODE_VERSION = "INSERT INTO node_version (id, node_id) VALUES (%d, %d);";
+  public static final String INSERT_NODE_VERSION = "INSERT INTO node_version (id, node_id, ordinal) VALUES (%d, %d, (SELECT COALESCE(MAX(ordinal), "
+                                                     + "0) + 1 FROM node_version WHERE id = ANY(\'{%s}\'::bigint[])));";
 
   /* Rich Version-specific statements */
-  public static final String INSERT_RICH_VERSION = "INSERT INTO rich_version (id, structure_version_id, reference) VALUES (%d, %d, \'%s\');";
-  public static final String INSERT_RICH_VERSION_TAG_WITH_VALUE = "INSERT INTO rich_version_tag (rich_version_id, key, value, type) VALUES (%d, "
-                                                                    + "\'%s\', \'%s\', \'%s\');";
+  public static final String INSERT_RICH_VERSION = "INSERT INTO rich_version (id, structure_version_id, reference, content_hash, tag_base_id, "
+                                                    + "tag_chain_length) VALUES (%d, %d, \'%s\', %s, %d, %d);";
+  public static final String INSERT_RICH_VERSION_WITH_PARAMETERS = "INSERT INTO rich_version (id, structure_version_id, reference, content_hash, "
+                                                                      + "parameters) VALUES (%d, %d, \'%s\', %s, \'%s\');";
+  public static final String SELECT_RICH_VERSION_CONTENT_HASH = "SELECT content_hash FROM rich_version WHERE id = %d;";
+  public static final String SELECT_RICH_VERSION_IDS_BY_CONTENT_HASH = "SELECT id FROM rich_version WHERE content_hash = \'%s\';";
+  public static final String SELECT_RICH_VERSION_HAS_CONTENT_HASH = "SELECT 1 FROM rich_version WHERE id = %d AND content_hash = \'%s\';";
+  public static final String INSERT_RICH_VERSION_TAG_WITH_VALUE = "INSERT INTO rich_version_tag (rich_version_id, key, value, type, long_value, "
+                                                                    + "boolean_value) VALUES (%d, \'%s\', \'%s\', \'%s\', %s, %s);";
   public static final String INSERT_RICH_VERSION_TAG_NO_VALUE = "INSERT INTO rich_version_tag (rich_version_id, key, value, type) VALUES (%d, "
                                                                   + "\'%s\', null, null);";
   public static final String INSERT_RICH_VERSION_EXTERNAL_PARAMETER = "INSERT INTO rich_version_external_parameter (rich_version_id, key, value) "
                                                                         + "VALUES (%d, \'%s\', \'%s\');";
   public static final String SELECT_RICH_VERSION_EXTERNAL_PARAMETERS = "SELECT * FROM rich_version_external_parameter WHERE rich_version_id = %d;";
   public static final String SELECT_RICH_VERSION_TAGS = "SELECT * FROM rich_version_tag WHERE rich_version_id = %d;";
+  public static final String SELECT_ALL_RICH_VERSION_TAGS = "SELECT * FROM rich_version_tag;";
   public static final String SELECT_RICH_VERSION_TAGS_BY_KEY = "SELECT * FROM rich_version_tag WHERE key = \'%s\';";
+  public static final String SELECT_RICH_VERSION_TAGS_BY_KEY_AND_VALUE = "SELECT rich_version_id FROM rich_version_tag WHERE key = \'%s\' AND %s;";
+  public static final String SELECT_RICH_VERSION_IDS_BY_TAGS = "SELECT DISTINCT rich_version_id FROM rich_version_tag WHERE %s AND rich_version_id > %d%s "
+                                                                 + "ORDER BY rich_version_id LIMIT %d;";
+  public static final String RICH_VERSION_TAG_EXISTS = "EXISTS (SELECT 1 FROM rich_version_tag t WHERE t.rich_version_id = "
+                                                         + "rich_version_tag.rich_version_id AND %s)";
+  public static final String UPDATE_RICH_VERSION_TAG_DOCUMENT = "UPDATE rich_version SET tags = \'%s\' WHERE id = %d;";
+  public static final String APPEND_RICH_VERSION_TAG_DOCUMENT = "UPDATE rich_version SET tags = coalesce(tags, \'{}\') || \'%s\' WHERE id = %d;";
+  public static final String SELECT_RICH_VERSION_TAG_DOCUMENT = "SELECT tags FROM rich_version WHERE id = %d;";
+  public static final String SELECT_ALL_RICH_VERSION_TAG_DOCUMENTS = "SELECT id, tags FROM rich_version WHERE tags IS NOT NULL;";
+  public static final String SELECT_RICH_VERSION_IDS_BY_TAG_DOCUMENT = "SELECT id FROM rich_version WHERE %s;";
+  public static final String SELECT_RICH_VERSION_IDS_BY_TAG_DOCUMENTS = "SELECT id FROM rich_version WHERE %s AND id > %d ORDER BY id LIMIT %d;";
+  public static final String INSERT_RICH_VERSION_TAG_DELTA_WITH_VALUE = "INSERT INTO rich_version_tag_delta (rich_version_id, key, value, type, "
+                                                                          + "long_value, boolean_value) VALUES (%d, \'%s\', \'%s\', \'%s\', %s, %s);";
+  public static final String INSERT_RICH_VERSION_TAG_DELTA_NO_VALUE = "INSERT INTO rich_version_tag_delta (rich_version_id, key) VALUES (%d, \'%s\');";
+  public static final String INSERT_RICH_VERSION_TAG_DELTA_REMOVAL = "INSERT INTO rich_version_tag_delta (rich_version_id, key, removed) VALUES (%d, "
+                                                                       + "\'%s\', true);";
+  public static final String SELECT_RICH_VERSION_TAG_CHAIN_LENGTH = "SELECT tag_chain_length FROM rich_version WHERE id = %d;";
+  public static final String SELECT_RICH_VERSION_TAG_CHAIN = "WITH RECURSIVE chain(id, base_id, depth) AS (SELECT id, tag_base_id, 0 FROM "
+                                                               + "rich_version WHERE id = %d UNION ALL SELECT r.id, r.tag_base_id, c.depth + 1 FROM "
+                                                               + "rich_version r JOIN chain c ON r.id = c.base_id) SELECT id FROM chain ORDER BY depth;";
+  public static final String SELECT_RICH_VERSION_TAG_CHAIN_ROWS = "SELECT rich_version_id, key, value, type, long_value, boolean_value, false AS "
+                                                                    + "removed FROM rich_version_tag WHERE rich_version_id IN (%1$s) UNION ALL SELECT "
+                                                                    + "rich_version_id, key, value, type, long_value, boolean_value, removed FROM "
+                                                                    + "rich_version_tag_delta WHERE rich_version_id IN (%1$s);";
+  public static final String RICH_VERSION_IDS_BY_DELTA_TAG = "(WITH RECURSIVE matches(id, key) AS (SELECT rich_version_id, key FROM rich_version_tag "
+                                                               + "WHERE %1$s UNION ALL SELECT rich_version_id, key FROM rich_version_tag_delta WHERE NOT "
+                                                               + "removed AND %1$s UNION ALL SELECT r.id, m.key FROM matches m JOIN rich_version r ON "
+                                                               + "r.tag_base_id = m.id WHERE NOT EXISTS (SELECT 1 FROM rich_version_tag_delta d WHERE "
+                                                               + "d.rich_version_id = r.id AND d.key = m.key)) SELECT id FROM matches)";
+  public static final String SELECT_RICH_VERSION_IDS_BY_DELTA_TAG = "SELECT DISTINCT id FROM %s m;";
+  public static final String SELECT_RICH_VERSION_IDS_BY_DELTA_TAGS = "SELECT DISTINCT id FROM (%s) m WHERE id > %d%s ORDER BY id LIMIT %d;";
+  public static final String SELECT_DELTA_RICH_VERSION_IDS = "SELECT id FROM rich_version WHERE tag_base_id IS NOT NULL;";
+  public static final String DELETE_RICH_VERSION_TAG_DELTA = "DELETE FROM rich_version_tag_delta WHERE rich_version_id = %d";
   public static final String DELETE_RICH_VERSION_TAGS = "DELETE FROM rich_version_tag WHERE rich_version_id = %d";
   public static final String DELETE_RICH_EXTERNAL_PARAMETERS = "DELETE FROM rich_version_external_parameter WHERE rich_version_id = %d";
 
@@ -74,10 +220,111 @@ public class SqlConstants {
   /* Lineage Edge-specific statements */
   public static final String INSERT_LINEAGE_EDGE_VERSION = "INSERT INTO lineage_edge_version (id, lineage_edge_id, from_rich_version_id, "
                                                              + "to_rich_version_id, principal_id) VALUES (%d, %d, %d, %d, %d);";
+  public static final String SELECT_LINEAGE_EDGE_VERSIONS_BY_PRINCIPAL = "SELECT id FROM lineage_edge_version WHERE principal_id = %d AND "
+                                                                            + "created_at >= \'%s\'::timestamptz AND created_at < \'%s\'::timestamptz"
+                                                                            + "%s ORDER BY created_at, id LIMIT %d;";
+  public static final String LINEAGE_EDGE_VERSIONS_BY_PRINCIPAL_AFTER = " AND (created_at, id) > (SELECT created_at, id FROM "
+                                                                          + "lineage_edge_version WHERE id = %d)";
+
+  /* Principal activity statements; buckets are hours in UTC */
+  public static final String UPSERT_PRINCIPAL_ACTIVITY = "INSERT INTO principal_activity (principal_id, lineage_edge_id, bucket, "
+                                                           + "lineage_edge_version_count) VALUES (%d, %d, date_trunc(\'hour\', now() AT TIME "
+                                                           + "ZONE \'UTC\'), 1) ON CONFLICT (principal_id, bucket, lineage_edge_id) DO UPDATE "
+                                                           + "SET lineage_edge_version_count = principal_activity.lineage_edge_version_count + 1;";
+  public static final String DECREMENT_PRINCIPAL_ACTIVITY = "UPDATE principal_activity a SET lineage_edge_version_count = "
+                                                              + "a.lineage_edge_version_count - 1 FROM lineage_edge_version v WHERE v.id = %d AND "
+                                                              + "a.principal_id = v.principal_id AND a.lineage_edge_id = v.lineage_edge_id AND "
+                                                              + "a.bucket = date_trunc(\'hour\', v.created_at AT TIME ZONE \'UTC\');";
+  public static final String SELECT_PRINCIPAL_ACTIVITY = "SELECT principal_id, lineage_edge_id, to_char(date_trunc(\'%1$s\', bucket), "
+                                                           + "\'YYYY-MM-DD\"T\"HH24:MI:SS\"Z\"\'), SUM(lineage_edge_version_count) FROM "
+                                                           + "principal_activity WHERE %2$s bucket >= date_trunc(\'%1$s\', \'%3$s\'::timestamptz "
+                                                           + "AT TIME ZONE \'UTC\') AND bucket < \'%4$s\'::timestamptz AT TIME ZONE \'UTC\' "
+                                                           + "GROUP BY 1, 2, 3 HAVING SUM(lineage_edge_version_count) > 0 ORDER BY 3, 1, 2;";
+  public static final String PRINCIPAL_ACTIVITY_PRINCIPAL = "principal_id = %d AND";
 
   /* Lineage Graph-specific statements */
-  public static final String INSERT_LINEAGE_GRAPH_VERSION = "INSERT INTO lineage_graph_version (id, lineage_graph_id) VALUES (%d, %d);";
-  public static final String INSERT_LINEAGE_GRAPH_VERSION_EDGE = "INSERT INTO lineage_graph_version_edge (lineage_graph_version_id, "
-                                                                   + "lineage_edge_version_id) VALUES (%d, %d);";
-  public static final String SELECT_LINEAGE_GRAPH_VERSION_EDGES = "SELECT * FROM lineage_graph_version_edge WHERE lineage_graph_version_id = %d;";
+  public static final String INSERT_LINEAGE_GRAPH_VERSION = "INSERT INTO lineage_graph_version (id, lineage_graph_id, edge_base_id, "
+                                                             + "edge_chain_length) VALUES (%d, %d, %d, %d);";
+  public static final String INSERT_LINEAGE_GRAPH_VERSION_LEVELS = "INSERT INTO lineage_graph_version_level (lineage_graph_version_id, "
+                                                                     + "rich_version_id, level) VALUES %s;";
+  public static final String UPDATE_LINEAGE_GRAPH_VERSION_LEVEL_CHAIN = "UPDATE lineage_graph_version SET level_base_id = %s, "
+                                                                          + "level_chain_length = %d WHERE id = %d;";
+  public static final String SELECT_LINEAGE_GRAPH_VERSION_LEVEL_CHAIN_LENGTH = "SELECT level_chain_length FROM lineage_graph_version WHERE "
+                                                                                + "id = %d;";
+  public static final String SELECT_LINEAGE_GRAPH_VERSION_LEVELS = "WITH RECURSIVE chain(id, base_id, depth) AS (SELECT id, level_base_id, 0 "
+                                                                     + "FROM lineage_graph_version WHERE id = %d UNION ALL SELECT v.id, "
+                                                                     + "v.level_base_id, c.depth + 1 FROM lineage_graph_version v JOIN chain c "
+                                                                     + "ON v.id = c.base_id) SELECT rich_version_id, level FROM (SELECT "
+                                                                     + "DISTINCT ON (l.rich_version_id) l.rich_version_id, l.level FROM chain c "
+                                                                     + "JOIN lineage_graph_version_level l ON l.lineage_graph_version_id = c.id "
+                                                                     + "ORDER BY l.rich_version_id, c.depth) latest WHERE level IS NOT NULL "
+                                                                     + "ORDER BY level, rich_version_id;";
+  public static final String DELETE_LINEAGE_GRAPH_VERSION_LEVELS = "DELETE FROM lineage_graph_version_level WHERE lineage_graph_version_id = %d;";
+
+  /* Lineage rank statements */
+  public static final String SELECT_LINEAGE_EDGE_ENDPOINTS = "SELECT id, from_rich_version_id, to_rich_version_id FROM lineage_edge_version;";
+  public static final String SELECT_LINEAGE_RANK = "SELECT rich_version_id, downstream_count, page_rank FROM lineage_rank WHERE rich_version_id = %d;";
+  public static final String SELECT_LINEAGE_RANKS = "SELECT rich_version_id, downstream_count, page_rank FROM lineage_rank;";
+  public static final String SELECT_TOP_LINEAGE_RANKS = "SELECT rich_version_id, downstream_count, page_rank FROM lineage_rank ORDER BY %s DESC, "
+                                                          + "rich_version_id LIMIT %d;";
+  public static final String UPSERT_LINEAGE_RANKS = "INSERT INTO lineage_rank (rich_version_id, downstream_count, page_rank) VALUES %s ON CONFLICT "
+                                                      + "(rich_version_id) DO UPDATE SET downstream_count = EXCLUDED.downstream_count, page_rank = "
+                                                      + "EXCLUDED.page_rank;";
+  public static final String DELETE_LINEAGE_RANKS = "DELETE FROM lineage_rank WHERE rich_version_id = ANY(\'{%s}\'::bigint[]);";
+  public static final String SELECT_LINEAGE_RANK_STATE = "SELECT edge_bitmap FROM lineage_rank_state WHERE id = 1;";
+  public static final String UPSERT_LINEAGE_RANK_STATE = "INSERT INTO lineage_rank_state (id, edge_bitmap, refreshed_at) VALUES (1, %1$s, now()) ON "
+                                                           + "CONFLICT (id) DO UPDATE SET edge_bitmap = %1$s, refreshed_at = now();";
+
+  /* Change log statements */
+  // held until commit, so that change log ids are assigned in the order the changes are committed
+  public static final String LOCK_CHANGE_LOG = "SELECT pg_advisory_xact_lock(hashtext(\'change_log\'));";
+  public static final String INSERT_CHANGE = "INSERT INTO change_log (entity_type, entity_id, item_id, parent_ids) VALUES (\'%s\', %d, %s, "
+                                               + "\'{%s}\'::bigint[]);";
+  public static final String SELECT_CHANGES = "SELECT id, entity_type, entity_id, item_id, parent_ids, to_char(created_at AT TIME ZONE \'UTC\', "
+                                                + "\'YYYY-MM-DD\"T\"HH24:MI:SS.US\"Z\"\') FROM change_log WHERE id > %d ORDER BY id LIMIT %d;";
+
+  /* Cache eviction statements; notifications are delivered to listeners on commit */
+  public static final String NOTIFY_CACHE_EVICTION = "SELECT pg_notify(\'ground_cache\', \'%s\');";
+  public static final String LISTEN_CACHE_EVICTIONS = "LISTEN ground_cache;";
+
+  /* Replica routing statements */
+  // the WAL position written on a primary, or replayed on a replica
+  public static final String SELECT_WAL_LSN = "SELECT CASE WHEN pg_is_in_recovery() THEN pg_last_wal_replay_lsn() ELSE pg_current_wal_lsn() END;";
+
+  /* Shard directory statements */
+  public static final String INSERT_SHARD_RESERVATION = "INSERT INTO shard_directory (item_type, source_key, shard) VALUES (\'%s\', \'%s\', "
+                                                          + "%d) ON CONFLICT DO NOTHING RETURNING shard;";
+  public static final String DELETE_SHARD_RESERVATION = "DELETE FROM shard_directory WHERE item_type = \'%s\' AND source_key = \'%s\' AND "
+                                                          + "item_id IS NULL;";
+  public static final String INSERT_SHARD_DIRECTORY_ENTRY = "INSERT INTO shard_directory (item_type, source_key, item_id, shard) VALUES (\'%s\', "
+                                                              + "\'%s\', %d, %d) ON CONFLICT (item_type, source_key) DO UPDATE SET item_id = "
+                                                              + "EXCLUDED.item_id WHERE shard_directory.item_id IS NULL;";
+  public static final String SELECT_SHARD_BY_SOURCE_KEY = "SELECT shard, item_id IS NOT NULL FROM shard_directory WHERE item_type = \'%s\' AND "
+                                                            + "source_key = \'%s\';";
+  public static final String SELECT_SHARD_BY_ITEM_ID = "SELECT shard FROM shard_directory WHERE item_id = %d;";
+
+  /* Machine id lease statements; lease expiry is measured on the database's clock */
+  // takes the smallest machine id that is free or whose lease expired
+  public static final String ACQUIRE_MACHINE_LEASE = "INSERT INTO machine_lease (machine_id, holder, expires_at) SELECT m, \'%1$s\', now() + "
+                                                       + "interval \'%2$d milliseconds\' FROM generate_series(0, %3$d) m WHERE NOT EXISTS "
+                                                       + "(SELECT 1 FROM machine_lease l WHERE l.machine_id = m AND l.expires_at > now()) "
+                                                       + "ORDER BY m LIMIT 1 ON CONFLICT (machine_id) DO UPDATE SET holder = EXCLUDED.holder, "
+                                                       + "expires_at = EXCLUDED.expires_at WHERE machine_lease.expires_at <= now() RETURNING "
+                                                       + "machine_id;";
+  public static final String COUNT_FREE_MACHINE_LEASES = "SELECT count(*) FROM generate_series(0, %d) m WHERE NOT EXISTS (SELECT 1 FROM "
+                                                           + "machine_lease l WHERE l.machine_id = m AND l.expires_at > now());";
+  public static final String RENEW_MACHINE_LEASE = "UPDATE machine_lease SET expires_at = now() + interval \'%d milliseconds\' WHERE "
+                                                     + "machine_id = %d AND holder = \'%s\' AND expires_at > now();";
+  public static final String RELEASE_MACHINE_LEASE = "DELETE FROM machine_lease WHERE machine_id = %d AND holder = \'%s\';";
+  public static final String SELECT_MAX_ID_IN_RANGE = "SELECT MAX(id) FROM %s WHERE id BETWEEN %d AND %d;";
+
+  /* Group commit statements; each request's statements run under a savepoint of the shared transaction */
+  public static final String SAVEPOINT_GROUP_COMMIT = "SAVEPOINT group_commit;";
+  public static final String RELEASE_GROUP_COMMIT = "RELEASE SAVEPOINT group_commit;";
+  public static final String ROLLBACK_GROUP_COMMIT = "ROLLBACK TO SAVEPOINT group_commit;";
+
+  /* Write spool statements */
+  public static final String INSERT_SPOOL_APPLIED = "INSERT INTO spool_applied (spool_id, seq) VALUES (%d, 0) ON CONFLICT DO NOTHING;";
+  public static final String SELECT_SPOOL_APPLIED = "SELECT seq FROM spool_applied WHERE spool_id = %d;";
+  public static final String UPDATE_SPOOL_APPLIED = "UPDATE spool_applied SET seq = %d WHERE spool_id = %d;";
 }
@@ -0,0 +1,138 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.dao.core;
+
+import edu.berkeley.ground.common.analytics.CsrGraph;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import play.db.Database;
+
+/**
+ * Loads the edge set of a graph version or a lineage graph version into a CsrGraph whose vertices
+ * are the versions the edge versions connect. Graph versions never change, so loaded graphs are
+ * kept in a cache by version id, sized by ground.graphs.analytics.cache.size.
+ */
+public class PostgresCsrGraphLoader {
+
+  // the number of edge versions whose endpoints are read by a single query
+  private static final int SELECT_BATCH_SIZE = 10000;
+
+  private final Database dbSource;
+  private final PostgresEdgeSetStore edgeSetStore;
+  private final String versionType;
+  private final String edgeVersionTable;
+  private final String fromColumn;
+  private final String toColumn;
+  private final int cacheSize;
+
+  private final Map<Long, CsrGraph> cache = Collections.synchronizedMap(
+    new LinkedHashMap<Long, CsrGraph>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, CsrGraph> eldest) {
+        return this.size() > cacheSize;
+      }
+    });
+
+  private PostgresCsrGraphLoader(Database dbSource, PostgresEdgeSetStore edgeSetStore, String versionType, String edgeVersionTable,
+                                 String fromColumn, String toColumn) {
+    this.dbSource = dbSource;
+    this.edgeSetStore = edgeSetStore;
+    this.versionType = versionType;
+    this.edgeVersionTable = edgeVersionTable;
+    this.fromColumn = fromColumn;
+    this.toColumn = toColumn;
+    this.cacheSize = Integer.getInteger("ground.graphs.analytics.cache.size", 4);
+  }
+
+  public static PostgresCsrGraphLoader forGraphs(Database dbSource) {
+    return new PostgresCsrGraphLoader(dbSource, PostgresEdgeSetStore.forGraphs(dbSource), "GraphVersion", "edge_version",
+                                       "from_node_version_start_id", "to_node_version_start_id");
+  }
+
+  public static PostgresCsrGraphLoader forLineageGraphs(Database dbSource) {
+    return new PostgresCsrGraphLoader(dbSource, PostgresEdgeSetStore.forLineageGraphs(dbSource), "LineageGraphVersion", "lineage_edge_version",
+                                       "from_rich_version_id", "to_rich_version_id");
+  }
+
+  /**
+   * Load the graph of a version, from the cache if it was loaded before.
+   *
+   * @param id the id of the graph version or lineage graph version
+   * @return the graph, whose edges are the edge versions and whose vertices are their endpoints
+   * @throws GroundException the version doesn't exist, or an error while reading it
+   */
+  public CsrGraph load(long id) throws GroundException {
+    CsrGraph cached = this.cache.get(id);
+    if (cached != null) {
+      return cached;
+    }
+
+    if (!this.edgeSetStore.exists(id)) {
+      throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.versionType, String.format("%d", id));
+    }
+
+    CsrGraph graph = this.build(this.edgeSetStore.retrieveEdgeIds(id));
+    this.cache.put(id, graph);
+    return graph;
+  }
+
+  /**
+   * Build the graph of a set of edge versions, without caching it.
+   *
+   * @param edgeVersionIds the ids of the edge versions
+   * @return the graph, whose edges are the edge versions and whose vertices are their endpoints
+   * @throws GroundException an error while reading the edge versions
+   */
+  public CsrGraph build(List<Long> edgeVersionIds) throws GroundException {
+    long[] edgeIds = new long[edgeVersionIds.size()];
+    long[] fromIds = new long[edgeIds.length];
+    long[] toIds = new long[edgeIds.length];
+    int count = 0;
+
+    // the edge versions of a graph version may have been placed on any shard
+    for (Database shard : ShardRouter.databases(this.dbSource)) {
+      try (Connection con = shard.getConnection()) {
+        Statement stmt = con.createStatement();
+
+        for (int start = 0; start < edgeVersionIds.size(); start += SELECT_BATCH_SIZE) {
+          String batch = edgeVersionIds.subList(start, Math.min(edgeVersionIds.size(), start + SELECT_BATCH_SIZE)).stream()
+                           .map(String::valueOf).collect(Collectors.joining(","));
+          ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_EDGE_ENDPOINTS, this.fromColumn, this.toColumn,
+            this.edgeVersionTable, batch));
+
+          while (resultSet.next()) {
+            edgeIds[count] = resultSet.getLong(1);
+            fromIds[count] = resultSet.getLong(2);
+            toIds[count] = resultSet.getLong(3);
+            count++;
+          }
+        }
+      } catch (SQLException e) {
+        throw new GroundException(e);
+      }
+    }
+
+    return CsrGraph.of(Arrays.copyOf(edgeIds, count), Arrays.copyOf(fromIds, count), Arrays.copyOf(toIds, count));
+  }
+}
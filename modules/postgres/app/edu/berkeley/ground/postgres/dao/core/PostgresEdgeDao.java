@@ -16,12 +16,19 @@ import edu.berkeley.ground.common.dao.core.EdgeDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.Edge;
+import edu.berkeley.ground.common.model.core.EdgeDirection;
+import edu.berkeley.ground.common.model.core.NodeNeighborhood;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.dao.version.PostgresItemDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import play.db.Database;
 import play.libs.Json;
 
@@ -71,6 +78,57 @@ public class PostgresEdgeDao extends PostgresItemDao<Edge> implements EdgeDao {
                      super.postgresTagDao.retrieveFromDatabaseByItemId(id));
   }
 
+  /**
+   * Retrieve the ids of the edges of a node, one page at a time.
+   *
+   * @param nodeId the id of the node
+   * @param direction whether to return the edges going into the node, out of it, or both
+   * @param afterId only return ids larger than this one
+   * @param limit the maximum number of ids to return
+   * @return the ids of the edges, in ascending order
+   * @throws GroundException an error while querying the edges
+   */
+  public List<Long> retrieveIdsByNode(long nodeId, EdgeDirection direction, long afterId, int limit) throws GroundException {
+    String sql = direction == EdgeDirection.BOTH ? String.format(SqlConstants.SELECT_EDGE_IDS_BY_EITHER_NODE, nodeId, afterId, limit)
+                   : String.format(SqlConstants.SELECT_EDGE_IDS_BY_NODE, direction == EdgeDirection.OUT ? "from" : "to", nodeId, afterId, limit);
+
+    return PostgresUtils.executeQueryToIds(dbSource, sql);
+  }
+
+  /**
+   * Retrieve the nodes that can be reached from a node by following at most a number of edges,
+   * along with the edges followed. The whole expansion runs as a single recursive query.
+   *
+   * @param nodeId the id of the node to start from
+   * @param direction whether to follow edges forwards, backwards, or both
+   * @param hops the maximum number of edges to follow
+   * @return the neighborhood of the node
+   * @throws GroundException an error while querying the edges
+   */
+  public NodeNeighborhood retrieveNeighborhood(long nodeId, EdgeDirection direction, int hops) throws GroundException {
+    String steps;
+    if (direction == EdgeDirection.BOTH) {
+      steps = String.format(SqlConstants.EDGE_STEPS, "from", "to") + " UNION ALL " + String.format(SqlConstants.EDGE_STEPS, "to", "from");
+    } else {
+      boolean outgoing = direction == EdgeDirection.OUT;
+      steps = String.format(SqlConstants.EDGE_STEPS, outgoing ? "from" : "to", outgoing ? "to" : "from");
+    }
+
+    Map<Long, Integer> nodes = new LinkedHashMap<>();
+    try (Connection con = dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(String.format(SqlConstants.SELECT_NODE_NEIGHBORHOOD, steps, nodeId, hops));
+
+      while (resultSet.next()) {
+        nodes.put(resultSet.getLong(1), resultSet.getInt(2));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    List<Long> edgeIds = PostgresUtils.executeQueryToIds(dbSource, String.format(SqlConstants.SELECT_NODE_NEIGHBORHOOD_EDGES, steps, nodeId, hops));
+    return new NodeNeighborhood(nodeId, nodes, edgeIds);
+  }
+
   @Override
   public List<Long> getLeaves(String sourceKey) throws GroundException {
     Edge edge = retrieveFromDatabase(sourceKey);
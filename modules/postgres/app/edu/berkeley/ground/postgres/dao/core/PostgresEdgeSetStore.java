@@ -0,0 +1,562 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.dao.core;
+
+import com.google.common.base.CaseFormat;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.core.GraphVersionDiff;
+import edu.berkeley.ground.common.model.core.GraphVersionDiff.ChangedEdge;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.util.LongBitmaps;
+import edu.berkeley.ground.postgres.util.PostgresStatements;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import play.db.Database;
+
+/**
+ * Stores the edge sets of graph versions. With "rows" storage, a version either stores its full
+ * edge set (a snapshot) or only the edges added and removed relative to a base version, which is
+ * its first parent. A snapshot is written every ground.graphs.snapshot.interval versions along a
+ * chain, so that reconstructing an edge set never applies more than that many deltas. With
+ * "bitmap" storage, every version stores its full edge set as a compressed bitmap on its own row;
+ * a version without a parent also stores its edge set as rows, so that reverse membership queries
+ * find it through the index on the edge version.
+ *
+ * <p>Edge sets are handled as bitmaps in memory, which makes diffing and containment checks cheap.
+ */
+public class PostgresEdgeSetStore {
+
+  public static final String BITMAP_STORAGE = "bitmap";
+
+  // the number of rows written by a single INSERT
+  private static final int INSERT_BATCH_SIZE = 1000;
+
+  // the number of reconstructed edge sets to keep; consecutive versions are usually read together
+  private static final int CACHE_SIZE = 16;
+
+  private final Database dbSource;
+  private final String versionTable;
+  private final String memberTable;
+  private final String deltaTable;
+  private final String versionColumn;
+  private final String edgeColumn;
+  private final String edgeVersionTable;
+  private final String edgeItemColumn;
+
+  // the cached bitmaps are never modified
+  private final Map<Long, Roaring64NavigableMap> cache = Collections.synchronizedMap(
+    new LinkedHashMap<Long, Roaring64NavigableMap>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Roaring64NavigableMap> eldest) {
+        return this.size() > CACHE_SIZE;
+      }
+    });
+
+  /**
+   * The decision of how to store the edge set of a new version.
+   */
+  public static class EdgeSetWrite {
+
+    private final Long baseId;
+    private final int chainLength;
+    private final Roaring64NavigableMap added;
+    private final Roaring64NavigableMap removed;
+    private final Roaring64NavigableMap edges;
+    private final boolean bitmap;
+
+    EdgeSetWrite(Long baseId, int chainLength, Roaring64NavigableMap added, Roaring64NavigableMap removed, Roaring64NavigableMap edges,
+                 boolean bitmap) {
+      this.baseId = baseId;
+      this.chainLength = chainLength;
+      this.added = added;
+      this.removed = removed;
+      this.edges = edges;
+      this.bitmap = bitmap;
+    }
+
+    /**
+     * The version the delta is relative to. A version stored as a bitmap records the delta against
+     * its first parent as well, so that reverse membership queries can follow it.
+     *
+     * @return the base version, or null if the full edge set is stored as rows or there is no parent
+     */
+    public Long getBaseId() {
+      return this.baseId;
+    }
+
+    public int getChainLength() {
+      return this.chainLength;
+    }
+
+    public boolean isSnapshot() {
+      return this.baseId == null;
+    }
+
+    public boolean isBitmap() {
+      return this.bitmap;
+    }
+  }
+
+  PostgresEdgeSetStore(Database dbSource, String versionTable, String memberTable, String deltaTable, String versionColumn,
+                       String edgeColumn, String edgeVersionTable, String edgeItemColumn) {
+    this.dbSource = dbSource;
+    this.versionTable = versionTable;
+    this.memberTable = memberTable;
+    this.deltaTable = deltaTable;
+    this.versionColumn = versionColumn;
+    this.edgeColumn = edgeColumn;
+    this.edgeVersionTable = edgeVersionTable;
+    this.edgeItemColumn = edgeItemColumn;
+  }
+
+  public static PostgresEdgeSetStore forGraphs(Database dbSource) {
+    return new PostgresEdgeSetStore(dbSource, "graph_version", "graph_version_edge", "graph_version_edge_delta", "graph_version_id",
+                                     "edge_version_id", "edge_version", "edge_id");
+  }
+
+  public static PostgresEdgeSetStore forLineageGraphs(Database dbSource) {
+    return new PostgresEdgeSetStore(dbSource, "lineage_graph_version", "lineage_graph_version_edge", "lineage_graph_version_edge_delta",
+                                     "lineage_graph_version_id", "lineage_edge_version_id", "lineage_edge_version", "lineage_edge_id");
+  }
+
+  /**
+   * Whether new edge sets are stored as compressed bitmaps; edge sets that were stored as rows are
+   * still read from their rows.
+   *
+   * @return true if ground.graphs.edges.storage is "bitmap"
+   */
+  public static boolean usesBitmaps() {
+    return BITMAP_STORAGE.equals(System.getProperty("ground.graphs.edges.storage"));
+  }
+
+  /**
+   * The number of versions along a chain after which a full snapshot is written instead of a delta.
+   *
+   * @return the snapshot interval
+   */
+  public static int getSnapshotInterval() {
+    return Integer.getInteger("ground.graphs.snapshot.interval", 32);
+  }
+
+  /**
+   * Apply added and removed edges to the edge set of a version.
+   *
+   * @param baseId the version to start from
+   * @param added the edges to add
+   * @param removed the edges to remove
+   * @return the resulting edge set, in ascending order
+   * @throws GroundException the base version does not exist or could not be read
+   */
+  public List<Long> applyDelta(long baseId, Collection<Long> added, Collection<Long> removed) throws GroundException {
+    Roaring64NavigableMap edges = LongBitmaps.andNot(this.retrieve(baseId), LongBitmaps.of(removed));
+    edges.or(LongBitmaps.of(added));
+
+    return LongBitmaps.toList(edges);
+  }
+
+  /**
+   * Check whether an edge version belongs to the edge set of a version.
+   *
+   * @param id the id of the version
+   * @param edgeVersionId the id of the edge version
+   * @return true if the edge version is in the version
+   * @throws GroundException an error while reading the edge set
+   */
+  public boolean contains(long id, long edgeVersionId) throws GroundException {
+    return this.retrieve(id).contains(edgeVersionId);
+  }
+
+  /**
+   * Compute the difference between the edge sets of two versions. Added and removed edge versions
+   * that belong to the same edge are paired up as changed edges, in ascending order of edge
+   * version id; any that are left over stay added or removed.
+   *
+   * @param fromId the version to start from
+   * @param toId the version to compare with
+   * @return the difference
+   * @throws GroundException either version or a changed edge version does not exist, or an error
+   *     while reading the edge sets
+   */
+  public GraphVersionDiff diff(long fromId, long toId) throws GroundException {
+    Roaring64NavigableMap from = this.retrieve(fromId);
+    Roaring64NavigableMap to = this.retrieve(toId);
+
+    Roaring64NavigableMap added = LongBitmaps.andNot(to, from);
+    Roaring64NavigableMap removed = LongBitmaps.andNot(from, to);
+
+    if (added.isEmpty() || removed.isEmpty()) {
+      return new GraphVersionDiff(fromId, toId, LongBitmaps.toList(added), LongBitmaps.toList(removed), new ArrayList<>());
+    }
+
+    Roaring64NavigableMap candidates = LongBitmaps.copy(added);
+    candidates.or(removed);
+    Map<Long, Long> edgeIds = this.retrieveEdgeIds(candidates);
+
+    // the removed edge versions of every edge, in ascending order
+    Map<Long, Deque<Long>> removedByEdge = new HashMap<>();
+    removed.forEach(edgeVersionId -> removedByEdge.computeIfAbsent(edgeIds.get(edgeVersionId), ignored -> new ArrayDeque<>())
+                                       .add(edgeVersionId));
+
+    List<ChangedEdge> changed = new ArrayList<>();
+    for (long edgeVersionId : LongBitmaps.toList(added)) {
+      long edgeId = edgeIds.get(edgeVersionId);
+      Deque<Long> previous = removedByEdge.get(edgeId);
+
+      if (previous != null && !previous.isEmpty()) {
+        long previousId = previous.poll();
+        changed.add(new ChangedEdge(edgeId, previousId, edgeVersionId));
+
+        added.removeLong(edgeVersionId);
+        removed.removeLong(previousId);
+      }
+    }
+
+    return new GraphVersionDiff(fromId, toId, LongBitmaps.toList(added), LongBitmaps.toList(removed), changed);
+  }
+
+  // the edge of every edge version, which all have to exist
+  private Map<Long, Long> retrieveEdgeIds(Roaring64NavigableMap edgeVersionIds) throws GroundException {
+    Map<Long, Long> edgeIds = new HashMap<>();
+    String ids = LongBitmaps.toList(edgeVersionIds).stream().map(String::valueOf).collect(Collectors.joining(","));
+
+    try (Connection con = this.dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_EDGE_IDS_BY_VERSION, this.edgeItemColumn, this.edgeVersionTable,
+        ids));
+
+      while (resultSet.next()) {
+        edgeIds.put(resultSet.getLong(1), resultSet.getLong(2));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    for (long edgeVersionId : LongBitmaps.toList(edgeVersionIds)) {
+      if (!edgeIds.containsKey(edgeVersionId)) {
+        throw new GroundException(ExceptionType.VERSION_NOT_FOUND, getTypeName(this.edgeVersionTable), String.valueOf(edgeVersionId));
+      }
+    }
+
+    return edgeIds;
+  }
+
+  /**
+   * Find the versions whose edge set contains any of the given edge versions. Membership is
+   * inherited along delta chains, so the query starts from the snapshots and deltas that add the
+   * edge versions, both found through indexes on the edge version, and follows the versions based
+   * on them until a delta removes the edge version. Bitmaps that start a chain store their edge set
+   * as rows as well, and every other bitmap version records its delta against its parent as rows.
+   *
+   * @param edgeVersionIds the edge versions to look for
+   * @return the ids of the versions that contain any of them, in ascending order
+   * @throws GroundException an error while querying the edge sets
+   */
+  public List<Long> retrieveVersionIdsContaining(Collection<Long> edgeVersionIds) throws GroundException {
+    List<Long> ids = new ArrayList<>();
+    if (edgeVersionIds.isEmpty()) {
+      return ids;
+    }
+
+    String edgeList = LongBitmaps.toList(LongBitmaps.of(edgeVersionIds)).stream().map(String::valueOf).collect(Collectors.joining(","));
+
+    try (Connection con = this.dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_EDGE_SET_VERSIONS_CONTAINING, this.versionColumn, this.edgeColumn,
+        this.memberTable, this.deltaTable, this.versionTable, edgeList));
+
+      while (resultSet.next()) {
+        ids.add(resultSet.getLong(1));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    return ids;
+  }
+
+  /**
+   * Check whether a version exists, without reading its edge set.
+   *
+   * @param id the id of the version
+   * @return true if the version exists
+   * @throws GroundException an error while reading the version
+   */
+  public boolean exists(long id) throws GroundException {
+    return this.retrieveChainLength(id) != null;
+  }
+
+  /**
+   * Decide how to store the edge set of a new version: as a delta against its first parent, unless
+   * the parent's chain has reached the snapshot interval or the delta would not be smaller than the
+   * edge set itself. With bitmaps, the full edge set is always stored and the delta against the
+   * first parent is recorded alongside it.
+   *
+   * @param parentIds the parents of the new version
+   * @param edgeIds the full edge set of the new version
+   * @return the decision, to be passed to insert
+   * @throws GroundException an error while reading the parent's edge set
+   */
+  public EdgeSetWrite plan(List<Long> parentIds, Collection<Long> edgeIds) throws GroundException {
+    Roaring64NavigableMap edges = LongBitmaps.of(edgeIds);
+    int interval = getSnapshotInterval();
+
+    boolean bitmap = usesBitmaps();
+
+    if ((!bitmap && interval <= 1) || parentIds == null || parentIds.isEmpty() || parentIds.get(0) <= 0) {
+      return new EdgeSetWrite(null, 0, null, null, edges, bitmap);
+    }
+
+    long baseId = parentIds.get(0);
+    Integer baseLength = this.retrieveChainLength(baseId);
+
+    if (baseLength == null || (!bitmap && baseLength + 1 >= interval)) {
+      return new EdgeSetWrite(null, 0, null, null, edges, bitmap);
+    }
+
+    Roaring64NavigableMap baseEdges = this.retrieve(baseId);
+    Roaring64NavigableMap added = LongBitmaps.andNot(edges, baseEdges);
+    Roaring64NavigableMap removed = LongBitmaps.andNot(baseEdges, edges);
+
+    if (bitmap) {
+      // the bitmap is read on its own, so it starts a new chain
+      return new EdgeSetWrite(baseId, 0, added, removed, edges, true);
+    }
+
+    if (added.getLongCardinality() + removed.getLongCardinality() >= edges.getLongCardinality() && !edges.isEmpty()) {
+      return new EdgeSetWrite(null, 0, null, null, edges, false);
+    }
+
+    return new EdgeSetWrite(baseId, baseLength + 1, added, removed, edges, false);
+  }
+
+  /**
+   * Create the statements that store the edge set of a new version. The version's row has to be
+   * inserted first, with the base id and chain length of the write.
+   *
+   * @param id the id of the new version
+   * @param write the decision returned by plan
+   * @return the statements to run
+   */
+  public PostgresStatements insert(long id, EdgeSetWrite write) {
+    PostgresStatements statements = new PostgresStatements();
+
+    if (write.isBitmap()) {
+      statements.append(String.format(SqlConstants.UPDATE_EDGE_SET_BITMAP, this.versionTable, LongBitmaps.toSqlLiteral(write.edges), id));
+    }
+
+    // the rows of a bitmap without a parent are only read by reverse membership queries
+    if (write.isSnapshot()) {
+      List<String> rows = new ArrayList<>();
+      write.edges.forEach(edgeId -> rows.add(String.format("(%d, %d)", id, edgeId)));
+
+      for (List<String> batch : batches(rows)) {
+        statements.append(String.format(SqlConstants.INSERT_EDGE_SET_MEMBERS, this.memberTable, this.versionColumn, this.edgeColumn,
+          String.join(", ", batch)));
+      }
+    } else if (!write.isSnapshot()) {
+      List<String> rows = new ArrayList<>();
+      write.added.forEach(edgeId -> rows.add(String.format("(%d, %d, false)", id, edgeId)));
+      write.removed.forEach(edgeId -> rows.add(String.format("(%d, %d, true)", id, edgeId)));
+
+      for (List<String> batch : batches(rows)) {
+        statements.append(String.format(SqlConstants.INSERT_EDGE_SET_DELTAS, this.deltaTable, this.versionColumn, this.edgeColumn,
+          String.join(", ", batch)));
+      }
+    }
+
+    statements.onCommit(() -> this.cache.put(id, write.edges));
+    return statements;
+  }
+
+  /**
+   * Create the statements that delete the edge set of a version.
+   *
+   * @param id the id of the version
+   * @return the statements to run
+   */
+  public PostgresStatements delete(long id) {
+    PostgresStatements statements = new PostgresStatements();
+    statements.append(String.format(SqlConstants.DELETE_EDGE_SET, this.memberTable, this.versionColumn, id));
+    statements.append(String.format(SqlConstants.DELETE_EDGE_SET, this.deltaTable, this.versionColumn, id));
+    statements.onCommit(() -> this.cache.remove(id));
+
+    return statements;
+  }
+
+  /**
+   * Retrieve the edge set of a version in ascending order.
+   *
+   * @param id the id of the version
+   * @return the ids of the edge versions in the version
+   * @throws GroundException an error while reading the edge set
+   */
+  public List<Long> retrieveEdgeIds(long id) throws GroundException {
+    return LongBitmaps.toList(this.retrieve(id));
+  }
+
+  /**
+   * Retrieve the edge set of a version. A bitmap is read from the version's row; otherwise the
+   * deltas along the version's chain are applied to the nearest snapshot or cached edge set.
+   *
+   * @param id the id of the version
+   * @return the edge set, which must not be modified
+   * @throws GroundException the version does not exist, or an error while reading the edge set
+   */
+  public Roaring64NavigableMap retrieve(long id) throws GroundException {
+    Roaring64NavigableMap cached = this.cache.get(id);
+    if (cached != null) {
+      return cached;
+    }
+
+    try (Connection con = this.dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      Roaring64NavigableMap edges = usesBitmaps() ? this.retrieveBitmap(stmt, id) : null;
+
+      if (edges == null) {
+        edges = this.retrieveFromChain(stmt, id);
+      }
+
+      this.cache.put(id, edges);
+      return edges;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  private Roaring64NavigableMap retrieveBitmap(Statement stmt, long id) throws SQLException, GroundException {
+    ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_EDGE_SET_BITMAP, this.versionTable, id));
+
+    if (!resultSet.next()) {
+      return null;
+    }
+
+    byte[] bytes = resultSet.getBytes(1);
+    return bytes == null ? null : LongBitmaps.deserialize(bytes);
+  }
+
+  private Roaring64NavigableMap retrieveFromChain(Statement stmt, long id) throws SQLException, GroundException {
+    ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_EDGE_SET_CHAIN, this.versionTable, id));
+
+    List<Long> chain = new ArrayList<>();
+    Roaring64NavigableMap edges = null;
+    long snapshotId = -1;
+    boolean snapshotIsBitmap = false;
+    boolean exists = false;
+
+    // the chain goes from the version to its snapshot; stop at the first edge set already known
+    while (resultSet.next()) {
+      exists = true;
+      long versionId = resultSet.getLong(1);
+      Roaring64NavigableMap known = this.cache.get(versionId);
+
+      if (known != null) {
+        edges = LongBitmaps.copy(known);
+        break;
+      }
+
+      if (resultSet.getBoolean(3)) {
+        snapshotId = versionId;
+        snapshotIsBitmap = true;
+        break;
+      }
+
+      resultSet.getLong(2);
+      if (resultSet.wasNull()) {
+        snapshotId = versionId;
+        break;
+      }
+
+      chain.add(versionId);
+    }
+
+    // the chain starts with the version itself, so it is empty if the version does not exist
+    if (!exists) {
+      throw new GroundException(ExceptionType.VERSION_NOT_FOUND, getTypeName(this.versionTable), String.valueOf(id));
+    }
+
+    if (edges == null && snapshotIsBitmap) {
+      edges = this.retrieveBitmap(stmt, snapshotId);
+    } else if (edges == null) {
+      edges = LongBitmaps.empty();
+
+      if (snapshotId != -1) {
+        resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_EDGE_SET_MEMBERS, this.edgeColumn, this.memberTable,
+          this.versionColumn, snapshotId));
+
+        while (resultSet.next()) {
+          edges.addLong(resultSet.getLong(1));
+        }
+      }
+    }
+
+    if (!chain.isEmpty()) {
+      Map<Long, Roaring64NavigableMap> added = new HashMap<>();
+      Map<Long, Roaring64NavigableMap> removed = new HashMap<>();
+
+      String ids = chain.stream().map(String::valueOf).collect(Collectors.joining(", "));
+      resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_EDGE_SET_DELTAS, this.versionColumn, this.edgeColumn, this.deltaTable,
+        ids));
+
+      while (resultSet.next()) {
+        Map<Long, Roaring64NavigableMap> delta = resultSet.getBoolean(3) ? removed : added;
+        delta.computeIfAbsent(resultSet.getLong(1), ignored -> LongBitmaps.empty()).addLong(resultSet.getLong(2));
+      }
+
+      for (int i = chain.size() - 1; i >= 0; i--) {
+        edges.andNot(removed.getOrDefault(chain.get(i), LongBitmaps.empty()));
+        edges.or(added.getOrDefault(chain.get(i), LongBitmaps.empty()));
+      }
+    }
+
+    return edges;
+  }
+
+  private Integer retrieveChainLength(long id) throws GroundException {
+    try (Connection con = this.dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_EDGE_SET_CHAIN_LENGTH, this.versionTable, id));
+
+      return resultSet.next() ? resultSet.getInt(1) : null;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  // the name of the type stored in a table, e.g. GraphVersion
+  private static String getTypeName(String table) {
+    return CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, table);
+  }
+
+  private static List<List<String>> batches(List<String> rows) {
+    List<List<String>> batches = new ArrayList<>();
+
+    for (int i = 0; i < rows.size(); i += INSERT_BATCH_SIZE) {
+      batches.add(rows.subList(i, Math.min(rows.size(), i + INSERT_BATCH_SIZE)));
+    }
+
+    return batches;
+  }
+}
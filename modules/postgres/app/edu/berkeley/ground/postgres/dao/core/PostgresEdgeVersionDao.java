@@ -4,13 +4,11 @@ import com.fasterxml.jackson.databind.JsonNode;
 import edu.berkeley.ground.common.dao.core.EdgeVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
-import edu.berkeley.ground.common.model.core.Edge;
+import edu.berkeley.ground.common.model.core.EdgeDirection;
 import edu.berkeley.ground.common.model.core.EdgeVersion;
 import edu.berkeley.ground.common.model.core.RichVersion;
-import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
-import edu.berkeley.ground.postgres.dao.version.PostgresVersionHistoryDagDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.List;
@@ -35,12 +33,12 @@ public class PostgresEdgeVersionDao extends PostgresRichVersionDao<EdgeVersion>
 
     for (long parentId : parentIds) {
       if (parentId != 0) {
-        updateVersionList.merge(this.updatePreviousVersion(newEdgeVersion, newEdgeVersion.getEdgeId(), parentId));
+        updateVersionList.merge(this.updatePreviousVersion(newEdgeVersion, parentId));
       }
     }
 
     try {
-      PostgresStatements statements = super.insert(newEdgeVersion);
+      PostgresStatements statements = super.insert(newEdgeVersion, parentIds);
       Long fromEndId = edgeVersion.getFromNodeVersionEndId();
       Long toEndId = edgeVersion.getToNodeVersionEndId();
 
@@ -54,9 +52,12 @@ public class PostgresEdgeVersionDao extends PostgresRichVersionDao<EdgeVersion>
 
       statements.append(String.format(SqlConstants.INSERT_EDGE_VERSION, uniqueId, edgeVersion.getEdgeId(), edgeVersion.getFromNodeVersionStartId(),
         fromEndId, edgeVersion.getToNodeVersionStartId(), toEndId));
+      statements.append(String.format(SqlConstants.INSERT_EDGE_VERSION_VALIDITY, uniqueId, true, edgeVersion.getFromNodeVersionStartId()));
+      statements.append(String.format(SqlConstants.INSERT_EDGE_VERSION_VALIDITY, uniqueId, false, edgeVersion.getToNodeVersionStartId()));
 
       statements.merge(updateVersionList);
 
+      statements.allowSpooling(uniqueId);
       PostgresUtils.executeSqlList(dbSource, statements);
     } catch (Exception e) {
       throw new GroundException(e);
@@ -68,6 +69,7 @@ public class PostgresEdgeVersionDao extends PostgresRichVersionDao<EdgeVersion>
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
+    statements.append(String.format(SqlConstants.DELETE_EDGE_VERSION_VALIDITY, id));
     statements.append(String.format(SqlConstants.DELETE_BY_ID, "edge_version", id));
 
     PostgresStatements superStatements = super.delete(id);
@@ -76,45 +78,44 @@ public class PostgresEdgeVersionDao extends PostgresRichVersionDao<EdgeVersion>
   }
 
   /**
-   * Set the from and to end versions of a previous edge version.
+   * Set the from and to end versions of a previous edge version, if they aren't set yet. The end
+   * version of each endpoint is the parent of the start version of the new edge version; it is
+   * looked up in the version successors by the statements themselves, so that neither the node
+   * histories nor the previous edge version have to be loaded.
    *
    * @param currentVersion the new version created
-   * @param edgeId the id of the edge we're updating
    * @param parentId the id of the parent we're updating
    * @return a set of statements to set the end versions
    */
-  private PostgresStatements updatePreviousVersion(EdgeVersion currentVersion, long edgeId, long parentId) throws GroundException {
+  private PostgresStatements updatePreviousVersion(EdgeVersion currentVersion, long parentId) {
     PostgresStatements statements = new PostgresStatements();
 
-    PostgresVersionHistoryDagDao versionHistoryDagDao =
-      new PostgresVersionHistoryDagDao(this.dbSource, this.idGenerator);
+    statements.append(String.format(SqlConstants.UPDATE_EDGE_VERSION_END, "from", currentVersion.getFromNodeVersionStartId(), parentId));
+    statements.append(String.format(SqlConstants.UPDATE_EDGE_VERSION_END, "to", currentVersion.getToNodeVersionStartId(), parentId));
 
-    EdgeVersion parentVersion = this.retrieveFromDatabase(parentId);
-    Edge edge = this.postgresEdgeDao.retrieveFromDatabase(edgeId);
-
-    long fromNodeId = edge.getFromNodeId();
-    long toNodeId = edge.getToNodeId();
-
-    long fromEndId = -1;
-    long toEndId = -1;
-
-    if (parentVersion.getFromNodeVersionEndId() == -1) {
-      // update from end id
-      VersionHistoryDag dag = versionHistoryDagDao.retrieveFromDatabase(fromNodeId);
-      fromEndId = dag.getParent(currentVersion.getFromNodeVersionStartId()).get(0);
-    }
-
-    if (parentVersion.getToNodeVersionEndId() == -1) {
-      // update to end id
-      VersionHistoryDag dag = versionHistoryDagDao.retrieveFromDatabase(toNodeId);
-      toEndId = dag.getParent(currentVersion.getToNodeVersionStartId()).get(0);
-    }
+    return statements;
+  }
 
-    if (fromEndId != -1 || toEndId != -1) {
-      statements.append(String.format(SqlConstants.UPDATE_EDGE_VERSION, fromEndId, toEndId, parentId));
-    }
+  /**
+   * Retrieve the ids of the edge versions that are valid for a node version, one page at a time.
+   * An edge version is valid for a node version of one of its endpoints if the start version of
+   * that endpoint is the node version or one of its ancestors, and its end version is not one of
+   * the node version's ancestors, so versions on other branches of the history never match. The
+   * ordinal of the start version, its depth in the history, narrows down the candidates through
+   * the index, and bounds how far up the history the ancestors are followed.
+   *
+   * @param nodeVersionId the id of the node version
+   * @param direction whether the node version is the to endpoint, the from endpoint or either
+   * @param afterId only return ids larger than this one
+   * @param limit the maximum number of ids to return
+   * @return the ids of the valid edge versions, in ascending order
+   * @throws GroundException an error while querying the validity ranges
+   */
+  public List<Long> retrieveIdsValidForNodeVersion(long nodeVersionId, EdgeDirection direction, long afterId, int limit) throws GroundException {
+    String outgoing = direction == EdgeDirection.BOTH ? "true,false" : String.valueOf(direction == EdgeDirection.OUT);
+    String sql = String.format(SqlConstants.SELECT_EDGE_VERSIONS_VALID_FOR_NODE_VERSION, nodeVersionId, outgoing, afterId, limit);
 
-    return statements;
+    return PostgresUtils.executeQueryToIds(dbSource, sql);
   }
 
   @Override
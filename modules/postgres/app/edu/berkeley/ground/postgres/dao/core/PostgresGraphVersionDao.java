@@ -5,12 +5,18 @@ import edu.berkeley.ground.common.dao.core.GraphVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.GraphVersion;
+import edu.berkeley.ground.common.model.core.GraphVersionDiff;
 import edu.berkeley.ground.common.model.core.RichVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.dao.core.PostgresEdgeSetStore.EdgeSetWrite;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import play.db.Database;
 import play.libs.Json;
@@ -18,10 +24,36 @@ import play.libs.Json;
 public class PostgresGraphVersionDao extends PostgresRichVersionDao<GraphVersion> implements GraphVersionDao {
 
   private PostgresGraphDao postgresGraphDao;
+  private PostgresEdgeSetStore edgeSetStore;
 
   public PostgresGraphVersionDao(Database dbSource, IdGenerator idGenerator) {
     super(dbSource, idGenerator);
     this.postgresGraphDao = new PostgresGraphDao(dbSource, idGenerator);
+    this.edgeSetStore = PostgresEdgeSetStore.forGraphs(dbSource);
+  }
+
+  /**
+   * Create a graph version from the edge set of its first parent and the edges added to and removed
+   * from it, instead of from a full edge set.
+   *
+   * @param graphVersion the graph version to create; its edge version ids are ignored
+   * @param parentIds the parents of the new version; the first one is the base of the change
+   * @param addedEdgeVersionIds the edge versions to add
+   * @param removedEdgeVersionIds the edge versions to remove
+   * @return the created graph version, with its full edge set
+   * @throws GroundException no parent was given or the version could not be created
+   */
+  public GraphVersion create(final GraphVersion graphVersion, List<Long> parentIds, List<Long> addedEdgeVersionIds,
+                             List<Long> removedEdgeVersionIds) throws GroundException {
+
+    if (parentIds.isEmpty()) {
+      throw new GroundException(ExceptionType.OTHER, "A parent is required to create a graph version from added and removed edges.");
+    }
+
+    PostgresUtils.awaitSpooled(parentIds);
+    List<Long> edgeVersionIds = this.edgeSetStore.applyDelta(parentIds.get(0), addedEdgeVersionIds, removedEdgeVersionIds);
+    return this.create(new GraphVersion(0L, graphVersion.getTags(), graphVersion.getStructureVersionId(), graphVersion.getReference(),
+                                         graphVersion.getParameters(), graphVersion.getGraphId(), edgeVersionIds), parentIds);
   }
 
   @Override
@@ -34,14 +66,15 @@ public class PostgresGraphVersionDao extends PostgresRichVersionDao<GraphVersion
     PostgresStatements updateVersionList = this.postgresGraphDao.update(newGraphVersion.getGraphId(), newGraphVersion.getId(), parentIds);
 
     try {
-      PostgresStatements statements = super.insert(newGraphVersion);
-      statements.append(String.format(SqlConstants.INSERT_GRAPH_VERSION, uniqueId, graphVersion.getGraphId()));
-      statements.merge(updateVersionList);
+      EdgeSetWrite edgeSet = this.edgeSetStore.plan(parentIds, newGraphVersion.getEdgeVersionIds());
 
-      for (Long id : newGraphVersion.getEdgeVersionIds()) {
-        statements.append(String.format(SqlConstants.INSERT_GRAPH_VERSION_EDGE, newGraphVersion.getId(), id));
-      }
+      PostgresStatements statements = super.insert(newGraphVersion, parentIds);
+      statements.append(String.format(SqlConstants.INSERT_GRAPH_VERSION, uniqueId, graphVersion.getGraphId(), edgeSet.getBaseId(),
+        edgeSet.getChainLength()));
+      statements.merge(updateVersionList);
+      statements.merge(this.edgeSetStore.insert(uniqueId, edgeSet));
 
+      statements.allowSpooling(uniqueId);
       PostgresUtils.executeSqlList(dbSource, statements);
     } catch (Exception e) {
       throw new GroundException(e);
@@ -49,10 +82,63 @@ public class PostgresGraphVersionDao extends PostgresRichVersionDao<GraphVersion
     return newGraphVersion;
   }
 
+  /**
+   * Compute the difference between the edge sets of two graph versions.
+   *
+   * @param fromId the version to start from
+   * @param toId the version to compare with
+   * @return the added, removed and changed edges
+   * @throws GroundException either version does not exist, or an error while reading the edge sets
+   */
+  public GraphVersionDiff diff(long fromId, long toId) throws GroundException {
+    for (long id : new long[] {fromId, toId}) {
+      if (!this.edgeSetStore.exists(id)) {
+        throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
+      }
+    }
+
+    return this.edgeSetStore.diff(fromId, toId);
+  }
+
+  /**
+   * Retrieve the ids of the graph versions that contain an edge version.
+   *
+   * @param edgeVersionId the id of the edge version
+   * @return the ids of the graph versions, in ascending order
+   * @throws GroundException an error while querying the edge sets
+   */
+  public List<Long> retrieveIdsByEdgeVersion(long edgeVersionId) throws GroundException {
+    return this.edgeSetStore.retrieveVersionIdsContaining(Collections.singletonList(edgeVersionId));
+  }
+
+  /**
+   * Retrieve the ids of the graph versions that contain an edge version starting from or going to
+   * a node version.
+   *
+   * @param nodeVersionId the id of the node version
+   * @return the ids of the graph versions, in ascending order
+   * @throws GroundException an error while querying the edge sets
+   */
+  public List<Long> retrieveIdsByNodeVersion(long nodeVersionId) throws GroundException {
+    String sql = String.format(SqlConstants.SELECT_EDGE_VERSIONS_BY_NODE_VERSION, nodeVersionId);
+    List<Long> edgeVersionIds = new ArrayList<>();
+
+    try (Connection con = dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(sql);
+
+      while (resultSet.next()) {
+        edgeVersionIds.add(resultSet.getLong(1));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    return this.edgeSetStore.retrieveVersionIdsContaining(edgeVersionIds);
+  }
+
   @Override
   public PostgresStatements delete(long id) {
-    PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "graph_version_edge", "graph_version_id", id));
+    PostgresStatements statements = this.edgeSetStore.delete(id);
     statements.append(String.format(SqlConstants.DELETE_BY_ID, "graph_version", id));
 
     PostgresStatements superStatements = super.delete(id);
@@ -70,13 +156,7 @@ public class PostgresGraphVersionDao extends PostgresRichVersionDao<GraphVersion
     }
 
     GraphVersion graphVersion = Json.fromJson(json.get(0), GraphVersion.class);
-    List<Long> edgeIds = new ArrayList<>();
-    sql = String.format(SqlConstants.SELECT_GRAPH_VERSION_EDGES, id);
-
-    JsonNode edgeJson = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
-    for (JsonNode edge : edgeJson) {
-      edgeIds.add(edge.get("edgeVersionId").asLong());
-    }
+    List<Long> edgeIds = this.edgeSetStore.retrieveEdgeIds(id);
 
     RichVersion richVersion = super.retrieveFromDatabase(id);
     return new GraphVersion(id, richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(), richVersion.getParameters(),
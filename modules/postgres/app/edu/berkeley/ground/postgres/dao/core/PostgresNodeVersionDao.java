@@ -11,6 +11,7 @@ import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.List;
+import java.util.stream.Collectors;
 import play.db.Database;
 import play.libs.Json;
 
@@ -30,13 +31,22 @@ public class PostgresNodeVersionDao extends PostgresRichVersionDao<NodeVersion>
     final long uniqueId = idGenerator.generateVersionId();
     NodeVersion newNodeVersion = new NodeVersion(uniqueId, nodeVersion);
 
+    // the parents are checked against the node before a parent may be returned as the duplicate
     PostgresStatements updateVersionList = this.postgresNodeDao.update(newNodeVersion.getNodeId(), newNodeVersion.getId(), parentIds);
 
+    Long identicalId = this.findIdenticalParent(nodeVersion, parentIds);
+    if (identicalId != null) {
+      return new NodeVersion(identicalId, nodeVersion);
+    }
+
     try {
-      PostgresStatements statements = super.insert(newNodeVersion);
-      statements.append(String.format(SqlConstants.INSERT_NODE_VERSION, uniqueId, nodeVersion.getNodeId()));
+      PostgresStatements statements = super.insert(newNodeVersion, parentIds);
+      // the ordinal of a version is one more than the largest ordinal of its parents
+      String parents = parentIds.stream().filter(parentId -> parentId != 0).map(String::valueOf).collect(Collectors.joining(","));
+      statements.append(String.format(SqlConstants.INSERT_NODE_VERSION, uniqueId, nodeVersion.getNodeId(), parents));
       statements.merge(updateVersionList);
 
+      statements.allowSpooling(uniqueId);
       PostgresUtils.executeSqlList(dbSource, statements);
     } catch (Exception e) {
       e.printStackTrace();
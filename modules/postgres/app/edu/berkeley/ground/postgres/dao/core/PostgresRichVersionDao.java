@@ -18,18 +18,25 @@ import edu.berkeley.ground.common.model.core.RichVersion;
 import edu.berkeley.ground.common.model.core.StructureVersion;
 import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.util.ContentHash;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.dao.version.PostgresTagDao;
 import edu.berkeley.ground.postgres.dao.version.PostgresVersionDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.ShardRouter;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import play.db.Database;
+import play.libs.Json;
 
 public abstract class PostgresRichVersionDao<T extends RichVersion> extends PostgresVersionDao<T> implements RichVersionDao<T> {
 
@@ -42,6 +49,19 @@ public abstract class PostgresRichVersionDao<T extends RichVersion> extends Post
 
   @Override
   public PostgresStatements insert(final T richVersion) throws GroundException {
+    return this.insert(richVersion, new ArrayList<>());
+  }
+
+  /**
+   * Create the statements that insert a rich version. If tag delta encoding is enabled, the tags
+   * are stored as the changes made to the tags of the first parent.
+   *
+   * @param richVersion the version to insert
+   * @param parentIds the parents of the version
+   * @return the statements to run
+   * @throws GroundException the version is invalid
+   */
+  public PostgresStatements insert(final T richVersion, List<Long> parentIds) throws GroundException {
     long id = richVersion.getId();
     Long structureVersionId;
 
@@ -49,23 +69,49 @@ public abstract class PostgresRichVersionDao<T extends RichVersion> extends Post
       structureVersionId = null;
     } else {
       PostgresStructureVersionDao postgresStructureVersionDao = new PostgresStructureVersionDao(dbSource, idGenerator);
-      StructureVersion structureVersion = postgresStructureVersionDao.retrieveFromDatabase(richVersion.getStructureVersionId());
+      StructureVersion structureVersion;
+      PostgresUtils.awaitSpooled(Collections.singletonList(richVersion.getStructureVersionId()));
+
+      // the structure version may have been placed on another shard
+      try {
+        structureVersion = ShardRouter.onAnyShard(() -> postgresStructureVersionDao.retrieveFromDatabase(richVersion.getStructureVersionId()));
+      } catch (GroundException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new GroundException(e);
+      }
       structureVersionId = richVersion.getStructureVersionId();
       checkStructureTags(structureVersion, richVersion.getTags());
     }
 
     PostgresStatements statements = super.insert(richVersion);
-    statements.append(String.format(SqlConstants.INSERT_RICH_VERSION, id, structureVersionId, richVersion.getReference()));
+    Map<String, String> parameters = richVersion.getParameters();
+    String contentHash = hashesContent() ? "\'" + ContentHash.of(richVersion) + "\'" : null;
 
-    final Map<String, Tag> tags = richVersion.getTags();
-    for (String tagKey : tags.keySet()) {
-      Tag tag = tags.get(tagKey);
+    PostgresTagDao.TagDelta delta = null;
+    if (PostgresTagDao.usesDeltas() && parentIds != null && !parentIds.isEmpty() && parentIds.get(0) > 0) {
+      delta = this.postgresTagDao.getTagDelta(parentIds.get(0), richVersion.getTags());
+    }
 
-      statements.merge(this.postgresTagDao.insertRichVersionTag(new Tag(id, tag.getKey(), tag.getValue(), tag.getValueType())));
+    if (PostgresTagDao.usesJsonb()) {
+      // the parameters are stored on the rich_version row itself
+      statements.append(String.format(SqlConstants.INSERT_RICH_VERSION_WITH_PARAMETERS, id, structureVersionId, richVersion.getReference(),
+        contentHash, Json.stringify(Json.toJson(parameters)).replace("'", "''")));
+    } else {
+      Long tagBaseId = delta == null ? null : delta.getBaseId();
+      int tagChainLength = delta == null ? 0 : delta.getChainLength();
+
+      statements.append(String.format(SqlConstants.INSERT_RICH_VERSION, id, structureVersionId, richVersion.getReference(), contentHash,
+        tagBaseId, tagChainLength));
     }
 
-    Map<String, String> parameters = richVersion.getParameters();
-    if (!parameters.isEmpty()) {
+    if (delta != null) {
+      statements.merge(this.postgresTagDao.insertRichVersionTagDelta(id, delta, richVersion.getTags()));
+    } else {
+      statements.merge(this.postgresTagDao.insertRichVersionTags(id, richVersion.getTags()));
+    }
+
+    if (!parameters.isEmpty() && !PostgresTagDao.usesJsonb()) {
       for (String key : parameters.keySet()) {
         statements.append(String.format(SqlConstants.INSERT_RICH_VERSION_EXTERNAL_PARAMETER, richVersion.getId(), key, parameters.get(key)));
       }
@@ -74,11 +120,99 @@ public abstract class PostgresRichVersionDao<T extends RichVersion> extends Post
     return statements;
   }
 
+  /**
+   * Whether a content hash is stored with every new rich version; on unless ground.versions.hash.enabled
+   * is false.
+   *
+   * @return true if content hashes are stored
+   */
+  public static boolean hashesContent() {
+    return !"false".equals(System.getProperty("ground.versions.hash.enabled"));
+  }
+
+  /**
+   * Whether creating a version whose payload is identical to that of its only parent returns the
+   * parent instead of a new version.
+   *
+   * @return true if identical versions are deduplicated
+   */
+  public static boolean deduplicatesContent() {
+    return hashesContent() && "true".equals(System.getProperty("ground.versions.deduplicate"));
+  }
+
+  /**
+   * Retrieve the content hash of a rich version without loading the version itself.
+   *
+   * @param id the id of the rich version
+   * @return the hash, or null if the version has none or does not exist
+   * @throws GroundException an error while reading the hash
+   */
+  public String retrieveContentHash(long id) throws GroundException {
+    try (Connection con = dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_RICH_VERSION_CONTENT_HASH, id));
+
+      return resultSet.next() ? resultSet.getString(1) : null;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Find the parent that an identical new version would duplicate, if deduplication is enabled.
+   * Only a version with a single parent is deduplicated, since a version with several parents
+   * records a merge even if its payload is unchanged.
+   *
+   * @param richVersion the version about to be created
+   * @param parentIds the parents of the new version
+   * @return the id of the identical parent, or null if a new version has to be created
+   * @throws GroundException an error while looking up the hash
+   */
+  protected Long findIdenticalParent(RichVersion richVersion, List<Long> parentIds) throws GroundException {
+    if (!deduplicatesContent() || parentIds == null || parentIds.size() != 1) {
+      return null;
+    }
+
+    long parentId = parentIds.get(0);
+    String sql = String.format(SqlConstants.SELECT_RICH_VERSION_HAS_CONTENT_HASH, parentId, ContentHash.of(richVersion));
+
+    try (Connection con = dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      return stmt.executeQuery(sql).next() ? parentId : null;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Retrieve the ids of every rich version with the given content hash.
+   *
+   * @param contentHash the hash to look up
+   * @return the ids of the versions with that payload
+   * @throws GroundException an error while querying the hash index
+   */
+  public List<Long> getVersionIdsByContentHash(String contentHash) throws GroundException {
+    List<Long> ids = new ArrayList<>();
+
+    try (Connection con = dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_RICH_VERSION_IDS_BY_CONTENT_HASH, contentHash.replace("'", "''")));
+
+      while (resultSet.next()) {
+        ids.add(resultSet.getLong(1));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    return ids;
+  }
+
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
 
-    statements.append(String.format(SqlConstants.DELETE_RICH_VERSION_TAGS, id));
+    statements.merge(this.postgresTagDao.deleteRichVersionTags(id));
     statements.append(String.format(SqlConstants.DELETE_RICH_EXTERNAL_PARAMETERS, id));
     statements.append(String.format(SqlConstants.DELETE_BY_ID, "rich_version", id));
 
@@ -95,6 +229,9 @@ public abstract class PostgresRichVersionDao<T extends RichVersion> extends Post
     ResultSet resultSet;
     String reference;
     long structureVersionId;
+    Map<String, Tag> tags = null;
+    boolean deltaEncoded;
+    Map<String, String> referenceParams = null;
 
     try (Connection con = dbSource.getConnection()) {
       Statement stmt = con.createStatement();
@@ -106,19 +243,44 @@ public abstract class PostgresRichVersionDao<T extends RichVersion> extends Post
 
       reference = resultSet.getString(3);
       structureVersionId = resultSet.getLong(2);
+
+      resultSet.getLong("tag_base_id");
+      deltaEncoded = !resultSet.wasNull();
+
+      if (PostgresTagDao.usesJsonb()) {
+        tags = PostgresTagDao.parseDocument(id, resultSet.getString("tags"));
+        referenceParams = parseParameters(resultSet.getString("parameters"));
+      }
+
       stmt.close();
       con.close();
     } catch (SQLException e) {
       throw new GroundException(e);
     }
 
-    Map<String, Tag> tags = this.postgresTagDao.retrieveFromDatabaseByVersionId(id);
-    Map<String, String> referenceParams = getReferenceParameters(id);
+    if (deltaEncoded) {
+      // read even if delta encoding has since been disabled, since the tags are only stored as deltas
+      tags = this.postgresTagDao.retrieveDeltaTags(id);
+      referenceParams = getReferenceParameters(id);
+    } else if (!PostgresTagDao.usesJsonb()) {
+      tags = this.postgresTagDao.retrieveFromDatabaseByVersionId(id);
+      referenceParams = getReferenceParameters(id);
+    }
     structureVersionId = structureVersionId == 0 ? -1 : structureVersionId;
 
     return new RichVersion(id, tags, structureVersionId, reference, referenceParams);
   }
 
+  private static Map<String, String> parseParameters(String document) {
+    Map<String, String> referenceParameters = new HashMap<>();
+
+    if (document != null) {
+      Json.parse(document).fields().forEachRemaining(entry -> referenceParameters.put(entry.getKey(), entry.getValue().asText()));
+    }
+
+    return referenceParameters;
+  }
+
   private Map<String, String> getReferenceParameters(long id) throws GroundException {
     String sql = String.format(SqlConstants.SELECT_RICH_VERSION_EXTERNAL_PARAMETERS, id);
     Map<String, String> referenceParameters = new HashMap<>();
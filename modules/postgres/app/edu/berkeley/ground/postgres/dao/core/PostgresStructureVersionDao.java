@@ -55,6 +55,7 @@ public class PostgresStructureVersionDao extends PostgresVersionDao<StructureVer
 
       statements.merge(updateVersionList);
 
+      statements.allowSpooling(uniqueId);
       PostgresUtils.executeSqlList(dbSource, statements);
     } catch (Exception e) {
       throw new GroundException(e);
@@ -22,6 +22,7 @@ import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.dao.core.PostgresRichVersionDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.time.Instant;
 import java.util.List;
 import play.db.Database;
 import play.libs.Json;
@@ -46,11 +47,18 @@ public class PostgresLineageEdgeVersionDao extends PostgresRichVersionDao<Lineag
                                              .update(newLineageEdgeVersion.getLineageEdgeId(), newLineageEdgeVersion.getId(), parentIds);
 
     try {
-      PostgresStatements statements = super.insert(newLineageEdgeVersion);
+      PostgresStatements statements = super.insert(newLineageEdgeVersion, parentIds);
       statements.append(String.format(SqlConstants.INSERT_LINEAGE_EDGE_VERSION, uniqueId, newLineageEdgeVersion.getLineageEdgeId(),
-        newLineageEdgeVersion.getFromId(), newLineageEdgeVersion.getToId(), null));
+        newLineageEdgeVersion.getFromId(), newLineageEdgeVersion.getToId(), newLineageEdgeVersion.getPrincipalId()));
+
+      if (newLineageEdgeVersion.getPrincipalId() != null) {
+        statements.append(String.format(SqlConstants.UPSERT_PRINCIPAL_ACTIVITY, newLineageEdgeVersion.getPrincipalId(),
+          newLineageEdgeVersion.getLineageEdgeId()));
+      }
+
       statements.merge(updateVersionList);
 
+      statements.allowSpooling(uniqueId);
       PostgresUtils.executeSqlList(dbSource, statements);
     } catch (Exception e) {
       throw new GroundException(e);
@@ -58,9 +66,31 @@ public class PostgresLineageEdgeVersionDao extends PostgresRichVersionDao<Lineag
     return newLineageEdgeVersion;
   }
 
+  /**
+   * Retrieve the ids of the lineage edge versions created on behalf of a principal, one page at a
+   * time. The versions are ordered by creation time and then id, the order of the principal index,
+   * so a page only reads its own rows.
+   *
+   * @param principalId the id of the principal's node version
+   * @param since the earliest creation time, or null
+   * @param until the creation time to stop before, or null
+   * @param afterId the last id of the previous page, or Long.MIN_VALUE for the first page
+   * @param limit the maximum number of ids
+   * @return the ids, in ascending order of creation time and id
+   * @throws GroundException an error while querying the lineage edge versions
+   */
+  public List<Long> retrieveIdsByPrincipal(long principalId, Instant since, Instant until, long afterId, int limit) throws GroundException {
+    String after = afterId == Long.MIN_VALUE ? "" : String.format(SqlConstants.LINEAGE_EDGE_VERSIONS_BY_PRINCIPAL_AFTER, afterId);
+    String sql = String.format(SqlConstants.SELECT_LINEAGE_EDGE_VERSIONS_BY_PRINCIPAL, principalId, since == null ? "-infinity" : since,
+      until == null ? "infinity" : until, after, limit);
+
+    return PostgresUtils.executeQueryToIds(dbSource, sql);
+  }
+
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
+    statements.append(String.format(SqlConstants.DECREMENT_PRINCIPAL_ACTIVITY, id));
     statements.append(String.format(SqlConstants.DELETE_BY_ID, "lineage_edge_version", id));
 
     PostgresStatements superStatements = super.delete(id);
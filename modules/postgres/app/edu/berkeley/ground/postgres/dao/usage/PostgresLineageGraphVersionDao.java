@@ -12,28 +12,78 @@
 package edu.berkeley.ground.postgres.dao.usage;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import edu.berkeley.ground.common.analytics.CsrGraph;
+import edu.berkeley.ground.common.analytics.GraphAlgorithms;
 import edu.berkeley.ground.common.dao.usage.LineageGraphVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.core.GraphVersionDiff;
 import edu.berkeley.ground.common.model.core.RichVersion;
 import edu.berkeley.ground.common.model.usage.LineageGraphVersion;
+import edu.berkeley.ground.common.model.usage.LineageGraphVersionOrder;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.dao.core.PostgresCsrGraphLoader;
+import edu.berkeley.ground.postgres.dao.core.PostgresEdgeSetStore;
+import edu.berkeley.ground.postgres.dao.core.PostgresEdgeSetStore.EdgeSetWrite;
 import edu.berkeley.ground.postgres.dao.core.PostgresRichVersionDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import play.db.Database;
 import play.libs.Json;
 
 public class PostgresLineageGraphVersionDao extends PostgresRichVersionDao<LineageGraphVersion> implements LineageGraphVersionDao {
 
+  // the number of rows written by a single INSERT
+  private static final int INSERT_BATCH_SIZE = 1000;
+
   private PostgresLineageGraphDao postgresLineageGraphDao;
+  private PostgresEdgeSetStore edgeSetStore;
+  private PostgresCsrGraphLoader graphLoader;
+  private GraphAlgorithms algorithms;
 
   public PostgresLineageGraphVersionDao(Database dbSource, IdGenerator idGenerator) {
     super(dbSource, idGenerator);
     this.postgresLineageGraphDao = new PostgresLineageGraphDao(dbSource, idGenerator);
+    this.edgeSetStore = PostgresEdgeSetStore.forLineageGraphs(dbSource);
+    this.graphLoader = PostgresCsrGraphLoader.forLineageGraphs(dbSource);
+    this.algorithms = new GraphAlgorithms(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Create a lineage graph version from the edge set of its first parent and the lineage edges
+   * added to and removed from it, instead of from a full edge set.
+   *
+   * @param lineageGraphVersion the lineage graph version to create; its edge version ids are ignored
+   * @param parentIds the parents of the new version; the first one is the base of the change
+   * @param addedEdgeVersionIds the lineage edge versions to add
+   * @param removedEdgeVersionIds the lineage edge versions to remove
+   * @return the created lineage graph version, with its full edge set
+   * @throws GroundException no parent was given or the version could not be created
+   */
+  public LineageGraphVersion create(LineageGraphVersion lineageGraphVersion, List<Long> parentIds, List<Long> addedEdgeVersionIds,
+                                    List<Long> removedEdgeVersionIds) throws GroundException {
+
+    if (parentIds.isEmpty()) {
+      throw new GroundException(ExceptionType.OTHER, "A parent is required to create a lineage graph version from added and removed edges.");
+    }
+
+    PostgresUtils.awaitSpooled(parentIds);
+    List<Long> edgeVersionIds = this.edgeSetStore.applyDelta(parentIds.get(0), addedEdgeVersionIds, removedEdgeVersionIds);
+    return this.create(new LineageGraphVersion(0L, lineageGraphVersion.getTags(), lineageGraphVersion.getStructureVersionId(),
+                                                lineageGraphVersion.getReference(), lineageGraphVersion.getParameters(),
+                                                lineageGraphVersion.getLineageGraphId(), edgeVersionIds), parentIds);
   }
 
   @Override
@@ -46,16 +96,23 @@ public class PostgresLineageGraphVersionDao extends PostgresRichVersionDao<Linea
                                              .update(newLineageGraphVersion.getLineageGraphId(), newLineageGraphVersion.getId(),
                                                parentIds);
 
+    // a version with a cycle is rejected before anything is written
+    PostgresStatements levelStatements = Boolean.getBoolean("ground.lineage.toposort.enabled")
+                                           ? this.insertLevels(uniqueId, newLineageGraphVersion.getLineageEdgeVersionIds(), parentIds)
+                                           : new PostgresStatements();
+
     try {
-      PostgresStatements statements = super.insert(newLineageGraphVersion);
-      statements.append(String.format(SqlConstants.INSERT_LINEAGE_GRAPH_VERSION, uniqueId, newLineageGraphVersion.getLineageGraphId()));
+      EdgeSetWrite edgeSet = this.edgeSetStore.plan(parentIds, newLineageGraphVersion.getLineageEdgeVersionIds());
 
-      statements.merge(updateVersionList);
+      PostgresStatements statements = super.insert(newLineageGraphVersion, parentIds);
+      statements.append(String.format(SqlConstants.INSERT_LINEAGE_GRAPH_VERSION, uniqueId, newLineageGraphVersion.getLineageGraphId(),
+        edgeSet.getBaseId(), edgeSet.getChainLength()));
 
-      for (Long id : newLineageGraphVersion.getLineageEdgeVersionIds()) {
-        statements.append(String.format(SqlConstants.INSERT_LINEAGE_GRAPH_VERSION_EDGE, newLineageGraphVersion.getId(), id));
-      }
+      statements.merge(updateVersionList);
+      statements.merge(this.edgeSetStore.insert(uniqueId, edgeSet));
+      statements.merge(levelStatements);
 
+      statements.allowSpooling(uniqueId);
       PostgresUtils.executeSqlList(dbSource, statements);
     } catch (Exception e) {
       throw new GroundException(e);
@@ -64,11 +121,189 @@ public class PostgresLineageGraphVersionDao extends PostgresRichVersionDao<Linea
     return newLineageGraphVersion;
   }
 
+  /**
+   * Compute the difference between the edge sets of two lineage graph versions.
+   *
+   * @param fromId the version to start from
+   * @param toId the version to compare with
+   * @return the added, removed and changed edges
+   * @throws GroundException either version does not exist, or an error while reading the edge sets
+   */
+  public GraphVersionDiff diff(long fromId, long toId) throws GroundException {
+    for (long id : new long[] {fromId, toId}) {
+      if (!this.edgeSetStore.exists(id)) {
+        throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
+      }
+    }
+
+    return this.edgeSetStore.diff(fromId, toId);
+  }
+
+  /**
+   * Retrieve the ids of the lineage graph versions that contain a lineage edge version.
+   *
+   * @param lineageEdgeVersionId the id of the lineage edge version
+   * @return the ids of the lineage graph versions, in ascending order
+   * @throws GroundException an error while querying the edge sets
+   */
+  public List<Long> retrieveIdsByLineageEdgeVersion(long lineageEdgeVersionId) throws GroundException {
+    return this.edgeSetStore.retrieveVersionIdsContaining(Collections.singletonList(lineageEdgeVersionId));
+  }
+
+  /**
+   * Retrieve a topological order of the rich versions connected by a lineage graph version. The
+   * order stored when the version was created is returned if there is one, and computed from the
+   * version's edges otherwise.
+   *
+   * @param id the id of the lineage graph version
+   * @return the rich versions, level by level
+   * @throws GroundException the version doesn't exist or has a cycle, or an error while reading it
+   */
+  public LineageGraphVersionOrder retrieveOrder(long id) throws GroundException {
+    Map<Long, Integer> stored = this.retrieveLevels(id);
+    List<List<Long>> levels = new ArrayList<>();
+
+    if (stored != null) {
+      // the levels are read in ascending order
+      stored.forEach((richVersionId, level) -> {
+        if (level == levels.size()) {
+          levels.add(new ArrayList<>());
+        }
+
+        levels.get(level).add(richVersionId);
+      });
+    } else {
+      CsrGraph graph = this.graphLoader.load(id);
+      int[] computed = this.computeLevels(graph, null);
+
+      IntStream.range(0, graph.getVertexCount()).boxed()
+        .sorted(Comparator.<Integer>comparingInt(vertex -> computed[vertex]).thenComparingLong(graph::getVertexId))
+        .forEach(vertex -> {
+          if (computed[vertex] == levels.size()) {
+            levels.add(new ArrayList<>());
+          }
+
+          levels.get(computed[vertex]).add(graph.getVertexId(vertex));
+        });
+    }
+
+    return new LineageGraphVersionOrder(id, levels);
+  }
+
+  // builds the statements that store the levels of a new version, relayering its first parent's
+  // levels; only the levels that differ from the parent's are written, unless the parent has no
+  // stored levels, its chain has reached the snapshot interval or the change is not smaller than
+  // the full set
+  private PostgresStatements insertLevels(long id, List<Long> lineageEdgeVersionIds, List<Long> parentIds) throws GroundException {
+    PostgresUtils.awaitSpooled(lineageEdgeVersionIds);
+    CsrGraph graph = this.graphLoader.build(lineageEdgeVersionIds);
+    Integer parentChainLength = parentIds.isEmpty() ? null : this.retrieveLevelChainLength(parentIds.get(0));
+    Map<Long, Integer> parentLevels = parentChainLength == null ? null : this.retrieveLevels(parentIds.get(0));
+
+    int[] initial = null;
+    if (parentLevels != null && !parentLevels.isEmpty()) {
+      initial = new int[graph.getVertexCount()];
+
+      for (int vertex = 0; vertex < initial.length; vertex++) {
+        initial[vertex] = parentLevels.getOrDefault(graph.getVertexId(vertex), 0);
+      }
+    }
+
+    int[] levels = this.computeLevels(graph, initial);
+
+    // the changed and added rich versions, and those of the parent that are gone
+    List<String> changed = new ArrayList<>();
+    if (parentLevels != null) {
+      Map<Long, Integer> removed = new LinkedHashMap<>(parentLevels);
+
+      for (int vertex = 0; vertex < levels.length; vertex++) {
+        Integer parentLevel = removed.remove(graph.getVertexId(vertex));
+
+        if (parentLevel == null || parentLevel != levels[vertex]) {
+          changed.add(String.format("(%d, %d, %d)", id, graph.getVertexId(vertex), levels[vertex]));
+        }
+      }
+
+      removed.keySet().forEach(richVersionId -> changed.add(String.format("(%d, %d, NULL)", id, richVersionId)));
+    }
+
+    List<String> rows = new ArrayList<>();
+    PostgresStatements statements = new PostgresStatements();
+
+    if (parentLevels != null && parentChainLength + 1 < PostgresEdgeSetStore.getSnapshotInterval() && changed.size() < levels.length) {
+      rows = changed;
+      statements.append(String.format(SqlConstants.UPDATE_LINEAGE_GRAPH_VERSION_LEVEL_CHAIN, parentIds.get(0), parentChainLength + 1, id));
+    } else {
+      for (int vertex = 0; vertex < levels.length; vertex++) {
+        rows.add(String.format("(%d, %d, %d)", id, graph.getVertexId(vertex), levels[vertex]));
+      }
+
+      statements.append(String.format(SqlConstants.UPDATE_LINEAGE_GRAPH_VERSION_LEVEL_CHAIN, "NULL", 0, id));
+    }
+
+    for (int start = 0; start < rows.size(); start += INSERT_BATCH_SIZE) {
+      List<String> batch = rows.subList(start, Math.min(start + INSERT_BATCH_SIZE, rows.size()));
+      statements.append(String.format(SqlConstants.INSERT_LINEAGE_GRAPH_VERSION_LEVELS, String.join(", ", batch)));
+    }
+
+    return statements;
+  }
+
+  private int[] computeLevels(CsrGraph graph, int[] initial) throws GroundException {
+    int[] levels = this.algorithms.levels(graph, initial);
+
+    if (levels == null) {
+      throw new GroundException(ExceptionType.OTHER, "The lineage edges of the lineage graph version form a cycle.");
+    }
+
+    return levels;
+  }
+
+  // the number of level deltas on top of the last full set of levels of a version, or null if the
+  // version has no stored levels
+  private Integer retrieveLevelChainLength(long id) throws GroundException {
+    try (Connection con = dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(String.format(SqlConstants.SELECT_LINEAGE_GRAPH_VERSION_LEVEL_CHAIN_LENGTH,
+        id));
+
+      if (resultSet.next()) {
+        int chainLength = resultSet.getInt(1);
+        return resultSet.wasNull() ? null : chainLength;
+      }
+
+      return null;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  // the stored levels of a version by rich version id, in ascending order of level, applying the
+  // deltas along its chain; null if the version has no stored levels
+  private Map<Long, Integer> retrieveLevels(long id) throws GroundException {
+    if (this.retrieveLevelChainLength(id) == null) {
+      return null;
+    }
+
+    Map<Long, Integer> levels = new LinkedHashMap<>();
+
+    try (Connection con = dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(String.format(SqlConstants.SELECT_LINEAGE_GRAPH_VERSION_LEVELS, id));
+
+      while (resultSet.next()) {
+        levels.put(resultSet.getLong(1), resultSet.getInt(2));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    return levels;
+  }
+
   @Override
   public PostgresStatements delete(long id) {
-    PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "lineage_graph_version_edge", "lineage_graph_version_id", id));
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "graph_version", id));
+    PostgresStatements statements = this.edgeSetStore.delete(id);
+    statements.append(String.format(SqlConstants.DELETE_LINEAGE_GRAPH_VERSION_LEVELS, id));
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "lineage_graph_version", id));
 
     PostgresStatements superStatements = super.delete(id);
     superStatements.merge(statements);
@@ -86,13 +321,7 @@ public class PostgresLineageGraphVersionDao extends PostgresRichVersionDao<Linea
 
     LineageGraphVersion lineageGraphVersion = Json.fromJson(json.get(0), LineageGraphVersion.class);
 
-    List<Long> edgeIds = new ArrayList<>();
-    sql = String.format(SqlConstants.SELECT_LINEAGE_GRAPH_VERSION_EDGES, id);
-
-    JsonNode edgeJson = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
-    for (JsonNode edge : edgeJson) {
-      edgeIds.add(edge.get("lineageEdgeVersionId").asLong());
-    }
+    List<Long> edgeIds = this.edgeSetStore.retrieveEdgeIds(id);
 
     RichVersion richVersion = super.retrieveFromDatabase(id);
     return new LineageGraphVersion(id, richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(),
@@ -0,0 +1,148 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.dao.usage;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.usage.LineageRank;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.util.LongBitmaps;
+import edu.berkeley.ground.postgres.util.PostgresStatements;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import play.db.Database;
+
+/**
+ * Reads and writes the lineage ranks computed by the lineage rank job, along with the set of
+ * lineage edge versions they were computed from.
+ */
+public class PostgresLineageRankDao {
+
+  // the number of rows written by a single INSERT
+  private static final int INSERT_BATCH_SIZE = 1000;
+
+  private final Database dbSource;
+
+  public PostgresLineageRankDao(Database dbSource) {
+    this.dbSource = dbSource;
+  }
+
+  /**
+   * Retrieve the rank of a rich version.
+   *
+   * @param richVersionId the id of the rich version
+   * @return its rank
+   * @throws GroundException the rich version has no rank, or an error while reading it
+   */
+  public LineageRank retrieveFromDatabase(long richVersionId) throws GroundException {
+    List<LineageRank> ranks = this.query(String.format(SqlConstants.SELECT_LINEAGE_RANK, richVersionId));
+
+    if (ranks.isEmpty()) {
+      throw new GroundException(ExceptionType.VERSION_NOT_FOUND, LineageRank.class.getSimpleName(), String.format("%d", richVersionId));
+    }
+
+    return ranks.get(0);
+  }
+
+  /**
+   * Retrieve the most critical rich versions.
+   *
+   * @param byPageRank order by PageRank if true, by downstream count otherwise
+   * @param limit the number of ranks to return
+   * @return the ranks, from the largest down
+   * @throws GroundException an error while reading the ranks
+   */
+  public List<LineageRank> retrieveTop(boolean byPageRank, int limit) throws GroundException {
+    return this.query(String.format(SqlConstants.SELECT_TOP_LINEAGE_RANKS, byPageRank ? "page_rank" : "downstream_count", limit));
+  }
+
+  /**
+   * Retrieve every stored rank.
+   *
+   * @return the ranks by rich version id
+   * @throws GroundException an error while reading the ranks
+   */
+  public Map<Long, LineageRank> retrieveAll() throws GroundException {
+    return this.query(SqlConstants.SELECT_LINEAGE_RANKS).stream().collect(Collectors.toMap(LineageRank::getRichVersionId, rank -> rank));
+  }
+
+  /**
+   * Retrieve the lineage edge versions the stored ranks were computed from.
+   *
+   * @return the ids of the lineage edge versions, or null if the ranks were never computed
+   * @throws GroundException an error while reading them
+   */
+  public Roaring64NavigableMap retrieveEdgeVersionIds() throws GroundException {
+    try (Connection con = this.dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(SqlConstants.SELECT_LINEAGE_RANK_STATE);
+      return resultSet.next() ? LongBitmaps.deserialize(resultSet.getBytes(1)) : null;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Build the statements that store new ranks.
+   *
+   * @param ranks the ranks that were added or changed
+   * @param removedIds the rich versions that no longer have a rank
+   * @param edgeVersionIds the lineage edge versions the ranks were computed from
+   * @return the statements to execute
+   */
+  public PostgresStatements update(Collection<LineageRank> ranks, Collection<Long> removedIds, Roaring64NavigableMap edgeVersionIds) {
+    PostgresStatements statements = new PostgresStatements();
+    List<String> values = new ArrayList<>();
+
+    for (LineageRank rank : ranks) {
+      values.add(String.format("(%d, %d, %s)", rank.getRichVersionId(), rank.getDownstreamCount(), Double.toString(rank.getPageRank())));
+
+      if (values.size() == INSERT_BATCH_SIZE) {
+        statements.append(String.format(SqlConstants.UPSERT_LINEAGE_RANKS, String.join(", ", values)));
+        values.clear();
+      }
+    }
+
+    if (!values.isEmpty()) {
+      statements.append(String.format(SqlConstants.UPSERT_LINEAGE_RANKS, String.join(", ", values)));
+    }
+
+    if (!removedIds.isEmpty()) {
+      statements.append(String.format(SqlConstants.DELETE_LINEAGE_RANKS, removedIds.stream().map(String::valueOf).collect(Collectors.joining(","))));
+    }
+
+    statements.append(String.format(SqlConstants.UPSERT_LINEAGE_RANK_STATE, LongBitmaps.toSqlLiteral(edgeVersionIds)));
+    return statements;
+  }
+
+  private List<LineageRank> query(String sql) throws GroundException {
+    List<LineageRank> ranks = new ArrayList<>();
+
+    try (Connection con = this.dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(sql);
+
+      while (resultSet.next()) {
+        ranks.add(new LineageRank(resultSet.getLong(1), resultSet.getLong(2), resultSet.getDouble(3)));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    return ranks;
+  }
+}
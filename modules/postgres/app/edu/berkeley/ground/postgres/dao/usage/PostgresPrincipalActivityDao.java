@@ -0,0 +1,73 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.dao.usage;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.usage.PrincipalActivity;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import play.db.Database;
+
+/**
+ * Reads the per-principal activity counters that PostgresLineageEdgeVersionDao keeps in hourly
+ * buckets, summed into coarser buckets on request.
+ */
+public class PostgresPrincipalActivityDao {
+
+  public static final List<String> BUCKETS = Arrays.asList("hour", "day", "week", "month");
+
+  private final Database dbSource;
+
+  public PostgresPrincipalActivityDao(Database dbSource) {
+    this.dbSource = dbSource;
+  }
+
+  /**
+   * Retrieve the activity of one or all principals.
+   *
+   * @param principalId the id of the principal's node version, or null for every principal
+   * @param bucket the size of the buckets: hour, day, week or month
+   * @param since the start of the period, or null; the bucket containing it is included whole
+   * @param until the end of the period, exclusive, or null
+   * @return the counts by bucket, principal and lineage edge, in that order
+   * @throws GroundException an unknown bucket size, or an error while reading the counters
+   */
+  public List<PrincipalActivity> retrieve(Long principalId, String bucket, Instant since, Instant until) throws GroundException {
+    if (!BUCKETS.contains(bucket)) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Unknown bucket %s; use one of %s.", bucket, String.join(", ", BUCKETS)));
+    }
+
+    String principal = principalId == null ? "" : String.format(SqlConstants.PRINCIPAL_ACTIVITY_PRINCIPAL, principalId);
+    String sql = String.format(SqlConstants.SELECT_PRINCIPAL_ACTIVITY, bucket, principal, since == null ? "-infinity" : since,
+      until == null ? "infinity" : until);
+    List<PrincipalActivity> activity = new ArrayList<>();
+
+    try (Connection con = this.dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(sql);
+
+      while (resultSet.next()) {
+        activity.add(new PrincipalActivity(resultSet.getLong(1), resultSet.getLong(2), resultSet.getString(3), resultSet.getLong(4)));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    return activity;
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.dao.version;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.version.Change;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import play.db.Database;
+
+/**
+ * Reads the change log. Changes are written by PostgresStatements in the transaction that makes
+ * them; their offsets are assigned under a lock held until commit, so a reader that resumes after
+ * the last offset it saw never misses a change committed later.
+ */
+public class PostgresChangeLogDao {
+
+  private final Database dbSource;
+
+  public PostgresChangeLogDao(Database dbSource) {
+    this.dbSource = dbSource;
+  }
+
+  /**
+   * Retrieve the changes after an offset.
+   *
+   * @param afterOffset the offset of the last change already seen, or 0 to start from the beginning
+   * @param limit the maximum number of changes to retrieve
+   * @return the changes, in order
+   * @throws GroundException an error while reading the change log
+   */
+  public List<Change> retrieve(long afterOffset, int limit) throws GroundException {
+    String sql = String.format(SqlConstants.SELECT_CHANGES, afterOffset, limit);
+    List<Change> changes = new ArrayList<>();
+
+    try (Connection con = this.dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(sql);
+
+      while (resultSet.next()) {
+        long itemId = resultSet.getLong(4);
+        boolean isItem = resultSet.wasNull();
+        Long[] parentIds = (Long[]) resultSet.getArray(5).getArray();
+
+        changes.add(new Change(resultSet.getLong(1), resultSet.getString(2), resultSet.getLong(3), isItem ? null : itemId,
+          Arrays.asList(parentIds), resultSet.getString(6)));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    return changes;
+  }
+}
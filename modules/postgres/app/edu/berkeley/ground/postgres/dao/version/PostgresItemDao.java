@@ -24,6 +24,7 @@ import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.lang.reflect.Constructor;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -55,13 +56,11 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
     PostgresStatements postgresStatements = new PostgresStatements(sqlList);
 
     if (tags != null) {
-      for (String key : tags.keySet()) {
-        Tag tag = tags.get(key);
-        postgresStatements.merge(this.postgresTagDao.insertItemTag(new Tag(id, tag.getKey(), tag.getValue(), tag.getValueType())));
-      }
+      postgresStatements.merge(this.postgresTagDao.insertItemTags(id, tags));
     }
 
-    return new PostgresStatements(sqlList);
+    postgresStatements.recordChange(this.getTypeName(), id, null, new ArrayList<>());
+    return postgresStatements;
   }
 
   @Override
@@ -76,6 +75,22 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
       this.getType().getSimpleName()), id), id);
   }
 
+  @Override
+  public T retrieveFromDatabase(String sourceKey, Instant asOf) throws GroundException {
+    T item = this.retrieveFromDatabase(sourceKey);
+
+    if (PostgresUtils.executeQueryToIds(dbSource, String.format(SqlConstants.SELECT_ITEM_CREATED_AS_OF, item.getId(), asOf)).isEmpty()) {
+      throw new GroundException(ExceptionType.ITEM_NOT_FOUND, this.getType().getSimpleName(), sourceKey);
+    }
+
+    return item;
+  }
+
+  @Override
+  public List<Long> getLeaves(long itemId, Instant asOf) throws GroundException {
+    return PostgresUtils.executeQueryToIds(dbSource, String.format(SqlConstants.SELECT_VERSION_HISTORY_DAG_LEAVES_AS_OF, itemId, asOf));
+  }
+
   @Override
   public List<Long> getLeaves(long itemId) throws GroundException {
     try {
@@ -107,6 +122,9 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
       parentIds.add(0L);
     }
 
+    // the parents, and what the new version reads of them, have to be in the database
+    PostgresUtils.awaitSpooled(parentIds);
+
     VersionHistoryDag dag = this.postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
     PostgresStatements statements = new PostgresStatements();
 
@@ -118,6 +136,8 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
       statements.merge(this.postgresVersionHistoryDagDao.addEdge(dag, parentId, childId, itemId));
     }
 
+    statements.recordChange(this.getTypeName() + "_version", childId, itemId, parentIds);
+    statements.evict(this.getTypeName() + "_leaves." + itemId);
     return statements;
   }
 
@@ -134,6 +154,11 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
     this.postgresVersionHistoryDagDao.truncate(dag, numLevels, this.getType());
   }
 
+  // the name of the item type in the change log, e.g. lineage_edge
+  private String getTypeName() {
+    return CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, this.getType().getSimpleName());
+  }
+
   protected T retrieve(String sql, Object field) throws GroundException {
     JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
 
@@ -11,11 +11,15 @@
  */
 package edu.berkeley.ground.postgres.dao.version;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.berkeley.ground.common.dao.version.TagDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.TagPredicate;
+import edu.berkeley.ground.common.util.DeltaMap;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import java.sql.Connection;
@@ -23,55 +27,413 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
 import play.db.Database;
+import play.libs.Json;
 
 public class PostgresTagDao implements TagDao {
 
+  // the value of ground.tags.storage that stores tags as jsonb documents instead of rows
+  public static final String JSONB_STORAGE = "jsonb";
+
+  private static final List<TagPredicate> NONE = Collections.emptyList();
+
+  // the number of reconstructed delta-encoded tag maps to keep
+  private static final int TAG_MAP_CACHE_SIZE = 4096;
+
   private Database dbSource;
 
+  // tag maps of delta-encoded versions by version id; the maps are immutable and share entries
+  private final Map<Long, Map<String, Tag>> tagMapCache = Collections.synchronizedMap(
+    new LinkedHashMap<Long, Map<String, Tag>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Map<String, Tag>> eldest) {
+        return this.size() > TAG_MAP_CACHE_SIZE;
+      }
+    });
+
   public PostgresTagDao(Database dbSource) {
     this.dbSource = dbSource;
   }
 
+  /**
+   * The tags of a new rich version, stored as the changes made to the tags of a base version.
+   */
+  public static class TagDelta {
+
+    private final long baseId;
+    private final int chainLength;
+    private final Map<String, Tag> changes;
+    private final Set<String> removals;
+
+    TagDelta(long baseId, int chainLength, Map<String, Tag> changes, Set<String> removals) {
+      this.baseId = baseId;
+      this.chainLength = chainLength;
+      this.changes = changes;
+      this.removals = removals;
+    }
+
+    public long getBaseId() {
+      return this.baseId;
+    }
+
+    public int getChainLength() {
+      return this.chainLength;
+    }
+
+    public Map<String, Tag> getChanges() {
+      return this.changes;
+    }
+
+    public Set<String> getRemovals() {
+      return this.removals;
+    }
+  }
+
+  /**
+   * Whether this deployment stores tags and reference parameters as jsonb documents on the item
+   * and rich_version rows rather than in the tag and parameter tables.
+   *
+   * @return true if the jsonb storage mode is selected
+   */
+  public static boolean usesJsonb() {
+    return JSONB_STORAGE.equals(System.getProperty("ground.tags.storage"));
+  }
+
+  /**
+   * Whether the tags of new rich versions are stored as deltas against their first parent. Only
+   * supported with row storage.
+   *
+   * @return true if delta encoding is enabled
+   */
+  public static boolean usesDeltas() {
+    return "true".equals(System.getProperty("ground.tags.delta.enabled")) && !usesJsonb();
+  }
+
+  private static int getCheckpointInterval() {
+    return Integer.getInteger("ground.tags.delta.checkpoint", 16);
+  }
+
   @Override
   public PostgresStatements insertItemTag(final Tag tag) {
     List<String> sqlList = new ArrayList<>();
-    if (tag.getValue() != null) {
-      sqlList.add(String.format(SqlConstants.INSERT_ITEM_TAG_WITH_VALUE, tag.getId(), tag.getKey(), tag.getValue(), tag.getValueType()));
+    if (usesJsonb()) {
+      sqlList.add(String.format(SqlConstants.APPEND_ITEM_TAG_DOCUMENT, escape(toDocument(Collections.singletonMap(tag.getKey(), tag))),
+        tag.getId()));
+    } else if (tag.getValue() != null) {
+      sqlList.add(String.format(SqlConstants.INSERT_ITEM_TAG_WITH_VALUE, tag.getId(), escape(tag.getKey()),
+        escape(tag.getValue().toString()), tag.getValueType(), getLongValue(tag), getBooleanValue(tag)));
     } else {
       sqlList.add(
-        String.format(SqlConstants.INSERT_ITEM_TAG_NO_VALUE, tag.getId(), tag.getKey()));
+        String.format(SqlConstants.INSERT_ITEM_TAG_NO_VALUE, tag.getId(), escape(tag.getKey())));
+    }
+
+    PostgresStatements statements = new PostgresStatements(sqlList);
+    TagIndex index = TagIndex.getInstance();
+    if (index != null) {
+      statements.onCommit(() -> index.addItemTag(tag));
     }
-    return new PostgresStatements(sqlList);
+
+    return statements;
   }
 
   @Override
   public PostgresStatements insertRichVersionTag(final Tag tag) {
     List<String> sqlList = new ArrayList<>();
-    if (tag.getValue() != null) {
-      sqlList.add(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_WITH_VALUE, tag.getId(), tag.getKey(), tag.getValue(), tag.getValueType()));
+    if (usesJsonb()) {
+      sqlList.add(String.format(SqlConstants.APPEND_RICH_VERSION_TAG_DOCUMENT, escape(toDocument(Collections.singletonMap(tag.getKey(), tag))),
+        tag.getId()));
+    } else if (tag.getValue() != null) {
+      sqlList.add(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_WITH_VALUE, tag.getId(), escape(tag.getKey()),
+        escape(tag.getValue().toString()), tag.getValueType(), getLongValue(tag), getBooleanValue(tag)));
+    } else {
+      sqlList.add(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_NO_VALUE, tag.getId(), escape(tag.getKey())));
+    }
+
+    PostgresStatements statements = new PostgresStatements(sqlList);
+    TagIndex index = TagIndex.getInstance();
+    if (index != null) {
+      statements.onCommit(() -> index.addVersionTag(tag));
+    }
+
+    return statements;
+  }
+
+  @Override
+  public PostgresStatements insertItemTags(long id, Map<String, Tag> tags) throws GroundException {
+    PostgresStatements statements = new PostgresStatements();
+    List<Tag> idTags = new ArrayList<>();
+
+    for (Tag tag : tags.values()) {
+      idTags.add(new Tag(id, tag.getKey(), tag.getValue(), tag.getValueType()));
+    }
+
+    if (usesJsonb() && !tags.isEmpty()) {
+      statements.append(String.format(SqlConstants.UPDATE_ITEM_TAG_DOCUMENT, escape(toDocument(tags)), id));
+      TagIndex index = TagIndex.getInstance();
+      if (index != null) {
+        statements.onCommit(() -> idTags.forEach(index::addItemTag));
+      }
+    } else {
+      for (Tag tag : idTags) {
+        statements.merge(this.insertItemTag(tag));
+      }
+    }
+
+    return statements;
+  }
+
+  @Override
+  public PostgresStatements insertRichVersionTags(long id, Map<String, Tag> tags) throws GroundException {
+    PostgresStatements statements = new PostgresStatements();
+    List<Tag> idTags = new ArrayList<>();
+
+    for (Tag tag : tags.values()) {
+      idTags.add(new Tag(id, tag.getKey(), tag.getValue(), tag.getValueType()));
+    }
+
+    if (usesJsonb() && !tags.isEmpty()) {
+      statements.append(String.format(SqlConstants.UPDATE_RICH_VERSION_TAG_DOCUMENT, escape(toDocument(tags)), id));
+      TagIndex index = TagIndex.getInstance();
+      if (index != null) {
+        statements.onCommit(() -> idTags.forEach(index::addVersionTag));
+      }
     } else {
-      sqlList.add(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_NO_VALUE, tag.getId(), tag.getKey()));
+      for (Tag tag : idTags) {
+        statements.merge(this.insertRichVersionTag(tag));
+      }
+    }
+
+    return statements;
+  }
+
+  /**
+   * Decide how to store the tags of a new version whose designated parent is baseId. The tags are
+   * stored as a delta unless the parent's chain of deltas is already checkpointInterval - 1 long,
+   * in which case the new version becomes a full checkpoint.
+   *
+   * @param baseId the version to encode the tags against
+   * @param tags the tags of the new version
+   * @return the delta, or null if the tags should be stored in full
+   * @throws GroundException an error while reading the base version's tags
+   */
+  public TagDelta getTagDelta(long baseId, Map<String, Tag> tags) throws GroundException {
+    int baseLength;
+
+    try (Connection con = this.dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_RICH_VERSION_TAG_CHAIN_LENGTH, baseId));
+
+      if (!resultSet.next()) {
+        return null;
+      }
+
+      baseLength = resultSet.getInt(1);
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    if (baseLength + 1 >= getCheckpointInterval()) {
+      return null;
+    }
+
+    Map<String, Tag> changes = new HashMap<>();
+    Set<String> removals = new HashSet<>();
+    DeltaMap.diff(this.retrieveTagChain(baseId), tags, changes, removals);
+
+    return new TagDelta(baseId, baseLength + 1, changes, removals);
+  }
+
+  /**
+   * Create the statements that store the tags of a new rich version as a delta.
+   *
+   * @param id the id of the new version
+   * @param delta the changes to its base version's tags
+   * @param tags the full tags of the new version
+   * @return the statements to run
+   * @throws GroundException a tag is invalid
+   */
+  public PostgresStatements insertRichVersionTagDelta(long id, TagDelta delta, Map<String, Tag> tags) throws GroundException {
+    PostgresStatements statements = new PostgresStatements();
+
+    for (Tag tag : delta.getChanges().values()) {
+      if (tag.getValue() != null) {
+        statements.append(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_DELTA_WITH_VALUE, id, escape(tag.getKey()),
+          escape(tag.getValue().toString()), tag.getValueType(), getLongValue(tag), getBooleanValue(tag)));
+      } else {
+        statements.append(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_DELTA_NO_VALUE, id, escape(tag.getKey())));
+      }
+    }
+
+    for (String key : delta.getRemovals()) {
+      statements.append(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_DELTA_REMOVAL, id, escape(key)));
+    }
+
+    TagIndex index = TagIndex.getInstance();
+    if (index != null) {
+      List<Tag> idTags = new ArrayList<>();
+      for (Tag tag : tags.values()) {
+        idTags.add(new Tag(id, tag.getKey(), tag.getValue(), tag.getValueType()));
+      }
+
+      statements.onCommit(() -> idTags.forEach(index::addVersionTag));
+    }
+
+    return statements;
+  }
+
+  /**
+   * Retrieve the tags of a rich version whose tags may be delta-encoded, by applying the deltas
+   * along its chain to the nearest checkpoint. Every map along the way is cached and built on top
+   * of its base, so versions of the same chain share their common tags.
+   *
+   * <p>Inherited tags keep the id of the version that set them; use {@link #retrieveDeltaTags(long)}
+   * for the tags as they are returned to clients.
+   *
+   * @param id the id of the version
+   * @return the immutable tags of the version
+   * @throws GroundException an error while reading the chain
+   */
+  Map<String, Tag> retrieveTagChain(long id) throws GroundException {
+    Map<String, Tag> cached = this.tagMapCache.get(id);
+    if (cached != null) {
+      return cached;
+    }
+
+    List<Long> chain = new ArrayList<>();
+    Map<String, Tag> base = null;
+
+    try (Connection con = this.dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_RICH_VERSION_TAG_CHAIN, id));
+
+      // the chain goes from the version to its checkpoint; stop at the first version already built
+      while (resultSet.next()) {
+        base = this.tagMapCache.get(resultSet.getLong(1));
+        if (base != null) {
+          break;
+        }
+
+        chain.add(resultSet.getLong(1));
+      }
+
+      if (chain.isEmpty()) {
+        return base == null ? new HashMap<>() : base;
+      }
+
+      String ids = chain.stream().map(String::valueOf).collect(Collectors.joining(", "));
+      resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_RICH_VERSION_TAG_CHAIN_ROWS, ids));
+
+      Map<Long, Map<String, Tag>> changes = new HashMap<>();
+      Map<Long, Set<String>> removals = new HashMap<>();
+
+      while (resultSet.next()) {
+        long versionId = resultSet.getLong(1);
+        String key = resultSet.getString("key");
+
+        if (resultSet.getBoolean("removed")) {
+          removals.computeIfAbsent(versionId, ignored -> new HashSet<>()).add(key);
+        } else {
+          GroundType type = GroundType.fromString(resultSet.getString("type"));
+          changes.computeIfAbsent(versionId, ignored -> new HashMap<>()).put(key, new Tag(versionId, key, getValue(type, resultSet), type));
+        }
+      }
+
+      Map<String, Tag> tags = base == null ? Collections.emptyMap() : base;
+      for (int i = chain.size() - 1; i >= 0; i--) {
+        long versionId = chain.get(i);
+
+        tags = DeltaMap.of(tags, changes.getOrDefault(versionId, Collections.emptyMap()),
+          removals.getOrDefault(versionId, Collections.emptySet()));
+        this.tagMapCache.put(versionId, tags);
+      }
+
+      return tags;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Retrieve the tags of a rich version whose tags are delta-encoded, each with the id of the
+   * version, as if they were stored in full.
+   *
+   * @param id the id of the version
+   * @return the tags of the version
+   * @throws GroundException an error while reading the chain
+   */
+  public Map<String, Tag> retrieveDeltaTags(long id) throws GroundException {
+    Map<String, Tag> tags = new HashMap<>();
+
+    for (Tag tag : this.retrieveTagChain(id).values()) {
+      tags.put(tag.getKey(), new Tag(id, tag.getKey(), tag.getValue(), tag.getValueType()));
     }
 
-    return new PostgresStatements(sqlList);
+    return tags;
+  }
+
+  /**
+   * Delete all of the tags of a rich version.
+   *
+   * @param id the id of the rich version
+   * @return the statements to run
+   */
+  public PostgresStatements deleteRichVersionTags(long id) {
+    PostgresStatements statements = new PostgresStatements();
+    statements.append(String.format(SqlConstants.DELETE_RICH_VERSION_TAGS, id));
+    statements.append(String.format(SqlConstants.DELETE_RICH_VERSION_TAG_DELTA, id));
+    statements.onCommit(() -> this.tagMapCache.remove(id));
+
+    TagIndex index = TagIndex.getInstance();
+    if (index != null) {
+      statements.onCommit(() -> index.removeVersion(id));
+    }
+
+    return statements;
   }
 
   @Override
   public Map<String, Tag> retrieveFromDatabaseByVersionId(long id) throws GroundException {
+    if (usesJsonb()) {
+      return this.retrieveDocumentById(id, String.format(SqlConstants.SELECT_RICH_VERSION_TAG_DOCUMENT, id));
+    } else if (usesDeltas()) {
+      return this.retrieveDeltaTags(id);
+    }
+
     String sql = String.format(SqlConstants.SELECT_RICH_VERSION_TAGS, id);
     return this.retrieveFromDatabaseById(id, sql);
   }
 
   @Override
   public Map<String, Tag> retrieveFromDatabaseByItemId(long id) throws GroundException {
+    if (usesJsonb()) {
+      return this.retrieveDocumentById(id, String.format(SqlConstants.SELECT_ITEM_TAG_DOCUMENT, id));
+    }
+
     String sql = String.format(SqlConstants.SELECT_ITEM_TAGS, id);
     return this.retrieveFromDatabaseById(id, sql);
   }
 
+  private Map<String, Tag> retrieveDocumentById(long id, String sql) throws GroundException {
+    try (Connection con = this.dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      ResultSet resultSet = stmt.executeQuery(sql);
+
+      return resultSet.next() ? parseDocument(id, resultSet.getString(1)) : new HashMap<>();
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
   private Map<String, Tag> retrieveFromDatabaseById(long id, String sql) throws GroundException {
     Map<String, Tag> results = new HashMap<>();
 
@@ -86,7 +448,7 @@ public class PostgresTagDao implements TagDao {
 
         // these methods will return null if the input is null, so there's no need to check
         GroundType type = GroundType.fromString(resultSet.getString(4));
-        Object value = this.getValue(type, resultSet, 3);
+        Object value = getValue(type, resultSet);
 
         results.put(key, new Tag(id, key, value, type));
       }
@@ -102,21 +464,215 @@ public class PostgresTagDao implements TagDao {
 
   @Override
   public List<Long> getVersionIdsByTag(String tag) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_RICH_VERSION_TAGS_BY_KEY, tag);
+    TagIndex index = TagIndex.getReadyInstance();
+    if (index != null) {
+      return TagIndex.toList(index.matchVersions(Collections.singletonList(new TagPredicate(tag)), NONE, NONE));
+    } else if (usesJsonb()) {
+      return this.getIdsByTag(String.format(SqlConstants.SELECT_RICH_VERSION_IDS_BY_TAG_DOCUMENT, getDocumentCondition(new TagPredicate(tag))));
+    }
+
+    if (usesDeltas()) {
+      return this.getIdsByTag(String.format(SqlConstants.SELECT_RICH_VERSION_IDS_BY_DELTA_TAG, getDeltaMatches(new TagPredicate(tag))));
+    }
+
+    String sql = String.format(SqlConstants.SELECT_RICH_VERSION_TAGS_BY_KEY, escape(tag));
     return this.getIdsByTag(sql);
   }
 
   @Override
   public List<Long> getItemIdsByTag(String tag) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_ITEM_TAGS_BY_KEY, tag);
+    TagIndex index = TagIndex.getReadyInstance();
+    if (index != null) {
+      return TagIndex.toList(index.matchItems(Collections.singletonList(new TagPredicate(tag)), NONE, NONE));
+    } else if (usesJsonb()) {
+      return this.getIdsByTag(String.format(SqlConstants.SELECT_ITEM_IDS_BY_TAG_DOCUMENT, getDocumentCondition(new TagPredicate(tag))));
+    }
+
+    String sql = String.format(SqlConstants.SELECT_ITEM_TAGS_BY_KEY, escape(tag));
     return this.getIdsByTag(sql);
   }
 
+  @Override
+  public List<Long> getVersionIdsByTag(TagPredicate predicate) throws GroundException {
+    if (!predicate.hasValue()) {
+      return this.getVersionIdsByTag(predicate.getKey());
+    }
+
+    TagIndex index = TagIndex.getReadyInstance();
+    Roaring64NavigableMap matches = index == null ? null : index.matchVersions(Collections.singletonList(predicate), NONE, NONE);
+    if (matches != null) {
+      return TagIndex.toList(matches);
+    } else if (usesJsonb()) {
+      return this.getIdsByTag(String.format(SqlConstants.SELECT_RICH_VERSION_IDS_BY_TAG_DOCUMENT, getDocumentCondition(predicate)));
+    }
+
+    if (usesDeltas()) {
+      return this.getIdsByTag(String.format(SqlConstants.SELECT_RICH_VERSION_IDS_BY_DELTA_TAG, getDeltaMatches(predicate)));
+    }
+
+    String sql = String.format(SqlConstants.SELECT_RICH_VERSION_TAGS_BY_KEY_AND_VALUE, escape(predicate.getKey()), getValueCondition(predicate));
+    return this.getIdsByTag(sql);
+  }
+
+  @Override
+  public List<Long> getItemIdsByTag(TagPredicate predicate) throws GroundException {
+    if (!predicate.hasValue()) {
+      return this.getItemIdsByTag(predicate.getKey());
+    }
+
+    TagIndex index = TagIndex.getReadyInstance();
+    Roaring64NavigableMap matches = index == null ? null : index.matchItems(Collections.singletonList(predicate), NONE, NONE);
+    if (matches != null) {
+      return TagIndex.toList(matches);
+    } else if (usesJsonb()) {
+      return this.getIdsByTag(String.format(SqlConstants.SELECT_ITEM_IDS_BY_TAG_DOCUMENT, getDocumentCondition(predicate)));
+    }
+
+    String sql = String.format(SqlConstants.SELECT_ITEM_TAGS_BY_KEY_AND_VALUE, escape(predicate.getKey()), getValueCondition(predicate));
+    return this.getIdsByTag(sql);
+  }
+
+  @Override
+  public List<Long> getVersionIdsByTags(List<TagPredicate> predicates, long afterId, int limit) throws GroundException {
+    return this.getVersionIdsByTags(predicates, NONE, NONE, afterId, limit);
+  }
+
+  @Override
+  public List<Long> getItemIdsByTags(List<TagPredicate> predicates, long afterId, int limit) throws GroundException {
+    return this.getItemIdsByTags(predicates, NONE, NONE, afterId, limit);
+  }
+
+  @Override
+  public List<Long> getVersionIdsByTags(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none, long afterId, int limit)
+    throws GroundException {
+
+    checkPositive(all, any);
+
+    TagIndex index = TagIndex.getReadyInstance();
+    Roaring64NavigableMap matches = index == null ? null : index.matchVersions(all, any, none);
+    if (matches != null) {
+      return TagIndex.page(matches, afterId, limit);
+    } else if (usesJsonb()) {
+      return this.getIdsByTag(String.format(SqlConstants.SELECT_RICH_VERSION_IDS_BY_TAG_DOCUMENTS, getDocumentConditions(all, any, none), afterId, limit));
+    }
+
+    if (usesDeltas()) {
+      return this.getDeltaVersionIdsByTags(all, any, none, afterId, limit);
+    }
+
+    return this.getIdsByTags(all, any, none, afterId, limit, SqlConstants.SELECT_RICH_VERSION_IDS_BY_TAGS, SqlConstants.RICH_VERSION_TAG_EXISTS);
+  }
+
+  @Override
+  public List<Long> getItemIdsByTags(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none, long afterId, int limit)
+    throws GroundException {
+
+    checkPositive(all, any);
+
+    TagIndex index = TagIndex.getReadyInstance();
+    Roaring64NavigableMap matches = index == null ? null : index.matchItems(all, any, none);
+    if (matches != null) {
+      return TagIndex.page(matches, afterId, limit);
+    } else if (usesJsonb()) {
+      return this.getIdsByTag(String.format(SqlConstants.SELECT_ITEM_IDS_BY_TAG_DOCUMENTS, getDocumentConditions(all, any, none), afterId, limit));
+    }
+
+    return this.getIdsByTags(all, any, none, afterId, limit, SqlConstants.SELECT_ITEM_IDS_BY_TAGS, SqlConstants.ITEM_TAG_EXISTS);
+  }
+
+  private static void checkPositive(List<TagPredicate> all, List<TagPredicate> any) throws GroundException {
+    if (all.isEmpty() && any.isEmpty()) {
+      throw new GroundException(ExceptionType.OTHER, "At least one tag has to be specified.");
+    }
+  }
+
+  /**
+   * Run a keyset-paginated tag query in the database. The first conjunct (or the disjunction, if
+   * there are no conjuncts) drives the scan and every other predicate is checked with a primary
+   * key lookup on the same id.
+   *
+   * @param all the predicates that have to match
+   * @param any if not empty, at least one of these has to match
+   * @param none none of these may match
+   * @param afterId the id to resume after
+   * @param limit the maximum number of results
+   * @param selectSql the statement template for the driving predicate
+   * @param existsSql the condition template for each additional predicate
+   * @return the matching ids in increasing order
+   */
+  private List<Long> getIdsByTags(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none, long afterId, int limit,
+                                  String selectSql, String existsSql) throws GroundException {
+
+    String driving;
+    StringBuilder conditions = new StringBuilder();
+
+    if (all.isEmpty()) {
+      driving = any.stream().map(predicate -> "(" + getCondition(predicate) + ")").collect(Collectors.joining(" OR ", "(", ")"));
+    } else {
+      driving = getCondition(all.get(0));
+
+      for (TagPredicate predicate : all.subList(1, all.size())) {
+        conditions.append(" AND ").append(String.format(existsSql, getCondition(predicate)));
+      }
+
+      if (!any.isEmpty()) {
+        conditions.append(any.stream().map(predicate -> String.format(existsSql, getCondition(predicate)))
+                            .collect(Collectors.joining(" OR ", " AND (", ")")));
+      }
+    }
+
+    for (TagPredicate predicate : none) {
+      conditions.append(" AND NOT ").append(String.format(existsSql, getCondition(predicate)));
+    }
+
+    return this.getIdsByTag(String.format(selectSql, driving, afterId, conditions, limit));
+  }
+
+  /**
+   * Run a keyset-paginated tag query of versions whose tags may be delta-encoded. The rows of a
+   * delta-encoded version only hold the tags it changed, so each predicate is resolved into the
+   * versions that match it, inherited tags included, before the sets are combined.
+   *
+   * @param all the predicates that have to match
+   * @param any if not empty, at least one of these has to match
+   * @param none none of these may match
+   * @param afterId the id to resume after
+   * @param limit the maximum number of results
+   * @return the matching ids in increasing order
+   */
+  private List<Long> getDeltaVersionIdsByTags(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none, long afterId, int limit)
+    throws GroundException {
+
+    List<TagPredicate> driving = all.isEmpty() ? any : all.subList(0, 1);
+    String matches = driving.stream().map(PostgresTagDao::getDeltaMatches).collect(Collectors.joining(" UNION ALL "));
+    StringBuilder conditions = new StringBuilder();
+
+    if (!all.isEmpty()) {
+      for (TagPredicate predicate : all.subList(1, all.size())) {
+        conditions.append(" AND id IN ").append(getDeltaMatches(predicate));
+      }
+
+      if (!any.isEmpty()) {
+        conditions.append(any.stream().map(predicate -> "id IN " + getDeltaMatches(predicate)).collect(Collectors.joining(" OR ", " AND (", ")")));
+      }
+    }
+
+    for (TagPredicate predicate : none) {
+      conditions.append(" AND id NOT IN ").append(getDeltaMatches(predicate));
+    }
+
+    return this.getIdsByTag(String.format(SqlConstants.SELECT_RICH_VERSION_IDS_BY_DELTA_TAGS, matches, afterId, conditions, limit));
+  }
+
+  // the versions that match a predicate: a matching tag is inherited by every version whose delta keeps its key
+  private static String getDeltaMatches(TagPredicate predicate) {
+    return String.format(SqlConstants.RICH_VERSION_IDS_BY_DELTA_TAG, getCondition(predicate));
+  }
+
   private List<Long> getIdsByTag(String sql) throws GroundException {
     List<Long> result = new ArrayList<>();
 
-    try {
-      Connection con = this.dbSource.getConnection();
+    try (Connection con = this.dbSource.getConnection()) {
       Statement stmt = con.createStatement();
       ResultSet resultSet = stmt.executeQuery(sql);
 
@@ -131,7 +687,7 @@ public class PostgresTagDao implements TagDao {
     return result;
   }
 
-  private Object getValue(GroundType type, ResultSet resultSet, int index)
+  static Object getValue(GroundType type, ResultSet resultSet)
     throws GroundException, SQLException {
 
     if (type == null) {
@@ -140,16 +696,195 @@ public class PostgresTagDao implements TagDao {
 
     switch (type) {
       case STRING:
-        return resultSet.getString(index);
+        return resultSet.getString("value");
       case INTEGER:
-        return resultSet.getInt(index);
+        return (int) resultSet.getLong("long_value");
       case LONG:
-        return resultSet.getLong(index);
+        return resultSet.getLong("long_value");
       case BOOLEAN:
-        return resultSet.getBoolean(index);
+        return resultSet.getBoolean("boolean_value");
       default:
         // this should never happen because we've listed all types
         throw new GroundException(ExceptionType.OTHER, String.format("Unidentified type: %s", type));
     }
   }
+
+  private static String getCondition(TagPredicate predicate) {
+    String condition = String.format("key = \'%s\'", escape(predicate.getKey()));
+
+    if (predicate.hasValue()) {
+      condition += " AND " + getValueCondition(predicate);
+    }
+
+    return condition;
+  }
+
+  /**
+   * Build the SQL condition comparing a tag's value against the predicate. Numeric and boolean
+   * values are compared on their typed columns so that the comparison can use the per-type
+   * indexes; everything else is compared as text.
+   *
+   * @param predicate the predicate to translate
+   * @return the SQL condition
+   */
+  private static String getValueCondition(TagPredicate predicate) {
+    String operator = predicate.getOperator().getSymbol();
+    GroundType type = predicate.getValueType();
+
+    if (type == GroundType.INTEGER || type == GroundType.LONG) {
+      return String.format("long_value %s %d", operator, ((Number) predicate.getValue()).longValue());
+    } else if (type == GroundType.BOOLEAN) {
+      return String.format("boolean_value %s %b", operator, predicate.getValue());
+    }
+
+    String value = escape(predicate.getValue().toString());
+    if (predicate.getOperator() == TagPredicate.Operator.EQ) {
+      // md5(value) is what the text index is built on, since values may be too large for a b-tree
+      return String.format("md5(value) = md5(\'%s\') AND value = \'%s\'", value, value);
+    }
+
+    return String.format("value %s \'%s\'", operator, value);
+  }
+
+  private static String getDocumentConditions(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none) {
+    List<String> conditions = all.stream().map(PostgresTagDao::getDocumentCondition).collect(Collectors.toList());
+
+    if (!any.isEmpty()) {
+      conditions.add(any.stream().map(predicate -> "(" + getDocumentCondition(predicate) + ")").collect(Collectors.joining(" OR ", "(", ")")));
+    }
+
+    for (TagPredicate predicate : none) {
+      conditions.add("NOT (" + getDocumentCondition(predicate) + ")");
+    }
+
+    return String.join(" AND ", conditions);
+  }
+
+  /**
+   * Build the SQL condition matching a predicate against a tag document. Key-only and equality
+   * predicates are expressed as containment, which the GIN index on the document answers; other
+   * comparisons use the index to find the key and then compare the extracted value.
+   *
+   * @param predicate the predicate to translate
+   * @return the SQL condition
+   */
+  private static String getDocumentCondition(TagPredicate predicate) {
+    ObjectNode entry = Json.newObject();
+    ObjectNode hasKey = Json.newObject();
+    hasKey.set(predicate.getKey(), entry);
+
+    String containsKey = String.format("tags @> '%s'", escape(Json.stringify(hasKey)));
+    if (!predicate.hasValue()) {
+      return containsKey;
+    }
+
+    String key = escape(predicate.getKey());
+    GroundType type = predicate.getValueType();
+    TagPredicate.Operator operator = predicate.getOperator();
+
+    if (type == GroundType.INTEGER || type == GroundType.LONG) {
+      long value = ((Number) predicate.getValue()).longValue();
+
+      if (operator == TagPredicate.Operator.EQ) {
+        entry.put("number", value);
+        return String.format("tags @> '%s'", escape(Json.stringify(hasKey)));
+      }
+
+      return String.format("%s AND (tags->'%s'->>'number')::bigint %s %d", containsKey, key, operator.getSymbol(), value);
+    } else if (type == GroundType.BOOLEAN) {
+      entry.put("type", GroundType.BOOLEAN.toString());
+      entry.put("value", String.valueOf(predicate.getValue()));
+
+      String condition = String.format("tags @> '%s'", escape(Json.stringify(hasKey)));
+      if (operator == TagPredicate.Operator.EQ) {
+        return condition;
+      }
+
+      entry.remove("value");
+      return String.format("tags @> '%s' AND NOT %s", escape(Json.stringify(hasKey)), condition);
+    }
+
+    String value = escape(predicate.getValue().toString());
+    if (operator == TagPredicate.Operator.EQ) {
+      entry.put("value", predicate.getValue().toString());
+      return String.format("tags @> '%s'", escape(Json.stringify(hasKey)));
+    }
+
+    return String.format("%s AND tags->'%s'->>'value' %s '%s'", containsKey, key, operator.getSymbol(), value);
+  }
+
+  /**
+   * Convert tags to the jsonb document stored in the tags column. Each tag maps its key to an
+   * object with the text of its value and its type, plus the numeric value for integer and long
+   * tags, so that the document supports the same comparisons as the tag tables.
+   *
+   * @param tags the tags to convert
+   * @return the document
+   */
+  static String toDocument(Map<String, Tag> tags) {
+    ObjectNode document = Json.newObject();
+
+    for (Tag tag : tags.values()) {
+      ObjectNode entry = document.putObject(tag.getKey());
+
+      if (tag.getValue() != null) {
+        entry.put("value", tag.getValue().toString());
+        entry.put("type", tag.getValueType().toString());
+
+        if (tag.getValueType() == GroundType.INTEGER || tag.getValueType() == GroundType.LONG) {
+          entry.put("number", ((Number) tag.getValue()).longValue());
+        }
+      }
+    }
+
+    return Json.stringify(document);
+  }
+
+  /**
+   * Convert a jsonb tag document back into tags.
+   *
+   * @param id the id of the version or item the tags belong to
+   * @param document the document, may be null
+   * @return the tags
+   * @throws GroundException the document contains an unknown type
+   */
+  public static Map<String, Tag> parseDocument(long id, String document) throws GroundException {
+    Map<String, Tag> tags = new HashMap<>();
+    if (document == null) {
+      return tags;
+    }
+
+    Iterator<Map.Entry<String, JsonNode>> entries = Json.parse(document).fields();
+    while (entries.hasNext()) {
+      Map.Entry<String, JsonNode> entry = entries.next();
+      JsonNode type = entry.getValue().get("type");
+
+      GroundType valueType = type == null ? null : GroundType.fromString(type.asText());
+      Object value = valueType == null ? null : valueType.parse(entry.getValue().get("value").asText());
+
+      tags.put(entry.getKey(), new Tag(id, entry.getKey(), value, valueType));
+    }
+
+    return tags;
+  }
+
+  private static String getLongValue(Tag tag) {
+    if (tag.getValueType() == GroundType.INTEGER || tag.getValueType() == GroundType.LONG) {
+      return String.valueOf(((Number) tag.getValue()).longValue());
+    }
+
+    return "null";
+  }
+
+  private static String getBooleanValue(Tag tag) {
+    if (tag.getValueType() == GroundType.BOOLEAN) {
+      return String.valueOf(tag.getValue());
+    }
+
+    return "null";
+  }
+
+  private static String escape(String str) {
+    return str.replace("'", "''");
+  }
 }
@@ -13,6 +13,7 @@
  */
 package edu.berkeley.ground.postgres.dao.version;
 
+import com.google.common.base.CaseFormat;
 import edu.berkeley.ground.common.dao.version.VersionHistoryDagDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.version.Item;
@@ -51,7 +52,8 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
   }
 
   /**
-   * Retrieve a DAG from the database.
+   * Retrieve a DAG from the database. The edges and their successors are read in one query, so
+   * they come from the same database even when reads are routed to replicas.
    *
    * @param itemId the id of the item whose dag we are retrieving
    * @return the retrieved DAG
@@ -62,22 +64,12 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
     String sql = String.format(SqlConstants.SELECT_VERSION_HISTORY_DAG, itemId);
 
     List<VersionSuccessor> edges = new ArrayList<>();
-    try (Connection con = dbSource.getConnection()) {
-
+    try (Connection con = PostgresUtils.readSource(dbSource).getConnection()) {
       Statement stmt = con.createStatement();
       final ResultSet resultSet = stmt.executeQuery(sql);
 
-      List<Long> successors = new ArrayList<>();
       while (resultSet.next()) {
-        successors.add(resultSet.getLong("version_successor_id"));
-      }
-
-      stmt.close();
-      con.close();
-
-      for (Long versionSuccessorId : successors) {
-        VersionSuccessor versionSuccessor = postgresVersionSuccessorDao.retrieveFromDatabase(versionSuccessorId);
-        edges.add(versionSuccessor);
+        edges.add(new VersionSuccessor(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3)));
       }
     } catch (Exception e) {
       throw new GroundException(e);
@@ -85,6 +77,18 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
     return new VersionHistoryDag(itemId, edges);
   }
 
+  @Override
+  public List<Long> retrieveHistory(long itemId, boolean fromLeaves, int depth, long afterId, int limit) throws GroundException {
+    // the page continues after the creation time and id of the last version of the previous page
+    String comparison = fromLeaves ? "<" : ">";
+    String start = fromLeaves ? "infinity" : "-infinity";
+    String direction = fromLeaves ? "DESC" : "ASC";
+
+    String sql = String.format(depth < 0 ? SqlConstants.SELECT_VERSION_HISTORY_PAGE : SqlConstants.SELECT_VERSION_HISTORY_PAGE_TO_DEPTH,
+      itemId, comparison, afterId, start, direction, limit, depth);
+    return PostgresUtils.executeQueryToIds(this.dbSource, sql);
+  }
+
   /**
    * Add an edge to the DAG.
    *
@@ -100,7 +104,7 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
     dag.addEdge(parentId, childId, successor.getId());
 
     PostgresStatements statements = postgresVersionSuccessorDao.insert(successor);
-    statements.append(String.format(SqlConstants.INSERT_VERSION_HISTORY_DAG_EDGE, itemId, successor.getId()));
+    statements.append(String.format(SqlConstants.INSERT_VERSION_HISTORY_DAG_EDGE, itemId, successor.getId(), childId));
     return statements;
   }
 
@@ -133,6 +137,7 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
     Set<Long> deleted = new HashSet<>();
 
     PostgresStatements statements = new PostgresStatements();
+    String typeName = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, itemType.getSimpleName());
 
     // delete the version successors between the last kept level and the first deleted level
     for (long id : lastLevel) {
@@ -147,6 +152,8 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
         this.postgresVersionSuccessorDao.deleteFromDestination(statements, id, dag.getItemId());
         GroundUtils.getVersionDaoFromItemType(itemType, this.dbSource, this.idGenerator).delete(id);
 
+        statements.evict(typeName + "_versions." + id);
+
         deleted.add(id);
         List<Long> parents = dag.getParent(id);
 
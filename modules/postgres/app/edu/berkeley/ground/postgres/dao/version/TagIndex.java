@@ -0,0 +1,447 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.dao.version;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.version.GroundType;
+import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.TagPredicate;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import play.Logger;
+import play.db.Database;
+
+/**
+ * An in-process inverted index from tags to the ids of the rich versions and items that carry
+ * them. Each posting list is a compressed bitmap, so conjunctions, disjunctions and negations of
+ * tag predicates are evaluated with bitmap operations instead of database queries.
+ *
+ * <p>The index mirrors the columns of the tag tables: text comparisons match the value column,
+ * numeric comparisons the long_value column and boolean comparisons the boolean_value column. Range
+ * comparisons on text are not answered by the index, since Java and Postgres order strings
+ * differently; callers fall back to the database for those.
+ *
+ * <p>The index is optional. When enabled, it is built from the tag tables at startup and kept up to
+ * date by callbacks that run after every transaction that inserts or deletes tags.
+ */
+public class TagIndex {
+
+  private static volatile TagIndex instance;
+
+  private final Map<String, Postings> versionPostings = new HashMap<>();
+  private final Map<String, Postings> itemPostings = new HashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // false until the initial load from the database has completed
+  private volatile boolean ready = false;
+
+  /**
+   * Return the index in use, or null if the index is disabled.
+   *
+   * @return the index
+   */
+  public static TagIndex getInstance() {
+    return instance;
+  }
+
+  public static void setInstance(TagIndex index) {
+    instance = index;
+  }
+
+  /**
+   * Return the index if it can answer queries, i.e., it is enabled and fully loaded.
+   *
+   * @return the index or null
+   */
+  static TagIndex getReadyInstance() {
+    TagIndex index = instance;
+    return index != null && index.ready ? index : null;
+  }
+
+  public boolean isReady() {
+    return this.ready;
+  }
+
+  /**
+   * Load every existing tag from the database. The index should be installed with setInstance
+   * before loading, so that tags committed while the load is running are not missed; adding a tag
+   * twice has no effect.
+   *
+   * @param dbSource the database to load from
+   * @throws GroundException an error while reading the tag tables
+   */
+  public void load(Database dbSource) throws GroundException {
+    this.load(Collections.singletonList(dbSource));
+  }
+
+  /**
+   * Load every existing tag from several databases, e.g. every shard.
+   *
+   * @param databases the databases to load from
+   * @throws GroundException an error while reading the tag tables
+   */
+  public void load(List<Database> databases) throws GroundException {
+    long start = System.currentTimeMillis();
+
+    for (Database dbSource : databases) {
+      if (PostgresTagDao.usesJsonb()) {
+        this.load(dbSource, SqlConstants.SELECT_ALL_RICH_VERSION_TAG_DOCUMENTS, true);
+        this.load(dbSource, SqlConstants.SELECT_ALL_ITEM_TAG_DOCUMENTS, false);
+      } else {
+        this.load(dbSource, SqlConstants.SELECT_ALL_RICH_VERSION_TAGS, true);
+        this.load(dbSource, SqlConstants.SELECT_ALL_ITEM_TAGS, false);
+        this.loadDeltas(dbSource);
+      }
+    }
+    this.ready = true;
+
+    Logger.info("Loaded tag index in {} ms.", System.currentTimeMillis() - start);
+  }
+
+  // versions with delta-encoded tags only store their changes, so their full tags are rebuilt
+  private void loadDeltas(Database dbSource) throws GroundException {
+    List<Long> ids = new ArrayList<>();
+
+    try (Connection con = dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(SqlConstants.SELECT_DELTA_RICH_VERSION_IDS);
+
+      while (resultSet.next()) {
+        ids.add(resultSet.getLong(1));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    PostgresTagDao tagDao = new PostgresTagDao(dbSource);
+    for (long id : ids) {
+      for (Tag tag : tagDao.retrieveTagChain(id).values()) {
+        this.addVersionTag(new Tag(id, tag.getKey(), tag.getValue(), tag.getValueType()));
+      }
+    }
+  }
+
+  private void load(Database dbSource, String sql, boolean isVersion) throws GroundException {
+    try (Connection con = dbSource.getConnection()) {
+      // a cursor is only used outside of auto-commit mode
+      con.setAutoCommit(false);
+      Statement stmt = con.createStatement();
+      stmt.setFetchSize(10000);
+      ResultSet resultSet = stmt.executeQuery(sql);
+
+      while (resultSet.next()) {
+        Collection<Tag> tags;
+
+        if (PostgresTagDao.usesJsonb()) {
+          tags = PostgresTagDao.parseDocument(resultSet.getLong(1), resultSet.getString("tags")).values();
+        } else {
+          GroundType type = GroundType.fromString(resultSet.getString("type"));
+          Object value = PostgresTagDao.getValue(type, resultSet);
+          tags = Collections.singletonList(new Tag(resultSet.getLong(1), resultSet.getString("key"), value, type));
+        }
+
+        for (Tag tag : tags) {
+          if (isVersion) {
+            this.addVersionTag(tag);
+          } else {
+            this.addItemTag(tag);
+          }
+        }
+      }
+
+      con.commit();
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  public void addVersionTag(Tag tag) {
+    this.add(this.versionPostings, tag);
+  }
+
+  public void addItemTag(Tag tag) {
+    this.add(this.itemPostings, tag);
+  }
+
+  /**
+   * Remove a rich version from every posting list.
+   *
+   * @param id the id of the rich version
+   */
+  public void removeVersion(long id) {
+    this.lock.writeLock().lock();
+    try {
+      for (Postings postings : this.versionPostings.values()) {
+        postings.remove(id);
+      }
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Evaluate a boolean combination of predicates against the rich version tags.
+   *
+   * @param all the predicates that have to match
+   * @param any if not empty, at least one of these has to match
+   * @param none none of these may match
+   * @return the matching ids, or null if one of the predicates can't be answered by the index
+   */
+  public Roaring64NavigableMap matchVersions(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none) {
+    return this.match(this.versionPostings, all, any, none);
+  }
+
+  /**
+   * Evaluate a boolean combination of predicates against the item tags.
+   *
+   * @param all the predicates that have to match
+   * @param any if not empty, at least one of these has to match
+   * @param none none of these may match
+   * @return the matching ids, or null if one of the predicates can't be answered by the index
+   */
+  public Roaring64NavigableMap matchItems(List<TagPredicate> all, List<TagPredicate> any, List<TagPredicate> none) {
+    return this.match(this.itemPostings, all, any, none);
+  }
+
+  /**
+   * Return one keyset page of a bitmap.
+   *
+   * @param bitmap the ids to page through
+   * @param afterId only ids strictly greater than this one are returned
+   * @param limit the maximum number of ids to return
+   * @return the ids in increasing order
+   */
+  public static List<Long> page(Roaring64NavigableMap bitmap, long afterId, int limit) {
+    List<Long> result = new ArrayList<>();
+    long cardinality = bitmap.getLongCardinality();
+
+    for (long rank = bitmap.rankLong(afterId); rank < cardinality && result.size() < limit; rank++) {
+      result.add(bitmap.select(rank));
+    }
+
+    return result;
+  }
+
+  /**
+   * Return every id in a bitmap.
+   *
+   * @param bitmap the ids
+   * @return the ids in increasing order
+   */
+  public static List<Long> toList(Roaring64NavigableMap bitmap) {
+    List<Long> result = new ArrayList<>();
+    bitmap.forEach(result::add);
+    return result;
+  }
+
+  private void add(Map<String, Postings> index, Tag tag) {
+    this.lock.writeLock().lock();
+    try {
+      index.computeIfAbsent(tag.getKey(), key -> new Postings()).add(tag);
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  private Roaring64NavigableMap match(Map<String, Postings> index, List<TagPredicate> all, List<TagPredicate> any,
+                                      List<TagPredicate> none) {
+
+    this.lock.readLock().lock();
+    try {
+      Roaring64NavigableMap result = null;
+
+      for (TagPredicate predicate : all) {
+        Roaring64NavigableMap matches = match(index, predicate);
+        if (matches == null) {
+          return null;
+        }
+
+        if (result == null) {
+          result = matches;
+        } else {
+          result.and(matches);
+        }
+      }
+
+      if (!any.isEmpty()) {
+        Roaring64NavigableMap union = newBitmap();
+        for (TagPredicate predicate : any) {
+          Roaring64NavigableMap matches = match(index, predicate);
+          if (matches == null) {
+            return null;
+          }
+
+          union.or(matches);
+        }
+
+        if (result == null) {
+          result = union;
+        } else {
+          result.and(union);
+        }
+      }
+
+      if (result == null) {
+        // there is no universe to negate against, so a purely negative query matches nothing
+        return newBitmap();
+      }
+
+      for (TagPredicate predicate : none) {
+        Roaring64NavigableMap matches = match(index, predicate);
+        if (matches == null) {
+          return null;
+        }
+
+        result.andNot(matches);
+      }
+
+      return result;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  private static Roaring64NavigableMap match(Map<String, Postings> index, TagPredicate predicate) {
+    Postings postings = index.get(predicate.getKey());
+
+    if (postings == null) {
+      return newBitmap();
+    } else if (!predicate.hasValue()) {
+      return copy(postings.all);
+    }
+
+    GroundType type = predicate.getValueType();
+    TagPredicate.Operator operator = predicate.getOperator();
+
+    if (type == GroundType.INTEGER || type == GroundType.LONG) {
+      long value = ((Number) predicate.getValue()).longValue();
+      NavigableMap<Long, Roaring64NavigableMap> values = postings.longValues;
+
+      switch (operator) {
+        case EQ:
+          return union(values.subMap(value, true, value, true).values());
+        case NE:
+          Roaring64NavigableMap result = union(values.headMap(value, false).values());
+          result.or(union(values.tailMap(value, false).values()));
+          return result;
+        case LT:
+          return union(values.headMap(value, false).values());
+        case LTE:
+          return union(values.headMap(value, true).values());
+        case GT:
+          return union(values.tailMap(value, false).values());
+        default:
+          return union(values.tailMap(value, true).values());
+      }
+    } else if (type == GroundType.BOOLEAN) {
+      boolean value = (Boolean) predicate.getValue();
+      return copy(value == (operator == TagPredicate.Operator.EQ) ? postings.trueValues : postings.falseValues);
+    }
+
+    if (operator.isRange()) {
+      return null;
+    }
+
+    Roaring64NavigableMap equal = postings.textValues.get(predicate.getValue().toString());
+    if (operator == TagPredicate.Operator.EQ) {
+      return equal == null ? newBitmap() : copy(equal);
+    }
+
+    Roaring64NavigableMap result = copy(postings.withValue);
+    if (equal != null) {
+      result.andNot(equal);
+    }
+    return result;
+  }
+
+  private static Roaring64NavigableMap union(Collection<Roaring64NavigableMap> bitmaps) {
+    Roaring64NavigableMap result = newBitmap();
+    for (Roaring64NavigableMap bitmap : bitmaps) {
+      result.or(bitmap);
+    }
+    return result;
+  }
+
+  private static Roaring64NavigableMap copy(Roaring64NavigableMap bitmap) {
+    Roaring64NavigableMap result = newBitmap();
+    result.or(bitmap);
+    return result;
+  }
+
+  // ids are ordered as signed longs, the same way the database orders them
+  private static Roaring64NavigableMap newBitmap() {
+    return new Roaring64NavigableMap(true);
+  }
+
+  private static class Postings {
+
+    // every id with a tag with this key
+    private final Roaring64NavigableMap all = newBitmap();
+
+    // every id with a value for this key
+    private final Roaring64NavigableMap withValue = newBitmap();
+
+    // ids by the text of the value
+    private final Map<String, Roaring64NavigableMap> textValues = new HashMap<>();
+
+    // ids by numeric value, for integer and long tags
+    private final NavigableMap<Long, Roaring64NavigableMap> longValues = new TreeMap<>();
+
+    private final Roaring64NavigableMap trueValues = newBitmap();
+    private final Roaring64NavigableMap falseValues = newBitmap();
+
+    void add(Tag tag) {
+      long id = tag.getId();
+      this.all.addLong(id);
+
+      Object value = tag.getValue();
+      if (value == null) {
+        return;
+      }
+
+      this.withValue.addLong(id);
+      this.textValues.computeIfAbsent(value.toString(), text -> newBitmap()).addLong(id);
+
+      if (tag.getValueType() == GroundType.INTEGER || tag.getValueType() == GroundType.LONG) {
+        this.longValues.computeIfAbsent(((Number) value).longValue(), number -> newBitmap()).addLong(id);
+      } else if (tag.getValueType() == GroundType.BOOLEAN) {
+        ((Boolean) value ? this.trueValues : this.falseValues).addLong(id);
+      }
+    }
+
+    void remove(long id) {
+      if (!this.all.contains(id)) {
+        return;
+      }
+
+      this.all.removeLong(id);
+      this.withValue.removeLong(id);
+      this.trueValues.removeLong(id);
+      this.falseValues.removeLong(id);
+      this.textValues.values().forEach(bitmap -> bitmap.removeLong(id));
+      this.longValues.values().forEach(bitmap -> bitmap.removeLong(id));
+    }
+  }
+}
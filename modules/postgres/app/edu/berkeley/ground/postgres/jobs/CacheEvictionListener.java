@@ -0,0 +1,105 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.jobs;
+
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import play.Logger;
+import play.cache.CacheApi;
+import play.db.Database;
+
+/**
+ * Evicts the cache entries that writes on any Ground instance made stale. Writes send the keys of
+ * the entries they invalidate with pg_notify, which Postgres delivers on commit to every session
+ * listening on the channel, this instance's included. The listener holds one connection for as
+ * long as it runs, and reconnects after an error; notifications sent while it is disconnected are
+ * lost, so entries they would have evicted live until they expire.
+ */
+public class CacheEvictionListener implements Runnable {
+
+  // how long to wait before reconnecting after an error
+  private static final long RETRY_MILLIS = 5000;
+
+  private final Database dbSource;
+  private final CacheApi cache;
+  private final long pollMillis;
+
+  private volatile boolean running = true;
+
+  public CacheEvictionListener(Database dbSource, CacheApi cache, long pollMillis) {
+    this.dbSource = dbSource;
+    this.cache = cache;
+    this.pollMillis = pollMillis;
+  }
+
+  /**
+   * Start listening on a daemon thread.
+   */
+  public void start() {
+    Thread thread = new Thread(this, "ground-cache-eviction");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void stop() {
+    this.running = false;
+  }
+
+  @Override
+  public void run() {
+    while (this.running) {
+      try (Connection con = this.dbSource.getConnection()) {
+        con.setAutoCommit(true);
+        Statement stmt = con.createStatement();
+        stmt.execute(SqlConstants.LISTEN_CACHE_EVICTIONS);
+        PGConnection pgConnection = con.unwrap(PGConnection.class);
+
+        while (this.running) {
+          this.evict(pgConnection.getNotifications());
+
+          // the driver only reads notifications off the socket while running a query
+          Thread.sleep(this.pollMillis);
+          stmt.execute("SELECT 1;");
+        }
+      } catch (SQLException e) {
+        Logger.error("Listening for cache evictions failed; reconnecting in {} ms.", RETRY_MILLIS, e);
+        this.sleep(RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void evict(PGNotification[] notifications) {
+    if (notifications == null) {
+      return;
+    }
+
+    for (PGNotification notification : notifications) {
+      this.cache.remove(notification.getParameter());
+    }
+  }
+
+  private void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.running = false;
+    }
+  }
+}
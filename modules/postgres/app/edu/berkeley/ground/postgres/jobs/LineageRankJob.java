@@ -0,0 +1,180 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.jobs;
+
+import edu.berkeley.ground.common.analytics.CsrGraph;
+import edu.berkeley.ground.common.analytics.GraphAlgorithms;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.core.EdgeDirection;
+import edu.berkeley.ground.common.model.usage.LineageRank;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.dao.usage.PostgresLineageRankDao;
+import edu.berkeley.ground.postgres.util.LongBitmaps;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import play.Logger;
+import play.db.Database;
+
+/**
+ * Ranks the rich versions of the lineage graph by how critical they are: the number of rich
+ * versions downstream of each one, and its PageRank. The job loads every lineage edge version into
+ * a CsrGraph, computes both scores in parallel, and stores them in lineage_rank.
+ *
+ * <p>A refresh only recomputes what new lineage edges can have changed. The downstream counts of
+ * the rich versions upstream of the new edges are recounted, and PageRank starts from the stored
+ * ranks, so it converges in a few iterations. Only the ranks that changed are written. Removed
+ * lineage edges leave no endpoints to start from, so they trigger a full recomputation.
+ */
+public class LineageRankJob {
+
+  static final double DAMPING = 0.85;
+  static final double TOLERANCE = 1e-9;
+  static final int MAX_ITERATIONS = 100;
+
+  // a PageRank is only written again when it changed by more than this fraction
+  private static final double RELATIVE_CHANGE = 1e-6;
+
+  // the number of rows fetched at a time while loading the lineage edges
+  private static final int FETCH_SIZE = 10000;
+
+  // refreshes from different requests must not interleave their reads and writes
+  private static final Object REFRESH_LOCK = new Object();
+
+  private final Database dbSource;
+  private final PostgresLineageRankDao lineageRankDao;
+  private final GraphAlgorithms algorithms;
+
+  public LineageRankJob(Database dbSource, GraphAlgorithms algorithms) {
+    this.dbSource = dbSource;
+    this.lineageRankDao = new PostgresLineageRankDao(dbSource);
+    this.algorithms = algorithms;
+  }
+
+  /**
+   * Bring the stored ranks up to date with the lineage edges.
+   *
+   * @param full recompute every rank, even if the lineage edges were only added to
+   * @return the number of ranks written or removed
+   * @throws GroundException an error while reading the lineage edges or writing the ranks
+   */
+  public int refresh(boolean full) throws GroundException {
+    synchronized (REFRESH_LOCK) {
+      long start = System.currentTimeMillis();
+
+      long[][] edges = this.loadEdges();
+      long[] edgeIds = edges[0];
+      long[] fromIds = edges[1];
+
+      CsrGraph graph = CsrGraph.of(edgeIds, fromIds, edges[2]);
+      Roaring64NavigableMap current = LongBitmaps.empty();
+      Arrays.stream(edgeIds).forEach(current::addLong);
+
+      Roaring64NavigableMap previous = full ? null : this.lineageRankDao.retrieveEdgeVersionIds();
+      Map<Long, LineageRank> stored = this.lineageRankDao.retrieveAll();
+      int vertexCount = graph.getVertexCount();
+
+      int[] affected;
+      if (previous == null || !LongBitmaps.andNot(previous, current).isEmpty()) {
+        affected = IntStream.range(0, vertexCount).toArray();
+      } else {
+        Roaring64NavigableMap added = LongBitmaps.andNot(current, previous);
+        if (added.isEmpty()) {
+          return 0;
+        }
+
+        // only the rich versions upstream of a new edge can reach more rich versions than before
+        int[] sources = IntStream.range(0, edgeIds.length).filter(i -> added.contains(edgeIds[i])).map(i -> graph.indexOf(fromIds[i])).toArray();
+        affected = this.algorithms.reachable(graph, sources, EdgeDirection.IN);
+      }
+
+      long[] downstreamCounts = new long[vertexCount];
+      double[] initial = previous == null ? null : new double[vertexCount];
+
+      for (int vertex = 0; vertex < vertexCount; vertex++) {
+        LineageRank rank = stored.get(graph.getVertexId(vertex));
+        downstreamCounts[vertex] = rank == null ? 0 : rank.getDownstreamCount();
+
+        if (initial != null) {
+          initial[vertex] = rank == null ? 1.0 / vertexCount : rank.getPageRank();
+        }
+      }
+
+      int[] counts = this.algorithms.reachCounts(graph, affected, EdgeDirection.OUT);
+      for (int i = 0; i < affected.length; i++) {
+        downstreamCounts[affected[i]] = counts[i];
+      }
+
+      double[] pageRanks = this.algorithms.pageRank(graph, DAMPING, TOLERANCE, MAX_ITERATIONS, initial);
+
+      List<LineageRank> changed = new ArrayList<>();
+      for (int vertex = 0; vertex < vertexCount; vertex++) {
+        LineageRank rank = stored.remove(graph.getVertexId(vertex));
+
+        if (rank == null || rank.getDownstreamCount() != downstreamCounts[vertex]
+              || Math.abs(rank.getPageRank() - pageRanks[vertex]) > RELATIVE_CHANGE * Math.max(rank.getPageRank(), pageRanks[vertex])) {
+          changed.add(new LineageRank(graph.getVertexId(vertex), downstreamCounts[vertex], pageRanks[vertex]));
+        }
+      }
+
+      // the ranks left over belong to rich versions that are no longer in the lineage graph
+      PostgresUtils.executeSqlList(this.dbSource, this.lineageRankDao.update(changed, stored.keySet(), current));
+
+      Logger.info("Lineage ranks refreshed in {} ms: {} edges, {} rich versions, {} recounted, {} written, {} removed.",
+        System.currentTimeMillis() - start, edgeIds.length, vertexCount, affected.length, changed.size(), stored.size());
+      return changed.size() + stored.size();
+    }
+  }
+
+  // reads every lineage edge version as three parallel arrays of ids, sources and targets
+  private long[][] loadEdges() throws GroundException {
+    long[] ids = new long[FETCH_SIZE];
+    long[] fromIds = new long[FETCH_SIZE];
+    long[] toIds = new long[FETCH_SIZE];
+    int count = 0;
+
+    try (Connection con = this.dbSource.getConnection()) {
+      // the driver only fetches rows in batches inside a transaction
+      con.setAutoCommit(false);
+      Statement stmt = con.createStatement();
+      stmt.setFetchSize(FETCH_SIZE);
+
+      ResultSet resultSet = stmt.executeQuery(SqlConstants.SELECT_LINEAGE_EDGE_ENDPOINTS);
+      while (resultSet.next()) {
+        if (count == ids.length) {
+          ids = Arrays.copyOf(ids, count * 2);
+          fromIds = Arrays.copyOf(fromIds, count * 2);
+          toIds = Arrays.copyOf(toIds, count * 2);
+        }
+
+        ids[count] = resultSet.getLong(1);
+        fromIds[count] = resultSet.getLong(2);
+        toIds[count] = resultSet.getLong(3);
+        count++;
+      }
+
+      con.commit();
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    return new long[][] {Arrays.copyOf(ids, count), Arrays.copyOf(fromIds, count), Arrays.copyOf(toIds, count)};
+  }
+}
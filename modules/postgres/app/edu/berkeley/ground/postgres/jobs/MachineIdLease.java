@@ -0,0 +1,182 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.jobs;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.util.MachineLease;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import play.Logger;
+import play.db.Database;
+
+/**
+ * A lease on an IdGenerator machine id in the machine_lease table. The lease is renewed on a daemon
+ * thread every third of its duration. This instance considers the lease held until its duration
+ * has passed since the last renewal was sent, which is never later than the database lets it
+ * expire, so another instance can only take the machine id once this one has stopped using it.
+ * A renewal that finds the lease taken ends it for good.
+ */
+public class MachineIdLease implements MachineLease, Runnable {
+
+  // how long to keep looking for a free machine id while other instances take the same ones
+  private static final long ACQUIRE_TIMEOUT_MILLIS = 30000;
+  // the longest pause between two attempts, chosen at random so that contending instances spread out
+  private static final long ACQUIRE_BACKOFF_MILLIS = 50;
+
+  private final Database dbSource;
+  private final int machineId;
+  private final String holder;
+  private final long leaseMillis;
+
+  private volatile long heldUntilNanos;
+  private volatile boolean running = true;
+  private Thread thread;
+
+  private MachineIdLease(Database dbSource, int machineId, String holder, long leaseMillis, long heldUntilNanos) {
+    this.dbSource = dbSource;
+    this.machineId = machineId;
+    this.holder = holder;
+    this.leaseMillis = leaseMillis;
+    this.heldUntilNanos = heldUntilNanos;
+  }
+
+  /**
+   * Lease the smallest machine id that no running instance holds. When other instances take the
+   * free machine ids first, the attempt is repeated until one is left to this instance or no
+   * machine id is free any more.
+   *
+   * @param dbSource the database with the machine_lease table
+   * @param numMachines the number of machine ids
+   * @param leaseMillis how long the lease lasts without renewal
+   * @return the lease
+   * @throws GroundException every machine id is leased, no free one could be taken in time, or an
+   *     error while taking one
+   */
+  public static MachineIdLease acquire(Database dbSource, long numMachines, long leaseMillis) throws GroundException {
+    String holder = UUID.randomUUID().toString();
+    String sql = String.format(SqlConstants.ACQUIRE_MACHINE_LEASE, holder, leaseMillis, numMachines - 1);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACQUIRE_TIMEOUT_MILLIS);
+
+    try (Connection con = dbSource.getConnection()) {
+      while (true) {
+        long sent = System.nanoTime();
+        ResultSet resultSet = con.createStatement().executeQuery(sql);
+
+        if (resultSet.next()) {
+          return new MachineIdLease(dbSource, resultSet.getInt(1), holder, leaseMillis, sent + TimeUnit.MILLISECONDS.toNanos(leaseMillis));
+        }
+
+        // another instance took the machine id this one chose, unless none is free
+        ResultSet free = con.createStatement().executeQuery(String.format(SqlConstants.COUNT_FREE_MACHINE_LEASES, numMachines - 1));
+        if (!free.next() || free.getLong(1) == 0) {
+          throw new GroundException(ExceptionType.OTHER, String.format("All %d machine ids are leased by running instances.", numMachines));
+        }
+
+        if (System.nanoTime() - deadline > 0) {
+          throw new GroundException(ExceptionType.OTHER, String.format("No free machine id could be leased within %d ms.",
+            ACQUIRE_TIMEOUT_MILLIS));
+        }
+
+        Thread.sleep(ThreadLocalRandom.current().nextLong(ACQUIRE_BACKOFF_MILLIS + 1));
+      }
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GroundException(e);
+    }
+  }
+
+  public int getMachineId() {
+    return this.machineId;
+  }
+
+  @Override
+  public boolean isHeld() {
+    return System.nanoTime() - this.heldUntilNanos < 0;
+  }
+
+  /**
+   * Start renewing the lease on a daemon thread.
+   */
+  public void start() {
+    this.thread = new Thread(this, "ground-machine-lease");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Stop renewing the lease, and give up the machine id.
+   */
+  public void stop() {
+    this.running = false;
+    this.heldUntilNanos = System.nanoTime();
+
+    if (this.thread != null) {
+      this.thread.interrupt();
+    }
+
+    try (Connection con = this.dbSource.getConnection()) {
+      con.createStatement().executeUpdate(String.format(SqlConstants.RELEASE_MACHINE_LEASE, this.machineId, this.holder));
+    } catch (SQLException e) {
+      Logger.warn("Could not release machine id {}; it is free once its lease expires.", this.machineId, e);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (this.running) {
+      try {
+        Thread.sleep(this.leaseMillis / 3);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      this.renew();
+    }
+  }
+
+  /**
+   * Extend the lease by its duration.
+   *
+   * @return false if the lease was lost, or could not be renewed
+   */
+  boolean renew() {
+    long sent = System.nanoTime();
+
+    try (Connection con = this.dbSource.getConnection()) {
+      int renewed = con.createStatement().executeUpdate(String.format(SqlConstants.RENEW_MACHINE_LEASE, this.leaseMillis, this.machineId,
+        this.holder));
+
+      if (renewed == 0) {
+        Logger.error("The lease on machine id {} was lost; no more ids will be generated.", this.machineId);
+        this.running = false;
+        this.heldUntilNanos = sent;
+        return false;
+      }
+
+      this.heldUntilNanos = sent + TimeUnit.MILLISECONDS.toNanos(this.leaseMillis);
+      return true;
+    } catch (SQLException e) {
+      // the lease runs out unless a later renewal succeeds in time
+      Logger.warn("Renewing the lease on machine id {} failed.", this.machineId, e);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.jobs;
+
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.util.WriteSpool;
+import edu.berkeley.ground.postgres.util.WriteSpool.Entry;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import play.Logger;
+import play.db.Database;
+
+/**
+ * Applies the writes in a {@link WriteSpool} to the database, in the order they were appended.
+ * Writes are applied in batches, each in one transaction, which also records the last write
+ * applied in spool_applied. After a crash, the writes that the spool still holds but the database
+ * already has are skipped, so every write is applied once.
+ *
+ * <p>A spooled write was already acknowledged, with its ids, so it is never dropped: only writes
+ * that cannot be rejected are spooled, and a batch that fails, because the database is unavailable
+ * or for any other reason, is logged and retried until it succeeds. Whether the applier is alive,
+ * and its last error, are shown at /spool.
+ */
+public class SpoolApplier implements Runnable {
+
+  // the number of writes applied in one transaction
+  private static final int BATCH_SIZE = 64;
+  // how long to wait before retrying after an error
+  private static final long RETRY_MILLIS = 1000;
+
+  private final WriteSpool spool;
+  private final Database dbSource;
+  private final long pollMillis;
+
+  // the last write the database is known to have, or -1 before it was read
+  private long applied = -1;
+
+  private volatile boolean running = true;
+  private Thread thread;
+
+  public SpoolApplier(WriteSpool spool, Database dbSource, long pollMillis) {
+    this.spool = spool;
+    this.dbSource = dbSource;
+    this.pollMillis = pollMillis;
+  }
+
+  /**
+   * Start applying on a daemon thread.
+   */
+  public void start() {
+    this.thread = new Thread(this, "ground-spool-applier");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Stop applying once the current batch is done. The writes left in the spool are applied after
+   * the next start.
+   */
+  public void stop() {
+    this.running = false;
+
+    if (this.thread != null) {
+      try {
+        this.thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    this.spool.setApplierRunning(true);
+
+    try {
+      while (this.running) {
+        try {
+          if (this.drain() == 0) {
+            this.spool.awaitEntries(this.pollMillis);
+          }
+        } catch (SQLException e) {
+          Logger.warn("Applying the write spool failed; {} writes are waiting, retrying in {} ms. Message: {}",
+            this.spool.getLagEntries(), RETRY_MILLIS, e.getMessage());
+          this.spool.setApplierError(e.getMessage());
+          this.sleep(RETRY_MILLIS);
+        } catch (RuntimeException e) {
+          // e.g. a record that cannot be read; the thread must outlive it, or the spool fills silently
+          Logger.error("Applying the write spool failed; {} writes are waiting, retrying in {} ms.",
+            this.spool.getLagEntries(), RETRY_MILLIS, e);
+          this.spool.setApplierError(e.toString());
+          this.sleep(RETRY_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    } finally {
+      this.spool.setApplierRunning(false);
+    }
+  }
+
+  /**
+   * Apply the oldest batch of writes in the spool.
+   *
+   * @return the number of writes taken from the spool
+   * @throws SQLException the database could not be reached, or the batch could not be committed
+   */
+  int drain() throws SQLException {
+    if (this.applied < 0) {
+      this.applied = this.readApplied();
+    }
+
+    List<Entry> entries = this.spool.peek(BATCH_SIZE);
+    if (entries.isEmpty()) {
+      return 0;
+    }
+
+    Entry last = entries.get(entries.size() - 1);
+
+    try (Connection con = this.dbSource.getConnection()) {
+      con.setAutoCommit(false);
+      Statement stmt = con.createStatement();
+
+      try {
+        for (Entry entry : entries) {
+          // applied before a crash, but not yet freed in the spool
+          if (entry.getSeq() <= this.applied) {
+            continue;
+          }
+
+          try {
+            for (String sql : entry.getStatements()) {
+              if (!sql.isEmpty()) {
+                Logger.debug("spoolApplier sql : {}", sql);
+                stmt.execute(sql);
+              }
+            }
+          } catch (SQLException e) {
+            if (!isTransient(e)) {
+              Logger.error("error:  spoolApplier could not apply write {}; it holds up the writes after it until it is applied. SQL : {} Message: {}",
+                entry.getSeq(), entry.getStatements(), e.getMessage());
+            }
+
+            throw e;
+          }
+        }
+
+        stmt.executeUpdate(String.format(SqlConstants.UPDATE_SPOOL_APPLIED, last.getSeq(), this.spool.getSpoolId()));
+        con.commit();
+      } catch (SQLException e) {
+        con.rollback();
+        throw e;
+      }
+
+      stmt.close();
+    }
+
+    this.applied = last.getSeq();
+    this.spool.markApplied(last);
+    this.spool.setApplierError(null);
+
+    for (Entry entry : entries) {
+      for (Runnable callback : this.spool.takeCallbacks(entry.getSeq())) {
+        try {
+          callback.run();
+        } catch (RuntimeException e) {
+          Logger.error("error:  commit callback failed Message: {} Trace: {}", e.getMessage(), e.getStackTrace());
+        }
+      }
+    }
+
+    return entries.size();
+  }
+
+  private long readApplied() throws SQLException {
+    try (Connection con = this.dbSource.getConnection()) {
+      Statement stmt = con.createStatement();
+      stmt.executeUpdate(String.format(SqlConstants.INSERT_SPOOL_APPLIED, this.spool.getSpoolId()));
+
+      ResultSet resultSet = stmt.executeQuery(String.format(SqlConstants.SELECT_SPOOL_APPLIED, this.spool.getSpoolId()));
+      return resultSet.next() ? resultSet.getLong(1) : 0;
+    }
+  }
+
+  // errors of the connection or the transaction rather than of the write, which may pass on retry
+  private static boolean isTransient(SQLException e) {
+    String state = e.getSQLState();
+    return state == null || state.startsWith("08") || state.startsWith("40") || state.startsWith("53") || state.startsWith("57");
+  }
+
+  private void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.running = false;
+    }
+  }
+}
@@ -1,15 +1,39 @@
 package edu.berkeley.ground.postgres.start;
 
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import edu.berkeley.ground.common.analytics.GraphAlgorithms;
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.postgres.dao.version.TagIndex;
+import edu.berkeley.ground.postgres.jobs.CacheEvictionListener;
+import edu.berkeley.ground.postgres.jobs.LineageRankJob;
+import edu.berkeley.ground.postgres.jobs.SpoolApplier;
+import edu.berkeley.ground.postgres.util.GroupCommitExecutor;
+import edu.berkeley.ground.postgres.util.ReplicaRouter;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.WriteSpool;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Clock;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import play.Logger;
 import play.api.Configuration;
+import play.cache.CacheApi;
+import play.db.DBApi;
 import play.db.Database;
 import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.FiniteDuration;
 
 @Singleton
 public class ApplicationStart {
@@ -17,7 +41,8 @@ public class ApplicationStart {
   private final Instant start;
 
   @Inject
-  public ApplicationStart(Clock clock, ApplicationLifecycle appLifecycle, final Configuration configuration, final Database dbSource)
+  public ApplicationStart(Clock clock, ApplicationLifecycle appLifecycle, final Configuration configuration, final Database dbSource,
+                          final ActorSystem actorSystem, final CacheApi cache, final DBApi dbApi)
     throws GroundException {
 
     this.start = clock.instant();
@@ -26,8 +51,165 @@ public class ApplicationStart {
     Logger.info("Queries will Cache for {} seconds.", configuration.underlying().getString("ground.cache.expire.secs"));
     System.setProperty("ground.cache.expire.secs", configuration.underlying().getString("ground.cache.expire.secs"));
 
+    if (configuration.underlying().hasPath("ground.tags.storage")) {
+      Logger.info("Tags will be stored as {}.", configuration.underlying().getString("ground.tags.storage"));
+      System.setProperty("ground.tags.storage", configuration.underlying().getString("ground.tags.storage"));
+    }
+
+    for (String property : new String[] {"ground.versions.hash.enabled", "ground.versions.deduplicate", "ground.tags.delta.enabled",
+      "ground.tags.delta.checkpoint", "ground.graphs.snapshot.interval",
+      "ground.graphs.edges.storage", "ground.graphs.analytics.cache.size", "ground.graphs.analytics.parallelism",
+      "ground.lineage.toposort.enabled", "ground.changes.enabled", "ground.changes.poll.millis"}) {
+      if (configuration.underlying().hasPath(property)) {
+        System.setProperty(property, configuration.underlying().getString(property));
+      }
+    }
+
+    if (configuration.underlying().hasPath("ground.db.replicas") && !configuration.underlying().getStringList("ground.db.replicas").isEmpty()) {
+      List<String> replicaNames = configuration.underlying().getStringList("ground.db.replicas");
+      Logger.info("Reads of GET requests will be routed to the replicas {}.", replicaNames);
+
+      List<Database> replicas = new ArrayList<>();
+      for (String name : replicaNames) {
+        replicas.add(dbApi.getDatabase(name));
+      }
+
+      ReplicaRouter.setInstance(new ReplicaRouter(dbSource, replicas));
+    }
+
+    List<Database> shards = new ArrayList<>();
+    if (configuration.underlying().hasPath("ground.db.shards") && !configuration.underlying().getStringList("ground.db.shards").isEmpty()) {
+      List<String> shardNames = configuration.underlying().getStringList("ground.db.shards");
+      Logger.info("Items will be spread over the shards {}, with the shard directory on {}.", shardNames, shardNames.get(0));
+
+      for (String name : shardNames) {
+        shards.add(dbApi.getDatabase(name));
+      }
+
+      // change log entries are written in the transaction of the write, so there is one log per shard
+      if (Boolean.getBoolean("ground.changes.enabled")) {
+        throw new GroundException(ExceptionType.OTHER, "The change log cannot follow writes spread over shards; set ground.changes.enabled "
+                                                         + "to false when ground.db.shards is set.");
+      }
+
+      ShardRouter.setInstance(new ShardRouter(shards));
+    }
+
+    if (configuration.underlying().hasPath("ground.tags.index.enabled") && configuration.underlying().getBoolean("ground.tags.index.enabled")) {
+      Logger.info("Tag queries will be answered from the in-memory tag index.");
+
+      // install the index before loading it, so that tags committed during the load are not lost
+      TagIndex tagIndex = new TagIndex();
+      TagIndex.setInstance(tagIndex);
+      tagIndex.load(shards.isEmpty() ? Collections.singletonList(dbSource) : shards);
+    }
+
+    List<GroupCommitExecutor> groupCommitExecutors = new ArrayList<>();
+    if (configuration.underlying().hasPath("ground.db.group.commit.enabled") && configuration.underlying().getBoolean("ground.db.group.commit.enabled")) {
+      long windowMillis = configuration.underlying().getLong("ground.db.group.commit.window.millis");
+      int maxStatements = configuration.underlying().getInt("ground.db.group.commit.max.statements");
+      Logger.info("Writes will be committed in groups gathered for up to {} ms or {} statements.", windowMillis, maxStatements);
+
+      List<Database> databases = new ArrayList<>(shards);
+      if (!shards.contains(dbSource)) {
+        databases.add(dbSource);
+      }
+
+      for (Database database : databases) {
+        GroupCommitExecutor executor = new GroupCommitExecutor(database, windowMillis, maxStatements);
+        GroupCommitExecutor.setInstance(database, executor);
+        groupCommitExecutors.add(executor);
+        executor.start();
+      }
+    }
+
+    List<SpoolApplier> spoolAppliers = new ArrayList<>();
+    List<WriteSpool> spools = new ArrayList<>();
+    if (configuration.underlying().hasPath("ground.spool.enabled") && configuration.underlying().getBoolean("ground.spool.enabled")) {
+      Path spoolDir = Paths.get(configuration.underlying().getString("ground.spool.dir"));
+      long capacityBytes = configuration.underlying().getLong("ground.spool.capacity.bytes");
+      long waitMillis = configuration.underlying().getLong("ground.spool.wait.millis");
+
+      try {
+        Files.createDirectories(spoolDir);
+      } catch (IOException e) {
+        throw new GroundException(e);
+      }
+
+      List<Database> databases = new ArrayList<>(shards);
+      if (!shards.contains(dbSource)) {
+        databases.add(dbSource);
+      }
+
+      for (Database database : databases) {
+        WriteSpool spool = WriteSpool.open(spoolDir.resolve(database.getName() + ".spool"), capacityBytes, waitMillis);
+        Logger.info("Writes to {} will be spooled to {}; {} writes from before the last stop are waiting.", database.getName(),
+          spoolDir.resolve(database.getName() + ".spool"), spool.getLagEntries());
+
+        SpoolApplier applier = new SpoolApplier(spool, database, 100);
+        WriteSpool.setInstance(database, spool);
+        spools.add(spool);
+        spoolAppliers.add(applier);
+        applier.start();
+      }
+    }
+
+    long rankInterval = configuration.underlying().hasPath("ground.lineage.rank.interval.secs")
+                          ? configuration.underlying().getLong("ground.lineage.rank.interval.secs") : 0;
+    Cancellable rankSchedule = null;
+
+    if (rankInterval > 0) {
+      Logger.info("Lineage ranks will be refreshed every {} seconds.", rankInterval);
+
+      LineageRankJob lineageRankJob = new LineageRankJob(dbSource, new GraphAlgorithms(new ForkJoinPool(
+        Integer.getInteger("ground.graphs.analytics.parallelism", Runtime.getRuntime().availableProcessors()))));
+      FiniteDuration interval = FiniteDuration.create(rankInterval, TimeUnit.SECONDS);
+
+      rankSchedule = actorSystem.scheduler().schedule(interval, interval, () -> {
+        try {
+          lineageRankJob.refresh(false);
+        } catch (GroundException e) {
+          Logger.error("Refreshing the lineage ranks failed.", e);
+        }
+      }, actorSystem.dispatchers().lookup("ground.db.context"));
+    }
+
+    List<CacheEvictionListener> cacheEvictionListeners = new ArrayList<>();
+    if (!configuration.underlying().hasPath("ground.cache.listen.enabled") || configuration.underlying().getBoolean("ground.cache.listen.enabled")) {
+      long pollMillis = configuration.underlying().hasPath("ground.cache.listen.poll.millis")
+                          ? configuration.underlying().getLong("ground.cache.listen.poll.millis") : 100;
+      Logger.info("Cache entries will be evicted when other instances commit writes, checking every {} ms.", pollMillis);
+
+      // notifications are only delivered to the listeners on the database they were sent on
+      if (!shards.contains(dbSource)) {
+        cacheEvictionListeners.add(new CacheEvictionListener(dbSource, cache, pollMillis));
+      }
+
+      for (Database shard : shards) {
+        cacheEvictionListeners.add(new CacheEvictionListener(shard, cache, pollMillis));
+      }
+
+      cacheEvictionListeners.forEach(CacheEvictionListener::start);
+    }
+
+    final Cancellable scheduledRanks = rankSchedule;
     appLifecycle.addStopHook(
       () -> {
+        if (scheduledRanks != null) {
+          scheduledRanks.cancel();
+        }
+
+        cacheEvictionListeners.forEach(CacheEvictionListener::stop);
+        groupCommitExecutors.forEach(GroupCommitExecutor::stop);
+        spoolAppliers.forEach(SpoolApplier::stop);
+        for (WriteSpool spool : spools) {
+          try {
+            spool.close();
+          } catch (IOException e) {
+            Logger.warn("Could not close the write spool {}.", spool.getSpoolId(), e);
+          }
+        }
+
         Instant stop = clock.instant();
         Long runningTime = stop.getEpochSecond() - this.start.getEpochSecond();
         Logger.info("Ground Postgres: Stopping application at " + clock.instant() + " after " + runningTime + "s.");
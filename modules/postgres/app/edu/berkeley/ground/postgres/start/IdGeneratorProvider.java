@@ -0,0 +1,169 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.start;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.util.IdGenerator;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.jobs.MachineIdLease;
+import edu.berkeley.ground.postgres.util.ShardRouter;
+import edu.berkeley.ground.postgres.util.ShardedDatabase;
+import edu.berkeley.ground.postgres.util.WriteSpool;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import play.Logger;
+import play.api.Configuration;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+
+/**
+ * Creates the IdGenerator of this instance. With ground.ids.lease.enabled, the machine id is leased
+ * from the database, and the generator continues after the largest ids an earlier holder of the
+ * machine id generated; otherwise the instance is ground.ids.machine.id, or machine 0.
+ *
+ * <p>When writes are spooled, the machine id cannot be leased: the ids of spooled writes are not in
+ * the database yet, so a new holder of the machine id would generate them again, and a lease that
+ * cannot be renewed while the database is down would stop the writes the spool is there to take.
+ * The generator instead continues after the largest of the ids in the database and those recorded
+ * in the spools, or after the latter alone if the database is down.
+ */
+public class IdGeneratorProvider implements Provider<IdGenerator> {
+
+  private final Configuration configuration;
+  private final Database dbSource;
+  private final ApplicationLifecycle appLifecycle;
+
+  // the shards, if any, are set up by ApplicationStart, which is created first
+  @Inject
+  public IdGeneratorProvider(final Configuration configuration, final Database dbSource, final ApplicationLifecycle appLifecycle,
+                             final ApplicationStart applicationStart) {
+    this.configuration = configuration;
+    this.dbSource = dbSource;
+    this.appLifecycle = appLifecycle;
+  }
+
+  @Override
+  public IdGenerator get() {
+    Collection<WriteSpool> spools = WriteSpool.getInstances().values();
+
+    if (!this.configuration.underlying().hasPath("ground.ids.lease.enabled") || !this.configuration.underlying().getBoolean("ground.ids.lease.enabled")) {
+      IdGenerator idGenerator;
+      if (this.configuration.underlying().hasPath("ground.ids.machine.id")) {
+        idGenerator = new IdGenerator(this.configuration.underlying().getLong("ground.ids.machine.id"),
+          this.configuration.underlying().getLong("ground.ids.machines"), true);
+      } else {
+        idGenerator = new IdGenerator();
+      }
+
+      if (!spools.isEmpty()) {
+        try {
+          this.resumeAfterSpools(idGenerator, spools);
+        } catch (GroundException e) {
+          throw new IllegalStateException(e.getMessage(), e);
+        }
+      }
+
+      return idGenerator;
+    }
+
+    // a spooled write holds ids the database does not have yet, and would outlive a lost lease
+    if (!spools.isEmpty()) {
+      throw new IllegalStateException("Writes are spooled, so the machine id cannot be leased; set ground.ids.lease.enabled = false "
+        + "and give every instance its own ground.ids.machine.id.");
+    }
+
+    long numMachines = this.configuration.underlying().getLong("ground.ids.machines");
+    long leaseMillis = this.configuration.underlying().getLong("ground.ids.lease.millis");
+
+    try {
+      MachineIdLease lease = MachineIdLease.acquire(this.dbSource, numMachines, leaseMillis);
+      IdGenerator idGenerator = new IdGenerator(lease.getMachineId(), numMachines, true, lease);
+
+      idGenerator.resumeAfter(this.getLastId("version", idGenerator), this.getLastId("version_successor", idGenerator),
+        this.getLastId("item", idGenerator));
+
+      lease.start();
+      this.appLifecycle.addStopHook(() -> {
+        lease.stop();
+        return CompletableFuture.completedFuture(null);
+      });
+
+      Logger.info("Leased machine id {} of {}, renewing the lease every {} ms.", lease.getMachineId(), numMachines, leaseMillis / 3);
+      return idGenerator;
+    } catch (GroundException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+
+  // continue after the largest ids in the database and in the spools, which may hold ids the database
+  // does not have yet, and record every id generated from now on in the spools
+  private void resumeAfterSpools(IdGenerator idGenerator, Collection<WriteSpool> spools) throws GroundException {
+    long spooledId = 0;
+    for (WriteSpool spool : spools) {
+      spooledId = Math.max(spooledId, spool.getIssuedId());
+    }
+
+    long lastVersionId;
+    long lastSuccessorId;
+    long lastItemId;
+
+    try {
+      lastVersionId = Math.max(spooledId, this.getLastId("version", idGenerator));
+      lastSuccessorId = Math.max(spooledId, this.getLastId("version_successor", idGenerator));
+      lastItemId = Math.max(spooledId, this.getLastId("item", idGenerator));
+    } catch (GroundException e) {
+      // the spools recorded the largest id of the database when they were first opened
+      if (spooledId == 0) {
+        throw e;
+      }
+
+      Logger.warn("The database is unavailable; continuing after id {}, the largest one recorded in the write spools.", spooledId);
+      lastVersionId = spooledId;
+      lastSuccessorId = spooledId;
+      lastItemId = spooledId;
+    }
+
+    idGenerator.resumeAfter(lastVersionId, lastSuccessorId, lastItemId);
+
+    long lastId = Math.max(lastVersionId, Math.max(lastSuccessorId, lastItemId));
+    for (WriteSpool spool : spools) {
+      spool.recordIssuedId(lastId);
+    }
+
+    idGenerator.setListener(id -> spools.forEach(spool -> spool.recordIssuedId(id)));
+  }
+
+  // the largest id in the generator's range on any shard, or 0
+  private long getLastId(String table, IdGenerator idGenerator) throws GroundException {
+    long lastId = 0;
+
+    for (Database database : ShardRouter.databases(new ShardedDatabase(this.dbSource))) {
+      try (Connection con = database.getConnection()) {
+        ResultSet resultSet = con.createStatement().executeQuery(String.format(SqlConstants.SELECT_MAX_ID_IN_RANGE, table,
+          idGenerator.getFirstId(), idGenerator.getLastId()));
+
+        if (resultSet.next() && resultSet.getObject(1) != null) {
+          lastId = lastId == 0 ? resultSet.getLong(1) : Math.max(lastId, resultSet.getLong(1));
+        }
+      } catch (SQLException e) {
+        throw new GroundException(e);
+      }
+    }
+
+    return lastId;
+  }
+}
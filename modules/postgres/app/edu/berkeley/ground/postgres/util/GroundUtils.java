@@ -2,10 +2,13 @@ package edu.berkeley.ground.postgres.util;
 
 import static play.mvc.Results.badRequest;
 import static play.mvc.Results.internalServerError;
+import static play.mvc.Results.ok;
+import static play.mvc.Results.status;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.berkeley.ground.common.dao.version.ItemDao;
 import edu.berkeley.ground.common.dao.version.VersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
@@ -15,23 +18,36 @@ import edu.berkeley.ground.common.model.core.Node;
 import edu.berkeley.ground.common.model.core.Structure;
 import edu.berkeley.ground.common.model.usage.LineageEdge;
 import edu.berkeley.ground.common.model.usage.LineageGraph;
+import edu.berkeley.ground.common.model.version.TagPredicate;
 import edu.berkeley.ground.common.util.IdGenerator;
+import edu.berkeley.ground.postgres.dao.core.PostgresEdgeDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresEdgeVersionDao;
+import edu.berkeley.ground.postgres.dao.core.PostgresGraphDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresGraphVersionDao;
+import edu.berkeley.ground.postgres.dao.core.PostgresNodeDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresNodeVersionDao;
+import edu.berkeley.ground.postgres.dao.core.PostgresStructureDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresStructureVersionDao;
+import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeVersionDao;
+import edu.berkeley.ground.postgres.dao.usage.PostgresLineageGraphDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageGraphVersionDao;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import play.Logger;
+import play.cache.CacheApi;
 import play.db.Database;
 import play.libs.Json;
+import play.mvc.Http.HeaderNames;
 import play.mvc.Http.Request;
+import play.mvc.Http.Status;
 import play.mvc.Result;
 
 public final class GroundUtils {
@@ -40,13 +56,15 @@ public final class GroundUtils {
   }
 
   public static Result handleException(Throwable e, Request request) {
-    System.out.println(e.getClass().getSimpleName());
-    System.out.println(e.getCause().getClass().getSimpleName());
-    System.out.println(e.getCause().getCause().getClass().getSimpleName());
-    if (e.getCause().getCause() instanceof GroundException) {
-      return badRequest(GroundUtils.getClientError(request, e.getCause().getCause(), ExceptionType.ITEM_NOT_FOUND));
+    Throwable cause = e;
+    while (!(cause instanceof GroundException) && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+
+    if (cause instanceof GroundException) {
+      return badRequest(GroundUtils.getClientError(request, cause, ExceptionType.ITEM_NOT_FOUND));
     } else {
-      return internalServerError(GroundUtils.getServerError(request, e.getCause().getCause()));
+      return internalServerError(GroundUtils.getServerError(request, cause));
     }
   }
 
@@ -82,6 +100,57 @@ public final class GroundUtils {
     }
   }
 
+  /**
+   * Look up the content hash of a version through the cache, next to the cached version. Versions
+   * never change, so neither does their hash.
+   *
+   * @param cache the cache
+   * @param cacheKey the cache key of the version, e.g. node_versions.42
+   * @param lookup the lookup of the hash in the database
+   * @return the hash, or null if the version has none
+   * @throws Exception an error while looking up the hash
+   */
+  public static String getContentHash(CacheApi cache, String cacheKey, Callable<String> lookup) throws Exception {
+    // a missing hash is cached as an empty string, since the cache does not keep nulls
+    String contentHash = cache.getOrElse(cacheKey + ".hash", () -> {
+      String hash = lookup.call();
+      return hash == null ? "" : hash;
+    }, Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+
+    return contentHash.isEmpty() ? null : contentHash;
+  }
+
+  /**
+   * Respond with a rich version, using its content hash as the ETag. Versions never change, so when
+   * the client already holds the hash in If-None-Match the response is a 304 and the version is not
+   * loaded at all.
+   *
+   * @param request the request
+   * @param contentHash the content hash of the version, or null if it has none
+   * @param body loads the JSON of the version
+   * @return the response
+   * @throws Exception an error while loading the version
+   */
+  public static Result versionWithETag(Request request, String contentHash, Callable<JsonNode> body) throws Exception {
+    if (contentHash == null) {
+      return ok(body.call());
+    }
+
+    String etag = "\"" + contentHash.trim() + "\"";
+    String ifNoneMatch = request.getHeader(HeaderNames.IF_NONE_MATCH);
+
+    if (ifNoneMatch != null) {
+      for (String candidate : ifNoneMatch.split(",")) {
+        String tag = candidate.trim();
+        if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+          return status(Status.NOT_MODIFIED).withHeader(HeaderNames.ETAG, etag);
+        }
+      }
+    }
+
+    return ok(body.call()).withHeader(HeaderNames.ETAG, etag);
+  }
+
   public static List<Long> getListFromJson(JsonNode jsonNode, String fieldName) {
     List<Long> parents = new ArrayList<>();
     JsonNode listNode = jsonNode.get(fieldName);
@@ -93,6 +162,126 @@ public final class GroundUtils {
     return parents;
   }
 
+  /**
+   * Parse the tag predicates of a query string. Each "tag" parameter is a tag key; the "value",
+   * "op" and "type" parameters are matched to the tags by position, so that the query
+   * ?tag=a&value=1&tag=b&value=2 matches a = 1 and b = 2. Tags without a value match on key only.
+   *
+   * @param queryString the request's query string
+   * @return the parsed predicates
+   * @throws GroundException no tag was given or a predicate could not be parsed
+   */
+  public static List<TagPredicate> getTagPredicatesFromQuery(Map<String, String[]> queryString) throws GroundException {
+    String[] keys = queryString.getOrDefault("tag", new String[0]);
+    String[] values = queryString.getOrDefault("value", new String[0]);
+    String[] operators = queryString.getOrDefault("op", new String[0]);
+    String[] types = queryString.getOrDefault("type", new String[0]);
+
+    if (keys.length == 0) {
+      throw new GroundException(ExceptionType.OTHER, "At least one tag has to be specified.");
+    }
+
+    List<TagPredicate> predicates = new ArrayList<>();
+    for (int i = 0; i < keys.length; i++) {
+      predicates.add(TagPredicate.fromStrings(keys[i], getAt(operators, i), getAt(values, i), getAt(types, i)));
+    }
+
+    return predicates;
+  }
+
+  /**
+   * Parse a numeric query string parameter.
+   *
+   * @param queryString the request's query string
+   * @param name the name of the parameter
+   * @param defaultValue the value to use if the parameter is missing
+   * @return the value of the parameter
+   * @throws GroundException the parameter is not a number
+   */
+  public static long getLongFromQuery(Map<String, String[]> queryString, String name, long defaultValue) throws GroundException {
+    String value = getAt(queryString.get(name), 0);
+
+    if (value == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Invalid value for %s: %s.", name, value));
+    }
+  }
+
+  /**
+   * Add the full edge versions to the changed edges of a graph version diff, as fromEdgeVersion
+   * and toEdgeVersion.
+   *
+   * @param diff the JSON of the diff
+   * @param hydrator loads the JSON of an edge version
+   * @return the diff
+   * @throws GroundException an error while loading an edge version
+   */
+  public static JsonNode hydrateChangedEdges(JsonNode diff, KeysetStream.Hydrator hydrator) throws GroundException {
+    for (JsonNode changed : diff.get("changed")) {
+      ((ObjectNode) changed).set("fromEdgeVersion", hydrator.hydrate(changed.get("fromEdgeVersionId").asLong()));
+      ((ObjectNode) changed).set("toEdgeVersion", hydrator.hydrate(changed.get("toEdgeVersionId").asLong()));
+    }
+
+    return diff;
+  }
+
+  /**
+   * Parse an ISO-8601 instant, such as 2017-06-01T12:00:00Z, from a query string.
+   *
+   * @param queryString the request's query string
+   * @param name the name of the parameter
+   * @return the instant, or null if the parameter is absent
+   * @throws GroundException the parameter is not an instant
+   */
+  public static Instant getInstantFromQuery(Map<String, String[]> queryString, String name) throws GroundException {
+    String value = getAt(queryString.get(name), 0);
+
+    if (value == null) {
+      return null;
+    }
+
+    try {
+      return Instant.parse(value);
+    } catch (DateTimeParseException e) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Invalid value for %s: %s.", name, value));
+    }
+  }
+
+  public static boolean getBooleanFromQuery(Map<String, String[]> queryString, String name) {
+    return Boolean.parseBoolean(getAt(queryString.get(name), 0));
+  }
+
+  private static String getAt(String[] values, int index) {
+    if (values == null || index >= values.length || values[index].isEmpty()) {
+      return null;
+    }
+
+    return values[index];
+  }
+
+  public static ItemDao<?> getItemDaoFromItemType(Class<?> klass, Database dbSource, IdGenerator idGenerator) throws GroundException {
+    if (klass.equals(Node.class)) {
+      return new PostgresNodeDao(dbSource, idGenerator);
+    } else if (klass.equals(Edge.class)) {
+      return new PostgresEdgeDao(dbSource, idGenerator);
+    } else if (klass.equals(Graph.class)) {
+      return new PostgresGraphDao(dbSource, idGenerator);
+    } else if (klass.equals(Structure.class)) {
+      return new PostgresStructureDao(dbSource, idGenerator);
+    } else if (klass.equals(LineageEdge.class)) {
+      return new PostgresLineageEdgeDao(dbSource, idGenerator);
+    } else if (klass.equals(LineageGraph.class)) {
+      return new PostgresLineageGraphDao(dbSource, idGenerator);
+    } else {
+      throw new GroundException(ExceptionType.OTHER, String.format("Unknown class :%s.", klass.getSimpleName()));
+    }
+  }
+
   public static VersionDao<?> getVersionDaoFromItemType(Class<?> klass, Database dbSource, IdGenerator idGenerator) throws GroundException {
     if (klass.equals(Node.class)) {
       return new PostgresNodeVersionDao(dbSource, idGenerator);
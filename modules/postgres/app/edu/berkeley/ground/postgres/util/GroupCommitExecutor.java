@@ -0,0 +1,281 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import play.Logger;
+import play.db.Database;
+
+/**
+ * Commits the writes of concurrent requests to one database together, so that they share the cost
+ * of a commit. The statements of the requests that arrive within a window are run in one
+ * transaction, each under a savepoint, and every request returns once that transaction has been
+ * committed.
+ *
+ * <p>A request whose statements fail is rolled back to its savepoint without affecting the others,
+ * and is run again in a transaction of its own once the group has been committed; its error is
+ * only reported if it fails again. If the shared transaction is rolled back by the database before
+ * it is committed, e.g. on a serialization failure or a deadlock, every request in it is run on its
+ * own. Any other failure fails every request of the group, since the commit may have taken effect.
+ */
+public class GroupCommitExecutor implements Runnable {
+
+  // how long the committer waits for the first request of a group before checking if it was stopped
+  private static final long IDLE_MILLIS = 100;
+
+  private static final Map<Database, GroupCommitExecutor> instances = new ConcurrentHashMap<>();
+
+  private final Database dbSource;
+  private final long windowNanos;
+  private final int maxStatements;
+  private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+
+  private volatile boolean running = true;
+  private Thread thread;
+
+  public GroupCommitExecutor(Database dbSource, long windowMillis, int maxStatements) {
+    this.dbSource = dbSource;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.maxStatements = maxStatements;
+  }
+
+  /**
+   * Return the executor that commits the writes to a database, or null if they are committed one
+   * request at a time.
+   *
+   * @param dbSource the database
+   * @return the executor
+   */
+  public static GroupCommitExecutor getInstance(Database dbSource) {
+    return instances.get(dbSource);
+  }
+
+  public static void setInstance(Database dbSource, GroupCommitExecutor executor) {
+    if (executor == null) {
+      instances.remove(dbSource);
+    } else {
+      instances.put(dbSource, executor);
+    }
+  }
+
+  /**
+   * Start committing on a daemon thread.
+   */
+  public void start() {
+    this.thread = new Thread(this, "ground-group-commit");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Stop taking requests, and wait for the requests already taken to be committed. Requests made
+   * after this are committed on their own.
+   */
+  public void stop() {
+    synchronized (this.queue) {
+      this.running = false;
+    }
+
+    if (this.thread != null) {
+      try {
+        this.thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Run the statements of a request in a transaction, and return once it has been committed.
+   *
+   * @param statements the statements
+   * @throws GroundException an error while running the statements
+   */
+  public void execute(List<String> statements) throws GroundException {
+    Batch batch = new Batch(statements);
+
+    boolean queued;
+
+    // the committer takes every request queued before it was stopped
+    synchronized (this.queue) {
+      queued = this.running && this.queue.add(batch);
+    }
+
+    if (!queued) {
+      this.executeAlone(batch);
+    }
+
+    try {
+      batch.result.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof GroundException ? (GroundException) e.getCause() : new GroundException((Exception) e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GroundException(e);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (this.running || !this.queue.isEmpty()) {
+      try {
+        Batch first = this.queue.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+
+        List<Batch> group = new ArrayList<>();
+        group.add(first);
+        int statementCount = first.statements.size();
+        long deadline = System.nanoTime() + this.windowNanos;
+
+        while (statementCount < this.maxStatements) {
+          Batch next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+
+          group.add(next);
+          statementCount += next.statements.size();
+        }
+
+        this.commit(group);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        this.running = false;
+
+        // nobody else takes the requests already queued, so they are committed one by one
+        for (Batch batch = this.queue.poll(); batch != null; batch = this.queue.poll()) {
+          this.executeAlone(batch);
+        }
+      }
+    }
+  }
+
+  /**
+   * Run the requests of a group in one transaction.
+   *
+   * @param group the requests, in the order they arrived
+   */
+  void commit(List<Batch> group) {
+    List<Batch> failed = new ArrayList<>();
+    boolean commitSent = false;
+
+    try (Connection con = this.dbSource.getConnection()) {
+      con.setAutoCommit(false);
+      Statement stmt = con.createStatement();
+
+      try {
+        for (Batch batch : group) {
+          stmt.execute(SqlConstants.SAVEPOINT_GROUP_COMMIT);
+
+          try {
+            for (String sql : batch.statements) {
+              Logger.debug("groupCommit sql : {}", sql);
+              stmt.execute(sql);
+            }
+
+            stmt.execute(SqlConstants.RELEASE_GROUP_COMMIT);
+          } catch (SQLException e) {
+            stmt.execute(SqlConstants.ROLLBACK_GROUP_COMMIT);
+            failed.add(batch);
+          }
+        }
+
+        commitSent = true;
+        con.commit();
+      } catch (SQLException e) {
+        con.rollback();
+        throw e;
+      }
+
+      stmt.close();
+    } catch (SQLException e) {
+      if (!commitSent && isRollback(e)) {
+        Logger.warn("Committing a group of {} requests was rolled back; committing them one by one. Message: {}", group.size(), e.getMessage());
+        group.forEach(this::executeAlone);
+      } else {
+        // the outcome of the commit is unknown, so running the requests again could apply them twice
+        Logger.error("error:  groupCommit of {} requests failed Message: {} Trace: {}", group.size(), e.getMessage(), e.getStackTrace());
+        group.forEach(batch -> batch.result.completeExceptionally(new GroundException(e)));
+      }
+
+      return;
+    }
+
+    for (Batch batch : group) {
+      if (failed.contains(batch)) {
+        // the error may have been caused by another request of the group, so it is tried again
+        this.executeAlone(batch);
+      } else {
+        batch.result.complete(null);
+      }
+    }
+  }
+
+  private void executeAlone(Batch batch) {
+    try (Connection con = this.dbSource.getConnection()) {
+      con.setAutoCommit(false);
+      Statement stmt = con.createStatement();
+
+      try {
+        for (String sql : batch.statements) {
+          Logger.debug("groupCommit sql : {}", sql);
+          stmt.execute(sql);
+        }
+
+        con.commit();
+      } catch (SQLException e) {
+        con.rollback();
+        throw e;
+      }
+
+      stmt.close();
+      batch.result.complete(null);
+    } catch (SQLException e) {
+      Logger.error("error:  groupCommit SQL : {} Message: {} Trace: {}", batch.statements, e.getMessage(), e.getStackTrace());
+      batch.result.completeExceptionally(new GroundException(e));
+    }
+  }
+
+  // serialization failures and deadlocks, after which the database has rolled the transaction back
+  private static boolean isRollback(SQLException e) {
+    return e.getSQLState() != null && e.getSQLState().startsWith("40");
+  }
+
+  static class Batch {
+
+    private final List<String> statements;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    Batch(List<String> statements) {
+      this.statements = statements;
+    }
+
+    CompletableFuture<Void> getResult() {
+      return this.result;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.berkeley.ground.common.exception.GroundException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import play.libs.Json;
+
+/**
+ * Streams one page of a keyset-paginated id query as a JSON document of the form
+ * {"results": [...], "next": id}. The page is read from the database in small batches, each on its
+ * own connection, so a large page never holds a pooled connection for the whole response.
+ */
+public final class KeysetStream {
+
+  @FunctionalInterface
+  public interface PageFetcher {
+
+    List<Long> fetch(long afterId, int limit) throws GroundException;
+  }
+
+  @FunctionalInterface
+  public interface Hydrator {
+
+    JsonNode hydrate(long id) throws GroundException;
+  }
+
+  private static final int BATCH_SIZE = 500;
+
+  private KeysetStream() {
+  }
+
+  /**
+   * Create the stream for a page. The first batch is fetched eagerly so that query errors are
+   * reported before the response is started.
+   *
+   * @param fetcher the keyset query
+   * @param hydrator converts an id into the JSON to return, or null to return the ids themselves
+   * @param afterId the id to resume after
+   * @param limit the maximum number of results in the page
+   * @param executor the executor to run database calls on
+   * @return the JSON document, in chunks
+   * @throws GroundException an error while fetching the first batch
+   */
+  public static Source<ByteString, NotUsed> stream(PageFetcher fetcher, Hydrator hydrator, long afterId, int limit, Executor executor)
+    throws GroundException {
+
+    int requested = Math.min(BATCH_SIZE, limit);
+    State initial = new State(afterId, 0, fetcher.fetch(afterId, requested), requested, false);
+
+    return Source.unfoldAsync(initial, state -> CompletableFuture.supplyAsync(() -> {
+      try {
+        return next(state, fetcher, hydrator, limit);
+      } catch (GroundException e) {
+        throw new CompletionException(e);
+      }
+    }, executor));
+  }
+
+  private static Optional<Pair<State, ByteString>> next(State state, PageFetcher fetcher, Hydrator hydrator, int limit)
+    throws GroundException {
+
+    if (state.done) {
+      return Optional.empty();
+    }
+
+    List<Long> batch = state.pending;
+    int requested = state.requested;
+
+    if (batch == null) {
+      requested = Math.min(BATCH_SIZE, limit - state.emitted);
+      batch = requested > 0 ? fetcher.fetch(state.cursor, requested) : null;
+    }
+
+    StringBuilder chunk = new StringBuilder();
+    if (state.emitted == 0 && state.pending != null) {
+      chunk.append("{\"results\":[");
+    }
+
+    if (batch == null || batch.isEmpty()) {
+      String next = state.emitted == limit ? String.valueOf(state.cursor) : "null";
+      chunk.append("],\"next\":").append(next).append("}");
+
+      return Optional.of(Pair.create(new State(state.cursor, state.emitted, null, 0, true), ByteString.fromString(chunk.toString())));
+    }
+
+    int emitted = state.emitted;
+    for (long id : batch) {
+      if (emitted > 0) {
+        chunk.append(',');
+      }
+
+      chunk.append(hydrator == null ? String.valueOf(id) : Json.stringify(hydrator.hydrate(id)));
+      emitted++;
+    }
+
+    long cursor = batch.get(batch.size() - 1);
+    if (batch.size() < requested) {
+      // the query is exhausted, so there is no next page
+      chunk.append("],\"next\":null}");
+      return Optional.of(Pair.create(new State(cursor, emitted, null, 0, true), ByteString.fromString(chunk.toString())));
+    }
+
+    return Optional.of(Pair.create(new State(cursor, emitted, null, 0, false), ByteString.fromString(chunk.toString())));
+  }
+
+  private static class State {
+
+    private final long cursor;
+    private final int emitted;
+    private final List<Long> pending;
+    private final int requested;
+    private final boolean done;
+
+    State(long cursor, int emitted, List<Long> pending, int requested, boolean done) {
+      this.cursor = cursor;
+      this.emitted = emitted;
+      this.pending = pending;
+      this.requested = requested;
+      this.done = done;
+    }
+  }
+}
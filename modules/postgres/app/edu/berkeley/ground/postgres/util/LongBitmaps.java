@@ -0,0 +1,145 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+/**
+ * Helpers for compressed bitmaps of ids. Ids are ordered as signed longs, the same way the
+ * database orders them.
+ */
+public final class LongBitmaps {
+
+  private LongBitmaps() {
+  }
+
+  public static Roaring64NavigableMap empty() {
+    return new Roaring64NavigableMap(true);
+  }
+
+  /**
+   * Create a bitmap of the given ids.
+   *
+   * @param ids the ids
+   * @return a new bitmap
+   */
+  public static Roaring64NavigableMap of(Collection<Long> ids) {
+    Roaring64NavigableMap bitmap = empty();
+    ids.forEach(bitmap::addLong);
+    return bitmap;
+  }
+
+  /**
+   * Copy a bitmap, so that the copy can be modified.
+   *
+   * @param bitmap the bitmap to copy
+   * @return a new bitmap with the same ids
+   */
+  public static Roaring64NavigableMap copy(Roaring64NavigableMap bitmap) {
+    Roaring64NavigableMap result = empty();
+    result.or(bitmap);
+    return result;
+  }
+
+  /**
+   * Return the ids that are in one bitmap but not in another.
+   *
+   * @param bitmap the ids to keep
+   * @param excluded the ids to exclude
+   * @return a new bitmap
+   */
+  public static Roaring64NavigableMap andNot(Roaring64NavigableMap bitmap, Roaring64NavigableMap excluded) {
+    Roaring64NavigableMap result = copy(bitmap);
+    result.andNot(excluded);
+    return result;
+  }
+
+  /**
+   * List the ids of a bitmap.
+   *
+   * @param bitmap the bitmap
+   * @return the ids in ascending order
+   */
+  public static List<Long> toList(Roaring64NavigableMap bitmap) {
+    List<Long> ids = new ArrayList<>((int) bitmap.getLongCardinality());
+    LongIterator iterator = bitmap.getLongIterator();
+
+    while (iterator.hasNext()) {
+      ids.add(iterator.next());
+    }
+
+    return ids;
+  }
+
+  /**
+   * Serialize a bitmap, after compressing runs of consecutive ids.
+   *
+   * @param bitmap the bitmap; it may be modified by run compression but keeps the same ids
+   * @return the serialized bitmap
+   */
+  public static byte[] serialize(Roaring64NavigableMap bitmap) {
+    bitmap.runOptimize();
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) bitmap.serializedSizeInBytes());
+      bitmap.serialize(new DataOutputStream(bytes));
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      // writing to memory can't fail
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Deserialize a bitmap written by serialize.
+   *
+   * @param bytes the serialized bitmap
+   * @return the bitmap
+   * @throws GroundException the bytes are not a valid bitmap
+   */
+  public static Roaring64NavigableMap deserialize(byte[] bytes) throws GroundException {
+    Roaring64NavigableMap bitmap = empty();
+
+    try {
+      bitmap.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+    } catch (IOException e) {
+      throw new GroundException(e);
+    }
+
+    return bitmap;
+  }
+
+  /**
+   * Format a bitmap as a bytea literal.
+   *
+   * @param bitmap the bitmap
+   * @return the SQL expression of the serialized bitmap
+   */
+  public static String toSqlLiteral(Roaring64NavigableMap bitmap) {
+    StringBuilder literal = new StringBuilder("decode(\'");
+    for (byte b : serialize(bitmap)) {
+      literal.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+
+    return literal.append("\', \'hex\')").toString();
+  }
+}
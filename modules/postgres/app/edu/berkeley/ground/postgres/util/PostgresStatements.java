@@ -1,13 +1,26 @@
 package edu.berkeley.ground.postgres.util;
 
 import edu.berkeley.ground.common.util.DbStatements;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class PostgresStatements implements DbStatements<String> {
 
   List<String> statements;
 
+  // callbacks to run once the statements have been committed
+  private final List<Runnable> commitCallbacks = new ArrayList<>();
+
+  // change log entries; they are written after every other statement, so that the change log lock
+  // is only held until the commit
+  private final List<String> changes = new ArrayList<>();
+
+  // the ids these statements create, if they may be acknowledged once they are in a write spool
+  private List<Long> spooledIds;
+
   public PostgresStatements() {
     this.statements = new ArrayList<>();
   }
@@ -23,11 +36,86 @@ public class PostgresStatements implements DbStatements<String> {
 
   @Override
   public void merge(DbStatements other) {
-    this.statements.addAll(other.getAllStatements());
+    if (other instanceof PostgresStatements) {
+      this.statements.addAll(((PostgresStatements) other).statements);
+      this.changes.addAll(((PostgresStatements) other).changes);
+      this.commitCallbacks.addAll(((PostgresStatements) other).commitCallbacks);
+    } else {
+      this.statements.addAll(other.getAllStatements());
+    }
+  }
+
+  /**
+   * Evict a cache entry on every Ground instance once the statements have been committed.
+   *
+   * @param cacheKey the key of the entry, e.g. node_versions.42
+   */
+  public void evict(String cacheKey) {
+    this.statements.add(String.format(SqlConstants.NOTIFY_CACHE_EVICTION, cacheKey));
+  }
+
+  /**
+   * Record the creation of an item or a version in the change log, in the same transaction as the
+   * statements. Nothing is recorded unless ground.changes.enabled is set.
+   *
+   * @param entityType the type of what was created, e.g. node or node_version
+   * @param entityId the id of what was created
+   * @param itemId the item a version belongs to, or null for an item
+   * @param parentIds the parents of a version
+   */
+  public void recordChange(String entityType, long entityId, Long itemId, List<Long> parentIds) {
+    if (!Boolean.getBoolean("ground.changes.enabled")) {
+      return;
+    }
+
+    String parents = parentIds.stream().filter(id -> id != 0L).map(String::valueOf).collect(Collectors.joining(","));
+    this.changes.add(String.format(SqlConstants.INSERT_CHANGE, entityType, entityId, itemId == null ? "NULL" : itemId.toString(), parents));
+  }
+
+  /**
+   * Register a callback to run after the statements have been committed. Callbacks are carried
+   * along when these statements are merged into another set, and are never run on rollback.
+   *
+   * @param callback the callback to run
+   */
+  public void onCommit(Runnable callback) {
+    this.commitCallbacks.add(callback);
+  }
+
+  public List<Runnable> getCommitCallbacks() {
+    return this.commitCallbacks;
+  }
+
+  /**
+   * Let these statements be acknowledged once they are in a write spool, before the database has
+   * them. Only a write that creates a new version may be spooled, and only if the versions it read
+   * were applied first (see {@link PostgresUtils#awaitSpooled(java.util.Collection)}), so that it
+   * is never rejected once acknowledged. Not carried along by {@link #merge(DbStatements)}.
+   *
+   * @param createdId the id of the version the statements create
+   */
+  public void allowSpooling(long createdId) {
+    this.spooledIds = Collections.singletonList(createdId);
+  }
+
+  /**
+   * The ids these statements create, if they may be spooled.
+   *
+   * @return the ids, or null if the statements have to run on the database
+   */
+  public List<Long> getSpooledIds() {
+    return this.spooledIds;
   }
 
   @Override
   public List<String> getAllStatements() {
-    return this.statements;
+    if (this.changes.isEmpty()) {
+      return this.statements;
+    }
+
+    List<String> statements = new ArrayList<>(this.statements);
+    statements.add(SqlConstants.LOCK_CHANGE_LOG);
+    statements.addAll(this.changes);
+    return statements;
   }
 }
@@ -20,6 +20,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,11 +38,27 @@ public final class PostgresUtils {
     return HttpExecution.fromThread((Executor) actorSystem.dispatchers().lookup("ground.db.context"));
   }
 
+  /**
+   * The database to run a query on: a read replica if reads of the current request are routed to
+   * one, or dbSource itself. A sharded dbSource is first resolved to the current shard.
+   *
+   * @param dbSource the database the query was issued against
+   * @return the database to run it on
+   */
+  public static Database readSource(Database dbSource) {
+    if (dbSource instanceof ShardedDatabase) {
+      dbSource = ((ShardedDatabase) dbSource).current();
+    }
+
+    ReplicaRouter router = ReplicaRouter.getInstance();
+    return router != null && router.getPrimary() == dbSource ? router.forRead() : dbSource;
+  }
+
   public static String executeQueryToJson(Database dbSource, String sql) throws GroundException {
     Logger.debug("executeQueryToJson: {}", sql);
 
     try {
-      Connection con = dbSource.getConnection();
+      Connection con = readSource(dbSource).getConnection();
       Statement stmt = con.createStatement();
 
       final ResultSet resultSet = stmt.executeQuery(sql);
@@ -68,9 +85,81 @@ public final class PostgresUtils {
     }
   }
 
+  /**
+   * Run a query whose first column is an id.
+   *
+   * @param dbSource the database to query
+   * @param sql the query
+   * @return the ids, in the order of the query
+   * @throws GroundException an error while running the query
+   */
+  public static List<Long> executeQueryToIds(Database dbSource, String sql) throws GroundException {
+    Logger.debug("executeQueryToIds: {}", sql);
+    List<Long> ids = new ArrayList<>();
+
+    try (Connection con = readSource(dbSource).getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(sql);
+
+      while (resultSet.next()) {
+        ids.add(resultSet.getLong(1));
+      }
+    } catch (SQLException e) {
+      Logger.error("ERROR:  executeQueryToIds  SQL : {} Message: {} Trace: {}", sql, e.getMessage(), e.getStackTrace());
+      throw new GroundException(e);
+    }
+
+    return ids;
+  }
+
+  /**
+   * Wait until the versions with the given ids, if any of them are still in a write spool, are
+   * applied. A write that reads versions, e.g. its parents, calls this before reading them, so
+   * that it reads them from the database and can be spooled itself.
+   *
+   * @param ids the ids of the versions
+   * @throws GroundException a version was not applied in time
+   */
+  public static void awaitSpooled(Collection<Long> ids) throws GroundException {
+    for (WriteSpool spool : WriteSpool.getInstances().values()) {
+      spool.awaitApplied(ids);
+    }
+  }
+
   public static void executeSqlList(final Database dbSource, final PostgresStatements statements) throws GroundException {
+    Database target = dbSource instanceof ShardedDatabase ? ((ShardedDatabase) dbSource).current() : dbSource;
+
+    // spooled writes are acknowledged once they are on local disk, and applied later; every other
+    // write runs on the database after the spooled writes before it
+    WriteSpool spool = WriteSpool.getInstance(target);
+    if (spool != null) {
+      if (statements.getSpooledIds() != null) {
+        spool.append(statements.getAllStatements(), statements.getCommitCallbacks(), statements.getSpooledIds());
+        return;
+      }
+
+      spool.awaitDrained();
+    }
+
+    GroupCommitExecutor executor = GroupCommitExecutor.getInstance(target);
+    if (executor != null) {
+      executor.execute(statements.getAllStatements());
+
+      ReplicaRouter router = ReplicaRouter.getInstance();
+      if (router != null && router.getPrimary() == target) {
+        // the position read after the shared commit is at or after it
+        try (Connection con = target.getConnection()) {
+          router.recordWrite(con);
+        } catch (SQLException e) {
+          throw new GroundException(e);
+        }
+      }
+
+      runCommitCallbacks(statements);
+      return;
+    }
+
     try {
-      Connection con = dbSource.getConnection();
+      Connection con = target.getConnection();
       con.setAutoCommit(false);
       Statement stmt = con.createStatement();
 
@@ -89,11 +178,29 @@ public final class PostgresUtils {
 
       stmt.close();
       con.commit();
+
+      ReplicaRouter router = ReplicaRouter.getInstance();
+      if (router != null && router.getPrimary() == target) {
+        router.recordWrite(con);
+      }
+
       con.close();
+      runCommitCallbacks(statements);
     } catch (SQLException e) {
       Logger.error("error:  executeSqlList SQL : {} Message: {} Trace: {}", statements.getAllStatements(), e.getMessage(), e.getStackTrace());
 
       throw new GroundException(e);
     }
   }
+
+  private static void runCommitCallbacks(final PostgresStatements statements) {
+    for (Runnable callback : statements.getCommitCallbacks()) {
+      try {
+        callback.run();
+      } catch (RuntimeException e) {
+        // the transaction is already durable, so a failing callback must not fail the request
+        Logger.error("error:  commit callback failed Message: {} Trace: {}", e.getMessage(), e.getStackTrace());
+      }
+    }
+  }
 }
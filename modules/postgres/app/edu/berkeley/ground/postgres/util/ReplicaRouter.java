@@ -0,0 +1,197 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import play.Logger;
+import play.db.Database;
+import play.mvc.Http;
+
+/**
+ * Routes the queries of GET requests to read replicas, and everything else to the primary. Writes,
+ * and the reads that writes depend on, must see the latest state, so only requests that cannot
+ * write are routed.
+ *
+ * <p>Reads stay consistent with a client's own writes through an LSN token: every request that
+ * commits a write returns the primary's WAL position after the commit in the X-Ground-LSN header,
+ * and a client that sends it back is only served by a replica that has replayed up to it, or by
+ * the primary if none has. The replayed position of each replica is remembered, so a replica is
+ * only asked again when a client needs a later position.
+ */
+public class ReplicaRouter {
+
+  public static final String LSN_HEADER = "X-Ground-LSN";
+
+  private static volatile ReplicaRouter instance;
+
+  // set while reads of the current thread have to see the primary's latest state
+  private static final ThreadLocal<Boolean> primaryOnly = new ThreadLocal<>();
+
+  private final Database primary;
+  private final List<Replica> replicas = new ArrayList<>();
+  private final AtomicInteger next = new AtomicInteger();
+
+  public ReplicaRouter(Database primary, List<Database> replicas) {
+    this.primary = primary;
+
+    for (Database replica : replicas) {
+      this.replicas.add(new Replica(replica));
+    }
+  }
+
+  /**
+   * Return the router in use, or null if reads are not routed.
+   *
+   * @return the router
+   */
+  public static ReplicaRouter getInstance() {
+    return instance;
+  }
+
+  public static void setInstance(ReplicaRouter router) {
+    instance = router;
+  }
+
+  public Database getPrimary() {
+    return this.primary;
+  }
+
+  /**
+   * Run reads on the primary, whatever the request. Used to compute what is cached across
+   * requests, which has to be as fresh as the writes that evict it.
+   *
+   * @param body the reads
+   * @return the result of the reads
+   * @throws Exception an error while reading
+   */
+  public static <T> T onPrimary(Callable<T> body) throws Exception {
+    if (primaryOnly.get() != null) {
+      return body.call();
+    }
+
+    primaryOnly.set(true);
+    try {
+      return body.call();
+    } finally {
+      primaryOnly.remove();
+    }
+  }
+
+  /**
+   * Choose the database for a read in the current request: the next replica, in turn, that has
+   * replayed the client's last write, or the primary.
+   *
+   * @return the database to read from
+   */
+  public Database forRead() {
+    Http.Context context = Http.Context.current.get();
+    if (context == null || this.replicas.isEmpty() || !isReadOnly(context.request().method()) || primaryOnly.get() != null) {
+      return this.primary;
+    }
+
+    long required;
+    try {
+      String token = context.request().getHeader(LSN_HEADER);
+      required = token == null ? 0 : parseLsn(token);
+    } catch (NumberFormatException e) {
+      return this.primary;
+    }
+
+    int start = this.next.getAndIncrement();
+    for (int i = 0; i < this.replicas.size(); i++) {
+      Replica replica = this.replicas.get(Math.floorMod(start + i, this.replicas.size()));
+
+      if (replica.hasReplayed(required)) {
+        return replica.database;
+      }
+    }
+
+    return this.primary;
+  }
+
+  /**
+   * Return the position of a write that was just committed on a connection to the primary in the
+   * LSN header of the current response.
+   *
+   * @param con the connection the write was committed on
+   * @throws SQLException an error while reading the position
+   */
+  public void recordWrite(Connection con) throws SQLException {
+    Http.Context context = Http.Context.current.get();
+    if (context == null || this.replicas.isEmpty()) {
+      return;
+    }
+
+    ResultSet resultSet = con.createStatement().executeQuery(SqlConstants.SELECT_WAL_LSN);
+    if (resultSet.next()) {
+      context.response().setHeader(LSN_HEADER, resultSet.getString(1));
+    }
+  }
+
+  /**
+   * Convert an LSN in Postgres' text form, e.g. 16/B374D848, to a number that orders the same way.
+   *
+   * @param lsn the LSN
+   * @return the LSN as a number
+   */
+  static long parseLsn(String lsn) {
+    int slash = lsn.indexOf('/');
+    if (slash < 0) {
+      throw new NumberFormatException(lsn);
+    }
+
+    return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+  }
+
+  private static boolean isReadOnly(String method) {
+    return "GET".equals(method) || "HEAD".equals(method);
+  }
+
+  private static class Replica {
+
+    private final Database database;
+
+    // the latest position this replica is known to have replayed
+    private volatile long replayed = 0;
+
+    Replica(Database database) {
+      this.database = database;
+    }
+
+    boolean hasReplayed(long lsn) {
+      if (lsn <= this.replayed) {
+        return true;
+      }
+
+      try (Connection con = this.database.getConnection()) {
+        ResultSet resultSet = con.createStatement().executeQuery(SqlConstants.SELECT_WAL_LSN);
+        String position = resultSet.next() ? resultSet.getString(1) : null;
+
+        if (position != null) {
+          this.replayed = Math.max(this.replayed, parseLsn(position));
+        }
+      } catch (SQLException e) {
+        Logger.warn("Could not read the replayed position of replica {}: {}", this.database.getName(), e.getMessage());
+        return false;
+      }
+
+      return lsn <= this.replayed;
+    }
+  }
+}
@@ -0,0 +1,443 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import com.google.common.hash.Hashing;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.version.Item;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import play.db.Database;
+
+/**
+ * Spreads items over several databases. Each item is placed, together with its versions, tags and
+ * version history, on the shard its source key hashes to on a consistent hash ring, and the
+ * placement is recorded in a directory on the first shard. Items are found through the directory,
+ * so adding a shard only changes where new items are placed.
+ *
+ * <p>Versions are read by id from whichever shard has them. An edge is placed on the shard of the
+ * nodes it connects, which have to share one, because its validity is resolved against their
+ * histories. Graphs and lineage refer to versions on other shards by id only, so the queries that
+ * follow such references, e.g. the graphs of an edge version, are run on every shard and their
+ * results merged.
+ *
+ * <p>DAOs see the shard chosen for the current thread through a {@link ShardedDatabase}.
+ */
+public class ShardRouter {
+
+  // the points each shard takes on the ring; more points spread the keys more evenly
+  private static final int POINTS_PER_SHARD = 64;
+
+  private static volatile ShardRouter instance;
+
+  private final List<Database> shards;
+  private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+  private final ThreadLocal<Integer> current = new ThreadLocal<>();
+
+  // directory entries never change once their item exists, so they are cached for as long as the
+  // router lives
+  private final Map<String, Integer> shardsBySourceKey = new ConcurrentHashMap<>();
+  private final Map<Long, Integer> shardsByItemId = new ConcurrentHashMap<>();
+
+  public ShardRouter(List<Database> shards) {
+    this.shards = shards;
+
+    for (int shard = 0; shard < shards.size(); shard++) {
+      for (int point = 0; point < POINTS_PER_SHARD; point++) {
+        this.ring.put(hash("shard-" + shard + "#" + point), shard);
+      }
+    }
+  }
+
+  /**
+   * Return the router in use, or null if there is only one database.
+   *
+   * @return the router
+   */
+  public static ShardRouter getInstance() {
+    return instance;
+  }
+
+  public static void setInstance(ShardRouter router) {
+    instance = router;
+  }
+
+  public int getShardCount() {
+    return this.shards.size();
+  }
+
+  /**
+   * Return the database of the shard the current thread works on: the one chosen by the innermost
+   * enclosing {@link #inShard(int, Callable)}, or the first shard.
+   *
+   * @return the database
+   */
+  public Database current() {
+    Integer shard = this.current.get();
+    return this.shards.get(shard == null ? 0 : shard);
+  }
+
+  /**
+   * Run a DAO call on one shard.
+   *
+   * @param shard the index of the shard
+   * @param body the call
+   * @return the result of the call
+   * @throws Exception the error thrown by the call
+   */
+  public <T> T inShard(int shard, Callable<T> body) throws Exception {
+    Integer previous = this.current.get();
+    this.current.set(shard);
+
+    try {
+      return body.call();
+    } finally {
+      if (previous == null) {
+        this.current.remove();
+      } else {
+        this.current.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Find the shard of an item by its source key. A source key that is only reserved, because its
+   * item is being created or its creator failed, is looked for on the shard it was reserved on,
+   * and one missing from the directory on the shard it hashes to.
+   *
+   * @param itemType the type of the item, e.g. node
+   * @param sourceKey the source key of the item
+   * @return the index of the shard
+   * @throws GroundException an error while reading the directory
+   */
+  public int shardOf(String itemType, String sourceKey) throws GroundException {
+    Integer shard = this.shardsBySourceKey.get(itemType + "." + sourceKey);
+    if (shard != null) {
+      return shard;
+    }
+
+    try (Connection con = this.shards.get(0).getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(String.format(SqlConstants.SELECT_SHARD_BY_SOURCE_KEY, itemType, sourceKey));
+      if (!resultSet.next()) {
+        return this.place(sourceKey);
+      }
+
+      shard = resultSet.getInt(1);
+
+      // a reservation is dropped if its creation fails, so only registered items are cached
+      if (resultSet.getBoolean(2)) {
+        this.shardsBySourceKey.put(itemType + "." + sourceKey, shard);
+      }
+
+      return shard;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Find the shard of an item by its id.
+   *
+   * @param itemId the id of the item
+   * @return the index of the shard, or null if the item is not in the directory
+   * @throws GroundException an error while reading the directory
+   */
+  public Integer shardOf(long itemId) throws GroundException {
+    Integer shard = this.shardsByItemId.get(itemId);
+    if (shard == null) {
+      shard = this.lookup(String.format(SqlConstants.SELECT_SHARD_BY_ITEM_ID, itemId));
+
+      if (shard != null) {
+        this.shardsByItemId.put(itemId, shard);
+      }
+    }
+
+    return shard;
+  }
+
+  /**
+   * Reserve a source key on a shard before its item is created, so that the source key is never
+   * created on two shards.
+   *
+   * @param itemType the type of the item
+   * @param sourceKey the source key of the item
+   * @param shard the index of the shard
+   * @return true if the source key was reserved, false if it already was or has an item
+   * @throws GroundException an error while writing the directory
+   */
+  boolean reserve(String itemType, String sourceKey, int shard) throws GroundException {
+    try (Connection con = this.shards.get(0).getConnection()) {
+      return con.createStatement().executeQuery(String.format(SqlConstants.INSERT_SHARD_RESERVATION, itemType, sourceKey, shard)).next();
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Record the shard a new item was placed on, filling in a reservation of its source key. The
+   * entry of an existing item is left as it is, so a repeated registration is harmless.
+   *
+   * @param itemType the type of the item
+   * @param sourceKey the source key of the item
+   * @param itemId the id of the item
+   * @param shard the index of the shard
+   * @throws GroundException an error while writing the directory
+   */
+  public void register(String itemType, String sourceKey, long itemId, int shard) throws GroundException {
+    try (Connection con = this.shards.get(0).getConnection()) {
+      con.createStatement().executeUpdate(String.format(SqlConstants.INSERT_SHARD_DIRECTORY_ENTRY, itemType, sourceKey, itemId, shard));
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+
+    this.shardsBySourceKey.put(itemType + "." + sourceKey, shard);
+    this.shardsByItemId.put(itemId, shard);
+  }
+
+  /**
+   * Run a read on each shard in turn until one of them has what it looks for.
+   *
+   * @param body the read, which throws a not found error on shards without the item or version
+   * @return the result of the read on the first shard that has it
+   * @throws Exception the not found error of the last shard, or any other error
+   */
+  public <T> T inAnyShard(Callable<T> body) throws Exception {
+    GroundException notFound = null;
+
+    for (int shard = 0; shard < this.shards.size(); shard++) {
+      try {
+        return this.inShard(shard, body);
+      } catch (GroundException e) {
+        if (e.getExceptionType() != ExceptionType.ITEM_NOT_FOUND && e.getExceptionType() != ExceptionType.VERSION_NOT_FOUND) {
+          throw e;
+        }
+
+        notFound = e;
+      }
+    }
+
+    throw notFound;
+  }
+
+  /**
+   * Run a query for ids on every shard, and merge the results.
+   *
+   * @param query the query
+   * @return the ids found on any shard, in ascending order
+   * @throws Exception an error while running the query
+   */
+  public List<Long> inAllShards(Callable<List<Long>> query) throws Exception {
+    TreeSet<Long> ids = new TreeSet<>();
+
+    for (int shard = 0; shard < this.shards.size(); shard++) {
+      ids.addAll(this.inShard(shard, query));
+    }
+
+    return new ArrayList<>(ids);
+  }
+
+  /**
+   * Run an item placement, e.g. the creation of an item, on the shard chosen for a source key. The
+   * source key is reserved in the directory first and the reservation is dropped if the creation
+   * fails, so a crash in between leaves a reservation that the next creation of the source key
+   * completes, never an item the directory does not know.
+   *
+   * @param itemType the type of the item
+   * @param sourceKey the source key of the item
+   * @param shard the shard to place the item on, or null for the shard its source key hashes to
+   * @param body the creation of the item
+   * @return the item created
+   * @throws Exception an error while creating the item or registering its shard
+   */
+  public <T extends Item> T inNewShard(String itemType, String sourceKey, Integer shard, Callable<T> body) throws Exception {
+    boolean reserved = this.reserve(itemType, sourceKey, shard == null ? this.place(sourceKey) : shard);
+
+    // an existing or reserved source key is created on its own shard, which rejects a duplicate
+    int placed = this.shardOf(itemType, sourceKey);
+
+    T item;
+    try {
+      item = this.inShard(placed, body);
+    } catch (Exception e) {
+      if (reserved) {
+        this.release(itemType, sourceKey);
+      }
+
+      throw e;
+    }
+
+    this.register(itemType, sourceKey, item.getId(), placed);
+    return item;
+  }
+
+  private void release(String itemType, String sourceKey) throws GroundException {
+    try (Connection con = this.shards.get(0).getConnection()) {
+      con.createStatement().executeUpdate(String.format(SqlConstants.DELETE_SHARD_RESERVATION, itemType, sourceKey));
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Find the one shard that a set of items are on.
+   *
+   * @param itemType the type of the item that connects them, for the error message
+   * @param itemIds the ids of the items
+   * @return the index of their shard
+   * @throws GroundException an item is not in the directory, the items are on different shards, or
+   *     an error while reading the directory
+   */
+  public int sharedShardOf(String itemType, List<Long> itemIds) throws GroundException {
+    Integer shard = null;
+
+    for (long itemId : itemIds) {
+      Integer itemShard = this.shardOf(itemId);
+
+      if (itemShard == null) {
+        throw new GroundException(ExceptionType.ITEM_NOT_FOUND, "Item", String.valueOf(itemId));
+      }
+
+      if (shard != null && !shard.equals(itemShard)) {
+        throw new GroundException(ExceptionType.OTHER, String.format("The items %s are on different shards, and a %s can only connect items "
+                                                                       + "on the same shard.", itemIds, itemType));
+      }
+
+      shard = itemShard;
+    }
+
+    return shard;
+  }
+
+  /**
+   * Choose the shard for a new source key on the ring.
+   *
+   * @param sourceKey the source key
+   * @return the index of the shard
+   */
+  int place(String sourceKey) {
+    Entry<Integer, Integer> point = this.ring.ceilingEntry(hash(sourceKey));
+    return point == null ? this.ring.firstEntry().getValue() : point.getValue();
+  }
+
+  private Integer lookup(String sql) throws GroundException {
+    try (Connection con = this.shards.get(0).getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(sql);
+      return resultSet.next() ? resultSet.getInt(1) : null;
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  private static int hash(String key) {
+    return Hashing.murmur3_32().hashString(key, StandardCharsets.UTF_8).asInt();
+  }
+
+  /* Routing of controller calls, which run unchanged when there is only one database */
+
+  /**
+   * The databases to read to see the rows of every shard: all of the shards for a sharded
+   * database, or the database itself.
+   *
+   * @param dbSource the database
+   * @return the databases to read
+   */
+  public static List<Database> databases(Database dbSource) {
+    ShardRouter router = instance;
+    return router != null && dbSource instanceof ShardedDatabase ? router.shards : Collections.singletonList(dbSource);
+  }
+
+  public static <T> T onItem(String itemType, String sourceKey, Callable<T> body) throws Exception {
+    ShardRouter router = instance;
+    return router == null ? body.call() : router.inShard(router.shardOf(itemType, sourceKey), body);
+  }
+
+  public static <T> T onItem(long itemId, Callable<T> body) throws Exception {
+    ShardRouter router = instance;
+    if (router == null) {
+      return body.call();
+    }
+
+    Integer shard = router.shardOf(itemId);
+    return shard == null ? router.inAnyShard(body) : router.inShard(shard, body);
+  }
+
+  public static <T extends Item> T onNewItem(String itemType, String sourceKey, Callable<T> body) throws Exception {
+    ShardRouter router = instance;
+    return router == null ? body.call() : router.inNewShard(itemType, sourceKey, null, body);
+  }
+
+  public static <T extends Item> T onNewItem(String itemType, String sourceKey, List<Long> connectedItemIds, Callable<T> body) throws Exception {
+    ShardRouter router = instance;
+    return router == null ? body.call() : router.inNewShard(itemType, sourceKey, router.sharedShardOf(itemType, connectedItemIds), body);
+  }
+
+  public static <T> T onAnyShard(Callable<T> body) throws Exception {
+    ShardRouter router = instance;
+    return router == null ? body.call() : router.inAnyShard(body);
+  }
+
+  public static List<Long> onAllShards(Callable<List<Long>> query) throws Exception {
+    ShardRouter router = instance;
+    return router == null ? query.call() : router.inAllShards(query);
+  }
+
+  public static KeysetStream.PageFetcher onItem(long itemId, KeysetStream.PageFetcher fetcher) {
+    return (afterId, limit) -> call(() -> onItem(itemId, () -> fetcher.fetch(afterId, limit)));
+  }
+
+  public static KeysetStream.Hydrator onItem(long itemId, KeysetStream.Hydrator hydrator) {
+    return id -> call(() -> onItem(itemId, () -> hydrator.hydrate(id)));
+  }
+
+  /**
+   * Run each page of a keyset query on every shard. The first limit ids after the previous page
+   * across all shards are among the first limit ids of each shard, so merging the pages of the
+   * shards gives the page of the whole.
+   *
+   * @param fetcher the keyset query
+   * @return the keyset query over all shards
+   */
+  public static KeysetStream.PageFetcher onAllShards(KeysetStream.PageFetcher fetcher) {
+    return (afterId, limit) -> {
+      List<Long> ids = call(() -> onAllShards(() -> fetcher.fetch(afterId, limit)));
+      return ids.size() > limit ? ids.subList(0, limit) : ids;
+    };
+  }
+
+  public static KeysetStream.Hydrator onAnyShard(KeysetStream.Hydrator hydrator) {
+    return id -> call(() -> onAnyShard(() -> hydrator.hydrate(id)));
+  }
+
+  // the callables of keyset queries only throw GroundExceptions
+  private static <T> T call(Callable<T> body) throws GroundException {
+    try {
+      return body.call();
+    } catch (GroundException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new GroundException(e);
+    }
+  }
+}
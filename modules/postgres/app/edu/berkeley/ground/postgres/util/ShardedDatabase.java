@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import java.sql.Connection;
+import javax.sql.DataSource;
+import play.db.ConnectionCallable;
+import play.db.ConnectionRunnable;
+import play.db.Database;
+
+/**
+ * The database of the shard chosen for the current thread by the {@link ShardRouter}, or the
+ * default database if there is only one. DAOs are given this in place of the default database,
+ * so that each call reaches the shard it was routed to without the DAOs knowing about shards.
+ */
+public class ShardedDatabase implements Database {
+
+  private final Database defaultDatabase;
+
+  public ShardedDatabase(Database defaultDatabase) {
+    this.defaultDatabase = defaultDatabase;
+  }
+
+  /**
+   * Return the database calls on the current thread go to.
+   *
+   * @return the database
+   */
+  public Database current() {
+    ShardRouter router = ShardRouter.getInstance();
+    return router == null ? this.defaultDatabase : router.current();
+  }
+
+  @Override
+  public String getName() {
+    return this.current().getName();
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return this.current().getDataSource();
+  }
+
+  @Override
+  public String getUrl() {
+    return this.current().getUrl();
+  }
+
+  @Override
+  public Connection getConnection() {
+    return this.current().getConnection();
+  }
+
+  @Override
+  public Connection getConnection(boolean autocommit) {
+    return this.current().getConnection(autocommit);
+  }
+
+  @Override
+  public void withConnection(ConnectionRunnable block) {
+    this.current().withConnection(block);
+  }
+
+  @Override
+  public <A> A withConnection(ConnectionCallable<A> block) {
+    return this.current().withConnection(block);
+  }
+
+  @Override
+  public void withConnection(boolean autocommit, ConnectionRunnable block) {
+    this.current().withConnection(autocommit, block);
+  }
+
+  @Override
+  public <A> A withConnection(boolean autocommit, ConnectionCallable<A> block) {
+    return this.current().withConnection(autocommit, block);
+  }
+
+  @Override
+  public void withTransaction(ConnectionRunnable block) {
+    this.current().withTransaction(block);
+  }
+
+  @Override
+  public <A> A withTransaction(ConnectionCallable<A> block) {
+    return this.current().withTransaction(block);
+  }
+
+  // the shards are shut down by Play, like any other database
+  @Override
+  public void shutdown() {
+  }
+}
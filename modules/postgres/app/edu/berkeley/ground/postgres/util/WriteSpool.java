@@ -0,0 +1,585 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import play.db.Database;
+
+/**
+ * A write-ahead log of the statements of writes, kept in a memory-mapped file on local disk. A
+ * write is acknowledged once its statements are flushed to the file, and applied to the database
+ * later, in order, by a {@link edu.berkeley.ground.postgres.jobs.SpoolApplier}. The ids of what the
+ * statements create are assigned by the IdGenerator before they are spooled, so a client gets them
+ * without waiting for the database. Only writes that cannot be rejected once the earlier ones are
+ * applied are spooled; a write that reads what a spooled write creates waits for it to be applied.
+ *
+ * <p>The file is a ring: a header with the id of the spool, the position of the last record applied
+ * and the largest id generated, followed by records of the form (length, crc, sequence number,
+ * time appended, statements). A record that does not fit before the end of the file is written at
+ * the start, after a wrap marker. On restart, the records after the last applied one are found by following
+ * consecutive sequence numbers with valid checksums. Appends wait for the applier to free space
+ * when the ring is full.
+ */
+public class WriteSpool {
+
+  // spool id (long), sequence number of the last applied record (long), its end (int), padding,
+  // largest id generated (long)
+  static final int HEADER_SIZE = 32;
+  private static final int ISSUED_ID = 24;
+  // length (int), crc (int), sequence number (long), time appended (long)
+  private static final int RECORD_HEADER_SIZE = 24;
+  private static final int WRAP = -1;
+
+  // statements cannot contain NUL characters, so they are stored separated by one
+  private static final String SEPARATOR = "\0";
+
+  private static final Map<Database, WriteSpool> instances = new ConcurrentHashMap<>();
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer buffer;
+  private final int end;
+  private final long waitMillis;
+  private final long spoolId;
+
+  // the end of the last applied record, and its sequence number
+  private int head;
+  private long headSeq;
+  // the end of the last appended record, and its sequence number
+  private int tail;
+  private long tailSeq;
+
+  private final Object syncLock = new Object();
+  private volatile long syncedSeq;
+
+  // the largest id generated for a write while it may be in this spool
+  private long issuedId;
+
+  private final Map<Long, List<Runnable>> commitCallbacks = new HashMap<>();
+
+  // the ids created by the writes that were not applied, and by which write; the ids of the writes
+  // recovered after a restart are not known, so every id is pending until they are applied
+  private final Set<Long> pendingIds = new HashSet<>();
+  private final TreeMap<Long, List<Long>> pendingIdsBySeq = new TreeMap<>();
+  private long recoveredSeq;
+
+  // whether the applier's thread is alive, and the last error it hit since it last applied a batch
+  private volatile boolean applierRunning;
+  private volatile String applierError;
+
+  private WriteSpool(RandomAccessFile file, MappedByteBuffer buffer, long waitMillis) {
+    this.file = file;
+    this.buffer = buffer;
+    this.end = buffer.capacity();
+    this.waitMillis = waitMillis;
+
+    if (buffer.getLong(0) == 0) {
+      long spoolId = 0;
+      while (spoolId <= 0) {
+        spoolId = new SecureRandom().nextLong();
+      }
+
+      buffer.putLong(0, spoolId);
+      buffer.putLong(8, 0);
+      buffer.putInt(16, HEADER_SIZE);
+      buffer.force();
+    }
+
+    this.spoolId = buffer.getLong(0);
+    this.headSeq = buffer.getLong(8);
+    this.head = buffer.getInt(16);
+    this.issuedId = buffer.getLong(ISSUED_ID);
+    this.recover();
+    this.recoveredSeq = this.tailSeq;
+  }
+
+  /**
+   * Open a spool, creating its file if it does not exist, and find the records that were not
+   * applied before the last shutdown or crash.
+   *
+   * @param path the file of the spool
+   * @param capacityBytes the size of a new file; an existing file keeps its size
+   * @param waitMillis how long an append waits for space before failing
+   * @return the spool
+   * @throws GroundException an error while opening the file
+   */
+  public static WriteSpool open(Path path, long capacityBytes, long waitMillis) throws GroundException {
+    try {
+      RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+      if (file.length() == 0) {
+        file.setLength(capacityBytes);
+      }
+
+      MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+      return new WriteSpool(file, buffer, waitMillis);
+    } catch (IOException e) {
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Return the spool that the writes to a database are appended to, or null if they are run on
+   * the database directly.
+   *
+   * @param dbSource the database
+   * @return the spool
+   */
+  public static WriteSpool getInstance(Database dbSource) {
+    return instances.get(dbSource);
+  }
+
+  public static void setInstance(Database dbSource, WriteSpool spool) {
+    if (spool == null) {
+      instances.remove(dbSource);
+    } else {
+      instances.put(dbSource, spool);
+    }
+  }
+
+  public static Map<Database, WriteSpool> getInstances() {
+    return Collections.unmodifiableMap(instances);
+  }
+
+  /**
+   * The id of this spool, which is new for every spool file created, so that the database's record
+   * of what was applied from an earlier file is never mistaken for this one's.
+   *
+   * @return the id
+   */
+  public long getSpoolId() {
+    return this.spoolId;
+  }
+
+  /**
+   * Record an id generated for a write. The database does not see the ids of spooled writes until
+   * they are applied, so a restarted IdGenerator continues after the largest one recorded here as
+   * well. Ids are generated before their write is appended, so the flush of the append persists it.
+   *
+   * @param id the id
+   */
+  public synchronized void recordIssuedId(long id) {
+    if (id > this.issuedId) {
+      this.issuedId = id;
+      this.buffer.putLong(ISSUED_ID, id);
+    }
+  }
+
+  /**
+   * The largest id recorded by {@link #recordIssuedId(long)}, including before a restart.
+   *
+   * @return the id, or 0
+   */
+  public synchronized long getIssuedId() {
+    return this.issuedId;
+  }
+
+  /**
+   * Append the statements of a write, and return once they are flushed to disk. Concurrent appends
+   * share a flush.
+   *
+   * @param statements the statements, to be run in one transaction
+   * @param callbacks the callbacks to run once the statements are applied
+   * @return the sequence number of the write
+   * @throws GroundException the spool stayed full for too long, or the write does not fit in it
+   */
+  public long append(List<String> statements, List<Runnable> callbacks) throws GroundException {
+    return this.append(statements, callbacks, Collections.emptyList());
+  }
+
+  /**
+   * Append the statements of a write that creates the given ids. Until it is applied, later writes
+   * that read what it created wait for it in {@link #awaitApplied(Collection)}.
+   *
+   * @param statements the statements, to be run in one transaction
+   * @param callbacks the callbacks to run once the statements are applied
+   * @param createdIds the ids of what the statements create
+   * @return the sequence number of the write
+   * @throws GroundException the spool stayed full for too long, or the write does not fit in it
+   */
+  public long append(List<String> statements, List<Runnable> callbacks, List<Long> createdIds) throws GroundException {
+    byte[] payload = String.join(SEPARATOR, statements).getBytes(StandardCharsets.UTF_8);
+    int size = RECORD_HEADER_SIZE + payload.length;
+
+    if (size > this.end - HEADER_SIZE) {
+      throw new GroundException(ExceptionType.OTHER, String.format("A write of %d bytes does not fit in the write spool.", size));
+    }
+
+    long seq;
+    synchronized (this) {
+      long deadline = System.currentTimeMillis() + this.waitMillis;
+      int position;
+
+      while ((position = this.reserve(size)) < 0) {
+        this.await(deadline, "The write spool is full; try again later.");
+      }
+
+      seq = this.tailSeq + 1;
+      this.write(position, seq, payload);
+      this.tail = position + size;
+      this.tailSeq = seq;
+
+      if (!callbacks.isEmpty()) {
+        this.commitCallbacks.put(seq, new ArrayList<>(callbacks));
+      }
+
+      if (!createdIds.isEmpty()) {
+        this.pendingIds.addAll(createdIds);
+        this.pendingIdsBySeq.put(seq, new ArrayList<>(createdIds));
+      }
+
+      this.notifyAll();
+    }
+
+    this.sync(seq);
+    return seq;
+  }
+
+  /**
+   * Return the oldest writes that were not applied yet.
+   *
+   * @param max the largest number of writes to return
+   * @return the writes, in the order they were appended
+   */
+  public synchronized List<Entry> peek(int max) {
+    List<Entry> entries = new ArrayList<>();
+    int position = this.head;
+    long seq = this.headSeq;
+
+    while (entries.size() < max && seq < this.tailSeq) {
+      Entry entry = this.read(this.resolve(position));
+      entries.add(entry);
+
+      position = entry.end;
+      seq = entry.seq;
+    }
+
+    return entries;
+  }
+
+  /**
+   * Wait until there is a write to apply.
+   *
+   * @param millis how long to wait at most
+   * @throws InterruptedException the wait was interrupted
+   */
+  public synchronized void awaitEntries(long millis) throws InterruptedException {
+    if (this.tailSeq == this.headSeq) {
+      this.wait(millis);
+    }
+  }
+
+  /**
+   * Free the space of the writes up to an applied one. The position is flushed before the space
+   * is reused, so a restart never looks for writes in space that was overwritten.
+   *
+   * @param entry the last write applied
+   */
+  public void markApplied(Entry entry) {
+    synchronized (this.syncLock) {
+      this.buffer.putLong(8, entry.seq);
+      this.buffer.putInt(16, entry.end);
+      this.buffer.force();
+    }
+
+    synchronized (this) {
+      this.head = entry.end;
+      this.headSeq = entry.seq;
+
+      Map<Long, List<Long>> applied = this.pendingIdsBySeq.headMap(entry.seq, true);
+      applied.values().forEach(this.pendingIds::removeAll);
+      applied.clear();
+
+      this.notifyAll();
+    }
+  }
+
+  /**
+   * Wait until the writes that create any of the given ids are applied, so that a write that reads
+   * what they created reads it from the database.
+   *
+   * @param ids the ids
+   * @throws GroundException a write that creates one of the ids was not applied in time
+   */
+  public synchronized void awaitApplied(Collection<Long> ids) throws GroundException {
+    long deadline = System.currentTimeMillis() + this.waitMillis;
+
+    while (this.headSeq < this.recoveredSeq || ids.stream().anyMatch(this.pendingIds::contains)) {
+      this.await(deadline, "A version this write depends on is still in the write spool; try again later.");
+    }
+  }
+
+  /**
+   * Wait until every write appended so far is applied, so that a write that is not spooled runs
+   * after them.
+   *
+   * @throws GroundException the writes were not applied in time
+   */
+  public synchronized void awaitDrained() throws GroundException {
+    long deadline = System.currentTimeMillis() + this.waitMillis;
+    long seq = this.tailSeq;
+
+    while (this.headSeq < seq) {
+      this.await(deadline, "The write spool is behind the database; try again later.");
+    }
+  }
+
+  /**
+   * Remove the callbacks of a write.
+   *
+   * @param seq the sequence number of the write
+   * @return the callbacks to run now that it was applied
+   */
+  public synchronized List<Runnable> takeCallbacks(long seq) {
+    List<Runnable> callbacks = this.commitCallbacks.remove(seq);
+    return callbacks == null ? Collections.emptyList() : callbacks;
+  }
+
+  public void setApplierRunning(boolean applierRunning) {
+    this.applierRunning = applierRunning;
+  }
+
+  public boolean isApplierRunning() {
+    return this.applierRunning;
+  }
+
+  public void setApplierError(String applierError) {
+    this.applierError = applierError;
+  }
+
+  /**
+   * The last error that kept the applier from applying writes, cleared once it applies a batch.
+   *
+   * @return the error, or null if the last batch was applied
+   */
+  public String getApplierError() {
+    return this.applierError;
+  }
+
+  /**
+   * The number of writes that were appended but not applied.
+   *
+   * @return the number of writes
+   */
+  public synchronized long getLagEntries() {
+    return this.tailSeq - this.headSeq;
+  }
+
+  /**
+   * The space taken by the writes that were not applied.
+   *
+   * @return the number of bytes
+   */
+  public synchronized long getLagBytes() {
+    if (this.tailSeq == this.headSeq) {
+      return 0;
+    }
+
+    return this.tail > this.head ? this.tail - this.head : (this.end - this.head) + (this.tail - HEADER_SIZE);
+  }
+
+  /**
+   * How long the oldest write that was not applied has been waiting.
+   *
+   * @return the time in milliseconds, or 0 if every write was applied
+   */
+  public synchronized long getLagMillis() {
+    if (this.tailSeq == this.headSeq) {
+      return 0;
+    }
+
+    return Math.max(0, System.currentTimeMillis() - this.buffer.getLong(this.resolve(this.head) + 16));
+  }
+
+  public void close() throws IOException {
+    synchronized (this.syncLock) {
+      this.buffer.force();
+    }
+
+    this.file.close();
+  }
+
+  // wait to be notified of a change, or fail at the deadline
+  private void await(long deadline, String message) throws GroundException {
+    long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0) {
+      throw new GroundException(ExceptionType.OTHER, message);
+    }
+
+    try {
+      this.wait(remaining);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GroundException(e);
+    }
+  }
+
+  // the position to write a record of the given size at, or -1 if there is no space for it
+  private int reserve(int size) {
+    boolean empty = this.tailSeq == this.headSeq;
+
+    if (empty || this.tail > this.head) {
+      if (this.end - this.tail >= size) {
+        return this.tail;
+      }
+
+      if (this.head - HEADER_SIZE >= size) {
+        if (this.end - this.tail >= RECORD_HEADER_SIZE) {
+          this.buffer.putInt(this.tail, WRAP);
+        }
+
+        return HEADER_SIZE;
+      }
+
+      return -1;
+    }
+
+    return this.head - this.tail >= size ? this.tail : -1;
+  }
+
+  // the position of the record that follows the given position, after a wrap marker
+  private int resolve(int position) {
+    if (this.end - position < RECORD_HEADER_SIZE || this.buffer.getInt(position) == WRAP) {
+      return HEADER_SIZE;
+    }
+
+    return position;
+  }
+
+  private void write(int position, long seq, byte[] payload) {
+    long appendedAt = System.currentTimeMillis();
+
+    this.buffer.putInt(position, payload.length);
+    this.buffer.putInt(position + 4, checksum(seq, appendedAt, payload));
+    this.buffer.putLong(position + 8, seq);
+    this.buffer.putLong(position + 16, appendedAt);
+
+    ByteBuffer view = this.buffer.duplicate();
+    view.position(position + RECORD_HEADER_SIZE);
+    view.put(payload);
+  }
+
+  private Entry read(int position) {
+    byte[] payload = new byte[this.buffer.getInt(position)];
+
+    ByteBuffer view = this.buffer.duplicate();
+    view.position(position + RECORD_HEADER_SIZE);
+    view.get(payload);
+
+    List<String> statements = Arrays.asList(new String(payload, StandardCharsets.UTF_8).split(SEPARATOR));
+    return new Entry(this.buffer.getLong(position + 8), this.buffer.getLong(position + 16), statements,
+      position + RECORD_HEADER_SIZE + payload.length);
+  }
+
+  // follow the records after the last applied one for as long as they are intact and consecutive
+  private void recover() {
+    int position = this.head;
+    long seq = this.headSeq;
+
+    while (true) {
+      int start = this.resolve(position);
+      int length = this.end - start < RECORD_HEADER_SIZE ? -1 : this.buffer.getInt(start);
+
+      if (length < 0 || length > this.end - start - RECORD_HEADER_SIZE || this.buffer.getLong(start + 8) != seq + 1) {
+        break;
+      }
+
+      byte[] payload = new byte[length];
+      ByteBuffer view = this.buffer.duplicate();
+      view.position(start + RECORD_HEADER_SIZE);
+      view.get(payload);
+
+      if (this.buffer.getInt(start + 4) != checksum(seq + 1, this.buffer.getLong(start + 16), payload)) {
+        break;
+      }
+
+      position = start + RECORD_HEADER_SIZE + length;
+      seq++;
+    }
+
+    this.tail = position;
+    this.tailSeq = seq;
+    this.syncedSeq = seq;
+  }
+
+  private void sync(long seq) {
+    synchronized (this.syncLock) {
+      if (this.syncedSeq >= seq) {
+        return;
+      }
+
+      long target;
+      synchronized (this) {
+        target = this.tailSeq;
+      }
+
+      this.buffer.force();
+      this.syncedSeq = target;
+    }
+  }
+
+  private static int checksum(long seq, long appendedAt, byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(ByteBuffer.allocate(16).putLong(seq).putLong(appendedAt).array());
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * A write in the spool.
+   */
+  public static class Entry {
+
+    private final long seq;
+    private final long appendedAt;
+    private final List<String> statements;
+    private final int end;
+
+    Entry(long seq, long appendedAt, List<String> statements, int end) {
+      this.seq = seq;
+      this.appendedAt = appendedAt;
+      this.statements = statements;
+      this.end = end;
+    }
+
+    public long getSeq() {
+      return this.seq;
+    }
+
+    public long getAppendedAt() {
+      return this.appendedAt;
+    }
+
+    public List<String> getStatements() {
+      return this.statements;
+    }
+  }
+}
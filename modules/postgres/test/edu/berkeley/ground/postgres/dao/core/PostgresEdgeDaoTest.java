@@ -19,10 +19,14 @@ import static org.junit.Assert.fail;
 
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.Edge;
+import edu.berkeley.ground.common.model.core.EdgeDirection;
+import edu.berkeley.ground.common.model.core.NodeNeighborhood;
 import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.model.version.VersionSuccessor;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import org.junit.Test;
@@ -128,4 +132,61 @@ public class PostgresEdgeDaoTest extends PostgresTest {
     assertEquals(0, successor.getFromId());
     assertEquals(newEdgeVersionId, successor.getToId());
   }
+
+  @Test
+  public void testRetrieveIdsByNode() throws GroundException {
+    long firstNodeId = PostgresTest.createNode("firstNode").getId();
+    PostgresTest.createNode("secondNode");
+    PostgresTest.createNode("thirdNode");
+
+    long outgoingId = PostgresTest.createEdge("outgoing", "firstNode", "secondNode").getId();
+    long incomingId = PostgresTest.createEdge("incoming", "thirdNode", "firstNode").getId();
+    long loopId = PostgresTest.createEdge("loop", "firstNode", "firstNode").getId();
+    PostgresTest.createEdge("unrelated", "secondNode", "thirdNode");
+
+    PostgresEdgeDao dao = (PostgresEdgeDao) PostgresTest.edgeDao;
+    List<Long> both = sorted(outgoingId, incomingId, loopId);
+
+    assertEquals(sorted(outgoingId, loopId), dao.retrieveIdsByNode(firstNodeId, EdgeDirection.OUT, Long.MIN_VALUE, 10));
+    assertEquals(sorted(incomingId, loopId), dao.retrieveIdsByNode(firstNodeId, EdgeDirection.IN, Long.MIN_VALUE, 10));
+    assertEquals(both, dao.retrieveIdsByNode(firstNodeId, EdgeDirection.BOTH, Long.MIN_VALUE, 10));
+
+    // keyset pagination
+    assertEquals(both.subList(0, 2), dao.retrieveIdsByNode(firstNodeId, EdgeDirection.BOTH, Long.MIN_VALUE, 2));
+    assertEquals(both.subList(2, 3), dao.retrieveIdsByNode(firstNodeId, EdgeDirection.BOTH, both.get(1), 2));
+  }
+
+  @Test
+  public void testRetrieveNeighborhood() throws GroundException {
+    long firstNodeId = PostgresTest.createNode("firstNode").getId();
+    long secondNodeId = PostgresTest.createNode("secondNode").getId();
+    long thirdNodeId = PostgresTest.createNode("thirdNode").getId();
+    long fourthNodeId = PostgresTest.createNode("fourthNode").getId();
+
+    long firstEdgeId = PostgresTest.createEdge("firstEdge", "firstNode", "secondNode").getId();
+    long secondEdgeId = PostgresTest.createEdge("secondEdge", "secondNode", "thirdNode").getId();
+    long cycleEdgeId = PostgresTest.createEdge("cycleEdge", "thirdNode", "firstNode").getId();
+    long fourthEdgeId = PostgresTest.createEdge("fourthEdge", "fourthNode", "firstNode").getId();
+
+    PostgresEdgeDao dao = (PostgresEdgeDao) PostgresTest.edgeDao;
+
+    NodeNeighborhood outgoing = dao.retrieveNeighborhood(firstNodeId, EdgeDirection.OUT, 2);
+    assertEquals(3, outgoing.getHops().size());
+    assertEquals(0, (int) outgoing.getHops().get(firstNodeId));
+    assertEquals(1, (int) outgoing.getHops().get(secondNodeId));
+    assertEquals(2, (int) outgoing.getHops().get(thirdNodeId));
+    assertEquals(sorted(firstEdgeId, secondEdgeId), outgoing.getEdgeIds());
+
+    NodeNeighborhood both = dao.retrieveNeighborhood(firstNodeId, EdgeDirection.BOTH, 1);
+    assertEquals(4, both.getHops().size());
+    assertEquals(1, (int) both.getHops().get(thirdNodeId));
+    assertEquals(1, (int) both.getHops().get(fourthNodeId));
+    assertEquals(sorted(firstEdgeId, cycleEdgeId, fourthEdgeId), both.getEdgeIds());
+  }
+
+  private static List<Long> sorted(Long... ids) {
+    List<Long> list = new ArrayList<>(Arrays.asList(ids));
+    Collections.sort(list);
+    return list;
+  }
 }
@@ -15,12 +15,15 @@ package edu.berkeley.ground.postgres.dao.core;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.core.EdgeDirection;
 import edu.berkeley.ground.common.model.core.EdgeVersion;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -151,6 +154,41 @@ public class PostgresEdgeVersionDaoTest extends PostgresTest {
     assertEquals(toEndId, parent.getToNodeVersionEndId());
   }
 
+  @Test
+  public void testValidEdgeVersionsForNodeVersion() throws GroundException {
+    long firstNodeId = PostgresTest.createNode("firstNode").getId();
+    long secondNodeId = PostgresTest.createNode("secondNode").getId();
+    long edgeId = PostgresTest.createEdge("testEdge", "firstNode", "secondNode").getId();
+
+    long firstNodeVersionId = PostgresTest.createNodeVersion(firstNodeId).getId();
+    long middleNodeVersionId = PostgresTest.createNodeVersion(firstNodeId, Collections.singletonList(firstNodeVersionId)).getId();
+    long lastNodeVersionId = PostgresTest.createNodeVersion(firstNodeId, Collections.singletonList(middleNodeVersionId)).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(secondNodeId).getId();
+
+    long oldEdgeVersionId = PostgresTest.createEdgeVersion(edgeId, firstNodeVersionId, secondNodeVersionId).getId();
+    long newEdgeVersionId = PostgresTest.createEdgeVersion(edgeId, lastNodeVersionId, secondNodeVersionId,
+      Collections.singletonList(oldEdgeVersionId)).getId();
+
+    // the old version ends at the parent of the new start version; the other endpoint didn't change
+    EdgeVersion oldEdgeVersion = PostgresTest.edgeVersionDao.retrieveFromDatabase(oldEdgeVersionId);
+    assertEquals(middleNodeVersionId, oldEdgeVersion.getFromNodeVersionEndId());
+    assertEquals(-1, oldEdgeVersion.getToNodeVersionEndId());
+
+    PostgresEdgeVersionDao dao = (PostgresEdgeVersionDao) PostgresTest.edgeVersionDao;
+    assertEquals(Collections.singletonList(oldEdgeVersionId), dao.retrieveIdsValidForNodeVersion(firstNodeVersionId, EdgeDirection.BOTH, Long.MIN_VALUE, 10));
+    assertEquals(Collections.singletonList(oldEdgeVersionId), dao.retrieveIdsValidForNodeVersion(middleNodeVersionId, EdgeDirection.BOTH, Long.MIN_VALUE, 10));
+    assertEquals(Collections.singletonList(newEdgeVersionId), dao.retrieveIdsValidForNodeVersion(lastNodeVersionId, EdgeDirection.BOTH, Long.MIN_VALUE, 10));
+    assertEquals(2, dao.retrieveIdsValidForNodeVersion(secondNodeVersionId, EdgeDirection.BOTH, Long.MIN_VALUE, 10).size());
+
+    // a branch at the depth of the new start version is past the old end, but not after the new start
+    long siblingNodeVersionId = PostgresTest.createNodeVersion(firstNodeId, Collections.singletonList(middleNodeVersionId)).getId();
+    assertTrue(dao.retrieveIdsValidForNodeVersion(siblingNodeVersionId, EdgeDirection.BOTH, Long.MIN_VALUE, 10).isEmpty());
+
+    // a branch that leaves before the old end keeps the old version
+    long branchNodeVersionId = PostgresTest.createNodeVersion(firstNodeId, Collections.singletonList(firstNodeVersionId)).getId();
+    assertEquals(Collections.singletonList(oldEdgeVersionId), dao.retrieveIdsValidForNodeVersion(branchNodeVersionId, EdgeDirection.BOTH, Long.MIN_VALUE, 10));
+  }
+
   @Test(expected = GroundException.class)
   public void testBadEdgeVersion() throws GroundException {
     long id = 1;
@@ -15,13 +15,24 @@
 package edu.berkeley.ground.postgres.dao.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import edu.berkeley.ground.common.analytics.CsrGraph;
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.GraphVersion;
+import edu.berkeley.ground.common.model.core.GraphVersionDiff;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.util.LongBitmaps;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -103,6 +114,269 @@ public class PostgresGraphVersionDaoTest extends PostgresTest {
     assertTrue(retrieved.getEdgeVersionIds().isEmpty());
   }
 
+  @Test
+  public void testIncrementalGraphVersions() throws GroundException {
+    long firstNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("firstNode").getId()).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("secondNode").getId()).getId();
+    long edgeId = PostgresTest.createEdge("testEdge", "firstNode", "secondNode").getId();
+
+    List<Long> edgeVersionIds = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      edgeVersionIds.add(PostgresTest.createEdgeVersion(edgeId, firstNodeVersionId, secondNodeVersionId).getId());
+    }
+
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    PostgresGraphVersionDao graphVersionDao = (PostgresGraphVersionDao) PostgresTest.graphVersionDao;
+
+    System.setProperty("ground.graphs.snapshot.interval", "3");
+
+    try {
+      List<Long> expected = new ArrayList<>(edgeVersionIds.subList(0, 4));
+      long parentId = PostgresTest.createGraphVersion(graphId, expected).getId();
+      List<Long> versionIds = new ArrayList<>();
+      List<List<Long>> versionEdges = new ArrayList<>();
+
+      // swap one edge per version, crossing a snapshot
+      for (int i = 0; i < 4; i++) {
+        long removed = expected.get(0);
+        long added = edgeVersionIds.get((4 + i) % edgeVersionIds.size());
+
+        List<Long> parentIds = new ArrayList<>();
+        parentIds.add(parentId);
+
+        GraphVersion graphVersion = new GraphVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), graphId, null);
+        GraphVersion created = graphVersionDao.create(graphVersion, parentIds, Collections.singletonList(added),
+          Collections.singletonList(removed));
+
+        expected.remove(removed);
+        expected.add(added);
+        Collections.sort(expected);
+
+        assertEquals(expected, created.getEdgeVersionIds());
+
+        parentId = created.getId();
+        versionIds.add(parentId);
+        versionEdges.add(new ArrayList<>(expected));
+      }
+
+      // read with a new DAO so that no edge set is cached
+      PostgresGraphVersionDao reader = new PostgresGraphVersionDao(PostgresTest.dbSource, PostgresTest.idGenerator);
+      for (int i = 0; i < versionIds.size(); i++) {
+        assertEquals(versionEdges.get(i), reader.retrieveFromDatabase(versionIds.get(i)).getEdgeVersionIds());
+      }
+
+      // a full edge list that only differs by one edge is stored as a delta as well
+      List<Long> parentIds = new ArrayList<>();
+      parentIds.add(parentId);
+      List<Long> full = new ArrayList<>(expected.subList(1, expected.size()));
+      long fullId = PostgresTest.createGraphVersion(graphId, full, parentIds).getId();
+      assertEquals(full, reader.retrieveFromDatabase(fullId).getEdgeVersionIds());
+    } finally {
+      System.clearProperty("ground.graphs.snapshot.interval");
+    }
+  }
+
+  @Test
+  public void testBitmapEdgeStorage() throws GroundException {
+    long firstNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("firstNode").getId()).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("secondNode").getId()).getId();
+    long edgeId = PostgresTest.createEdge("testEdge", "firstNode", "secondNode").getId();
+
+    List<Long> edgeVersionIds = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      edgeVersionIds.add(PostgresTest.createEdgeVersion(edgeId, firstNodeVersionId, secondNodeVersionId).getId());
+    }
+
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    List<Long> parentIds = new ArrayList<>();
+    parentIds.add(PostgresTest.createGraphVersion(graphId, edgeVersionIds.subList(0, 3)).getId());
+
+    System.setProperty("ground.graphs.edges.storage", "bitmap");
+    long bitmapId;
+
+    try {
+      // a bitmap version on top of a version stored as rows
+      bitmapId = PostgresTest.createGraphVersion(graphId, edgeVersionIds.subList(1, 4), parentIds).getId();
+
+      PostgresGraphVersionDao reader = new PostgresGraphVersionDao(PostgresTest.dbSource, PostgresTest.idGenerator);
+      assertEquals(edgeVersionIds.subList(1, 4), reader.retrieveFromDatabase(bitmapId).getEdgeVersionIds());
+    } finally {
+      System.clearProperty("ground.graphs.edges.storage");
+    }
+
+    // a delta stored as rows on top of a bitmap version
+    parentIds.set(0, bitmapId);
+    long deltaId = PostgresTest.createGraphVersion(graphId, edgeVersionIds.subList(2, 4), parentIds).getId();
+
+    PostgresEdgeSetStore store = PostgresEdgeSetStore.forGraphs(PostgresTest.dbSource);
+    assertEquals(edgeVersionIds.subList(2, 4), store.retrieveEdgeIds(deltaId));
+    assertTrue(store.contains(bitmapId, edgeVersionIds.get(1)));
+    assertFalse(store.contains(deltaId, edgeVersionIds.get(1)));
+  }
+
+  @Test
+  public void testRetrieveIdsByEdgeVersion() throws GroundException {
+    long firstNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("firstNode").getId()).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("secondNode").getId()).getId();
+    long otherNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("otherNode").getId()).getId();
+    long edgeId = PostgresTest.createEdge("testEdge", "firstNode", "secondNode").getId();
+
+    List<Long> edgeVersionIds = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      edgeVersionIds.add(PostgresTest.createEdgeVersion(edgeId, firstNodeVersionId, secondNodeVersionId).getId());
+    }
+
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    long snapshotId = PostgresTest.createGraphVersion(graphId, edgeVersionIds.subList(0, 3)).getId();
+
+    System.setProperty("ground.graphs.edges.storage", "bitmap");
+    long rootId;
+    long bitmapId;
+
+    try {
+      rootId = PostgresTest.createGraphVersion(graphId, edgeVersionIds.subList(3, 4)).getId();
+      bitmapId = PostgresTest.createGraphVersion(graphId, edgeVersionIds.subList(1, 4), Collections.singletonList(snapshotId)).getId();
+    } finally {
+      System.clearProperty("ground.graphs.edges.storage");
+    }
+
+    long deltaId = PostgresTest.createGraphVersion(graphId, edgeVersionIds.subList(2, 4), Collections.singletonList(bitmapId)).getId();
+    PostgresGraphVersionDao dao = (PostgresGraphVersionDao) PostgresTest.graphVersionDao;
+
+    assertEquals(Collections.singletonList(snapshotId), dao.retrieveIdsByEdgeVersion(edgeVersionIds.get(0)));
+    assertEquals(sorted(snapshotId, bitmapId), dao.retrieveIdsByEdgeVersion(edgeVersionIds.get(1)));
+    assertEquals(sorted(snapshotId, bitmapId, deltaId), dao.retrieveIdsByEdgeVersion(edgeVersionIds.get(2)));
+    assertEquals(sorted(rootId, bitmapId, deltaId), dao.retrieveIdsByEdgeVersion(edgeVersionIds.get(3)));
+
+    assertEquals(sorted(snapshotId, rootId, bitmapId, deltaId), dao.retrieveIdsByNodeVersion(secondNodeVersionId));
+    assertTrue(dao.retrieveIdsByNodeVersion(otherNodeVersionId).isEmpty());
+  }
+
+  @Test
+  public void testLoadCsrGraph() throws GroundException {
+    long firstNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("firstNode").getId()).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("secondNode").getId()).getId();
+    long thirdNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("thirdNode").getId()).getId();
+
+    long firstEdgeVersionId = PostgresTest.createEdgeVersion(PostgresTest.createEdge("firstEdge", "firstNode", "secondNode").getId(),
+      firstNodeVersionId, secondNodeVersionId).getId();
+    long secondEdgeVersionId = PostgresTest.createEdgeVersion(PostgresTest.createEdge("secondEdge", "secondNode", "thirdNode").getId(),
+      secondNodeVersionId, thirdNodeVersionId).getId();
+
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    long graphVersionId = PostgresTest.createGraphVersion(graphId, Arrays.asList(firstEdgeVersionId, secondEdgeVersionId)).getId();
+
+    PostgresCsrGraphLoader loader = PostgresCsrGraphLoader.forGraphs(PostgresTest.dbSource);
+    CsrGraph graph = loader.load(graphVersionId);
+
+    assertEquals(3, graph.getVertexCount());
+    assertEquals(2, graph.getEdgeCount());
+    assertEquals(secondEdgeVersionId, graph.getEdgeId(graph.indexOf(secondNodeVersionId), graph.indexOf(thirdNodeVersionId)));
+    assertSame(graph, loader.load(graphVersionId));
+
+    try {
+      loader.load(graphVersionId + 1000);
+      fail();
+    } catch (GroundException e) {
+      assertEquals(GroundException.ExceptionType.VERSION_NOT_FOUND, e.getExceptionType());
+    }
+  }
+
+  @Test
+  public void testGraphVersionDiff() throws GroundException {
+    long firstNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("firstNode").getId()).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("secondNode").getId()).getId();
+
+    long changedEdgeId = PostgresTest.createEdge("changedEdge", "firstNode", "secondNode").getId();
+    long removedEdgeId = PostgresTest.createEdge("removedEdge", "firstNode", "secondNode").getId();
+    long addedEdgeId = PostgresTest.createEdge("addedEdge", "firstNode", "secondNode").getId();
+    long keptEdgeId = PostgresTest.createEdge("keptEdge", "firstNode", "secondNode").getId();
+
+    long oldVersionId = PostgresTest.createEdgeVersion(changedEdgeId, firstNodeVersionId, secondNodeVersionId).getId();
+    long newVersionId = PostgresTest.createEdgeVersion(changedEdgeId, firstNodeVersionId, secondNodeVersionId).getId();
+    long removedVersionId = PostgresTest.createEdgeVersion(removedEdgeId, firstNodeVersionId, secondNodeVersionId).getId();
+    long addedVersionId = PostgresTest.createEdgeVersion(addedEdgeId, firstNodeVersionId, secondNodeVersionId).getId();
+    long keptVersionId = PostgresTest.createEdgeVersion(keptEdgeId, firstNodeVersionId, secondNodeVersionId).getId();
+
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    long fromId = PostgresTest.createGraphVersion(graphId, Arrays.asList(oldVersionId, removedVersionId, keptVersionId)).getId();
+    long toId = PostgresTest.createGraphVersion(graphId, Arrays.asList(newVersionId, addedVersionId, keptVersionId),
+      Collections.singletonList(fromId)).getId();
+
+    GraphVersionDiff diff = ((PostgresGraphVersionDao) PostgresTest.graphVersionDao).diff(fromId, toId);
+
+    assertEquals(Collections.singletonList(addedVersionId), diff.getAdded());
+    assertEquals(Collections.singletonList(removedVersionId), diff.getRemoved());
+    assertEquals(1, diff.getChanged().size());
+    assertEquals(changedEdgeId, diff.getChanged().get(0).getEdgeId());
+    assertEquals(oldVersionId, diff.getChanged().get(0).getFromEdgeVersionId());
+    assertEquals(newVersionId, diff.getChanged().get(0).getToEdgeVersionId());
+
+    GraphVersionDiff reverse = ((PostgresGraphVersionDao) PostgresTest.graphVersionDao).diff(toId, fromId);
+    assertEquals(Collections.singletonList(removedVersionId), reverse.getAdded());
+    assertEquals(newVersionId, reverse.getChanged().get(0).getFromEdgeVersionId());
+  }
+
+  @Test(expected = GroundException.class)
+  public void testGraphVersionDiffWithMissingVersion() throws GroundException {
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    long graphVersionId = PostgresTest.createGraphVersion(graphId, new ArrayList<>()).getId();
+
+    ((PostgresGraphVersionDao) PostgresTest.graphVersionDao).diff(graphVersionId, graphVersionId + 100);
+  }
+
+  @Test
+  public void testMissingEdgeSets() throws GroundException {
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    PostgresGraphVersionDao graphVersionDao = (PostgresGraphVersionDao) PostgresTest.graphVersionDao;
+    GraphVersion graphVersion = new GraphVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), graphId, null);
+
+    // a missing base is an error, and it is not cached as an empty edge set
+    for (int i = 0; i < 2; i++) {
+      try {
+        graphVersionDao.create(graphVersion, Collections.singletonList(12345L), new ArrayList<>(), new ArrayList<>());
+        fail();
+      } catch (GroundException e) {
+        assertEquals(ExceptionType.VERSION_NOT_FOUND, e.getExceptionType());
+      }
+    }
+
+    long firstNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("firstNode").getId()).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("secondNode").getId()).getId();
+    long edgeId = PostgresTest.createEdge("testEdge", "firstNode", "secondNode").getId();
+    long edgeVersionId = PostgresTest.createEdgeVersion(edgeId, firstNodeVersionId, secondNodeVersionId).getId();
+
+    System.setProperty("ground.graphs.edges.storage", PostgresEdgeSetStore.BITMAP_STORAGE);
+
+    try {
+      long fromId = PostgresTest.createGraphVersion(graphId, new ArrayList<>()).getId();
+      long toId = PostgresTest.createGraphVersion(graphId, Collections.singletonList(edgeVersionId)).getId();
+
+      // a bitmap does not reference its edge versions, so it may hold one that has no row
+      try (Connection con = PostgresTest.dbSource.getConnection()) {
+        con.createStatement().executeUpdate(String.format("UPDATE graph_version SET edge_bitmap = %s WHERE id = %d;",
+          LongBitmaps.toSqlLiteral(LongBitmaps.of(Collections.singletonList(edgeVersionId + 1000))), fromId));
+      }
+
+      new PostgresGraphVersionDao(PostgresTest.dbSource, PostgresTest.idGenerator).diff(fromId, toId);
+      fail();
+    } catch (SQLException e) {
+      throw new GroundException(e);
+    } catch (GroundException e) {
+      assertEquals(ExceptionType.VERSION_NOT_FOUND, e.getExceptionType());
+    } finally {
+      System.clearProperty("ground.graphs.edges.storage");
+    }
+  }
+
+  @Test(expected = GroundException.class)
+  public void testIncrementalGraphVersionWithoutParent() throws GroundException {
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    GraphVersion graphVersion = new GraphVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), graphId, null);
+
+    ((PostgresGraphVersionDao) PostgresTest.graphVersionDao).create(graphVersion, new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+  }
+
   @Test(expected = GroundException.class)
   public void testBadGraphVersion() throws GroundException {
     long id = 1;
@@ -115,4 +389,10 @@ public class PostgresGraphVersionDaoTest extends PostgresTest {
       throw e;
     }
   }
+
+  private static List<Long> sorted(Long... ids) {
+    List<Long> list = new ArrayList<>(Arrays.asList(ids));
+    Collections.sort(list);
+    return list;
+  }
 }
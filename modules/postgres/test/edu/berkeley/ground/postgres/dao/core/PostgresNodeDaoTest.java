@@ -15,6 +15,8 @@
 package edu.berkeley.ground.postgres.dao.core;
 
 import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -25,8 +27,14 @@ import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.model.version.VersionSuccessor;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.version.mock.TestCacheApi;
+import edu.berkeley.ground.postgres.jobs.CacheEvictionListener;
+import edu.berkeley.ground.postgres.util.PostgresStatements;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -70,6 +78,69 @@ public class PostgresNodeDaoTest extends PostgresTest {
     assertTrue(leaves.contains(secondNodeVersionId));
   }
 
+  @Test
+  public void testAsOfRetrieval() throws GroundException {
+    String sourceKey = "testNode";
+    long nodeId = PostgresTest.createNode(sourceKey).getId();
+
+    long firstNodeVersionId = PostgresTest.createNodeVersion(nodeId).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(nodeId, Collections.singletonList(firstNodeVersionId)).getId();
+    long thirdNodeVersionId = PostgresTest.createNodeVersion(nodeId, Collections.singletonList(firstNodeVersionId)).getId();
+
+    // backdate the node and its versions to a day apart from each other
+    PostgresUtils.executeSqlList(PostgresTest.dbSource, new PostgresStatements(Arrays.asList(
+      String.format("UPDATE item SET created_at = '2017-01-01T00:00:00Z' WHERE id = %d;", nodeId),
+      String.format("UPDATE version SET created_at = '2017-01-02T00:00:00Z' WHERE id = %d;", firstNodeVersionId),
+      String.format("UPDATE version SET created_at = '2017-01-03T00:00:00Z' WHERE id = %d;", secondNodeVersionId),
+      String.format("UPDATE version SET created_at = '2017-01-04T00:00:00Z' WHERE id = %d;", thirdNodeVersionId),
+      "UPDATE version_history_dag d SET created_at = v.created_at FROM version_successor s, version v "
+        + "WHERE s.id = d.version_successor_id AND v.id = s.to_version_id;")));
+
+    PostgresNodeDao postgresNodeDao = (PostgresNodeDao) PostgresTest.nodeDao;
+    assertEquals(nodeId, postgresNodeDao.retrieveFromDatabase(sourceKey, Instant.parse("2017-01-01T12:00:00Z")).getId());
+
+    assertEquals(Collections.emptyList(), postgresNodeDao.getLeaves(nodeId, Instant.parse("2017-01-01T12:00:00Z")));
+    assertEquals(Collections.singletonList(firstNodeVersionId), postgresNodeDao.getLeaves(nodeId, Instant.parse("2017-01-02T12:00:00Z")));
+    assertEquals(Collections.singletonList(secondNodeVersionId), postgresNodeDao.getLeaves(nodeId, Instant.parse("2017-01-03T12:00:00Z")));
+    assertEquals(Arrays.asList(secondNodeVersionId, thirdNodeVersionId), postgresNodeDao.getLeaves(nodeId, Instant.parse("2017-01-04T00:00:00Z")));
+
+    try {
+      postgresNodeDao.retrieveFromDatabase(sourceKey, Instant.parse("2016-12-31T00:00:00Z"));
+      fail("The node did not exist yet.");
+    } catch (GroundException e) {
+      assertEquals(GroundException.ExceptionType.ITEM_NOT_FOUND, e.getExceptionType());
+    }
+  }
+
+  @Test
+  public void testCacheEviction() throws Exception {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long firstNodeVersionId = PostgresTest.createNodeVersion(nodeId).getId();
+
+    TestCacheApi cache = new TestCacheApi();
+    String key = "node_leaves." + nodeId;
+    cache.set(key, Collections.singletonList(firstNodeVersionId));
+    cache.set("node_leaves.0", Collections.emptyList());
+
+    CacheEvictionListener listener = new CacheEvictionListener(PostgresTest.dbSource, cache, 10);
+    listener.start();
+
+    try {
+      // give the listener time to start listening before the write is committed
+      Thread.sleep(500);
+      PostgresTest.createNodeVersion(nodeId, Collections.singletonList(firstNodeVersionId));
+
+      for (int i = 0; i < 100 && cache.get(key) != null; i++) {
+        Thread.sleep(50);
+      }
+
+      assertNull(cache.get(key));
+      assertNotNull(cache.get("node_leaves.0"));
+    } finally {
+      listener.stop();
+    }
+  }
+
   @Test(expected = GroundException.class)
   public void testRetrieveBadNode() throws GroundException {
     String sourceKey = "test";
@@ -15,16 +15,28 @@
 package edu.berkeley.ground.postgres.dao.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.NodeVersion;
+import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.TagPredicate;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.version.PostgresTagDao;
+import edu.berkeley.ground.postgres.dao.version.mock.TestCacheApi;
+import edu.berkeley.ground.postgres.util.GroundUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class PostgresNodeVersionDaoTest extends PostgresTest {
@@ -79,6 +91,142 @@ public class PostgresNodeVersionDaoTest extends PostgresTest {
     assertTrue(1 == leaves.size());
   }
 
+  @Test
+  public void testCachedContentHash() throws Exception {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long id = PostgresTest.createNodeVersion(nodeId).getId();
+    PostgresNodeVersionDao nodeVersionDao = (PostgresNodeVersionDao) PostgresTest.nodeVersionDao;
+
+    TestCacheApi cache = new TestCacheApi();
+    AtomicInteger lookups = new AtomicInteger();
+    System.setProperty("ground.cache.expire.secs", "5");
+
+    try {
+      for (int i = 0; i < 3; i++) {
+        assertEquals(nodeVersionDao.retrieveContentHash(id), GroundUtils.getContentHash(cache, "node_versions." + id, () -> {
+          lookups.incrementAndGet();
+          return nodeVersionDao.retrieveContentHash(id);
+        }));
+      }
+
+      // a version without a hash is only looked up once too
+      for (int i = 0; i < 3; i++) {
+        assertNull(GroundUtils.getContentHash(cache, "node_versions.0", () -> {
+          lookups.incrementAndGet();
+          return null;
+        }));
+      }
+
+      assertEquals(2, lookups.get());
+    } finally {
+      System.clearProperty("ground.cache.expire.secs");
+    }
+  }
+
+  @Test
+  public void testIdenticalNodeVersionDeduplication() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    Map<String, Tag> tags = PostgresTest.createTags();
+
+    long parentId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), nodeId), new ArrayList<>()).getId();
+    String parentHash = ((PostgresNodeVersionDao) PostgresTest.nodeVersionDao).retrieveContentHash(parentId);
+
+    List<Long> parentIds = new ArrayList<>();
+    parentIds.add(parentId);
+
+    // without deduplication, an identical child is a new version with the same hash
+    long childId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), nodeId), parentIds).getId();
+    assertNotEquals(parentId, childId);
+    assertEquals(parentHash, ((PostgresNodeVersionDao) PostgresTest.nodeVersionDao).retrieveContentHash(childId));
+
+    System.setProperty("ground.versions.deduplicate", "true");
+
+    try {
+      parentIds.set(0, childId);
+      assertEquals(childId, PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), nodeId), parentIds).getId());
+
+      Map<String, Tag> changedTags = new HashMap<>(tags);
+      changedTags.remove(changedTags.keySet().iterator().next());
+      long changedId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, changedTags, -1, null, new HashMap<>(), nodeId), parentIds).getId();
+      assertNotEquals(childId, changedId);
+      assertEquals(Collections.singletonList(changedId), PostgresTest.nodeDao.getLeaves("testNode"));
+
+      // an identical version of another node is not a parent this node can be deduplicated to
+      long otherNodeId = PostgresTest.createNode("otherNode").getId();
+      try {
+        PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), otherNodeId), parentIds);
+        fail();
+      } catch (GroundException e) {
+        assertTrue(e.getMessage().contains("is not in Item"));
+      }
+    } finally {
+      System.clearProperty("ground.versions.deduplicate");
+    }
+  }
+
+  @Test
+  public void testDeltaEncodedTags() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+
+    System.setProperty("ground.tags.delta.enabled", "true");
+    System.setProperty("ground.tags.delta.checkpoint", "3");
+
+    try {
+      Map<String, Tag> tags = PostgresTest.createTags();
+      long parentId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), nodeId), new ArrayList<>()).getId();
+
+      List<Long> parentIds = new ArrayList<>();
+      parentIds.add(parentId);
+      List<Long> versionIds = new ArrayList<>();
+      List<Map<String, Tag>> versionTags = new ArrayList<>();
+
+      // change one tag and drop another in each generation, crossing a checkpoint
+      for (int i = 0; i < 4; i++) {
+        tags = new HashMap<>(tags);
+        tags.put("generation", new Tag(-1, "generation", (long) i, GroundType.LONG));
+        tags.remove(i == 1 ? "intfield" : "none");
+
+        long id = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), nodeId), parentIds).getId();
+        parentIds.set(0, id);
+        versionIds.add(id);
+        versionTags.add(tags);
+      }
+
+      // retrieve with fresh DAOs so that nothing is served from the tag map cache
+      PostgresNodeVersionDao reader = new PostgresNodeVersionDao(PostgresTest.dbSource, PostgresTest.idGenerator);
+      for (int i = 0; i < versionIds.size(); i++) {
+        assertEquals(versionTags.get(i), reader.retrieveFromDatabase(versionIds.get(i)).getTags());
+      }
+
+      assertEquals(versionTags.get(1), new PostgresTagDao(PostgresTest.dbSource).retrieveFromDatabaseByVersionId(versionIds.get(1)));
+
+      // inherited tags are returned with the id of the version they were read for
+      for (Tag tag : reader.retrieveFromDatabase(versionIds.get(2)).getTags().values()) {
+        assertEquals((long) versionIds.get(2), tag.getId());
+      }
+
+      // without the tag index, queries follow the deltas to the inherited tags
+      List<Long> withInt = new ArrayList<>(Arrays.asList(parentId, versionIds.get(0)));
+      List<Long> withoutInt = versionIds.subList(1, versionIds.size());
+      List<Long> all = new ArrayList<>(withInt);
+      all.addAll(withoutInt);
+
+      assertEquals(new HashSet<>(withInt), new HashSet<>(PostgresTest.tagDao.getVersionIdsByTag("intfield")));
+      assertEquals(new HashSet<>(all), new HashSet<>(PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("strfield", null, "1", null))));
+      assertEquals(new HashSet<>(versionIds.subList(2, 4)),
+        new HashSet<>(PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("generation", "gte", "2", null))));
+
+      List<TagPredicate> bool = Collections.singletonList(TagPredicate.fromStrings("boolfield", null, "true", "boolean"));
+      List<TagPredicate> noInt = Collections.singletonList(new TagPredicate("intfield"));
+      assertEquals(withoutInt, PostgresTest.tagDao.getVersionIdsByTags(bool, Collections.emptyList(), noInt, 0, 10));
+      assertEquals(withoutInt.subList(1, 3), PostgresTest.tagDao.getVersionIdsByTags(bool, Collections.emptyList(), noInt, withoutInt.get(0), 2));
+      assertEquals(withInt, PostgresTest.tagDao.getVersionIdsByTags(Collections.emptyList(), noInt, Collections.emptyList(), 0, 10));
+    } finally {
+      System.clearProperty("ground.tags.delta.enabled");
+      System.clearProperty("ground.tags.delta.checkpoint");
+    }
+  }
+
   @Test(expected = GroundException.class)
   public void testBadNodeVersion() throws GroundException {
     long id = 1;
@@ -13,6 +13,8 @@
  */
 package edu.berkeley.ground.postgres.dao.core;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import edu.berkeley.ground.common.exception.GroundException;
@@ -20,8 +22,14 @@ import edu.berkeley.ground.common.model.core.Node;
 import edu.berkeley.ground.common.model.core.NodeVersion;
 import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.TagPredicate;
+import edu.berkeley.ground.common.model.version.TagPredicate.Operator;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.version.PostgresTagDao;
+import edu.berkeley.ground.postgres.dao.version.TagIndex;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -66,4 +74,227 @@ public class PostgresTagDaoTest extends PostgresTest {
     assertTrue(ids.contains(nodeVersionId1));
     assertTrue(ids.contains(nodeVersionId2));
   }
+
+  @Test
+  public void testGetIdsByQuotedTag() throws GroundException {
+    Map<String, Tag> tagsMap = new HashMap<>();
+    tagsMap.put("owner's", new Tag(1, "owner's", null, null));
+
+    long nodeId = PostgresTest.nodeDao.create(new Node(0L, null, "test1", tagsMap)).getId();
+    NodeVersion nodeVersion = new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId);
+    long nodeVersionId = PostgresTest.nodeVersionDao.create(nodeVersion, new ArrayList<>()).getId();
+
+    assertTrue(PostgresTest.tagDao.getItemIdsByTag("owner's").contains(nodeId));
+    assertTrue(PostgresTest.tagDao.getVersionIdsByTag("owner's").contains(nodeVersionId));
+  }
+
+  @Test
+  public void testGetVersionIdsByTagRange() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+
+    long smallId = this.createNodeVersionWithTag(nodeId, new Tag(1, "rows", 10L, GroundType.LONG));
+    long largeId = this.createNodeVersionWithTag(nodeId, new Tag(1, "rows", 2000000000000L, GroundType.LONG));
+    long intId = this.createNodeVersionWithTag(nodeId, new Tag(1, "rows", 5, GroundType.INTEGER));
+
+    List<Long> ids = PostgresTest.tagDao.getVersionIdsByTag(new TagPredicate("rows", Operator.GT, 1000000000L, GroundType.LONG));
+    assertEquals(1, ids.size());
+    assertTrue(ids.contains(largeId));
+
+    ids = PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("rows", "lte", "10", null));
+    assertEquals(2, ids.size());
+    assertTrue(ids.contains(smallId));
+    assertTrue(ids.contains(intId));
+
+    ids = PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("rows", "lt", "10.5", null));
+    assertEquals(2, ids.size());
+
+    ids = PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("rows", "gt", "1e12", "long"));
+    assertEquals(1, ids.size());
+    assertTrue(ids.contains(largeId));
+
+    ids = PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("rows", "eq", "5.5", "integer"));
+    assertTrue(ids.isEmpty());
+
+    ids = PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("rows", "ne", "5.5", "integer"));
+    assertEquals(3, ids.size());
+
+    ids = PostgresTest.tagDao.getVersionIdsByTag(new TagPredicate("rows"));
+    assertEquals(3, ids.size());
+  }
+
+  @Test
+  public void testGetItemIdsByTagValue() throws GroundException {
+    Map<String, Tag> trueTags = new HashMap<>();
+    trueTags.put("flag", new Tag(1, "flag", true, GroundType.BOOLEAN));
+    trueTags.put("name", new Tag(1, "name", "it's", GroundType.STRING));
+
+    Map<String, Tag> falseTags = new HashMap<>();
+    falseTags.put("flag", new Tag(1, "flag", false, GroundType.BOOLEAN));
+
+    long nodeId1 = PostgresTest.nodeDao.create(new Node(0L, null, "test1", trueTags)).getId();
+    long nodeId2 = PostgresTest.nodeDao.create(new Node(0L, null, "test2", falseTags)).getId();
+
+    List<Long> ids = PostgresTest.tagDao.getItemIdsByTag(new TagPredicate("flag", Operator.EQ, true, GroundType.BOOLEAN));
+    assertTrue(ids.contains(nodeId1));
+    assertFalse(ids.contains(nodeId2));
+
+    ids = PostgresTest.tagDao.getItemIdsByTag(TagPredicate.fromStrings("name", null, "it's", null));
+    assertEquals(1, ids.size());
+    assertTrue(ids.contains(nodeId1));
+
+    Map<String, Tag> retrieved = PostgresTest.tagDao.retrieveFromDatabaseByItemId(nodeId1);
+    assertEquals(trueTags.get("flag"), retrieved.get("flag"));
+    assertEquals(trueTags.get("name"), retrieved.get("name"));
+  }
+
+  @Test
+  public void testGetVersionIdsByTagsPaginated() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    List<Long> expected = new ArrayList<>();
+
+    for (long rows = 1; rows <= 5; rows++) {
+      Map<String, Tag> tagsMap = new HashMap<>();
+      tagsMap.put("rows", new Tag(1, "rows", rows * 100, GroundType.LONG));
+      tagsMap.put("owner", new Tag(1, "owner", rows % 2 == 0 ? "alice" : "bob", GroundType.STRING));
+
+      long id = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId), new ArrayList<>()).getId();
+      if (rows % 2 == 1 && rows > 1) {
+        expected.add(id);
+      }
+    }
+
+    List<TagPredicate> predicates = new ArrayList<>();
+    predicates.add(TagPredicate.fromStrings("rows", "gte", "200", null));
+    predicates.add(TagPredicate.fromStrings("owner", null, "bob", null));
+
+    List<Long> firstPage = PostgresTest.tagDao.getVersionIdsByTags(predicates, Long.MIN_VALUE, 1);
+    assertEquals(1, firstPage.size());
+    assertEquals(expected.get(0), firstPage.get(0));
+
+    List<Long> secondPage = PostgresTest.tagDao.getVersionIdsByTags(predicates, firstPage.get(0), 10);
+    assertEquals(expected.subList(1, expected.size()), secondPage);
+
+    predicates.add(new TagPredicate("missing"));
+    assertTrue(PostgresTest.tagDao.getVersionIdsByTags(predicates, Long.MIN_VALUE, 10).isEmpty());
+  }
+
+  @Test
+  public void testGetVersionIdsByTagCombination() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    List<Long> ids = this.createTaggedNodeVersions(nodeId);
+
+    List<TagPredicate> all = Collections.singletonList(new TagPredicate("rows"));
+    List<TagPredicate> any = Arrays.asList(TagPredicate.fromStrings("owner", null, "alice", null),
+      TagPredicate.fromStrings("rows", "lt", "200", null));
+    List<TagPredicate> none = Collections.singletonList(TagPredicate.fromStrings("rows", null, "400", "long"));
+
+    assertEquals(Arrays.asList(ids.get(0), ids.get(1)),
+      PostgresTest.tagDao.getVersionIdsByTags(all, any, none, Long.MIN_VALUE, 10));
+    assertEquals(Arrays.asList(ids.get(0), ids.get(1), ids.get(3)),
+      PostgresTest.tagDao.getVersionIdsByTags(Collections.emptyList(), any, Collections.emptyList(), Long.MIN_VALUE, 10));
+  }
+
+  @Test
+  public void testTagIndexMatchesDatabase() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    List<Long> ids = this.createTaggedNodeVersions(nodeId);
+
+    List<List<TagPredicate>> queries = Arrays.asList(
+      Collections.singletonList(TagPredicate.fromStrings("rows", "gte", "200", null)),
+      Collections.singletonList(TagPredicate.fromStrings("rows", "ne", "300", "long")),
+      Collections.singletonList(TagPredicate.fromStrings("owner", "ne", "alice", null)),
+      Arrays.asList(new TagPredicate("owner"), TagPredicate.fromStrings("rows", "lte", "300", null)));
+
+    List<List<Long>> expected = new ArrayList<>();
+    for (List<TagPredicate> query : queries) {
+      expected.add(PostgresTest.tagDao.getVersionIdsByTags(query, Long.MIN_VALUE, 10));
+    }
+
+    TagIndex index = new TagIndex();
+    TagIndex.setInstance(index);
+
+    try {
+      index.load(PostgresTest.dbSource);
+
+      for (int i = 0; i < queries.size(); i++) {
+        assertEquals(expected.get(i), PostgresTest.tagDao.getVersionIdsByTags(queries.get(i), Long.MIN_VALUE, 10));
+      }
+
+      assertEquals(ids.subList(2, 4), PostgresTest.tagDao.getVersionIdsByTags(queries.get(0), ids.get(1), 2));
+
+      // new tags are added to the index when their transaction commits
+      long newId = this.createNodeVersionWithTag(nodeId, new Tag(1, "rows", 250L, GroundType.LONG));
+      assertTrue(PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("rows", "gt", "200", null)).contains(newId));
+    } finally {
+      TagIndex.setInstance(null);
+    }
+  }
+
+  @Test
+  public void testJsonbTagStorage() throws GroundException {
+    System.setProperty("ground.tags.storage", PostgresTagDao.JSONB_STORAGE);
+
+    try {
+      Map<String, Tag> itemTags = new HashMap<>();
+      itemTags.put("flag", new Tag(1, "flag", true, GroundType.BOOLEAN));
+      itemTags.put("name", new Tag(1, "name", "it's", GroundType.STRING));
+      itemTags.put("marker", new Tag(1, "marker", null, null));
+
+      long nodeId = PostgresTest.nodeDao.create(new Node(0L, null, "test1", itemTags)).getId();
+      assertEquals(itemTags, PostgresTest.tagDao.retrieveFromDatabaseByItemId(nodeId));
+      assertEquals(Collections.singletonList(nodeId), PostgresTest.tagDao.getItemIdsByTag("marker"));
+      assertEquals(Collections.singletonList(nodeId),
+        PostgresTest.tagDao.getItemIdsByTag(TagPredicate.fromStrings("name", null, "it's", null)));
+      assertTrue(PostgresTest.tagDao.getItemIdsByTag(TagPredicate.fromStrings("flag", "ne", "true", "boolean")).isEmpty());
+
+      Map<String, String> parameters = new HashMap<>();
+      parameters.put("http", "GET");
+
+      Map<String, Tag> versionTags = new HashMap<>();
+      versionTags.put("rows", new Tag(1, "rows", 5, GroundType.INTEGER));
+      long versionId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, versionTags, -1, "http://ground", parameters, nodeId),
+        new ArrayList<>()).getId();
+
+      NodeVersion retrieved = PostgresTest.nodeVersionDao.retrieveFromDatabase(versionId);
+      assertEquals(versionTags.get("rows"), retrieved.getTags().get("rows"));
+      assertEquals(parameters, retrieved.getParameters());
+
+      List<Long> ids = this.createTaggedNodeVersions(nodeId);
+      assertEquals(Arrays.asList(versionId, ids.get(0)),
+        PostgresTest.tagDao.getVersionIdsByTag(TagPredicate.fromStrings("rows", "lte", "100", null)));
+      assertEquals(Collections.singletonList(ids.get(1)),
+        PostgresTest.tagDao.getVersionIdsByTags(Collections.singletonList(TagPredicate.fromStrings("rows", null, "200", "long")),
+          Long.MIN_VALUE, 10));
+
+      List<TagPredicate> any = Arrays.asList(TagPredicate.fromStrings("owner", null, "alice", null),
+        TagPredicate.fromStrings("rows", "lt", "200", null));
+      List<TagPredicate> none = Collections.singletonList(TagPredicate.fromStrings("rows", null, "400", "long"));
+      assertEquals(Arrays.asList(versionId, ids.get(0), ids.get(1)),
+        PostgresTest.tagDao.getVersionIdsByTags(Collections.emptyList(), any, none, Long.MIN_VALUE, 10));
+    } finally {
+      System.clearProperty("ground.tags.storage");
+    }
+  }
+
+  private List<Long> createTaggedNodeVersions(long nodeId) throws GroundException {
+    List<Long> ids = new ArrayList<>();
+
+    for (long rows = 1; rows <= 5; rows++) {
+      Map<String, Tag> tagsMap = new HashMap<>();
+      tagsMap.put("rows", new Tag(1, "rows", rows * 100, GroundType.LONG));
+      tagsMap.put("owner", new Tag(1, "owner", rows % 2 == 0 ? "alice" : "bob", GroundType.STRING));
+
+      ids.add(PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId), new ArrayList<>()).getId());
+    }
+
+    return ids;
+  }
+
+  private long createNodeVersionWithTag(long nodeId, Tag tag) throws GroundException {
+    Map<String, Tag> tagsMap = new HashMap<>();
+    tagsMap.put(tag.getKey(), tag);
+
+    NodeVersion nodeVersion = new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId);
+    return PostgresTest.nodeVersionDao.create(nodeVersion, new ArrayList<>()).getId();
+  }
 }
@@ -1,13 +1,20 @@
 package edu.berkeley.ground.postgres.dao.usage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
+import edu.berkeley.ground.common.model.usage.PrincipalActivity;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.Test;
 
@@ -85,4 +92,60 @@ public class PostgresLineageEdgeVersionDaoTest extends PostgresTest {
       throw e;
     }
   }
+
+  @Test
+  public void testPrincipalActivity() throws GroundException, SQLException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long first = PostgresTest.createNodeVersion(nodeId).getId();
+    long second = PostgresTest.createNodeVersion(nodeId).getId();
+
+    long principalNodeId = PostgresTest.createNode("testPrincipal").getId();
+    long principal = PostgresTest.createNodeVersion(principalNodeId).getId();
+
+    long readId = PostgresTest.createLineageEdge("read").getId();
+    long writeId = PostgresTest.createLineageEdge("write").getId();
+
+    PostgresLineageEdgeVersionDao lineageEdgeVersionDao = (PostgresLineageEdgeVersionDao) PostgresTest.lineageEdgeVersionDao;
+    List<Long> ids = new ArrayList<>();
+    for (long lineageEdgeId : new long[] {readId, readId, writeId}) {
+      ids.add(lineageEdgeVersionDao.create(new LineageEdgeVersion(0L, new HashMap<>(), -1L, null, new HashMap<>(), first, second,
+        lineageEdgeId, principal), new ArrayList<>()).getId());
+    }
+
+    // a lineage edge version without a principal is not counted
+    PostgresTest.createLineageEdgeVersion(readId, first, second);
+
+    assertEquals(Long.valueOf(principal), lineageEdgeVersionDao.retrieveFromDatabase(ids.get(0)).getPrincipalId());
+    assertEquals(ids, lineageEdgeVersionDao.retrieveIdsByPrincipal(principal, null, null, Long.MIN_VALUE, 10));
+    assertEquals(ids.subList(1, 3), lineageEdgeVersionDao.retrieveIdsByPrincipal(principal, null, null, ids.get(0), 10));
+    assertTrue(lineageEdgeVersionDao.retrieveIdsByPrincipal(principal, Instant.now().plusSeconds(3600), null, Long.MIN_VALUE, 10).isEmpty());
+
+    PostgresPrincipalActivityDao activityDao = new PostgresPrincipalActivityDao(PostgresTest.dbSource);
+    List<PrincipalActivity> activity = activityDao.retrieve(principal, "day", Instant.now().minusSeconds(60), null);
+
+    assertEquals(2, activity.size());
+    for (PrincipalActivity counts : activity) {
+      assertEquals(principal, counts.getPrincipalId());
+      assertEquals(counts.getLineageEdgeId() == readId ? 2 : 1, counts.getLineageEdgeVersionCount());
+      assertTrue(counts.getBucket().endsWith("T00:00:00Z"));
+    }
+
+    assertEquals(2, activityDao.retrieve(null, "hour", null, null).size());
+    assertTrue(activityDao.retrieve(principal, "hour", null, Instant.now().minusSeconds(7200)).isEmpty());
+
+    // pages follow the creation time, not the id
+    try (Connection con = PostgresTest.dbSource.getConnection()) {
+      con.createStatement().executeUpdate(String.format("UPDATE lineage_edge_version SET created_at = created_at - interval \'1 hour\' "
+        + "WHERE id = %d;", ids.get(2)));
+    }
+
+    assertEquals(Arrays.asList(ids.get(2), ids.get(0), ids.get(1)),
+      lineageEdgeVersionDao.retrieveIdsByPrincipal(principal, null, null, Long.MIN_VALUE, 10));
+    assertEquals(ids.subList(0, 2), lineageEdgeVersionDao.retrieveIdsByPrincipal(principal, null, null, ids.get(2), 10));
+  }
+
+  @Test(expected = GroundException.class)
+  public void testBadActivityBucket() throws GroundException {
+    new PostgresPrincipalActivityDao(PostgresTest.dbSource).retrieve(null, "fortnight", null, null);
+  }
 }
@@ -2,12 +2,18 @@ package edu.berkeley.ground.postgres.dao.usage;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.usage.LineageGraphVersion;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -113,4 +119,76 @@ public class PostgresLineageGraphVersionDaoTest extends PostgresTest {
 
     assertTrue(retrieved.getLineageEdgeVersionIds().isEmpty());
   }
+
+  @Test
+  public void testLineageGraphVersionOrder() throws GroundException, SQLException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long first = PostgresTest.createNodeVersion(nodeId).getId();
+    long second = PostgresTest.createNodeVersion(nodeId).getId();
+    long third = PostgresTest.createNodeVersion(nodeId).getId();
+    long fourth = PostgresTest.createNodeVersion(nodeId).getId();
+
+    long lineageEdgeId = PostgresTest.createLineageEdge("testLineageEdge").getId();
+    long firstToSecond = PostgresTest.createLineageEdgeVersion(lineageEdgeId, first, second).getId();
+    long secondToThird = PostgresTest.createLineageEdgeVersion(lineageEdgeId, second, third).getId();
+    long fourthToFirst = PostgresTest.createLineageEdgeVersion(lineageEdgeId, fourth, first).getId();
+    long thirdToFirst = PostgresTest.createLineageEdgeVersion(lineageEdgeId, third, first).getId();
+
+    long lineageGraphId = PostgresTest.createLineageGraph("testLineageGraph").getId();
+    PostgresLineageGraphVersionDao lineageGraphVersionDao = (PostgresLineageGraphVersionDao) PostgresTest.lineageGraphVersionDao;
+
+    // without a stored order, the order is computed from the edges
+    long unordered = PostgresTest.createLineageGraphVersion(lineageGraphId, Arrays.asList(firstToSecond, secondToThird)).getId();
+    assertEquals(Arrays.asList(Collections.singletonList(first), Collections.singletonList(second), Collections.singletonList(third)),
+      lineageGraphVersionDao.retrieveOrder(unordered).getLevels());
+
+    System.setProperty("ground.lineage.toposort.enabled", "true");
+
+    try {
+      long base = PostgresTest.createLineageGraphVersion(lineageGraphId, Arrays.asList(firstToSecond, secondToThird)).getId();
+      assertEquals(Arrays.asList(first, second, third), lineageGraphVersionDao.retrieveOrder(base).getOrder());
+
+      // an edge into the start of the chain pushes the whole chain down a level
+      long extended = lineageGraphVersionDao.create(new LineageGraphVersion(0L, new HashMap<>(), -1L, null,
+        new HashMap<>(), lineageGraphId, new ArrayList<>()), Collections.singletonList(base), Collections.singletonList(fourthToFirst),
+        new ArrayList<>()).getId();
+      assertEquals(Arrays.asList(fourth, first, second, third), lineageGraphVersionDao.retrieveOrder(extended).getOrder());
+      assertEquals(4, lineageGraphVersionDao.retrieveOrder(extended).getLevels().size());
+
+      // removing an edge keeps the order of the parent
+      long shortened = lineageGraphVersionDao.create(new LineageGraphVersion(0L, new HashMap<>(), -1L, null,
+        new HashMap<>(), lineageGraphId, new ArrayList<>()), Collections.singletonList(extended), new ArrayList<>(),
+        Collections.singletonList(secondToThird)).getId();
+      assertEquals(Arrays.asList(fourth, first, second), lineageGraphVersionDao.retrieveOrder(shortened).getOrder());
+
+      // only the removed rich version is stored for the shortened version, and nothing for an unchanged one
+      long unchanged = lineageGraphVersionDao.create(new LineageGraphVersion(0L, new HashMap<>(), -1L, null,
+        new HashMap<>(), lineageGraphId, new ArrayList<>()), Collections.singletonList(shortened), new ArrayList<>(),
+        new ArrayList<>()).getId();
+      assertEquals(Arrays.asList(fourth, first, second), lineageGraphVersionDao.retrieveOrder(unchanged).getOrder());
+      assertEquals(1, countLevelRows(shortened));
+      assertEquals(0, countLevelRows(unchanged));
+
+      try {
+        lineageGraphVersionDao.create(new LineageGraphVersion(0L, new HashMap<>(), -1L, null, new HashMap<>(),
+          lineageGraphId, new ArrayList<>()), Collections.singletonList(extended), Collections.singletonList(thirdToFirst),
+          new ArrayList<>());
+        fail("A lineage graph version with a cycle was created.");
+      } catch (GroundException e) {
+        assertTrue(e.getMessage().contains("cycle"));
+      }
+    } finally {
+      System.clearProperty("ground.lineage.toposort.enabled");
+    }
+  }
+
+  private static int countLevelRows(long lineageGraphVersionId) throws SQLException {
+    try (Connection con = PostgresTest.dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(String.format(
+        "SELECT count(*) FROM lineage_graph_version_level WHERE lineage_graph_version_id = %d;", lineageGraphVersionId));
+      resultSet.next();
+
+      return resultSet.getInt(1);
+    }
+  }
 }
@@ -0,0 +1,71 @@
+package edu.berkeley.ground.postgres.dao.usage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.berkeley.ground.common.analytics.GraphAlgorithms;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.usage.LineageRank;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.jobs.LineageRankJob;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class PostgresLineageRankDaoTest extends PostgresTest {
+
+  public PostgresLineageRankDaoTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testLineageRanks() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long first = PostgresTest.createNodeVersion(nodeId).getId();
+    long second = PostgresTest.createNodeVersion(nodeId).getId();
+    long third = PostgresTest.createNodeVersion(nodeId).getId();
+
+    long lineageEdgeId = PostgresTest.createLineageEdge("testLineageEdge").getId();
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, first, second);
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, second, third);
+
+    PostgresLineageRankDao lineageRankDao = new PostgresLineageRankDao(PostgresTest.dbSource);
+    LineageRankJob lineageRankJob = new LineageRankJob(PostgresTest.dbSource, new GraphAlgorithms(new ForkJoinPool(2)));
+
+    assertEquals(3, lineageRankJob.refresh(false));
+    assertEquals(2, lineageRankDao.retrieveFromDatabase(first).getDownstreamCount());
+    assertEquals(1, lineageRankDao.retrieveFromDatabase(second).getDownstreamCount());
+    assertEquals(0, lineageRankDao.retrieveFromDatabase(third).getDownstreamCount());
+
+    // nothing changed since the last refresh
+    assertEquals(0, lineageRankJob.refresh(false));
+
+    // a new edge at the end of the chain adds one to the downstream count of every version before it
+    long fourth = PostgresTest.createNodeVersion(nodeId).getId();
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, third, fourth);
+
+    assertEquals(4, lineageRankJob.refresh(false));
+    assertEquals(3, lineageRankDao.retrieveFromDatabase(first).getDownstreamCount());
+    assertEquals(2, lineageRankDao.retrieveFromDatabase(second).getDownstreamCount());
+    assertEquals(1, lineageRankDao.retrieveFromDatabase(third).getDownstreamCount());
+    assertEquals(0, lineageRankDao.retrieveFromDatabase(fourth).getDownstreamCount());
+
+    List<LineageRank> byDownstream = lineageRankDao.retrieveTop(false, 2);
+    assertEquals(2, byDownstream.size());
+    assertEquals(first, byDownstream.get(0).getRichVersionId());
+    assertEquals(second, byDownstream.get(1).getRichVersionId());
+
+    // rank flows down the chain, so the last version has the largest PageRank
+    List<LineageRank> byPageRank = lineageRankDao.retrieveTop(true, 4);
+    assertEquals(fourth, byPageRank.get(0).getRichVersionId());
+    assertTrue(byPageRank.get(0).getPageRank() > byPageRank.get(3).getPageRank());
+
+    // a full refresh finds the same ranks, so it writes none of them
+    assertEquals(0, lineageRankJob.refresh(true));
+  }
+
+  @Test(expected = GroundException.class)
+  public void testRetrieveBadLineageRank() throws GroundException {
+    new PostgresLineageRankDao(PostgresTest.dbSource).retrieveFromDatabase(10);
+  }
+}
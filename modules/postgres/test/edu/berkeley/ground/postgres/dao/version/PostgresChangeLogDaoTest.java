@@ -0,0 +1,62 @@
+package edu.berkeley.ground.postgres.dao.version;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.version.Change;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class PostgresChangeLogDaoTest extends PostgresTest {
+
+  public PostgresChangeLogDaoTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testChangeLog() throws GroundException {
+    System.setProperty("ground.changes.enabled", "true");
+
+    try {
+      long nodeId = PostgresTest.createNode("testNode").getId();
+      long firstNodeVersionId = PostgresTest.createNodeVersion(nodeId).getId();
+      long secondNodeVersionId = PostgresTest.createNodeVersion(nodeId, Collections.singletonList(firstNodeVersionId)).getId();
+
+      PostgresChangeLogDao changeLogDao = new PostgresChangeLogDao(PostgresTest.dbSource);
+      List<Change> changes = changeLogDao.retrieve(0, 10);
+      assertEquals(3, changes.size());
+
+      assertEquals("node", changes.get(0).getEntityType());
+      assertEquals(nodeId, changes.get(0).getEntityId());
+      assertNull(changes.get(0).getItemId());
+      assertTrue(changes.get(0).getParentIds().isEmpty());
+
+      assertEquals("node_version", changes.get(1).getEntityType());
+      assertEquals(firstNodeVersionId, changes.get(1).getEntityId());
+      assertEquals(nodeId, (long) changes.get(1).getItemId());
+      assertTrue(changes.get(1).getParentIds().isEmpty());
+
+      assertEquals(secondNodeVersionId, changes.get(2).getEntityId());
+      assertEquals(Collections.singletonList(firstNodeVersionId), changes.get(2).getParentIds());
+
+      // offsets increase in commit order, and a reader resumes after the last one it saw
+      assertTrue(changes.get(0).getOffset() < changes.get(1).getOffset());
+      assertEquals(2, changeLogDao.retrieve(changes.get(0).getOffset(), 10).size());
+      assertEquals(secondNodeVersionId, changeLogDao.retrieve(changes.get(0).getOffset(), 2).get(1).getEntityId());
+      assertTrue(changeLogDao.retrieve(changes.get(2).getOffset(), 10).isEmpty());
+    } finally {
+      System.clearProperty("ground.changes.enabled");
+    }
+  }
+
+  @Test
+  public void testChangeLogDisabled() throws GroundException {
+    // nothing is recorded unless the change log is enabled
+    PostgresTest.createNode("testNode");
+    assertTrue(new PostgresChangeLogDao(PostgresTest.dbSource).retrieve(0, 10).isEmpty());
+  }
+}
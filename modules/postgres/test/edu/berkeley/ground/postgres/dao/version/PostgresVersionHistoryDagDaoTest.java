@@ -19,6 +19,9 @@ import static org.junit.Assert.assertEquals;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import org.junit.Test;
 
 public class PostgresVersionHistoryDagDaoTest extends PostgresTest {
@@ -36,4 +39,39 @@ public class PostgresVersionHistoryDagDaoTest extends PostgresTest {
 
     assertEquals(0, dag.getEdgeIds().size());
   }
+
+  @Test
+  public void testVersionHistoryPages() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+
+    // a chain of four versions, with a fifth branching off the second
+    long first = PostgresTest.createNodeVersion(nodeId).getId();
+    long second = PostgresTest.createNodeVersion(nodeId, Collections.singletonList(first)).getId();
+    long third = PostgresTest.createNodeVersion(nodeId, Collections.singletonList(second)).getId();
+    long fourth = PostgresTest.createNodeVersion(nodeId, Collections.singletonList(third)).getId();
+    long fifth = PostgresTest.createNodeVersion(nodeId, Collections.singletonList(second)).getId();
+
+    PostgresVersionHistoryDagDao dagDao = (PostgresVersionHistoryDagDao) PostgresTest.versionHistoryDagDao;
+
+    List<Long> created = dagDao.retrieveHistory(nodeId, false, -1, Long.MIN_VALUE, 10);
+    assertEquals(Arrays.asList(first, second, third, fourth, fifth), created);
+
+    // each page continues after the last version of the previous one
+    assertEquals(Arrays.asList(first, second), dagDao.retrieveHistory(nodeId, false, -1, Long.MIN_VALUE, 2));
+    assertEquals(Arrays.asList(third, fourth), dagDao.retrieveHistory(nodeId, false, -1, second, 2));
+    assertEquals(Collections.singletonList(fifth), dagDao.retrieveHistory(nodeId, false, -1, fourth, 2));
+
+    assertEquals(Arrays.asList(fifth, fourth, third, second, first), dagDao.retrieveHistory(nodeId, true, -1, Long.MIN_VALUE, 10));
+    assertEquals(Arrays.asList(second, first), dagDao.retrieveHistory(nodeId, true, -1, third, 10));
+
+    assertEquals(Arrays.asList(fourth, fifth), dagDao.retrieveHistory(nodeId, false, 0, Long.MIN_VALUE, 10));
+    assertEquals(Arrays.asList(second, third, fourth, fifth), dagDao.retrieveHistory(nodeId, false, 1, Long.MIN_VALUE, 10));
+    assertEquals(Arrays.asList(fifth, fourth), dagDao.retrieveHistory(nodeId, true, 1, Long.MIN_VALUE, 2));
+    assertEquals(Arrays.asList(third, second), dagDao.retrieveHistory(nodeId, true, 1, fourth, 2));
+
+    // a merge has a row per parent in the history, but appears once
+    long sixth = PostgresTest.createNodeVersion(nodeId, Arrays.asList(fourth, fifth)).getId();
+    assertEquals(Arrays.asList(fifth, sixth), dagDao.retrieveHistory(nodeId, false, -1, fourth, 2));
+    assertEquals(Arrays.asList(sixth, fifth), dagDao.retrieveHistory(nodeId, true, -1, Long.MIN_VALUE, 2));
+  }
 }
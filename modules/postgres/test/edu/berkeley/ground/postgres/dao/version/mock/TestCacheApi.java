@@ -0,0 +1,57 @@
+package edu.berkeley.ground.postgres.dao.version.mock;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import play.cache.CacheApi;
+
+/**
+ * A cache that never expires its entries, so that tests can tell when they are evicted.
+ */
+public class TestCacheApi implements CacheApi {
+
+  private final Map<String, Object> entries = new ConcurrentHashMap<>();
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(String key) {
+    return (T) this.entries.get(key);
+  }
+
+  @Override
+  public <T> T getOrElse(String key, Callable<T> block, int expiration) {
+    return this.getOrElse(key, block);
+  }
+
+  @Override
+  public <T> T getOrElse(String key, Callable<T> block) {
+    T value = this.get(key);
+
+    if (value == null) {
+      try {
+        value = block.call();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+
+      this.set(key, value);
+    }
+
+    return value;
+  }
+
+  @Override
+  public void set(String key, Object value, int expiration) {
+    this.set(key, value);
+  }
+
+  @Override
+  public void set(String key, Object value) {
+    this.entries.put(key, value);
+  }
+
+  @Override
+  public void remove(String key) {
+    this.entries.remove(key);
+  }
+}
@@ -0,0 +1,90 @@
+package edu.berkeley.ground.postgres.jobs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class MachineIdLeaseTest extends PostgresTest {
+
+  public MachineIdLeaseTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testAcquireAndRelease() throws GroundException {
+    MachineIdLease first = MachineIdLease.acquire(PostgresTest.dbSource, 2, 60000);
+    MachineIdLease second = MachineIdLease.acquire(PostgresTest.dbSource, 2, 60000);
+
+    assertNotEquals(first.getMachineId(), second.getMachineId());
+    assertTrue(first.isHeld());
+    assertTrue(first.renew());
+
+    try {
+      MachineIdLease.acquire(PostgresTest.dbSource, 2, 60000);
+      fail();
+    } catch (GroundException e) {
+      assertEquals(ExceptionType.OTHER, e.getExceptionType());
+    }
+
+    // a released machine id is taken by the next instance
+    first.stop();
+    assertFalse(first.isHeld());
+    assertEquals(first.getMachineId(), MachineIdLease.acquire(PostgresTest.dbSource, 2, 60000).getMachineId());
+  }
+
+  @Test
+  public void testContendedAcquire() throws Exception {
+    // instances starting together all get a machine id while there are enough of them
+    int instances = 16;
+    ExecutorService executor = Executors.newFixedThreadPool(instances);
+    CyclicBarrier start = new CyclicBarrier(instances);
+
+    try {
+      List<Future<MachineIdLease>> leases = new ArrayList<>();
+      for (int i = 0; i < instances; i++) {
+        leases.add(executor.submit(() -> {
+          start.await();
+          return MachineIdLease.acquire(PostgresTest.dbSource, instances, 60000);
+        }));
+      }
+
+      Set<Integer> machineIds = new HashSet<>();
+      for (Future<MachineIdLease> lease : leases) {
+        machineIds.add(lease.get().getMachineId());
+      }
+
+      assertEquals(instances, machineIds.size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testExpiredLease() throws Exception {
+    MachineIdLease expired = MachineIdLease.acquire(PostgresTest.dbSource, 1, 1);
+    Thread.sleep(20);
+    assertFalse(expired.isHeld());
+
+    // another instance takes over the machine id, and the old holder cannot renew it
+    MachineIdLease taken = MachineIdLease.acquire(PostgresTest.dbSource, 1, 60000);
+    assertEquals(expired.getMachineId(), taken.getMachineId());
+    assertFalse(expired.renew());
+    assertFalse(expired.isHeld());
+    assertTrue(taken.renew());
+  }
+}
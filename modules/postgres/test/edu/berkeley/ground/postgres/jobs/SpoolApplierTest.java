@@ -0,0 +1,193 @@
+package edu.berkeley.ground.postgres.jobs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.util.WriteSpool;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SpoolApplierTest extends PostgresTest {
+
+  public SpoolApplierTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testApplyOnce() throws Exception {
+    Path path = Files.createTempFile("ground", ".spool");
+    Files.delete(path);
+
+    try {
+      WriteSpool spool = WriteSpool.open(path, 4096, 0);
+      AtomicInteger callbacks = new AtomicInteger();
+
+      spool.append(Collections.singletonList("INSERT INTO version (id) VALUES (300);"),
+        Collections.singletonList(callbacks::incrementAndGet));
+      spool.append(Collections.singletonList("INSERT INTO version (id) VALUES (301);"), Collections.emptyList());
+
+      assertEquals(2, new SpoolApplier(spool, PostgresTest.dbSource, 10).drain());
+      assertEquals(2, this.countVersions(300, 301));
+      assertEquals(0, spool.getLagEntries());
+      assertEquals(1, callbacks.get());
+
+      // writes left in the spool are applied after a restart
+      spool.append(Collections.singletonList("INSERT INTO version (id) VALUES (302);"), Collections.emptyList());
+      spool.close();
+
+      WriteSpool reopened = WriteSpool.open(path, 4096, 0);
+      assertEquals(1, new SpoolApplier(reopened, PostgresTest.dbSource, 10).drain());
+      assertEquals(3, this.countVersions(300, 302));
+
+      // a crash after a write was committed, but before the spool freed it, does not apply it twice
+      reopened.append(Collections.singletonList("INSERT INTO version (id) VALUES (303);"), Collections.emptyList());
+      reopened.close();
+
+      try (Connection con = PostgresTest.dbSource.getConnection()) {
+        con.createStatement().executeUpdate("INSERT INTO version (id) VALUES (303);");
+        con.createStatement().executeUpdate(String.format("UPDATE spool_applied SET seq = 5 WHERE spool_id = %d;", reopened.getSpoolId()));
+      }
+
+      WriteSpool crashed = WriteSpool.open(path, 4096, 0);
+      assertEquals(1, crashed.getLagEntries());
+      assertEquals(1, new SpoolApplier(crashed, PostgresTest.dbSource, 10).drain());
+      assertEquals(0, crashed.getLagEntries());
+      assertEquals(4, this.countVersions(300, 303));
+      crashed.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void testRejectedWriteIsKept() throws Exception {
+    Path path = Files.createTempFile("ground", ".spool");
+    Files.delete(path);
+
+    try (Connection con = PostgresTest.dbSource.getConnection()) {
+      con.createStatement().executeUpdate("INSERT INTO version (id) VALUES (320);");
+
+      WriteSpool spool = WriteSpool.open(path, 4096, 0);
+      spool.append(Collections.singletonList("INSERT INTO version (id) VALUES (320);"), Collections.emptyList());
+      spool.append(Collections.singletonList("INSERT INTO version (id) VALUES (321);"), Collections.emptyList());
+
+      // an acknowledged write is never dropped, and holds up the writes after it
+      SpoolApplier applier = new SpoolApplier(spool, PostgresTest.dbSource, 10);
+      try {
+        applier.drain();
+        fail();
+      } catch (SQLException e) {
+        assertEquals(2, spool.getLagEntries());
+        assertEquals(0, this.countVersions(321, 321));
+      }
+
+      con.createStatement().executeUpdate("DELETE FROM version WHERE id = 320;");
+      assertEquals(2, applier.drain());
+      assertEquals(2, this.countVersions(320, 321));
+      assertEquals(0, spool.getLagEntries());
+      spool.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void testSpoolOnlyVersionsWhoseReadsWereApplied() throws Exception {
+    Path path = Files.createTempFile("ground", ".spool");
+    Files.delete(path);
+
+    WriteSpool spool = WriteSpool.open(path, 65536, 0);
+    WriteSpool.setInstance(PostgresTest.dbSource, spool);
+
+    try {
+      SpoolApplier applier = new SpoolApplier(spool, PostgresTest.dbSource, 10);
+
+      // an item is created on the database
+      long nodeId = PostgresTest.createNode("spooledNode").getId();
+      assertEquals(0, spool.getLagEntries());
+
+      // a root version is spooled
+      long firstId = PostgresTest.createNodeVersion(nodeId).getId();
+      assertEquals(1, spool.getLagEntries());
+
+      // a child reads its parent, so it is refused until the parent is applied
+      try {
+        PostgresTest.createNodeVersion(nodeId, new ArrayList<>(Collections.singletonList(firstId)));
+        fail();
+      } catch (GroundException e) {
+        assertEquals("A version this write depends on is still in the write spool; try again later.", e.getMessage());
+      }
+
+      // a write that is not spooled waits for the spooled writes before it
+      try {
+        PostgresTest.createNode("otherNode");
+        fail();
+      } catch (GroundException e) {
+        assertEquals("The write spool is behind the database; try again later.", e.getMessage());
+      }
+
+      assertEquals(1, applier.drain());
+      long secondId = PostgresTest.createNodeVersion(nodeId, new ArrayList<>(Collections.singletonList(firstId))).getId();
+      assertEquals(1, spool.getLagEntries());
+
+      assertEquals(1, applier.drain());
+      assertEquals(nodeId, PostgresTest.nodeVersionDao.retrieveFromDatabase(secondId).getNodeId());
+      assertEquals(1, PostgresTest.nodeDao.getLeaves("spooledNode").size());
+    } finally {
+      WriteSpool.setInstance(PostgresTest.dbSource, null);
+      spool.close();
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void testApplierSurvivesRuntimeException() throws Exception {
+    Path path = Files.createTempFile("ground", ".spool");
+    Files.delete(path);
+
+    try {
+      WriteSpool spool = WriteSpool.open(path, 4096, 0);
+      spool.append(Collections.singletonList("INSERT INTO version (id) VALUES (310);"), Collections.emptyList());
+
+      // without a database every batch fails with a NullPointerException
+      SpoolApplier applier = new SpoolApplier(spool, null, 10);
+      applier.start();
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (spool.getApplierError() == null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+
+      assertNotNull(spool.getApplierError());
+      assertTrue(spool.isApplierRunning());
+      assertEquals(1, spool.getLagEntries());
+
+      applier.stop();
+      assertFalse(spool.isApplierRunning());
+      spool.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  private int countVersions(long from, long to) throws SQLException {
+    try (Connection con = PostgresTest.dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(
+        String.format("SELECT COUNT(*) FROM version WHERE id BETWEEN %d AND %d;", from, to));
+      resultSet.next();
+      return resultSet.getInt(1);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.util.GroupCommitExecutor.Batch;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+
+public class GroupCommitExecutorTest extends PostgresTest {
+
+  public GroupCommitExecutorTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testFailuresAreIsolated() throws Exception {
+    GroupCommitExecutor executor = new GroupCommitExecutor(PostgresTest.dbSource, 2, 500);
+
+    Batch first = new Batch(Collections.singletonList("INSERT INTO version (id) VALUES (100);"));
+    Batch duplicate = new Batch(Arrays.asList("INSERT INTO version (id) VALUES (102);", "INSERT INTO version (id) VALUES (100);"));
+    Batch last = new Batch(Collections.singletonList("INSERT INTO version (id) VALUES (101);"));
+    executor.commit(Arrays.asList(first, duplicate, last));
+
+    assertEquals(Arrays.asList(100L, 101L), this.getVersionIds(100, 102));
+
+    try {
+      duplicate.getResult().get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof GroundException);
+    }
+  }
+
+  @Test
+  public void testFailedCommitIsNotRetried() throws Exception {
+    GroupCommitExecutor executor = new GroupCommitExecutor(PostgresTest.dbSource, 2, 500);
+
+    try (Connection con = PostgresTest.dbSource.getConnection()) {
+      con.createStatement().execute("CREATE TABLE group_commit_test (id bigint UNIQUE DEFERRABLE INITIALLY DEFERRED);");
+    }
+
+    try {
+      // the duplicate is only detected when the group is committed
+      Batch first = new Batch(Arrays.asList("INSERT INTO version (id) VALUES (300);", "INSERT INTO group_commit_test (id) VALUES (1);"));
+      Batch second = new Batch(Arrays.asList("INSERT INTO version (id) VALUES (301);", "INSERT INTO group_commit_test (id) VALUES (1);"));
+      executor.commit(Arrays.asList(first, second));
+
+      for (Batch batch : Arrays.asList(first, second)) {
+        try {
+          batch.getResult().get();
+          fail();
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof GroundException);
+        }
+      }
+
+      assertEquals(Collections.emptyList(), this.getVersionIds(300, 301));
+    } finally {
+      try (Connection con = PostgresTest.dbSource.getConnection()) {
+        con.createStatement().execute("DROP TABLE group_commit_test;");
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    GroupCommitExecutor executor = new GroupCommitExecutor(PostgresTest.dbSource, 50, 500);
+    executor.start();
+
+    try {
+      List<CompletableFuture<Void>> requests = new ArrayList<>();
+      for (long id = 200; id < 210; id++) {
+        String sql = String.format("INSERT INTO version (id) VALUES (%d);", id);
+
+        requests.add(CompletableFuture.runAsync(() -> {
+          try {
+            executor.execute(Collections.singletonList(sql));
+          } catch (GroundException e) {
+            throw new IllegalStateException(e);
+          }
+        }));
+      }
+
+      // every request returns once it has been committed
+      CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).get();
+      assertEquals(10, this.getVersionIds(200, 209).size());
+    } finally {
+      executor.stop();
+    }
+
+    // once stopped, requests are committed on their own
+    executor.execute(Collections.singletonList("INSERT INTO version (id) VALUES (210);"));
+    assertEquals(Collections.singletonList(210L), this.getVersionIds(210, 210));
+  }
+
+  private List<Long> getVersionIds(long from, long to) throws SQLException {
+    List<Long> ids = new ArrayList<>();
+
+    try (Connection con = PostgresTest.dbSource.getConnection()) {
+      ResultSet resultSet = con.createStatement().executeQuery(
+        String.format("SELECT id FROM version WHERE id BETWEEN %d AND %d ORDER BY id;", from, to));
+
+      while (resultSet.next()) {
+        ids.add(resultSet.getLong(1));
+      }
+    }
+
+    return ids;
+  }
+}
@@ -0,0 +1,98 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableMap;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.core.Node;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.core.PostgresNodeDao;
+import java.util.Collections;
+import java.util.HashMap;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.mvc.Http;
+
+public class ReplicaRouterTest extends PostgresTest {
+
+  public ReplicaRouterTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testParseLsn() {
+    assertEquals(0x16B374D848L, ReplicaRouter.parseLsn("16/B374D848"));
+    assertEquals(0L, ReplicaRouter.parseLsn("0/0"));
+  }
+
+  @Test
+  public void testRouting() throws Exception {
+    // a second pool on the same database stands in for a replica that is always caught up
+    Database replica = Databases.createFrom("org.postgresql.Driver", "jdbc:postgresql://localhost:5432/test",
+      ImmutableMap.of("username", "test", "password", "test"));
+    ReplicaRouter router = new ReplicaRouter(PostgresTest.dbSource, Collections.singletonList(replica));
+    ReplicaRouter.setInstance(router);
+
+    try {
+      // outside of a request, e.g. in a background job
+      assertSame(PostgresTest.dbSource, router.forRead());
+
+      Http.Context.current.set(new Http.Context(new Http.RequestBuilder().method("GET")));
+      assertSame(replica, router.forRead());
+      assertSame(replica, PostgresUtils.readSource(PostgresTest.dbSource));
+
+      // what is cached across requests is read from the primary
+      assertSame(PostgresTest.dbSource, ReplicaRouter.onPrimary(() -> PostgresUtils.readSource(PostgresTest.dbSource)));
+      assertSame(replica, router.forRead());
+
+      Http.Context.current.set(new Http.Context(new Http.RequestBuilder().method("POST")));
+      assertSame(PostgresTest.dbSource, router.forRead());
+
+      // a write returns the position the client has to read from next
+      Http.Context context = new Http.Context(new Http.RequestBuilder().method("POST"));
+      Http.Context.current.set(context);
+      PostgresTest.createNode("testNode");
+      String lsn = context.response().getHeaders().get(ReplicaRouter.LSN_HEADER);
+      assertNotNull(lsn);
+
+      Http.Context.current.set(new Http.Context(new Http.RequestBuilder().method("GET").header(ReplicaRouter.LSN_HEADER, lsn)));
+      assertSame(replica, router.forRead());
+
+      // so does a write through the sharded database that controllers use
+      context = new Http.Context(new Http.RequestBuilder().method("POST"));
+      Http.Context.current.set(context);
+      new PostgresNodeDao(new ShardedDatabase(PostgresTest.dbSource), PostgresTest.idGenerator)
+        .create(new Node(0L, null, "shardedNode", new HashMap<>()));
+      assertNotNull(context.response().getHeaders().get(ReplicaRouter.LSN_HEADER));
+
+      // a replica that has not replayed the client's write is skipped
+      Http.Context.current.set(new Http.Context(new Http.RequestBuilder().method("GET").header(ReplicaRouter.LSN_HEADER, "FFFF/0")));
+      assertSame(PostgresTest.dbSource, router.forRead());
+
+      // other databases are never routed
+      assertSame(replica, PostgresUtils.readSource(replica));
+    } finally {
+      Http.Context.current.remove();
+      ReplicaRouter.setInstance(null);
+      replica.shutdown();
+    }
+  }
+
+  @Test
+  public void testNoReplicas() {
+    ReplicaRouter router = new ReplicaRouter(PostgresTest.dbSource, Collections.emptyList());
+    Http.Context context = new Http.Context(new Http.RequestBuilder().method("GET"));
+    Http.Context.current.set(context);
+
+    try {
+      assertSame(PostgresTest.dbSource, router.forRead());
+      assertNull(context.response().getHeaders().get(ReplicaRouter.LSN_HEADER));
+    } finally {
+      Http.Context.current.remove();
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.core.Node;
+import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.core.PostgresNodeDao;
+import edu.berkeley.ground.postgres.dao.core.PostgresNodeVersionDao;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+
+public class ShardRouterTest extends PostgresTest {
+
+  public ShardRouterTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testPlacement() {
+    Database db = PostgresTest.dbSource;
+    ShardRouter router = new ShardRouter(Arrays.asList(db, db, db));
+    ShardRouter grown = new ShardRouter(Arrays.asList(db, db, db, db));
+
+    Set<Integer> used = new HashSet<>();
+    for (int i = 0; i < 300; i++) {
+      String sourceKey = "key" + i;
+      int shard = router.place(sourceKey);
+
+      assertEquals(shard, router.place(sourceKey));
+      used.add(shard);
+
+      // adding a shard only moves keys to the new shard
+      int grownShard = grown.place(sourceKey);
+      assertTrue(grownShard == shard || grownShard == 3);
+    }
+
+    assertEquals(3, used.size());
+  }
+
+  @Test
+  public void testDirectory() throws GroundException {
+    Database db = PostgresTest.dbSource;
+    ShardRouter router = new ShardRouter(Arrays.asList(db, db));
+
+    router.register("node", "testNode", 5, 1);
+    assertEquals(1, router.shardOf("node", "testNode"));
+    assertEquals(1, (int) router.shardOf(5));
+    assertNull(router.shardOf(6));
+
+    // the directory outlives the router's cache, and an unknown item falls back to the ring
+    ShardRouter restarted = new ShardRouter(Arrays.asList(db, db));
+    assertEquals(1, restarted.shardOf("node", "testNode"));
+    assertEquals(1, (int) restarted.shardOf(5));
+    assertEquals(restarted.place("testNode"), restarted.shardOf("edge", "testNode"));
+
+    // registering again keeps the first entry
+    restarted.register("node", "testNode", 6, 0);
+    assertEquals(1, new ShardRouter(Arrays.asList(db, db)).shardOf("node", "testNode"));
+
+    // a reserved source key is routed to its shard until its item is registered
+    assertTrue(router.reserve("node", "reservedNode", 1));
+    assertFalse(router.reserve("node", "reservedNode", 0));
+    assertEquals(1, router.shardOf("node", "reservedNode"));
+    router.register("node", "reservedNode", 7, 1);
+    assertEquals(1, (int) restarted.shardOf(7));
+
+    // an edge can only connect items on one shard
+    router.register("node", "otherNode", 8, 0);
+    assertEquals(1, router.sharedShardOf("edge", Arrays.asList(5L, 7L)));
+
+    try {
+      router.sharedShardOf("edge", Arrays.asList(5L, 8L));
+      fail();
+    } catch (GroundException e) {
+      assertEquals(ExceptionType.OTHER, e.getExceptionType());
+    }
+
+    try {
+      router.sharedShardOf("edge", Arrays.asList(5L, 9L));
+      fail();
+    } catch (GroundException e) {
+      assertEquals(ExceptionType.ITEM_NOT_FOUND, e.getExceptionType());
+    }
+  }
+
+  @Test
+  public void testRouting() throws Exception {
+    // a second pool on the same database stands in for a second shard
+    Database second = Databases.createFrom("org.postgresql.Driver", "jdbc:postgresql://localhost:5432/test",
+      ImmutableMap.of("username", "test", "password", "test"));
+    List<Database> shards = Arrays.asList(PostgresTest.dbSource, second);
+    ShardRouter router = new ShardRouter(shards);
+    ShardRouter.setInstance(router);
+
+    try {
+      ShardedDatabase sharded = new ShardedDatabase(PostgresTest.dbSource);
+      PostgresNodeDao nodeDao = new PostgresNodeDao(sharded, PostgresTest.idGenerator);
+      PostgresNodeVersionDao nodeVersionDao = new PostgresNodeVersionDao(sharded, PostgresTest.idGenerator);
+
+      Node node = ShardRouter.onNewItem("node", "testNode",
+        () -> nodeDao.create(new Node(0L, null, "testNode", new HashMap<String, Tag>())));
+      int shard = router.place("testNode");
+      assertEquals(shard, (int) router.shardOf(node.getId()));
+
+      // a failed creation drops its reservation of the source key
+      try {
+        ShardRouter.onNewItem("node", "failedNode", () -> {
+          throw new GroundException(ExceptionType.OTHER, "failed");
+        });
+        fail();
+      } catch (GroundException e) {
+        assertTrue(router.reserve("node", "failedNode", 0));
+      }
+
+      ShardRouter.onItem(node.getId(), () -> {
+        assertSame(shards.get(shard), sharded.current());
+        return null;
+      });
+      assertSame(PostgresTest.dbSource, sharded.current());
+
+      // versions are found on whichever shard has them
+      try {
+        ShardRouter.onAnyShard(() -> nodeVersionDao.retrieveFromDatabase(1234));
+        fail();
+      } catch (GroundException e) {
+        assertEquals(ExceptionType.VERSION_NOT_FOUND, e.getExceptionType());
+      }
+
+      // the pages of every shard are merged, and cut to the limit
+      KeysetStream.PageFetcher fetcher = ShardRouter.onAllShards((afterId, limit) -> Arrays.asList(afterId + 1, afterId + 2, afterId + 3));
+      assertEquals(Arrays.asList(1L, 2L), fetcher.fetch(0, 2));
+      assertEquals(Collections.singletonList(7L), ShardRouter.onAllShards(() -> Collections.singletonList(7L)));
+    } finally {
+      ShardRouter.setInstance(null);
+      second.shutdown();
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.postgres.util.WriteSpool.Entry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class WriteSpoolTest {
+
+  @Test
+  public void testAppendAndRecover() throws Exception {
+    Path path = Files.createTempFile("ground", ".spool");
+    Files.delete(path);
+
+    try {
+      WriteSpool spool = WriteSpool.open(path, 4096, 0);
+      AtomicBoolean called = new AtomicBoolean();
+
+      assertEquals(1, spool.append(Arrays.asList("INSERT 1;", "INSERT 2;"), Collections.singletonList(() -> called.set(true))));
+      assertEquals(2, spool.append(Collections.singletonList("INSERT 3;"), Collections.emptyList()));
+      assertEquals(2, spool.getLagEntries());
+
+      List<Entry> entries = spool.peek(10);
+      assertEquals(Arrays.asList("INSERT 1;", "INSERT 2;"), entries.get(0).getStatements());
+      spool.markApplied(entries.get(0));
+      spool.takeCallbacks(1).forEach(Runnable::run);
+      assertTrue(called.get());
+      long spoolId = spool.getSpoolId();
+      spool.close();
+
+      // the write that was not applied is found again after a restart
+      WriteSpool reopened = WriteSpool.open(path, 4096, 0);
+      assertEquals(spoolId, reopened.getSpoolId());
+      assertEquals(1, reopened.getLagEntries());
+      assertEquals(Collections.singletonList("INSERT 3;"), reopened.peek(10).get(0).getStatements());
+      assertEquals(3, reopened.append(Collections.singletonList("INSERT 4;"), Collections.emptyList()));
+
+      // the largest id generated survives a restart, and never goes back
+      assertEquals(0, reopened.getIssuedId());
+      reopened.recordIssuedId(42);
+      reopened.recordIssuedId(41);
+      reopened.append(Collections.singletonList("INSERT 5;"), Collections.emptyList());
+      reopened.close();
+
+      WriteSpool restarted = WriteSpool.open(path, 4096, 0);
+      assertEquals(42, restarted.getIssuedId());
+      assertEquals(3, restarted.getLagEntries());
+      restarted.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void testAwaitApplied() throws Exception {
+    Path path = Files.createTempFile("ground", ".spool");
+    Files.delete(path);
+
+    try {
+      WriteSpool spool = WriteSpool.open(path, 4096, 0);
+      spool.append(Collections.singletonList("INSERT 7;"), Collections.emptyList(), Collections.singletonList(7L));
+
+      spool.awaitApplied(Collections.singletonList(8L));
+      this.assertPending(() -> spool.awaitApplied(Collections.singletonList(7L)));
+      this.assertPending(spool::awaitDrained);
+      spool.close();
+
+      // the ids of the writes recovered after a restart are not known
+      WriteSpool reopened = WriteSpool.open(path, 4096, 0);
+      this.assertPending(() -> reopened.awaitApplied(Collections.singletonList(8L)));
+
+      reopened.markApplied(reopened.peek(1).get(0));
+      reopened.awaitApplied(Arrays.asList(7L, 8L));
+      reopened.awaitDrained();
+      reopened.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void testWrapAndBackpressure() throws Exception {
+    Path path = Files.createTempFile("ground", ".spool");
+    Files.delete(path);
+
+    try {
+      // room for three records of 124 bytes after the header
+      WriteSpool spool = WriteSpool.open(path, WriteSpool.HEADER_SIZE + 400, 0);
+      String statement = new String(new char[100]).replace('\0', 'x');
+
+      for (int i = 0; i < 3; i++) {
+        spool.append(Collections.singletonList(statement + i), Collections.emptyList());
+      }
+
+      try {
+        spool.append(Collections.singletonList(statement), Collections.emptyList());
+        fail();
+      } catch (GroundException e) {
+        assertEquals(ExceptionType.OTHER, e.getExceptionType());
+      }
+
+      // applying the first two writes frees space at the start of the file
+      spool.markApplied(spool.peek(2).get(1));
+      spool.append(Collections.singletonList(statement + 3), Collections.emptyList());
+      spool.close();
+
+      WriteSpool reopened = WriteSpool.open(path, WriteSpool.HEADER_SIZE + 400, 0);
+      List<Entry> entries = reopened.peek(10);
+      assertEquals(2, entries.size());
+      assertEquals(Collections.singletonList(statement + 2), entries.get(0).getStatements());
+      assertEquals(Collections.singletonList(statement + 3), entries.get(1).getStatements());
+      assertEquals(4, entries.get(1).getSeq());
+      reopened.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  private void assertPending(PendingCheck check) {
+    try {
+      check.run();
+      fail();
+    } catch (GroundException e) {
+      assertEquals(ExceptionType.OTHER, e.getExceptionType());
+    }
+  }
+
+  private interface PendingCheck {
+    void run() throws GroundException;
+  }
+}
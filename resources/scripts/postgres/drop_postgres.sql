@@ -10,20 +10,32 @@
 -- See the License for the specific language governing permissions and
 -- limitations under the License.
 
+DROP TABLE spool_applied;
+DROP TABLE machine_lease;
+DROP TABLE shard_directory;
+DROP TABLE change_log;
+DROP TABLE lineage_rank;
+DROP TABLE lineage_rank_state;
 DROP TABLE lineage_graph_version_edge;
+DROP TABLE lineage_graph_version_edge_delta;
+DROP TABLE lineage_graph_version_level;
 DROP TABLE lineage_graph_version;
 DROP TABLE lineage_graph;
+DROP TABLE principal_activity;
 DROP TABLE lineage_edge_version;
 DROP TABLE lineage_edge;
 DROP TABLE principal;
 DROP TABLE graph_version_edge;
+DROP TABLE graph_version_edge_delta;
 DROP TABLE graph_version;
+DROP TABLE edge_version_validity;
 DROP TABLE edge_version;
 DROP TABLE node_version;
 DROP TABLE graph;
 DROP TABLE edge;
 DROP TABLE node;
 DROP TABLE rich_version_tag;
+DROP TABLE rich_version_tag_delta;
 DROP TABLE rich_version_external_parameter;
 DROP TABLE rich_version;
 DROP TABLE structure_version_attribute;
@@ -15,10 +15,11 @@
 -- limitations under the License.
 
 -- VERSIONS
-CREATE TYPE data_type as enum ('integer', 'string', 'boolean');
+CREATE TYPE data_type as enum ('integer', 'string', 'boolean', 'long');
 
 CREATE TABLE IF NOT EXISTS version (
-    id bigint NOT NULL PRIMARY KEY
+    id bigint NOT NULL PRIMARY KEY,
+    created_at timestamptz NOT NULL DEFAULT now()
 );
 
 CREATE TABLE IF NOT EXISTS version_successor (
@@ -28,24 +29,44 @@ CREATE TABLE IF NOT EXISTS version_successor (
     CONSTRAINT version_successor_unique_endpoints UNIQUE (from_version_id, to_version_id)
 );
 
+CREATE INDEX IF NOT EXISTS version_successor_to_version ON version_successor (to_version_id);
+
 CREATE TABLE IF NOT EXISTS item (
-    id bigint NOT NULL PRIMARY KEY
+    id bigint NOT NULL PRIMARY KEY,
+    tags jsonb,
+    created_at timestamptz NOT NULL DEFAULT now()
 );
 
+-- only populated when ground.tags.storage is jsonb
+CREATE INDEX IF NOT EXISTS item_tags ON item USING GIN (tags);
+
 CREATE TABLE IF NOT EXISTS item_tag (
     item_id bigint NOT NULL REFERENCES item(id),
     key varchar NOT NULL,
     value varchar,
     type data_type,
+    long_value bigint,
+    boolean_value boolean,
     CONSTRAINT item_tag_pkey PRIMARY KEY (item_id, key)
 );
 
+CREATE INDEX IF NOT EXISTS item_tag_key_value ON item_tag (key, md5(value));
+CREATE INDEX IF NOT EXISTS item_tag_key_long_value ON item_tag (key, long_value) WHERE long_value IS NOT NULL;
+CREATE INDEX IF NOT EXISTS item_tag_key_boolean_value ON item_tag (key, boolean_value) WHERE boolean_value IS NOT NULL;
+
+-- version_id and created_at are the id and creation time of the successor's to version, so that
+-- the versions of an item that existed at a point in time, and the pages of its history, can be
+-- found from the item's history alone
 CREATE TABLE IF NOT EXISTS version_history_dag (
     item_id bigint NOT NULL REFERENCES item(id),
     version_successor_id bigint NOT NULL REFERENCES version_successor(id),
+    version_id bigint NOT NULL,
+    created_at timestamptz NOT NULL DEFAULT now(),
     CONSTRAINT version_history_dag_pkey PRIMARY KEY (item_id, version_successor_id)
 );
 
+CREATE INDEX IF NOT EXISTS version_history_dag_created_at ON version_history_dag (item_id, created_at, version_id);
+
 -- MODELS
 
 CREATE TABLE IF NOT EXISTS structure (
@@ -69,9 +90,20 @@ CREATE TABLE IF NOT EXISTS structure_version_attribute (
 CREATE TABLE IF NOT EXISTS rich_version (
     id bigint NOT NULL PRIMARY KEY REFERENCES version(id),
     structure_version_id bigint REFERENCES structure_version(id),
-    reference varchar
+    reference varchar,
+    tags jsonb,
+    parameters jsonb,
+    content_hash char(64),
+    tag_base_id bigint REFERENCES rich_version(id),
+    tag_chain_length int NOT NULL DEFAULT 0
 );
 
+CREATE INDEX IF NOT EXISTS rich_version_content_hash ON rich_version (content_hash) WHERE content_hash IS NOT NULL;
+CREATE INDEX IF NOT EXISTS rich_version_tag_base ON rich_version (tag_base_id) WHERE tag_base_id IS NOT NULL;
+
+-- only populated when ground.tags.storage is jsonb
+CREATE INDEX IF NOT EXISTS rich_version_tags ON rich_version USING GIN (tags);
+
 CREATE TABLE IF NOT EXISTS rich_version_external_parameter (
     rich_version_id bigint NOT NULL REFERENCES rich_version(id),
     key varchar NOT NULL,
@@ -84,9 +116,29 @@ CREATE TABLE IF NOT EXISTS rich_version_tag (
     key varchar NOT NULL,
     value varchar,
     type data_type,
+    long_value bigint,
+    boolean_value boolean,
     CONSTRAINT rich_version_tag_pkey PRIMARY KEY (rich_version_id, key)
 );
 
+CREATE INDEX IF NOT EXISTS rich_version_tag_key_value ON rich_version_tag (key, md5(value));
+CREATE INDEX IF NOT EXISTS rich_version_tag_key_long_value ON rich_version_tag (key, long_value) WHERE long_value IS NOT NULL;
+CREATE INDEX IF NOT EXISTS rich_version_tag_key_boolean_value ON rich_version_tag (key, boolean_value) WHERE boolean_value IS NOT NULL;
+
+-- the tags of a version stored as changes to the tags of rich_version.tag_base_id
+CREATE TABLE IF NOT EXISTS rich_version_tag_delta (
+    rich_version_id bigint NOT NULL REFERENCES rich_version(id),
+    key varchar NOT NULL,
+    value varchar,
+    type data_type,
+    long_value bigint,
+    boolean_value boolean,
+    removed boolean NOT NULL DEFAULT false,
+    CONSTRAINT rich_version_tag_delta_pkey PRIMARY KEY (rich_version_id, key)
+);
+
+CREATE INDEX IF NOT EXISTS rich_version_tag_delta_key ON rich_version_tag_delta (key) WHERE NOT removed;
+
 CREATE TABLE IF NOT EXISTS node (
     item_id bigint NOT NULL PRIMARY KEY REFERENCES item(id),
     source_key varchar UNIQUE,
@@ -101,6 +153,10 @@ CREATE TABLE IF NOT EXISTS edge (
     name varchar
 );
 
+-- the outgoing and incoming edges of a node, in id order for pagination
+CREATE INDEX IF NOT EXISTS edge_from_node ON edge (from_node_id, item_id);
+CREATE INDEX IF NOT EXISTS edge_to_node ON edge (to_node_id, item_id);
+
 
 CREATE TABLE IF NOT EXISTS graph (
     item_id bigint NOT NULL PRIMARY KEY REFERENCES item(id),
@@ -110,7 +166,8 @@ CREATE TABLE IF NOT EXISTS graph (
 
 CREATE TABLE IF NOT EXISTS node_version (
     id bigint NOT NULL PRIMARY KEY REFERENCES rich_version(id),
-    node_id bigint NOT NULL REFERENCES node(item_id)
+    node_id bigint NOT NULL REFERENCES node(item_id),
+    ordinal bigint NOT NULL DEFAULT 1
 );
 
 CREATE TABLE IF NOT EXISTS edge_version (
@@ -122,17 +179,51 @@ CREATE TABLE IF NOT EXISTS edge_version (
     to_node_version_end_id bigint REFERENCES node_version(id)
 );
 
+-- the edge versions incident to a node version
+CREATE INDEX IF NOT EXISTS edge_version_from_node_version ON edge_version (from_node_version_start_id);
+CREATE INDEX IF NOT EXISTS edge_version_to_node_version ON edge_version (to_node_version_start_id);
+
+-- the node and the ordinal of the start version of each endpoint of an edge version
+CREATE TABLE IF NOT EXISTS edge_version_validity (
+    edge_version_id bigint NOT NULL REFERENCES edge_version(id),
+    node_id bigint NOT NULL REFERENCES node(item_id),
+    outgoing boolean NOT NULL,
+    start_ordinal bigint NOT NULL,
+    CONSTRAINT edge_version_validity_pkey PRIMARY KEY (edge_version_id, outgoing)
+);
+
+CREATE INDEX IF NOT EXISTS edge_version_validity_node ON edge_version_validity (node_id, edge_version_id);
+CREATE INDEX IF NOT EXISTS edge_version_validity_node_ordinal ON edge_version_validity (node_id, start_ordinal);
+
 CREATE TABLE IF NOT EXISTS graph_version (
     id bigint NOT NULL PRIMARY KEY REFERENCES rich_version(id),
-    graph_id bigint NOT NULL REFERENCES graph(item_id)
+    graph_id bigint NOT NULL REFERENCES graph(item_id),
+    edge_base_id bigint REFERENCES graph_version(id),
+    edge_chain_length int NOT NULL DEFAULT 0,
+    edge_bitmap bytea
 );
 
+-- the full edge sets of graph versions stored as snapshots, and of bitmap versions without a parent
 CREATE TABLE IF NOT EXISTS graph_version_edge (
     graph_version_id bigint NOT NULL REFERENCES graph_version(id),
     edge_version_id bigint NOT NULL REFERENCES edge_version(id),
     CONSTRAINT graph_version_edge_pkey PRIMARY KEY (graph_version_id, edge_version_id)
 );
 
+-- reverse membership: the graph versions that contain an edge version
+CREATE INDEX IF NOT EXISTS graph_version_edge_edge_version ON graph_version_edge (edge_version_id);
+CREATE INDEX IF NOT EXISTS graph_version_edge_base ON graph_version (edge_base_id) WHERE edge_base_id IS NOT NULL;
+
+-- the edges added to or removed from the edge set of edge_base_id by the other graph versions
+CREATE TABLE IF NOT EXISTS graph_version_edge_delta (
+    graph_version_id bigint NOT NULL REFERENCES graph_version(id),
+    edge_version_id bigint NOT NULL REFERENCES edge_version(id),
+    removed boolean NOT NULL DEFAULT false,
+    CONSTRAINT graph_version_edge_delta_pkey PRIMARY KEY (graph_version_id, edge_version_id)
+);
+
+CREATE INDEX IF NOT EXISTS graph_version_edge_delta_edge_version ON graph_version_edge_delta (edge_version_id) WHERE NOT removed;
+
 -- USAGE
 
 CREATE TABLE IF NOT EXISTS principal (
@@ -152,9 +243,25 @@ CREATE TABLE IF NOT EXISTS lineage_edge_version (
     lineage_edge_id bigint NOT NULL REFERENCES lineage_edge(item_id),
     from_rich_version_id bigint NOT NULL REFERENCES rich_version(id),
     to_rich_version_id bigint NOT NULL REFERENCES rich_version(id),
-    principal_id bigint REFERENCES node_version(id)
+    principal_id bigint REFERENCES node_version(id),
+    created_at timestamptz NOT NULL DEFAULT now()
 );
 
+CREATE INDEX IF NOT EXISTS lineage_edge_version_principal ON lineage_edge_version (principal_id, created_at, id)
+    WHERE principal_id IS NOT NULL;
+
+-- the number of lineage edge versions each principal created per lineage edge and hour (in UTC),
+-- kept up to date as lineage edge versions are created
+CREATE TABLE IF NOT EXISTS principal_activity (
+    principal_id bigint NOT NULL REFERENCES node_version(id),
+    lineage_edge_id bigint NOT NULL REFERENCES lineage_edge(item_id),
+    bucket timestamp NOT NULL,
+    lineage_edge_version_count bigint NOT NULL,
+    CONSTRAINT principal_activity_pkey PRIMARY KEY (principal_id, bucket, lineage_edge_id)
+);
+
+CREATE INDEX IF NOT EXISTS principal_activity_bucket ON principal_activity (bucket);
+
 CREATE TABLE IF NOT EXISTS lineage_graph (
     item_id bigint NOT NULL PRIMARY KEY REFERENCES item(id),
     source_key varchar UNIQUE,
@@ -163,7 +270,12 @@ CREATE TABLE IF NOT EXISTS lineage_graph (
 
 CREATE TABLE IF NOT EXISTS lineage_graph_version (
     id bigint NOT NULL PRIMARY KEY REFERENCES rich_version(id),
-    lineage_graph_id bigint NOT NULL REFERENCES lineage_graph(item_id)
+    lineage_graph_id bigint NOT NULL REFERENCES lineage_graph(item_id),
+    edge_base_id bigint REFERENCES lineage_graph_version(id),
+    edge_chain_length int NOT NULL DEFAULT 0,
+    edge_bitmap bytea,
+    level_base_id bigint REFERENCES lineage_graph_version(id),
+    level_chain_length int
 );
 
 CREATE TABLE IF NOT EXISTS lineage_graph_version_edge (
@@ -172,6 +284,92 @@ CREATE TABLE IF NOT EXISTS lineage_graph_version_edge (
     CONSTRAINT lineage_graph_version_edge_pkey PRIMARY KEY (lineage_graph_version_id, lineage_edge_version_id)
 );
 
+CREATE INDEX IF NOT EXISTS lineage_graph_version_edge_edge_version ON lineage_graph_version_edge (lineage_edge_version_id);
+CREATE INDEX IF NOT EXISTS lineage_graph_version_edge_base ON lineage_graph_version (edge_base_id) WHERE edge_base_id IS NOT NULL;
+
+CREATE TABLE IF NOT EXISTS lineage_graph_version_edge_delta (
+    lineage_graph_version_id bigint NOT NULL REFERENCES lineage_graph_version(id),
+    lineage_edge_version_id bigint NOT NULL REFERENCES lineage_edge_version(id),
+    removed boolean NOT NULL DEFAULT false,
+    CONSTRAINT lineage_graph_version_edge_delta_pkey PRIMARY KEY (lineage_graph_version_id, lineage_edge_version_id)
+);
+
+CREATE INDEX IF NOT EXISTS lineage_graph_version_edge_delta_edge_version ON lineage_graph_version_edge_delta (lineage_edge_version_id)
+    WHERE NOT removed;
+
+-- the levels of the rich versions in a topological order of a lineage graph version, stored when
+-- the version is created with ground.lineage.toposort.enabled; a version with a level_base_id only
+-- stores the levels that differ from its base, where a NULL level removes a rich version of the
+-- base, and a version without a level_chain_length has no stored levels
+CREATE TABLE IF NOT EXISTS lineage_graph_version_level (
+    lineage_graph_version_id bigint NOT NULL REFERENCES lineage_graph_version(id),
+    rich_version_id bigint NOT NULL,
+    level int,
+    CONSTRAINT lineage_graph_version_level_pkey PRIMARY KEY (lineage_graph_version_id, rich_version_id)
+);
+
+-- the downstream reach and the centrality of the rich versions in the lineage graph, computed by
+-- the lineage rank job; rows are derived data and may lag behind the lineage edges
+CREATE TABLE IF NOT EXISTS lineage_rank (
+    rich_version_id bigint NOT NULL PRIMARY KEY,
+    downstream_count bigint NOT NULL,
+    page_rank double precision NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS lineage_rank_downstream_count ON lineage_rank (downstream_count DESC, rich_version_id);
+CREATE INDEX IF NOT EXISTS lineage_rank_page_rank ON lineage_rank (page_rank DESC, rich_version_id);
+
+-- the lineage edge versions the stored ranks were computed from
+CREATE TABLE IF NOT EXISTS lineage_rank_state (
+    id int NOT NULL PRIMARY KEY,
+    edge_bitmap bytea NOT NULL,
+    refreshed_at timestamp NOT NULL
+);
+
+-- CHANGE LOG
+
+-- every item and version created, in the order they were committed; the id is the offset that
+-- consumers of the change feed resume from
+CREATE TABLE IF NOT EXISTS change_log (
+    id bigserial NOT NULL PRIMARY KEY,
+    entity_type varchar NOT NULL,
+    entity_id bigint NOT NULL,
+    item_id bigint,
+    parent_ids bigint[] NOT NULL,
+    created_at timestamptz NOT NULL DEFAULT now()
+);
+
+-- SHARDING
+
+-- the shard each item was placed on, kept on the first shard only; the source key is reserved
+-- before the item is created, and item_id is filled in once it exists, after which items never
+-- move and rows are never changed
+CREATE TABLE IF NOT EXISTS shard_directory (
+    item_type varchar NOT NULL,
+    source_key varchar NOT NULL,
+    item_id bigint UNIQUE,
+    shard int NOT NULL,
+    CONSTRAINT shard_directory_pkey PRIMARY KEY (item_type, source_key)
+);
+
+-- MACHINE ID LEASES
+
+-- the IdGenerator machine ids held by running instances; a lease that was not renewed before it
+-- expires may be taken by another instance
+CREATE TABLE IF NOT EXISTS machine_lease (
+    machine_id int NOT NULL PRIMARY KEY,
+    holder varchar NOT NULL,
+    expires_at timestamptz NOT NULL
+);
+
+-- WRITE SPOOLS
+
+-- the last write applied from each local write spool file, updated in the transaction that applies it
+CREATE TABLE IF NOT EXISTS spool_applied (
+    spool_id bigint NOT NULL PRIMARY KEY,
+    seq bigint NOT NULL
+);
+
 -- CREATE EMPTY VERSION
 
 INSERT INTO version(id) values (0);
@@ -0,0 +1,33 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Run on every shard after postgres.sql when ground.db.shards is set. An item, its versions, tags
+-- and history live on one shard, but edges, graphs, lineage edges, lineage graphs and rich
+-- versions may refer to items and versions on other shards, so those references cannot be foreign
+-- keys.
+
+ALTER TABLE rich_version DROP CONSTRAINT IF EXISTS rich_version_structure_version_id_fkey;
+ALTER TABLE edge DROP CONSTRAINT IF EXISTS edge_from_node_id_fkey;
+ALTER TABLE edge DROP CONSTRAINT IF EXISTS edge_to_node_id_fkey;
+ALTER TABLE edge_version DROP CONSTRAINT IF EXISTS edge_version_from_node_version_start_id_fkey;
+ALTER TABLE edge_version DROP CONSTRAINT IF EXISTS edge_version_from_node_version_end_id_fkey;
+ALTER TABLE edge_version DROP CONSTRAINT IF EXISTS edge_version_to_node_version_start_id_fkey;
+ALTER TABLE edge_version DROP CONSTRAINT IF EXISTS edge_version_to_node_version_end_id_fkey;
+ALTER TABLE edge_version_validity DROP CONSTRAINT IF EXISTS edge_version_validity_node_id_fkey;
+ALTER TABLE graph_version_edge DROP CONSTRAINT IF EXISTS graph_version_edge_edge_version_id_fkey;
+ALTER TABLE graph_version_edge_delta DROP CONSTRAINT IF EXISTS graph_version_edge_delta_edge_version_id_fkey;
+ALTER TABLE lineage_edge_version DROP CONSTRAINT IF EXISTS lineage_edge_version_from_rich_version_id_fkey;
+ALTER TABLE lineage_edge_version DROP CONSTRAINT IF EXISTS lineage_edge_version_to_rich_version_id_fkey;
+ALTER TABLE lineage_edge_version DROP CONSTRAINT IF EXISTS lineage_edge_version_principal_id_fkey;
+ALTER TABLE principal_activity DROP CONSTRAINT IF EXISTS principal_activity_principal_id_fkey;
+ALTER TABLE lineage_graph_version_edge DROP CONSTRAINT IF EXISTS lineage_graph_version_edge_lineage_edge_version_id_fkey;
+ALTER TABLE lineage_graph_version_edge_delta DROP CONSTRAINT IF EXISTS lineage_graph_version_edge_delta_lineage_edge_version_id_fkey;